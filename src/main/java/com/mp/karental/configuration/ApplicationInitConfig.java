@@ -1,9 +1,13 @@
 package com.mp.karental.configuration;
 
 import com.mp.karental.constant.ERole;
+import com.mp.karental.entity.Car;
 import com.mp.karental.entity.Role;
 import com.mp.karental.logging.LoggingConfig;
+import com.mp.karental.repository.CarRepository;
 import com.mp.karental.repository.RoleRepository;
+import com.mp.karental.service.BookingSlotService;
+import com.mp.karental.service.CarAvailabilityIndex;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -12,6 +16,8 @@ import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+
 /**
  * This class contains init configuration for the application and would be run fist.
  *
@@ -27,6 +33,8 @@ public class ApplicationInitConfig {
 
     LoggingConfig loggingConfig;
     RoleRepository roleRepository;
+    CarRepository carRepository;
+    BookingSlotService bookingSlotService;
 
     /**
      * Initializes some default data for the application.
@@ -60,6 +68,17 @@ public class ApplicationInitConfig {
                         .build());
                 log.info("Create role Customer");
             }
+
+            //fill the normalized location keys of the cars created before they existed
+            List<Car> carsWithoutLocationKeys = carRepository.findByCityProvinceKeyIsNull();
+            if (!carsWithoutLocationKeys.isEmpty()) {
+                carsWithoutLocationKeys.forEach(Car::updateLocationKeys);
+                carRepository.saveAll(carsWithoutLocationKeys);
+                log.info("Filled location keys of {} cars", carsWithoutLocationKeys.size());
+            }
+
+            //record the days held by the bookings created before the days were recorded
+            bookingSlotService.backfillBookingDays(CarAvailabilityIndex.NON_BLOCKING_STATUSES);
         };
     }
 }
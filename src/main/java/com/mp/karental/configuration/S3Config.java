@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
@@ -17,6 +18,10 @@ import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 @Configuration
 public class S3Config {
 
+    // S3 does not accept parts smaller than 5MB (except the last one)
+    private static final long MULTIPART_PART_SIZE_BYTES = 5L * 1024 * 1024;
+    private static final long MULTIPART_THRESHOLD_BYTES = 8L * 1024 * 1024;
+
     @Value("${cloud.aws.region.static}")
     private String awsRegion;
 
@@ -28,6 +33,19 @@ public class S3Config {
                 .build();
     }
 
+    @Bean
+    public S3AsyncClient s3AsyncClient() {
+        Region region = Region.of(awsRegion);
+        return S3AsyncClient.builder()
+                .region(region)
+                // files bigger than the threshold are sent as a multipart upload
+                .multipartEnabled(true)
+                .multipartConfiguration(configuration -> configuration
+                        .thresholdInBytes(MULTIPART_THRESHOLD_BYTES)
+                        .minimumPartSizeInBytes(MULTIPART_PART_SIZE_BYTES))
+                .build();
+    }
+
     @Bean
     public S3Presigner s3Presigner() {
         Region region = Region.of(awsRegion);
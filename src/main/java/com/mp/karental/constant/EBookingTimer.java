@@ -0,0 +1,55 @@
+package com.mp.karental.constant;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents the deadlines of a booking, each one is due at the pick-up or drop-off time
+ * of a booking still in a given status.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Getter
+public enum EBookingTimer {
+    PICK_UP_REMINDER(EBookingStatus.CONFIRMED, true), // remind the customer to pick up the car
+    DROP_OFF_REMINDER(EBookingStatus.IN_PROGRESS, false), // remind the customer to return the car
+    WAITING_CONFIRMED_EXPIRY(EBookingStatus.WAITING_CONFIRMED, true), // the owner did not confirm, cancel and refund
+    WAITING_CONFIRMED_RETURN_CAR_EXPIRY(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, false); // the owner did not confirm the early return
+
+    private final EBookingStatus status;
+    private final boolean dueAtPickUp;
+
+    EBookingTimer(EBookingStatus status, boolean dueAtPickUp) {
+        this.status = status;
+        this.dueAtPickUp = dueAtPickUp;
+    }
+
+    /**
+     * Gets the time this deadline is due for a booking.
+     *
+     * @param pickUpTime  the pick-up time of the booking
+     * @param dropOffTime the drop-off time of the booking
+     * @return the due time
+     */
+    public LocalDateTime getDueTime(LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        return dueAtPickUp ? pickUpTime : dropOffTime;
+    }
+
+    /**
+     * Gets the deadline of a booking in a given status.
+     *
+     * @param status the status of the booking
+     * @return the deadline, or null if a booking in this status has none
+     */
+    public static EBookingTimer forStatus(EBookingStatus status) {
+        for (EBookingTimer timer : values()) {
+            if (timer.status == status) {
+                return timer;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.mp.karental.constant;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Represents the files of a car (documents and images) and where they are stored in the car's folder
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Getter
+public enum ECarFile {
+    REGISTRATION_PAPER("documents/registration-paper", true),
+    CERTIFICATE_OF_INSPECTION("documents/certificate-of-inspection", true),
+    INSURANCE("documents/insurance", true),
+    CAR_IMAGE_FRONT("images/front", false),
+    CAR_IMAGE_BACK("images/back", false),
+    CAR_IMAGE_LEFT("images/left", false),
+    CAR_IMAGE_RIGHT("images/right", false);
+    private final String path;
+    private final boolean document;
+
+    ECarFile(String path, boolean document) {
+        this.path = path;
+        this.document = document;
+    }
+
+    /**
+     * Checks whether a file extension (without the dot) is accepted for this file.
+     *
+     * @param extension the file extension
+     * @return true if the extension is accepted
+     */
+    public boolean isValidExtension(String extension) {
+        if (document) {
+            return Arrays.stream(EDocumentFile.values()).anyMatch(type -> type.getExtension().equalsIgnoreCase(extension));
+        }
+        return Arrays.stream(ECarImage.values()).anyMatch(type -> type.getExtension().equalsIgnoreCase(extension));
+    }
+}
@@ -0,0 +1,41 @@
+package com.mp.karental.constant;
+
+import lombok.Getter;
+
+/**
+ * Represents the resized variants generated for every car image.
+ * <p>
+ * A variant is a JPEG image stored next to the original, e.g. the thumbnail of
+ * car/user1/car1/images/front.png is car/user1/car1/images/front_w320.jpg
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Getter
+public enum EImageVariant {
+    THUMBNAIL(320),
+    MEDIUM(800);
+
+    private final int width;
+
+    EImageVariant(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Gets the key of this variant of an image.
+     *
+     * @param originalKey the key of the original image
+     * @return the key of the variant, or null if the original key is null
+     */
+    public String getKey(String originalKey) {
+        if (originalKey == null) {
+            return null;
+        }
+        int dot = originalKey.lastIndexOf('.');
+        String base = dot > originalKey.lastIndexOf('/') ? originalKey.substring(0, dot) : originalKey;
+        return base + "_w" + width + ".jpg";
+    }
+}
@@ -0,0 +1,24 @@
+package com.mp.karental.constant;
+
+import lombok.Getter;
+
+/**
+ * Represents the formats of the export of the transaction history.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Getter
+public enum ETransactionExportFormat {
+    NDJSON("application/x-ndjson", "ndjson"),
+    CSV("text/csv", "csv");
+
+    private final String contentType;
+    private final String extension;
+
+    ETransactionExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+}
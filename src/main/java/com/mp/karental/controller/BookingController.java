@@ -1,11 +1,13 @@
 package com.mp.karental.controller;
 
 import com.mp.karental.dto.request.booking.CreateBookingRequest;
+import com.mp.karental.dto.request.booking.ConfirmDrivingLicenseRequest;
 import com.mp.karental.dto.request.booking.EditBookingRequest;
 import com.mp.karental.constant.EBookingStatus;
 import com.mp.karental.dto.response.*;
 import com.mp.karental.dto.response.booking.BookingResponse;
 import com.mp.karental.dto.response.booking.WalletResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.dto.response.user.UserResponse;
 import com.mp.karental.service.BookingService;
 import com.mp.karental.dto.response.booking.BookingListResponse;
@@ -173,6 +175,116 @@ public class BookingController {
                 .build();
     }
 
+    @Operation(
+            summary = "Get upload url of the driver's driving license",
+            description = "This api allows customer to get the url to upload the driver's driving license of a booking directly to the storage. The upload is attached to the booking with the confirm api.",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(
+                                                    name = "code",
+                                                    schema = @Schema(type = "string", example = "1000")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "message",
+                                                    schema = @Schema(type = "string", example = "Success")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "data",
+                                                    schema = @Schema(type = "object", implementation = FileUploadUrlResponse.class)
+                                            )
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3018 | The booking is not exist in the system.|
+                                    | 3019 | The booking cannot be edited as it is already in its current status.|
+                                    | 2016 | Invalid file type. Accepted formats are .doc, .docx, .pdf, .jpeg, .jpg, .png|
+                                    """
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "403",
+                            description = """
+                                    Forbidden
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4014 | Can not view detail/edit booking of another account.|
+                                    """
+                    ),
+            }
+    )
+    @GetMapping("/customer/{bookingNumber}/driving-license/upload-url")
+    public ApiResponse<FileUploadUrlResponse> getDriverDrivingLicenseUploadUrl(@PathVariable @Parameter(description = "The booking number", example = "BK202410200001") String bookingNumber,
+                                                                               @RequestParam @Parameter(description = "The name of the driving license file", example = "license.jpg") String fileName) {
+        return ApiResponse.<FileUploadUrlResponse>builder()
+                .data(bookingService.getDriverDrivingLicenseUploadUrl(bookingNumber, fileName))
+                .build();
+    }
+
+    @Operation(
+            summary = "Confirm uploaded driver's driving license",
+            description = "This api allows customer to attach the driver's driving license uploaded directly to the storage to a booking.",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(
+                                                    name = "code",
+                                                    schema = @Schema(type = "string", example = "1000")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "message",
+                                                    schema = @Schema(type = "string", example = "Success")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "data",
+                                                    schema = @Schema(type = "object", implementation = BookingResponse.class)
+                                            )
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3018 | The booking is not exist in the system.|
+                                    | 3019 | The booking cannot be edited as it is already in its current status.|
+                                    | 3046 | The file has not been uploaded to the storage.|
+                                    | 3047 | The uploaded file key does not belong to this file.|
+                                    """
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "403",
+                            description = """
+                                    Forbidden
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4014 | Can not view detail/edit booking of another account.|
+                                    """
+                    ),
+            }
+    )
+    @PutMapping("/customer/{bookingNumber}/driving-license/confirm-upload")
+    public ApiResponse<BookingResponse> confirmDriverDrivingLicense(@RequestBody @Valid ConfirmDrivingLicenseRequest request, @PathVariable @Parameter(description = "The booking number", example = "BK202410200001") String bookingNumber) {
+        return ApiResponse.<BookingResponse>builder()
+                .data(bookingService.confirmDriverDrivingLicense(bookingNumber, request.getKey()))
+                .build();
+    }
+
     /**
      * API endpoint to retrieve the list of bookings for the current customer.
      *
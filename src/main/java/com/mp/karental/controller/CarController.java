@@ -1,13 +1,16 @@
 package com.mp.karental.controller;
 
+import com.mp.karental.constant.ECarFile;
 import com.mp.karental.constant.ECarStatus;
 import com.mp.karental.dto.request.car.*;
 import com.mp.karental.dto.request.user.CheckUniqueEmailRequest;
 import com.mp.karental.dto.response.ApiResponse;
 import com.mp.karental.dto.response.car.CarDetailResponse;
 import com.mp.karental.dto.response.car.CarDocumentsResponse;
+import com.mp.karental.dto.response.car.CarHoldResponse;
 import com.mp.karental.dto.response.car.CarResponse;
 import com.mp.karental.dto.response.car.CarThumbnailResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.service.CarService;
@@ -32,6 +35,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.Map;
 
 /**
  * REST controller for handling car-related operations.
@@ -191,6 +195,116 @@ public class CarController {
                 .build();
     }
 
+    @Operation(
+            summary = "Get upload urls of car files",
+            description = "This api allows car owner to get the urls to upload documents and images of a car directly to the storage. The uploads are attached to the car with the confirm api.",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(
+                                                    name = "code",
+                                                    schema = @Schema(type = "string", example = "1000")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "message",
+                                                    schema = @Schema(type = "string", example = "Success")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "data",
+                                                    schema = @Schema(type = "object", implementation = FileUploadUrlResponse.class)
+                                            )
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3007 | The car is not exist in the system.|
+                                    | 2016 | Invalid file type. Accepted formats are .doc, .docx, .pdf, .jpeg, .jpg, .png|
+                                    | 2017 | Invalid file type. Accepted formats are .jpg, .jpeg, .png, .gif|
+                                    | 3048 | The documents of a verified car cannot be changed.|
+                                    """
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "403",
+                            description = """
+                                    Forbidden
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4010 | Can not view detail/edit car of another account.|
+                                    """
+                    ),
+            }
+    )
+    @PostMapping("/car-owner/{carId}/upload-urls")
+    public ApiResponse<Map<ECarFile, FileUploadUrlResponse>> getCarFileUploadUrls(@RequestBody @Valid CarFileUploadUrlRequest request, @PathVariable @Parameter(description = "The ID of the car", example = "car1") String carId) {
+        return ApiResponse.<Map<ECarFile, FileUploadUrlResponse>>builder()
+                .data(carService.getCarFileUploadUrls(carId, request))
+                .build();
+    }
+
+    @Operation(
+            summary = "Confirm uploaded car files",
+            description = "This api allows car owner to attach the documents and images uploaded directly to the storage to a car.",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(
+                                                    name = "code",
+                                                    schema = @Schema(type = "string", example = "1000")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "message",
+                                                    schema = @Schema(type = "string", example = "Success")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "data",
+                                                    schema = @Schema(type = "object", implementation = CarResponse.class)
+                                            )
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3007 | The car is not exist in the system.|
+                                    | 3046 | The file has not been uploaded to the storage.|
+                                    | 3047 | The uploaded file key does not belong to this file.|
+                                    | 3048 | The documents of a verified car cannot be changed.|
+                                    """
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "403",
+                            description = """
+                                    Forbidden
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4010 | Can not view detail/edit car of another account.|
+                                    """
+                    ),
+            }
+    )
+    @PutMapping("/car-owner/{carId}/confirm-uploads")
+    public ApiResponse<CarResponse> confirmCarFiles(@RequestBody @Valid ConfirmCarFilesRequest request, @PathVariable @Parameter(description = "The ID of the car", example = "car1") String carId) {
+        return ApiResponse.<CarResponse>builder()
+                .data(carService.confirmCarFiles(carId, request))
+                .build();
+    }
+
     @Operation(
             summary = "Get car by id",
             description = "This api allows car owner to get the information of a car by id",
@@ -314,6 +428,91 @@ public class CarController {
                 .build();
     }
 
+    @Operation(
+            summary = "Hold a time slot of a car",
+            description = "This api allows customer to hold a time slot of a car for 10 minutes while checking out. " +
+                    "Other customers can not find nor book the car on an overlapping slot until the hold is released, booked or expired",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(
+                                                    name = "code",
+                                                    schema = @Schema(type = "string", example = "1000")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "message",
+                                                    schema = @Schema(type = "string", example = "Success")
+                                            ),
+                                            @SchemaProperty(
+                                                    name = "data",
+                                                    schema = @Schema(type = "object", implementation = CarHoldResponse.class)
+                                            )
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 2025 | Invalid date range. Pick-up date must be before drop-off date.|
+                                    | 3007 | The car is not exist in the system.|
+                                    | 3010 | The car is not available|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "403",
+                            description = """
+                                    Forbidden
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3008 | This car has not been verified and cannot be viewed.|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "409",
+                            description = """
+                                    Conflict
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 3050 | The car is being held by another customer for this time, please try again later.|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    )
+            }
+    )
+    @PostMapping("/customer/hold")
+    public ApiResponse<CarHoldResponse> holdCar(@RequestBody @Valid CarHoldRequest request) {
+        return ApiResponse.<CarHoldResponse>builder()
+                .data(carService.holdCar(request))
+                .build();
+    }
+
+    @Operation(
+            summary = "Release the hold on a car",
+            description = "This api allows customer to release the hold on a car when leaving the checkout",
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success"
+                    )
+            }
+    )
+    @DeleteMapping("/customer/hold/{carId}")
+    public ApiResponse<String> releaseCarHold(@PathVariable @Parameter(description = "The ID of the car", example = "car1") String carId) {
+        carService.releaseCarHold(carId);
+        return ApiResponse.<String>builder()
+                .data("The hold is released.")
+                .build();
+    }
+
 
     /**
      * Retrieves a paginated list of cars owned by the authenticated user.
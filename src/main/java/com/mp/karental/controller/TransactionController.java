@@ -1,10 +1,12 @@
 package com.mp.karental.controller;
 
+import com.mp.karental.constant.ETransactionExportFormat;
 import com.mp.karental.constant.ETransactionType;
 import com.mp.karental.dto.request.transaction.TransactionRequest;
 import com.mp.karental.dto.response.ApiResponse;
 import com.mp.karental.dto.response.auth.LoginResponse;
 import com.mp.karental.dto.response.transaction.ListTransactionResponse;
+import com.mp.karental.dto.response.transaction.TransactionPageResponse;
 import com.mp.karental.dto.response.transaction.TransactionPaymentURLResponse;
 import com.mp.karental.dto.response.transaction.TransactionResponse;
 import com.mp.karental.service.TransactionService;
@@ -19,16 +21,19 @@ import io.swagger.v3.oas.annotations.media.SchemaProperty;
 
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Map;
 
@@ -457,5 +462,116 @@ public class TransactionController {
                     .build();
     }
 
+    @Operation(
+            summary = "Get a page of transactions",
+            description = "Retrieve the transactions of the wallet newest first, page by page. "
+                    + "Pass the nextCursor of a page to get the next one, nextCursor is null on the last page.",
+            parameters = {
+                    @Parameter(name = "from", description = "Start date and time (ISO format), optional",
+                            example = "2024-01-01T00:00:00"),
+                    @Parameter(name = "to", description = "End date and time (ISO format), optional",
+                            example = "2024-12-31T23:59:59"),
+                    @Parameter(name = "cursor", description = "Cursor of the page, empty for the first page"),
+                    @Parameter(name = "size", description = "Size of the page, at most 100", example = "20")
+            },
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    schema = @Schema(type = "object"),
+                                    schemaProperties = {
+                                            @SchemaProperty(name = "code", schema = @Schema(type = "string", example = "1000")),
+                                            @SchemaProperty(name = "message", schema = @Schema(type = "string", example = "Success")),
+                                            @SchemaProperty(name = "data", schema = @Schema(implementation = TransactionPageResponse.class))
+                                    }
+                            )
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "400",
+                            description = """
+                                    Bad request
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 2035 | The cursor of the transaction page is invalid|
+                                    | 3015 | The wallet is not exist in the system|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "401",
+                            description = """
+                                    Unauthorized
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4003 | Unauthenticated access. The access token is invalid|
+                                    | 4005 | The access token is expired. Please try again|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    )
+            }
+    )
+    @GetMapping("/transaction-page")
+    public ApiResponse<TransactionPageResponse> getTransactionPage(
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "size", defaultValue = "20") int size) {
+        return ApiResponse.<TransactionPageResponse>builder()
+                .data(transactionService.getTransactionPage(from, to, cursor, size))
+                .build();
+    }
+
+    @Operation(
+            summary = "Export transactions",
+            description = "Download the transactions of the wallet newest first, as NDJSON (one JSON object per line) or CSV. "
+                    + "The rows are streamed while they are read.",
+            parameters = {
+                    @Parameter(name = "from", description = "Start date and time (ISO format), optional",
+                            example = "2024-01-01T00:00:00"),
+                    @Parameter(name = "to", description = "End date and time (ISO format), optional",
+                            example = "2024-12-31T23:59:59"),
+                    @Parameter(name = "format", description = "NDJSON or CSV", example = "CSV")
+            },
+            responses = {
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = {
+                                    @Content(mediaType = "application/x-ndjson", examples = @ExampleObject(value = """
+                                            {"createdAt":"2024-03-20T10:00:00","type":"TOP_UP","bookingNo":null,"carName":null,"amount":1000000,"message":null,"status":"SUCCESSFUL"}
+                                            """)),
+                                    @Content(mediaType = "text/csv", examples = @ExampleObject(value = """
+                                            createdAt,type,bookingNo,carName,amount,message,status
+                                            2024-03-20T10:00,TOP_UP,,,1000000,,SUCCESSFUL
+                                            """))
+                            }
+                    ),
+                    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+                            responseCode = "401",
+                            description = """
+                                    Unauthorized
+                                    |code  | message |
+                                    |------|-------------|
+                                    | 4003 | Unauthenticated access. The access token is invalid|
+                                    | 4005 | The access token is expired. Please try again|
+                                    """,
+                            content = @Content(schema = @Schema(implementation = ApiResponse.class))
+                    )
+            }
+    )
+    @GetMapping(value = "/transaction-export", produces = MediaType.ALL_VALUE)
+    public void exportTransactions(
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(name = "format", defaultValue = "NDJSON") ETransactionExportFormat format,
+            HttpServletResponse response) throws IOException {
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"transactions." + format.getExtension() + "\"");
+        transactionService.exportTransactions(from, to, format, response.getWriter());
+    }
+
 
 }
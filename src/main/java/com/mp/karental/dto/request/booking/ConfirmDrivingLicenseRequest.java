@@ -0,0 +1,25 @@
+package com.mp.karental.dto.request.booking;
+
+import com.mp.karental.validation.RequiredField;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Represents the request payload to attach a driving license uploaded directly to the storage to a booking.
+ *
+ * @author DieuTTH4
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "request.booking.ConfirmDrivingLicenseRequest", description = "DTO contain the uploaded driving license of the driver")
+public class ConfirmDrivingLicenseRequest {
+    @RequiredField(fieldName = "Driving license key")
+    @Schema(example = "booking/BK202410200001/driver-driving-license.jpg", description = "The key of the uploaded driving license")
+    String key;
+}
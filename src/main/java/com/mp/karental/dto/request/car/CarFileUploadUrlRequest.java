@@ -0,0 +1,28 @@
+package com.mp.karental.dto.request.car;
+
+import com.mp.karental.constant.ECarFile;
+import com.mp.karental.validation.RequiredField;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.Map;
+
+/**
+ * Represents the request payload to get the URLs to upload files of a car directly to the storage.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "request.car.CarFileUploadUrlRequest", description = "DTO contain the files of a car to upload")
+public class CarFileUploadUrlRequest {
+    @RequiredField(fieldName = "Files")
+    @Schema(example = "{\"CAR_IMAGE_FRONT\": \"front.jpg\", \"INSURANCE\": \"insurance.pdf\"}", description = "The name of the file to upload by car file")
+    Map<ECarFile, String> fileNames;
+}
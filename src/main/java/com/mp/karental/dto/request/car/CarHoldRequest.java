@@ -0,0 +1,35 @@
+package com.mp.karental.dto.request.car;
+
+import com.mp.karental.validation.RequiredField;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents the request payload to hold a time slot of a car while the customer checks out.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "request.car.CarHoldRequest", description = "DTO contain the time slot of a car to hold")
+public class CarHoldRequest {
+    @RequiredField(fieldName = "Car id")
+    @Schema(example = "car1", description = "The id of the car to hold")
+    String carId;
+
+    @RequiredField(fieldName = "Pick-up time")
+    @Schema(example = "2025-04-01T10:00:00", description = "The pick-up time of the slot")
+    LocalDateTime pickUpTime;
+
+    @RequiredField(fieldName = "Drop-off time")
+    @Schema(example = "2025-04-05T15:00:00", description = "The drop-off time of the slot")
+    LocalDateTime dropOffTime;
+}
@@ -0,0 +1,28 @@
+package com.mp.karental.dto.request.car;
+
+import com.mp.karental.constant.ECarFile;
+import com.mp.karental.validation.RequiredField;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.Map;
+
+/**
+ * Represents the request payload to attach the files uploaded directly to the storage to a car.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "request.car.ConfirmCarFilesRequest", description = "DTO contain the uploaded files of a car")
+public class ConfirmCarFilesRequest {
+    @RequiredField(fieldName = "Files")
+    @Schema(example = "{\"CAR_IMAGE_FRONT\": \"car/user1/car1/images/front.jpg\"}", description = "The key of the uploaded file by car file")
+    Map<ECarFile, String> keys;
+}
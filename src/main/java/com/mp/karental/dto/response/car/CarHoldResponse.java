@@ -0,0 +1,31 @@
+package com.mp.karental.dto.response.car;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.LocalDateTime;
+
+/**
+ * Represents a time slot of a car held for the current customer.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "response.car.CarHoldResponse", description = "Time slot of a car held for the customer")
+public class CarHoldResponse {
+    @Schema(example = "car1", description = "The id of the held car")
+    String carId;
+    @Schema(example = "2025-04-01T10:00:00", description = "The pick-up time of the slot")
+    LocalDateTime pickUpTime;
+    @Schema(example = "2025-04-05T15:00:00", description = "The drop-off time of the slot")
+    LocalDateTime dropOffTime;
+    @Schema(example = "2025-03-30T09:10:00", description = "The time the hold expires if no booking is made")
+    LocalDateTime expiresAt;
+}
@@ -0,0 +1,27 @@
+package com.mp.karental.dto.response.file;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Represents a presigned URL the client uses to upload a file directly to the storage
+ *
+ * @author DieuTTH4
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+@Schema(name = "response.file.FileUploadUrlResponse", description = "Presigned URL to upload a file directly to the storage")
+public class FileUploadUrlResponse {
+    @Schema(example = "car/user1/car1/images/front.jpg", description = "The key the file is stored under, sent back to confirm the upload")
+    String key;
+    @Schema(example = "https://bucket.s3.amazonaws.com/car/user1/car1/images/front.jpg?X-Amz-Signature=...", description = "The URL to upload the file to with a PUT request, valid for 15 minutes")
+    String uploadUrl;
+    @Schema(example = "image/jpeg", description = "The Content-Type header the PUT request must send")
+    String contentType;
+}
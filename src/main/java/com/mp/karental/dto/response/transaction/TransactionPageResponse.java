@@ -0,0 +1,28 @@
+package com.mp.karental.dto.response.transaction;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+/**
+ * Represents a page of the transaction history of a wallet.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class TransactionPageResponse {
+    @Schema(description = "Wallet balance", example = "100000000")
+    long balance;
+    @Schema(description = "Transactions of the page, newest first", implementation = TransactionResponse.class)
+    List<TransactionResponse> transactions;
+    @Schema(description = "Cursor of the next page, null on the last page", example = "MjAyNC0wMy0yMFQxMDowMHx0eG4x")
+    String nextCursor;
+}
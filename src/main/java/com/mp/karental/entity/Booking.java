@@ -3,6 +3,8 @@ package com.mp.karental.entity;
 
 import com.mp.karental.constant.EBookingStatus;
 import com.mp.karental.constant.EPaymentType;
+import com.mp.karental.listener.BookingAvailabilityListener;
+import com.mp.karental.listener.BookingTimerListener;
 import com.mp.karental.security.SecurityUtil;
 import jakarta.persistence.*;
 import lombok.*;
@@ -30,6 +32,7 @@ import java.time.LocalDateTime;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 @Builder
 @Slf4j
+@EntityListeners({BookingAvailabilityListener.class, BookingTimerListener.class})
 public class Booking {
     @Id
     @Column(name = "booking_number", unique = true, nullable = false)
@@ -1,7 +1,9 @@
 package com.mp.karental.entity;
 
 import com.mp.karental.constant.ECarStatus;
+import com.mp.karental.constant.EImageVariant;
 import com.mp.karental.security.SecurityUtil;
+import com.mp.karental.util.LocationUtil;
 import jakarta.persistence.*;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
@@ -23,6 +25,10 @@ import java.util.List;
  * @version 1.0
  */
 @Entity
+@Table(indexes = {
+        // serves the car search: equality on status and on the location keys from left to right
+        @Index(name = "idx_car_status_location", columnList = "status, city_province_key, district_key, ward_key")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -80,6 +86,16 @@ public class Car {
     @Column(name = "house_number_street",nullable = false)
     String houseNumberStreet;
 
+    //normalized address, used to search cars by location
+    @Column(name = "city_province_key", length = 100)
+    String cityProvinceKey;
+
+    @Column(name = "district_key", length = 100)
+    String districtKey;
+
+    @Column(name = "ward_key", length = 100)
+    String wardKey;
+
     @Column(columnDefinition = "TEXT")
     String description;
 
@@ -118,6 +134,16 @@ public class Car {
     @Column(name = "car_image_right")
     String carImageRight;
 
+    // the resized variants of the car images, see EImageVariant
+    @Column(nullable = false)
+    boolean imageVariantsReady;
+    // increased on every image change, the variants are only marked ready for the images they were made from
+    @Column(nullable = false)
+    long imagesVersion;
+    // failed generations of the variants of the current images, the scheduler gives up after a few of them
+    @Column(nullable = false)
+    int imageVariantAttempts;
+
     @ManyToOne
     @JoinColumn(name = "account_id")
     Account account;
@@ -131,6 +157,27 @@ public class Car {
     @Column(nullable = false)
     String updateBy;
 
+    /**
+     * Gets the key of a variant of a car image.
+     * While the variants of the current images are not generated yet, the key of the original image is returned.
+     *
+     * @param originalKey the key of the original image
+     * @param variant     the variant to get
+     * @return the key of the variant, or the original key if the variants are not ready
+     */
+    public String getImageKey(String originalKey, EImageVariant variant) {
+        return imageVariantsReady ? variant.getKey(originalKey) : originalKey;
+    }
+
+    /**
+     * Recomputes the normalized location keys from the current city/province, district and ward.
+     */
+    public void updateLocationKeys() {
+        this.cityProvinceKey = LocationUtil.normalize(cityProvince);
+        this.districtKey = LocationUtil.normalize(district);
+        this.wardKey = LocationUtil.normalize(ward);
+    }
+
     @PostPersist
     public void onPostPersist() {
         log.info("By: {} - Successfully created Car with id: {}", SecurityUtil.getCurrentAccountId(), this.id);
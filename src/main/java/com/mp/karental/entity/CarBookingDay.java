@@ -0,0 +1,42 @@
+package com.mp.karental.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.LocalDate;
+
+/**
+ * A day on which a car is held by a booking.
+ * <p>
+ * A row is written for every calendar day between the pick-up and the drop-off of a booking
+ * when it starts holding the car. The unique key on (car_id, day) is the last guard against
+ * two bookings holding the same car on the same day, whatever happens to the locks.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Table(name = "car_booking_day",
+        uniqueConstraints = @UniqueConstraint(name = "uk_car_booking_day", columnNames = {"car_id", "day"}),
+        indexes = @Index(name = "idx_car_booking_day_booking", columnList = "booking_number"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class CarBookingDay {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+
+    @Column(name = "car_id", nullable = false)
+    String carId;
+
+    @Column(name = "day", nullable = false)
+    LocalDate day;
+
+    @Column(name = "booking_number", nullable = false)
+    String bookingNumber;
+}
@@ -0,0 +1,46 @@
+package com.mp.karental.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Read model holding the statistics shown with a car (rating and number of completed rides).
+ * <p>
+ * The counters are updated incrementally when a feedback is added and when a booking is completed,
+ * so car lists do not run aggregate queries for every car.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Table(name = "car_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class CarStats {
+    @Id
+    @Column(name = "car_id")
+    String carId;
+
+    @Column(name = "rating_sum", nullable = false)
+    long ratingSum;
+
+    @Column(name = "rating_count", nullable = false)
+    long ratingCount;
+
+    @Column(name = "completed_rides", nullable = false)
+    long completedRides;
+
+    /**
+     * Calculates the average rating of the car.
+     *
+     * @return the average rating, or 0.0 if the car has no feedback
+     */
+    public double getAverageRating() {
+        return ratingCount == 0 ? 0.0 : (double) ratingSum / ratingCount;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mp.karental.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * The SHA-256 hash of the content stored under a S3 key.
+ * <p>
+ * An upload of the same content to the same key is skipped. The hash follows the content of the bucket,
+ * not the entity referencing the key, so it is written in its own transaction.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Table(name = "file_content_hash")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class FileContentHash {
+    @Id
+    @Column(name = "file_key")
+    String fileKey;
+
+    @Column(name = "sha256", nullable = false, length = 64)
+    String sha256;
+}
@@ -0,0 +1,59 @@
+package com.mp.karental.entity;
+
+import com.mp.karental.constant.ETransactionType;
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * An amount earned by a car owner for a booking, not paid to the owner's wallet yet.
+ * <p>
+ * The earnings are paid by batches: the wallet of an owner is credited once with the sum of its pending earnings,
+ * then the earnings are deleted and replaced by the transactions of the owner.
+ * The earnings of an owner that can not be paid are marked failed and left out of the next settlements.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Table(name = "owner_earning",
+        indexes = @Index(name = "idx_owner_earning_owner", columnList = "owner_id, failed"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class OwnerEarning {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+
+    // the id of the wallet of the car owner
+    @Column(name = "owner_id", nullable = false)
+    String ownerId;
+
+    @Column(nullable = false)
+    long amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    ETransactionType type;
+
+    @Column(name = "booking_number", nullable = false)
+    String bookingNumber;
+
+    @Column(name = "car_name")
+    String carName;
+
+    // the settlement of the owner failed, the earning waits to be checked instead of blocking the settlements
+    @Column(nullable = false)
+    boolean failed;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    LocalDateTime createdAt;
+}
@@ -0,0 +1,33 @@
+package com.mp.karental.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * A part of the wallet of the system.
+ * <p>
+ * Deposits, refunds and payments to the car owners change one of the shards, picked by the booking number,
+ * instead of the admin wallet, so they do not all wait for the lock of one row.
+ * The shards are periodically consolidated into the admin wallet,
+ * the balance of the system is the balance of the admin wallet plus the balances of the shards.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Table(name = "system_wallet_shard")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class SystemWalletShard {
+    @Id
+    int shard;
+
+    // can be negative, the shards pay refunds from money received on other shards
+    @Column(nullable = false)
+    long balance;
+}
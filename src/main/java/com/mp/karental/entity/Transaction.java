@@ -23,6 +23,10 @@ import java.time.LocalDateTime;
  * @version 1.0
  */
 @Entity
+@Table(indexes = {
+        // serves the transaction history of a wallet, newest first
+        @Index(name = "idx_transaction_wallet_created", columnList = "wallet_id, created_at")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -35,6 +39,7 @@ public class Transaction {
     String id;
 
     @CreationTimestamp
+    @Column(name = "created_at")
     LocalDateTime createdAt;
 
     //one directional mapping is enough
@@ -60,7 +65,13 @@ public class Transaction {
 
     @PostPersist
     public void onPostPersist() {
-        log.info("By: {} - Successfully created Transaction with id: {}", SecurityUtil.getCurrentAccountId(), this.id);
+        String accountId;
+        try {
+            accountId = SecurityUtil.getCurrentAccountId();
+        } catch (Exception e) {
+            accountId = "System";
+        }
+        log.info("By: {} - Successfully created Transaction with id: {}", accountId, this.id);
     }
 
     @PreUpdate
@@ -0,0 +1,54 @@
+package com.mp.karental.entity;
+
+import com.mp.karental.constant.ETransactionType;
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * A change of the balance of a wallet.
+ * <p>
+ * The ledger is append-only: an entry is written in the same transaction as the atomic update of the balance,
+ * the sum of the entries of a wallet is the change of its balance since the ledger was introduced.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Entity
+@Immutable
+@Table(name = "wallet_ledger_entry",
+        indexes = @Index(name = "idx_wallet_ledger_entry_wallet", columnList = "wallet_id, created_at"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Builder
+public class WalletLedgerEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+
+    // the id of a wallet, or system-wallet:{shard} for a shard of the system wallet
+    @Column(name = "wallet_id", nullable = false)
+    String walletId;
+
+    // positive when the wallet is credited, negative when it is debited
+    @Column(nullable = false)
+    long amount;
+
+    // null for the consolidation of the system wallet shards into the admin wallet
+    @Enumerated(EnumType.STRING)
+    ETransactionType type;
+
+    @Column(name = "booking_number")
+    String bookingNumber;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    LocalDateTime createdAt;
+}
@@ -0,0 +1,13 @@
+package com.mp.karental.event;
+
+/**
+ * Published when new images of a car are stored, so their resized variants are generated.
+ *
+ * @param carId the id of the car
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+public record CarImagesChangedEvent(String carId) {
+}
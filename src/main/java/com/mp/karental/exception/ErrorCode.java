@@ -60,6 +60,7 @@ public enum ErrorCode {
     INVALID_COMMENT_LENGTH(2032,"The comment length is invalid", HttpStatus.BAD_REQUEST),
     INVALID_RATING_RANGE(2033, "The rating range is invalid", HttpStatus.BAD_REQUEST),
     INVALID_CAR_STATUS(2034, "The status must be NOT_VERIFIED", HttpStatus.BAD_REQUEST),
+    INVALID_TRANSACTION_CURSOR(2035, "The cursor of the transaction page is invalid", HttpStatus.BAD_REQUEST),
 
     //range 3xxx
     UPLOAD_OBJECT_TO_S3_FAIL(3001, "There was error occurred during uploading files. Please try again.", HttpStatus.SERVICE_UNAVAILABLE),
@@ -110,6 +111,15 @@ public enum ErrorCode {
 
     UNSUPPORTED_PAYMENT_TYPE(3044, "This payment type is not supported in this case", HttpStatus.BAD_REQUEST),
     INSUFFICIENT_BALANCE(3045,"Your wallet does not have enough balance", HttpStatus.BAD_REQUEST),
+    UPLOADED_FILE_NOT_FOUND(3046, "The file has not been uploaded to the storage.", HttpStatus.BAD_REQUEST),
+    INVALID_UPLOADED_FILE_KEY(3047, "The uploaded file key does not belong to this file.", HttpStatus.BAD_REQUEST),
+    CAR_DOCUMENTS_CANNOT_BE_CHANGED(3048, "The documents of a verified car cannot be changed.", HttpStatus.BAD_REQUEST),
+    CAR_IS_BEING_BOOKED(3049, "The car is being booked by another customer, please try again.", HttpStatus.CONFLICT),
+    CAR_IS_HELD(3050, "The car is being held by another customer for this time, please try again later.", HttpStatus.CONFLICT),
+    EXPORT_TRANSACTIONS_FAIL(3051, "There was error during exporting the transactions, please try again.", HttpStatus.SERVICE_UNAVAILABLE),
+    INVALID_UPLOADED_FILE_CONTENT_TYPE(3052, "The content type of the uploaded file does not match its extension.", HttpStatus.BAD_REQUEST),
+    CAR_HOLD_LIMIT_REACHED(3053, "You are already holding too many cars, please finish or leave one checkout first.", HttpStatus.TOO_MANY_REQUESTS),
+    BOOKING_NUMBER_ALREADY_USED(3054, "The booking could not be created, please try again.", HttpStatus.CONFLICT),
     //range 4xxx
     UNCATEGORIZED_EXCEPTION(4000, "There was error happen during run time", HttpStatus.INTERNAL_SERVER_ERROR),
     INVALID_ERROR_KEY(4001, "The error key could be misspelled", HttpStatus.INTERNAL_SERVER_ERROR),
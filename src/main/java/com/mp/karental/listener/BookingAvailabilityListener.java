@@ -0,0 +1,71 @@
+package com.mp.karental.listener;
+
+import com.mp.karental.entity.Booking;
+import com.mp.karental.service.CarAvailabilityIndex;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+
+/**
+ * JPA entity listener that keeps the {@link CarAvailabilityIndex} in line with every booking change.
+ * <p>
+ * The change is applied after the surrounding transaction commits, so a rolled back booking
+ * never shows up in the index.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class BookingAvailabilityListener {
+
+    CarAvailabilityIndex carAvailabilityIndex;
+
+    @PostPersist
+    @PostUpdate
+    public void onBookingSaved(Booking booking) {
+        if (booking.getCar() == null) {
+            return;
+        }
+        String carId = booking.getCar().getId();
+        String bookingNumber = booking.getBookingNumber();
+        // copy the state now, the entity may change again before the commit
+        var status = booking.getStatus();
+        LocalDateTime pickUpTime = booking.getPickUpTime();
+        LocalDateTime dropOffTime = booking.getDropOffTime();
+        afterCommit(() -> carAvailabilityIndex.apply(carId, bookingNumber, status, pickUpTime, dropOffTime));
+    }
+
+    @PostRemove
+    public void onBookingRemoved(Booking booking) {
+        if (booking.getCar() == null) {
+            return;
+        }
+        String carId = booking.getCar().getId();
+        String bookingNumber = booking.getBookingNumber();
+        afterCommit(() -> carAvailabilityIndex.remove(carId, bookingNumber));
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
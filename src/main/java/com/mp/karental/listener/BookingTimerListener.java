@@ -0,0 +1,65 @@
+package com.mp.karental.listener;
+
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.entity.Booking;
+import com.mp.karental.service.BookingTimerService;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostUpdate;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+
+/**
+ * JPA entity listener that schedules the deadline of a booking in its new status
+ * (see {@link BookingTimerService}) every time the booking is saved.
+ * <p>
+ * The timer is scheduled after the surrounding transaction commits, a rolled back change schedules nothing.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class BookingTimerListener {
+
+    BookingTimerService bookingTimerService;
+
+    @PostPersist
+    @PostUpdate
+    public void onBookingSaved(Booking booking) {
+        EBookingTimer timer = EBookingTimer.forStatus(booking.getStatus());
+        if (timer == null || booking.getPickUpTime() == null || booking.getDropOffTime() == null) {
+            return;
+        }
+        // copy the state now, the entity may change again before the commit
+        String bookingNumber = booking.getBookingNumber();
+        LocalDateTime dueTime = timer.getDueTime(booking.getPickUpTime(), booking.getDropOffTime());
+        Runnable schedule = () -> {
+            try {
+                bookingTimerService.schedule(bookingNumber, timer, dueTime);
+            } catch (RuntimeException e) {
+                // the booking is committed, the daily rescheduling picks the timer up
+                log.warn("Schedule timer {} of booking {} failed: {}", timer, bookingNumber, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    schedule.run();
+                }
+            });
+        } else {
+            schedule.run();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.mp.karental.listener;
+
+import com.mp.karental.event.CarImagesChangedEvent;
+import com.mp.karental.service.ImageVariantService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Generates the resized variants of the images of a car in the background once its new images are committed.
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class CarImageVariantListener {
+
+    ImageVariantService imageVariantService;
+
+    @Async
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCarImagesChanged(CarImagesChangedEvent event) {
+        imageVariantService.generateVariants(event.carId());
+    }
+}
@@ -4,6 +4,7 @@ import com.mp.karental.constant.EPaymentType;
 import com.mp.karental.entity.Booking;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,6 +12,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -28,9 +30,6 @@ import java.util.Optional;
  */
 @Repository
 public interface BookingRepository extends JpaRepository<Booking, Long> {
-    @Query("SELECT COUNT(b) FROM Booking b WHERE b.status = 'COMPLETED' AND b.car.id = :carId")
-    long countCompletedBookingsByCar(@Param("carId") String carId);
-
     @Query("SELECT COUNT(b) > 0 FROM Booking b WHERE b.car.id = :carId AND b.account.id = :accountId AND b.status = 'COMPLETED'")
     boolean isCarBookedByAccount(@Param("carId") String carId, @Param("accountId") String accountId);
 
@@ -75,6 +74,66 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
             @Param("dropOffTime") LocalDateTime dropOffTime
     );
 
+    /**
+     * Retrieves the intervals of bookings that hold a car and end after the given time.
+     * Used to load the in-memory car availability index.
+     *
+     * @param excludedStatuses booking statuses that do not hold the car
+     * @param endAfter         only bookings with a drop-off time after this moment are returned
+     * @return rows in the form [carId, bookingNumber, pickUpTime, dropOffTime]
+     */
+    @Query("""
+    SELECT b.car.id, b.bookingNumber, b.pickUpTime, b.dropOffTime
+    FROM Booking b
+    WHERE b.status NOT IN :excludedStatuses
+    AND b.dropOffTime >= :endAfter
+""")
+    List<Object[]> findBlockingBookingIntervals(@Param("excludedStatuses") Collection<EBookingStatus> excludedStatuses,
+                                                @Param("endAfter") LocalDateTime endAfter);
+
+    /**
+     * Retrieves the bookings in the given statuses, to schedule their deadlines again.
+     * The bookings are split into partitions by the hash of their car id.
+     *
+     * @param statuses   the statuses with a deadline
+     * @param partition  the partition to retrieve, from 0 to partitions - 1
+     * @param partitions the number of partitions
+     * @return rows in the form [bookingNumber, status, pickUpTime, dropOffTime]
+     */
+    @Query("""
+    SELECT b.bookingNumber, b.status, b.pickUpTime, b.dropOffTime
+    FROM Booking b
+    WHERE b.status IN :statuses
+    AND MOD(CAST(FUNCTION('CRC32', b.car.id) AS Long), :partitions) = :partition
+""")
+    List<Object[]> findBookingDeadlines(@Param("statuses") Collection<EBookingStatus> statuses,
+                                        @Param("partition") int partition,
+                                        @Param("partitions") int partitions);
+
+    /**
+     * Changes the status of a booking only if it is still in the expected status,
+     * so concurrent handlers of the same change apply it once.
+     *
+     * @param bookingNumber the booking number
+     * @param oldStatus     the expected status
+     * @param newStatus     the new status
+     * @return 1 if the status changed, 0 if the booking was not in the expected status
+     */
+    @Modifying
+    @Query("UPDATE Booking b SET b.status = :newStatus WHERE b.bookingNumber = :bookingNumber AND b.status = :oldStatus")
+    int updateStatusIfCurrent(@Param("bookingNumber") String bookingNumber,
+                              @Param("oldStatus") EBookingStatus oldStatus,
+                              @Param("newStatus") EBookingStatus newStatus);
+
+    /**
+     * Retrieves the bookings in a status with their creation time.
+     *
+     * @param status the status
+     * @return rows in the form [bookingNumber, createdAt]
+     */
+    @Query("SELECT b.bookingNumber, b.createdAt FROM Booking b WHERE b.status = :status")
+    List<Object[]> findBookingNumbersByStatus(@Param("status") EBookingStatus status);
+
     @Query("SELECT b FROM Booking b WHERE b.car.id = :carId AND b.status = :status")
     List<Booking> findByCarIdAndStatus(@Param("carId") String carId, @Param("status") EBookingStatus status);
 
@@ -143,6 +202,19 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
 
     Booking findBookingByBookingNumber(String bookingNumber);
 
+    /**
+     * Retrieves a booking with the aggregate its state transitions use in one query:
+     * the car and its owner, the customer, and their roles and profiles.
+     * The associations are eager, loading the booking alone issues one more select for each of them.
+     *
+     * @param bookingNumber the booking number
+     * @return the booking, or null if it does not exist
+     */
+    @EntityGraph(attributePaths = {"car", "car.account", "car.account.role", "car.account.profile",
+            "account", "account.role", "account.profile"})
+    @Query("SELECT b FROM Booking b WHERE b.bookingNumber = :bookingNumber")
+    Booking findWithCarOwnerAndCustomer(@Param("bookingNumber") String bookingNumber);
+
 
     @Query("""
     SELECT b FROM Booking b
@@ -174,25 +246,61 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
 
     Optional<Booking> findByBookingNumber(String bookingNumber);
 
-    @Query("SELECT b FROM Booking b WHERE b.status = :status AND b.pickUpTime <= :currentTime")
-    List<Booking> findOverduePickups(@Param("status") EBookingStatus status,@Param("currentTime") LocalDateTime currentTime);
+    boolean existsByBookingNumber(String bookingNumber);
 
-    @Query("SELECT b FROM Booking b WHERE b.status = :status AND b.dropOffTime <= :currentTime")
-    List<Booking> findOverdueDropOffs(@Param("status") EBookingStatus status,@Param("currentTime") LocalDateTime currentTime);
+    /**
+     * Finds the greatest booking number of a day, the sequence of the booking numbers is zero-padded
+     * so the greatest number is also the last one.
+     *
+     * @param date the date of the booking numbers, {@code yyyyMMdd}
+     * @return the greatest booking number of the day, or null if there is none
+     */
+    @Query("SELECT MAX(b.bookingNumber) FROM Booking b WHERE b.bookingNumber LIKE CONCAT(:date, '-%')")
+    String findMaxBookingNumberOfDate(@Param("date") String date);
 
-    @Modifying
-    @Query("UPDATE Booking b SET b.status = :newStatus WHERE b.status = :oldStatus AND b.pickUpTime <= :currentTime")
-    int bulkUpdateWaitingConfirmedStatus(
-            @Param("newStatus") EBookingStatus newStatus,
-            @Param("oldStatus") EBookingStatus oldStatus,
-            @Param("currentTime") LocalDateTime currentTime
-    );
+    @EntityGraph(attributePaths = {"car", "car.account", "car.account.role", "car.account.profile",
+            "account", "account.role", "account.profile"})
+    List<Booking> findByBookingNumberIn(Collection<String> bookingNumbers);
 
-    @Modifying
-    @Query("UPDATE Booking b SET b.status = :newStatus WHERE b.status = :oldStatus AND b.dropOffTime <= :currentTime")
-    int bulkUpdateWaitingConfirmedReturnCarStatus(
-            @Param("newStatus") EBookingStatus newStatus,
-            @Param("oldStatus") EBookingStatus oldStatus,
-            @Param("currentTime") LocalDateTime currentTime
-    );
+    /**
+     * Retrieves a chunk of the bookings in a status whose pick-up time is reached,
+     * ordered by booking number to read the next chunk after the last one.
+     *
+     * @param status      the status
+     * @param currentTime the time the pick-up time is reached at
+     * @param after       the last booking number of the previous chunk, empty for the first chunk
+     * @param pageable    the size of the chunk
+     * @return the booking numbers of the chunk
+     */
+    @Query("""
+    SELECT b.bookingNumber
+    FROM Booking b
+    WHERE b.status = :status AND b.pickUpTime <= :currentTime AND b.bookingNumber > :after
+    ORDER BY b.bookingNumber
+""")
+    List<String> findOverduePickUpBookingNumbers(@Param("status") EBookingStatus status,
+                                                 @Param("currentTime") LocalDateTime currentTime,
+                                                 @Param("after") String after,
+                                                 Pageable pageable);
+
+    /**
+     * Retrieves a chunk of the bookings in a status whose drop-off time is reached,
+     * ordered by booking number to read the next chunk after the last one.
+     *
+     * @param status      the status
+     * @param currentTime the time the drop-off time is reached at
+     * @param after       the last booking number of the previous chunk, empty for the first chunk
+     * @param pageable    the size of the chunk
+     * @return the booking numbers of the chunk
+     */
+    @Query("""
+    SELECT b.bookingNumber
+    FROM Booking b
+    WHERE b.status = :status AND b.dropOffTime <= :currentTime AND b.bookingNumber > :after
+    ORDER BY b.bookingNumber
+""")
+    List<String> findOverdueDropOffBookingNumbers(@Param("status") EBookingStatus status,
+                                                  @Param("currentTime") LocalDateTime currentTime,
+                                                  @Param("after") String after,
+                                                  Pageable pageable);
 }
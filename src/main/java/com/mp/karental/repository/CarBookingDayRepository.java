@@ -0,0 +1,50 @@
+package com.mp.karental.repository;
+
+import com.mp.karental.entity.CarBookingDay;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Repository interface for the days on which the cars are held by bookings.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ * @see JpaRepository
+ */
+@Repository
+public interface CarBookingDayRepository extends JpaRepository<CarBookingDay, Long> {
+
+    boolean existsByBookingNumber(String bookingNumber);
+
+    /**
+     * Releases the days held by bookings.
+     *
+     * @param bookingNumbers the booking numbers
+     * @return the number of released days
+     */
+    @Modifying
+    @Query("DELETE FROM CarBookingDay d WHERE d.bookingNumber IN :bookingNumbers")
+    int deleteByBookingNumberIn(@Param("bookingNumbers") Collection<String> bookingNumbers);
+
+    /**
+     * Records a day held by a booking, unless the car is already held on that day.
+     *
+     * @param carId         the id of the car
+     * @param day           the day
+     * @param bookingNumber the booking number
+     * @return 1 if the day is recorded, 0 if it is already held
+     */
+    @Modifying
+    @Query(value = """
+        INSERT IGNORE INTO car_booking_day (car_id, day, booking_number)
+        VALUES (:carId, :day, :bookingNumber)
+    """, nativeQuery = true)
+    int insertIgnore(@Param("carId") String carId, @Param("day") LocalDate day, @Param("bookingNumber") String bookingNumber);
+}
@@ -1,15 +1,19 @@
 package com.mp.karental.repository;
 
+import com.mp.karental.constant.EBookingStatus;
 import com.mp.karental.constant.ECarStatus;
 import com.mp.karental.entity.Car;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,14 +39,111 @@ public interface CarRepository extends JpaRepository<Car, String> {
     @Query("SELECT c FROM Car c WHERE c.account.id = :accountId")
     Page<Car> findByAccountId(String accountId, Pageable pageable);
 
-    @Query("""
-    SELECT c FROM Car c 
-    WHERE c.status = :status 
-    AND LOWER(REPLACE(CONCAT(c.cityProvince, ' ', c.district, ' ', c.ward), ',', '')) 
-        LIKE LOWER(REPLACE(CONCAT('%', :address, '%'), ',', ''))
+    /**
+     * Retrieves a page of cars in the given status located in the given city/province, district and ward
+     * that have no blocking booking overlapping the requested range.
+     * <p>
+     * The location is matched by equality on the normalized keys, so the lookup is served by the
+     * (status, city_province_key, district_key, ward_key) index. A null key matches any value.
+     * Availability is resolved with an anti-join on {@code Booking}, so sorting and pagination
+     * are applied by the database on the already-filtered result.
+     * </p>
+     *
+     * @param status           The car status to match (VERIFIED for search).
+     * @param cityProvinceKey  The normalized city/province, or null to match any.
+     * @param districtKey      The normalized district, or null to match any.
+     * @param wardKey          The normalized ward, or null to match any.
+     * @param startRange       The start of the range to check for overlapping bookings.
+     * @param endRange         The end of the range to check for overlapping bookings.
+     * @param excludedStatuses Booking statuses that do not block the car.
+     * @param excludedCarIds   Ids of cars to leave out, e.g. the cars held by other customers (not empty).
+     * @param pageable         The pagination and sorting information.
+     * @return A page of available cars.
+     */
+    @Query(value = """
+    SELECT c FROM Car c
+    WHERE c.status = :status
+    AND (:cityProvinceKey IS NULL OR c.cityProvinceKey = :cityProvinceKey)
+    AND (:districtKey IS NULL OR c.districtKey = :districtKey)
+    AND (:wardKey IS NULL OR c.wardKey = :wardKey)
+    AND c.id NOT IN :excludedCarIds
+    AND NOT EXISTS (
+        SELECT 1 FROM Booking b
+        WHERE b.car = c
+        AND b.status NOT IN :excludedStatuses
+        AND b.pickUpTime <= :endRange
+        AND b.dropOffTime >= :startRange
+    )
+""", countQuery = """
+    SELECT COUNT(c) FROM Car c
+    WHERE c.status = :status
+    AND (:cityProvinceKey IS NULL OR c.cityProvinceKey = :cityProvinceKey)
+    AND (:districtKey IS NULL OR c.districtKey = :districtKey)
+    AND (:wardKey IS NULL OR c.wardKey = :wardKey)
+    AND c.id NOT IN :excludedCarIds
+    AND NOT EXISTS (
+        SELECT 1 FROM Booking b
+        WHERE b.car = c
+        AND b.status NOT IN :excludedStatuses
+        AND b.pickUpTime <= :endRange
+        AND b.dropOffTime >= :startRange
+    )
 """)
-    List<Car> findVerifiedCarsByAddress(@Param("status") ECarStatus status,
-                                        @Param("address") String address);
+    Page<Car> findAvailableCarsByLocation(@Param("status") ECarStatus status,
+                                          @Param("cityProvinceKey") String cityProvinceKey,
+                                          @Param("districtKey") String districtKey,
+                                          @Param("wardKey") String wardKey,
+                                          @Param("startRange") LocalDateTime startRange,
+                                          @Param("endRange") LocalDateTime endRange,
+                                          @Param("excludedStatuses") List<EBookingStatus> excludedStatuses,
+                                          @Param("excludedCarIds") Collection<String> excludedCarIds,
+                                          Pageable pageable);
+
+    /**
+     * Retrieves the cars whose normalized location keys have not been computed yet.
+     *
+     * @return the list of cars without location keys
+     */
+    List<Car> findByCityProvinceKeyIsNull();
+
+    /**
+     * Retrieves the cars whose image variants are not generated yet, the ones that failed the least first.
+     *
+     * @param maxAttempts the number of failed generations after which a car is left out
+     * @param pageable    the number of cars to retrieve
+     * @return the list of cars without image variants
+     */
+    @Query("""
+            SELECT c FROM Car c
+            WHERE c.imageVariantsReady = false
+              AND c.imageVariantAttempts < :maxAttempts
+            ORDER BY c.imageVariantAttempts, c.id
+            """)
+    List<Car> findCarsWithoutImageVariants(@Param("maxAttempts") int maxAttempts, Pageable pageable);
+
+    /**
+     * Marks the image variants of a car ready, if its images did not change since the variants were generated.
+     *
+     * @param carId         the id of the car
+     * @param imagesVersion the version of the images the variants were generated from
+     * @return the number of updated cars, 0 if the images changed meanwhile
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Car c SET c.imageVariantsReady = true WHERE c.id = :carId AND c.imagesVersion = :imagesVersion")
+    int markImageVariantsReady(@Param("carId") String carId, @Param("imagesVersion") long imagesVersion);
+
+    /**
+     * Counts a failed generation of the image variants of a car, if its images did not change meanwhile.
+     *
+     * @param carId         the id of the car
+     * @param imagesVersion the version of the images the generation failed on
+     * @return the number of updated cars, 0 if the images changed meanwhile
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Car c SET c.imageVariantAttempts = c.imageVariantAttempts + 1 WHERE c.id = :carId AND c.imagesVersion = :imagesVersion")
+    int recordImageVariantFailure(@Param("carId") String carId, @Param("imagesVersion") long imagesVersion);
 
 
     @Query("SELECT c.id FROM Car c WHERE c.account.id = :ownerId")
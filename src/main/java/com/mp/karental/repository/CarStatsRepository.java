@@ -0,0 +1,90 @@
+package com.mp.karental.repository;
+
+import com.mp.karental.entity.CarStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository interface for the {@link CarStats} read model.
+ * <p>
+ * The counters are changed with atomic upserts, so concurrent feedbacks and completed bookings
+ * of the same car do not lose updates.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ * @see JpaRepository
+ */
+@Repository
+public interface CarStatsRepository extends JpaRepository<CarStats, String> {
+
+    List<CarStats> findByCarIdIn(Collection<String> carIds);
+
+    /**
+     * Adds a feedback rating to the statistics of a car.
+     *
+     * @param carId  the id of the rated car
+     * @param rating the rating of the feedback
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO car_stats (car_id, rating_sum, rating_count, completed_rides)
+        VALUES (:carId, :rating, 1, 0)
+        ON DUPLICATE KEY UPDATE rating_sum = rating_sum + :rating, rating_count = rating_count + 1
+    """, nativeQuery = true)
+    void addRating(@Param("carId") String carId, @Param("rating") int rating);
+
+    /**
+     * Adds one completed ride to the statistics of a car.
+     *
+     * @param carId the id of the car of the completed booking
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO car_stats (car_id, rating_sum, rating_count, completed_rides)
+        VALUES (:carId, 0, 0, 1)
+        ON DUPLICATE KEY UPDATE completed_rides = completed_rides + 1
+    """, nativeQuery = true)
+    void incrementCompletedRides(@Param("carId") String carId);
+
+    /**
+     * Recomputes the statistics of every car from the feedback and booking tables.
+     *
+     * @return the number of affected rows
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO car_stats (car_id, rating_sum, rating_count, completed_rides)
+        SELECT s.car_id, s.rating_sum, s.rating_count, s.completed_rides
+        FROM (
+            SELECT c.id AS car_id,
+                   COALESCE(r.rating_sum, 0) AS rating_sum,
+                   COALESCE(r.rating_count, 0) AS rating_count,
+                   COALESCE(d.completed_rides, 0) AS completed_rides
+            FROM car c
+            LEFT JOIN (
+                SELECT b.car_id, SUM(f.rating) AS rating_sum, COUNT(f.rating) AS rating_count
+                FROM feedback f
+                JOIN booking b ON f.booking_number = b.booking_number
+                GROUP BY b.car_id
+            ) r ON r.car_id = c.id
+            LEFT JOIN (
+                SELECT b.car_id, COUNT(*) AS completed_rides
+                FROM booking b
+                WHERE b.status = 'COMPLETED'
+                GROUP BY b.car_id
+            ) d ON d.car_id = c.id
+        ) s
+        ON DUPLICATE KEY UPDATE rating_sum = s.rating_sum,
+                                rating_count = s.rating_count,
+                                completed_rides = s.completed_rides
+    """, nativeQuery = true)
+    int rebuildAll();
+}
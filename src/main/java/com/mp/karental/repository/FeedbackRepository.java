@@ -112,20 +112,6 @@ public interface FeedbackRepository extends JpaRepository<Feedback, String> {
     """, nativeQuery = true)
     Double calculateAverageRatingByOwner(@Param("carIds") List<String> carIds);
 
-    /**
-     * Calculates the average rating for a specific car.
-     *
-     * @param carId The unique identifier of the car.
-     * @return The average rating for the car, or null if no feedback exists.
-     */
-    @Query(value = """
-                SELECT AVG(f.rating) 
-                FROM feedback f
-                JOIN booking b ON f.booking_number = b.booking_number
-                WHERE b.car_id = :carId
-            """, nativeQuery = true)
-    Double calculateAverageRatingByCar(@Param("carId") String carId);
-
     /**
      * Retrieves the latest 4 feedbacks with a 5-star rating.
      *
@@ -0,0 +1,56 @@
+package com.mp.karental.repository;
+
+import com.mp.karental.entity.FileContentHash;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository interface for the {@link FileContentHash} of the files stored in S3.
+ * <p>
+ * The changes are committed in their own transaction: once the content of a key is replaced in the bucket,
+ * a rollback of the caller must not bring back the hash of the previous content.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ * @see JpaRepository
+ */
+@Repository
+public interface FileContentHashRepository extends JpaRepository<FileContentHash, String> {
+
+    List<FileContentHash> findByFileKeyIn(Collection<String> fileKeys);
+
+    /**
+     * Stores the hash of the content uploaded under a key.
+     *
+     * @param fileKey the key of the file
+     * @param sha256  the hex encoded SHA-256 of the content
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = """
+        INSERT INTO file_content_hash (file_key, sha256)
+        VALUES (:fileKey, :sha256)
+        ON DUPLICATE KEY UPDATE sha256 = :sha256
+    """, nativeQuery = true)
+    void saveHash(@Param("fileKey") String fileKey, @Param("sha256") String sha256);
+
+    /**
+     * Forgets the hashes of keys whose content is not known anymore.
+     *
+     * @param fileKeys the keys of the files
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("DELETE FROM FileContentHash h WHERE h.fileKey IN :fileKeys")
+    void deleteHashes(@Param("fileKeys") Collection<String> fileKeys);
+}
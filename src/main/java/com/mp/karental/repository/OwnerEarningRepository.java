@@ -0,0 +1,70 @@
+package com.mp.karental.repository;
+
+import com.mp.karental.entity.OwnerEarning;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Repository interface for the earnings of the car owners waiting to be paid.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ * @see JpaRepository
+ */
+@Repository
+public interface OwnerEarningRepository extends JpaRepository<OwnerEarning, Long> {
+
+    /**
+     * Finds and locks the oldest pending earnings.
+     * The earnings locked by another settlement are skipped, so they are never paid twice.
+     *
+     * @param pageable the size of the batch
+     * @return the locked earnings, by order of creation
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OwnerEarning e WHERE e.failed = false ORDER BY e.id")
+    List<OwnerEarning> findPendingForSettlement(Pageable pageable);
+
+    /**
+     * Finds and locks the oldest pending earnings of a car owner, skipping the ones locked by another settlement.
+     *
+     * @param ownerId  the id of the car owner
+     * @param pageable the size of the batch
+     * @return the locked earnings, by order of creation
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OwnerEarning e WHERE e.ownerId = :ownerId AND e.failed = false ORDER BY e.id")
+    List<OwnerEarning> findPendingForSettlementByOwnerId(@Param("ownerId") String ownerId, Pageable pageable);
+
+    /**
+     * Finds the car owners having pending earnings.
+     *
+     * @param pageable the number of owners
+     * @return the ids of the owners
+     */
+    @Query("SELECT DISTINCT e.ownerId FROM OwnerEarning e WHERE e.failed = false ORDER BY e.ownerId")
+    List<String> findPendingOwnerIds(Pageable pageable);
+
+    /**
+     * Marks the pending earnings of a car owner failed, they are left out of the next settlements.
+     *
+     * @param ownerId the id of the car owner
+     * @return the number of marked earnings
+     */
+    @Modifying
+    @Query("UPDATE OwnerEarning e SET e.failed = true WHERE e.ownerId = :ownerId AND e.failed = false")
+    int markFailed(@Param("ownerId") String ownerId);
+}
@@ -0,0 +1,42 @@
+package com.mp.karental.repository;
+
+import com.mp.karental.entity.SystemWalletShard;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository interface for the shards of the wallet of the system.
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ * @see JpaRepository
+ */
+@Repository
+public interface SystemWalletShardRepository extends JpaRepository<SystemWalletShard, Integer> {
+
+    /**
+     * Adds an amount to the balance of a shard in one statement, creating the shard if needed.
+     *
+     * @param shard  the index of the shard
+     * @param amount the amount to add, negative to debit the shard
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO system_wallet_shard (shard, balance)
+        VALUES (:shard, :amount)
+        ON DUPLICATE KEY UPDATE balance = balance + :amount
+    """, nativeQuery = true)
+    void addToBalance(@Param("shard") int shard, @Param("amount") long amount);
+
+    /**
+     * Sums the balances of all the shards.
+     *
+     * @return the total balance of the shards
+     */
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM SystemWalletShard s")
+    long sumBalance();
+}
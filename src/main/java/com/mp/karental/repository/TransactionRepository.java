@@ -1,11 +1,20 @@
 package com.mp.karental.repository;
 
+import com.mp.karental.constant.ETransactionStatus;
+import com.mp.karental.dto.response.transaction.TransactionResponse;
 import com.mp.karental.entity.Transaction;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface TransactionRepository extends JpaRepository<Transaction, String> {
     List<Transaction> findByWalletId(String walletId);
@@ -14,4 +23,94 @@ public interface TransactionRepository extends JpaRepository<Transaction, String
     List<Transaction> getTransactionsByDate(String accountId, LocalDateTime from, LocalDateTime to);
 
     List<Transaction> getTransactionsByWalletId(String walletId);
+
+    /**
+     * Changes the status of a transaction only if it is still in the expected status,
+     * so concurrent handlers of the same change apply it once.
+     *
+     * @param id        the id of the transaction
+     * @param oldStatus the expected status
+     * @param newStatus the new status
+     * @return 1 if the status changed, 0 if the transaction was not in the expected status
+     */
+    @Modifying
+    @Query("UPDATE Transaction t SET t.status = :newStatus WHERE t.id = :id AND t.status = :oldStatus")
+    int updateStatusIfCurrent(@Param("id") String id,
+                              @Param("oldStatus") ETransactionStatus oldStatus,
+                              @Param("newStatus") ETransactionStatus newStatus);
+
+    /**
+     * Retrieves the transactions in a status with their creation time.
+     *
+     * @param status the status
+     * @return rows in the form [id, createdAt]
+     */
+    @Query("SELECT t.id, t.createdAt FROM Transaction t WHERE t.status = :status")
+    List<Object[]> findIdsByStatus(@Param("status") ETransactionStatus status);
+
+    /**
+     * Retrieves the first page of the transactions of a wallet, newest first.
+     *
+     * @param walletId the id of the wallet
+     * @param from     the start of the date range
+     * @param to       the end of the date range
+     * @param pageable the size of the page
+     * @return the transactions of the page
+     */
+    @Query("""
+        SELECT t FROM Transaction t
+        WHERE t.wallet.id = :walletId AND t.createdAt BETWEEN :from AND :to
+        ORDER BY t.createdAt DESC, t.id DESC
+    """)
+    List<Transaction> findFirstPageByWalletId(@Param("walletId") String walletId,
+                                              @Param("from") LocalDateTime from,
+                                              @Param("to") LocalDateTime to,
+                                              Pageable pageable);
+
+    /**
+     * Retrieves the page of the transactions of a wallet after a cursor, newest first.
+     * The page is found through the index on (wallet_id, created_at), without skipping the previous rows.
+     *
+     * @param walletId  the id of the wallet
+     * @param from      the start of the date range
+     * @param to        the end of the date range
+     * @param createdAt the creation time of the last transaction of the previous page
+     * @param id        the id of the last transaction of the previous page
+     * @param pageable  the size of the page
+     * @return the transactions of the page
+     */
+    @Query("""
+        SELECT t FROM Transaction t
+        WHERE t.wallet.id = :walletId AND t.createdAt BETWEEN :from AND :to
+        AND (t.createdAt < :createdAt OR (t.createdAt = :createdAt AND t.id < :id))
+        ORDER BY t.createdAt DESC, t.id DESC
+    """)
+    List<Transaction> findPageByWalletIdAfter(@Param("walletId") String walletId,
+                                              @Param("from") LocalDateTime from,
+                                              @Param("to") LocalDateTime to,
+                                              @Param("createdAt") LocalDateTime createdAt,
+                                              @Param("id") String id,
+                                              Pageable pageable);
+
+    /**
+     * Streams the transactions of a wallet, newest first.
+     * MySQL sends the rows one by one when the fetch size is Integer.MIN_VALUE,
+     * the stream must be closed inside the transaction which opened it.
+     *
+     * @param walletId the id of the wallet
+     * @param from     the start of the date range
+     * @param to       the end of the date range
+     * @return the transactions, mapped to responses
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("""
+        SELECT new com.mp.karental.dto.response.transaction.TransactionResponse(
+            t.createdAt, t.type, t.bookingNo, t.carName, t.amount, t.message, t.status)
+        FROM Transaction t
+        WHERE t.wallet.id = :walletId AND t.createdAt BETWEEN :from AND :to
+        ORDER BY t.createdAt DESC, t.id DESC
+    """)
+    Stream<TransactionResponse> streamByWalletId(@Param("walletId") String walletId,
+                                                 @Param("from") LocalDateTime from,
+                                                 @Param("to") LocalDateTime to);
 }
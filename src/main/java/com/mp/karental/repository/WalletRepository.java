@@ -2,6 +2,9 @@ package com.mp.karental.repository;
 
 import com.mp.karental.entity.Wallet;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -21,4 +24,22 @@ import java.util.Optional;
 @Repository
 public interface WalletRepository extends JpaRepository<Wallet, String> {
     Optional<Wallet> findById(String id);
+
+    /**
+     * Adds an amount to the balance of a wallet in one statement, without reading it first,
+     * so concurrent changes of the same wallet are not lost.
+     *
+     * @param id             the id of the wallet
+     * @param amount         the amount to add, negative to debit the wallet
+     * @param allowOverdraft true to let the balance go negative
+     * @return 1 if the balance changed, 0 if the wallet does not exist or the balance is not enough
+     */
+    @Modifying
+    @Query("""
+    UPDATE Wallet w SET w.balance = w.balance + :amount
+    WHERE w.id = :id AND (:allowOverdraft = true OR w.balance + :amount >= 0)
+""")
+    int addToBalance(@Param("id") String id,
+                     @Param("amount") long amount,
+                     @Param("allowOverdraft") boolean allowOverdraft);
 }
@@ -1,42 +1,131 @@
 package com.mp.karental.scheduler;
 
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.service.BookingService;
+import com.mp.karental.service.BookingTimerService;
+import com.mp.karental.util.RedisUtil;
+import com.mp.karental.util.SchedulerLockManager;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
 @Component
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 public class BookingScheduler {
     BookingService bookingService;
+    BookingTimerService bookingTimerService;
+    BookingRepository bookingRepository;
+    RedisUtil redisUtil;
+
+    private static final int TIMER_BATCH_SIZE = 100;
+    private static final int TIMER_RETRY_MINUTES = 1;
+    private static final int RESCHEDULE_PARTITIONS = 4;
+    private static final int SWEEP_CHUNK_SIZE = 200;
+    // the timers handle the bookings at their deadline, the sweep only catches the ones they missed
+    private static final int SWEEP_GRACE_MINUTES = 5;
+
+    /**
+     * fire the due booking deadlines every 5 seconds:
+     * reminders of overdue pick up and drop off, waiting confirm and waiting confirm return car expiries
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void fireDueBookingTimers() {
+        List<BookingTimerService.BookingTimer> timers;
+        do {
+            timers = bookingTimerService.claimDue(TIMER_BATCH_SIZE);
+            for (BookingTimerService.BookingTimer timer : timers) {
+                try {
+                    bookingService.handleBookingTimer(timer.timer(), timer.bookingNumber());
+                } catch (RuntimeException e) {
+                    // the timer is claimed, schedule it again so a failure does not lose the deadline
+                    log.warn("Handle timer {} of booking {} failed, retry in {} minute: {}",
+                            timer.timer(), timer.bookingNumber(), TIMER_RETRY_MINUTES, e.getMessage());
+                    bookingTimerService.schedule(timer.bookingNumber(), timer.timer(),
+                            LocalDateTime.now().plusMinutes(TIMER_RETRY_MINUTES));
+                }
+            }
+        } while (timers.size() == TIMER_BATCH_SIZE);
+    }
 
     /**
-     * check at 6h to 22h every day, if a booking have status waiting confirm
-     * or waiting confirm return car will update by method processOverdueWaitingBookings
-     * check every hour
+     * schedule again the deadline of every booking when the application is ready and at 3h every day,
+     * recovers the timers lost with Redis data.
+     * the bookings are split by car, the nodes running at the same time share the partitions
      */
-    @Scheduled(cron = "0 0 6-22 * * *")
-    //@Scheduled(cron = "0 33 15 * * *") //test 15:33
-    //@Scheduled(fixedDelay = 1000) // auto after 1 second
-    public void checkOverduePickUpAndDropOffBookings() {
-        log.info("Checking overdue pick up and drop off bookings...");
-        bookingService.processOverduePickUpAndDropOffBookings(); // both pick up time and drop off time
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 0 3 * * *")
+    @SchedulerLock(name = "reschedule-booking-timers", partitions = RESCHEDULE_PARTITIONS)
+    public void rescheduleBookingTimers() {
+        SchedulerLockManager.Lease lease = SchedulerLockManager.currentLease();
+        int partition = lease == null ? 0 : lease.getPartition();
+        int partitions = lease == null ? 1 : lease.getPartitions();
+        log.info("Rescheduled {} booking timers of partition {}/{}", bookingTimerService.rescheduleAll(partition, partitions),
+                partition, partitions);
     }
 
     /**
-     * check at 6h05 to 22h05 every day, if a booking have status waiting confirm
-     * or waiting confirm return car will update by method processOverdueWaitingBookings
-     * check every hour
+     * sweep every 30 minutes the waiting bookings overdue for more than 5 minutes, whose timer was lost.
+     * the bookings are read by chunks of 200 after the last booking number done, one transaction per chunk,
+     * a failed chunk is retried one booking per transaction, and a sweep stopped halfway resumes from its checkpoint
      */
-    @Scheduled(cron = "0 5 6-22 * * *")
-    //@Scheduled(fixedDelay = 60000) // auto after 60 second
-    public void checkOverdueWaitingBookings() {
-        log.info("Checking overdue waiting bookings...");
-        bookingService.processOverdueWaitingBookings();
+    @Scheduled(cron = "0 */30 * * * *")
+    @SchedulerLock(name = "sweep-overdue-waiting-bookings")
+    public void sweepOverdueWaitingBookings() {
+        LocalDateTime currentTime = LocalDateTime.now().minusMinutes(SWEEP_GRACE_MINUTES);
+        PageRequest chunk = PageRequest.ofSize(SWEEP_CHUNK_SIZE);
+        sweep(EBookingTimer.WAITING_CONFIRMED_EXPIRY, after -> bookingRepository.findOverduePickUpBookingNumbers(
+                EBookingStatus.WAITING_CONFIRMED, currentTime, after, chunk));
+        sweep(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, after -> bookingRepository.findOverdueDropOffBookingNumbers(
+                EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, currentTime, after, chunk));
+    }
+
+    private void sweep(EBookingTimer timer, Function<String, List<String>> nextChunk) {
+        String checkpoint = timer.name();
+        String after = Objects.requireNonNullElse(redisUtil.getSweepCheckpoint(checkpoint), "");
+        SchedulerLockManager.Lease lease = SchedulerLockManager.currentLease();
+        List<String> bookingNumbers;
+        while (!(bookingNumbers = nextChunk.apply(after)).isEmpty()) {
+            if (lease != null && !lease.isHeld()) {
+                // another node took over the sweep, it resumes from the checkpoint
+                log.warn("Lost the lock of the sweep of {}, stopped after {}", timer, after);
+                return;
+            }
+            try {
+                bookingService.processOverdueWaitingBookings(timer, bookingNumbers);
+            } catch (RuntimeException e) {
+                // the chunk is rolled back, retry its bookings one by one so one bad booking does not hold back the others
+                log.warn("Sweep of {} failed on the chunk after {}, retrying its bookings one by one: {}", timer, after, e.getMessage());
+                retryOneByOne(timer, bookingNumbers);
+            }
+            after = bookingNumbers.get(bookingNumbers.size() - 1);
+            redisUtil.saveSweepCheckpoint(checkpoint, after);
+        }
+        redisUtil.deleteSweepCheckpoint(checkpoint);
+    }
+
+    private void retryOneByOne(EBookingTimer timer, List<String> bookingNumbers) {
+        for (String bookingNumber : bookingNumbers) {
+            try {
+                bookingService.handleBookingTimer(timer, bookingNumber);
+            } catch (RuntimeException e) {
+                // the booking is left as it is, the next sweep tries it again
+                log.error("Sweep of {} failed on booking {}", timer, bookingNumber, e);
+            }
+        }
     }
 }
@@ -0,0 +1,55 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.repository.BookingRepository;
+import com.mp.karental.service.CarAvailabilityIndex;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Loads the {@link CarAvailabilityIndex} at startup and rebuilds it periodically.
+ * <p>
+ * The periodic rebuild picks up changes made by other instances and by bulk updates,
+ * which do not go through the booking entity listener.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CarAvailabilityIndexScheduler {
+    BookingRepository bookingRepository;
+    CarAvailabilityIndex carAvailabilityIndex;
+
+    /**
+     * load the index when the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void loadIndex() {
+        rebuildIndex();
+    }
+
+    /**
+     * rebuild the index every 5 minutes
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    @Transactional(readOnly = true)
+    public void rebuildIndex() {
+        // a booking ended more than 1 day ago can not block any new booking (search uses a 1 day buffer)
+        LocalDateTime endAfter = LocalDateTime.now().minusDays(1);
+        carAvailabilityIndex.rebuild(() -> bookingRepository.findBlockingBookingIntervals(
+                CarAvailabilityIndex.NON_BLOCKING_STATUSES, endAfter));
+    }
+}
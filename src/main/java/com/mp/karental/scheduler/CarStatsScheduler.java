@@ -0,0 +1,51 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.repository.CarStatsRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Rebuilds the {@code car_stats} read model from the feedback and booking tables.
+ * <p>
+ * It back-fills the statistics at startup and reconciles them every night,
+ * in case an incremental update was missed.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CarStatsScheduler {
+    CarStatsRepository carStatsRepository;
+
+    /**
+     * back-fill the statistics when the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @SchedulerLock(name = "rebuild-car-stats")
+    @Transactional
+    public void loadCarStats() {
+        rebuildCarStats();
+    }
+
+    /**
+     * rebuild the statistics at 3AM every day
+     */
+    @Scheduled(cron = "0 0 3 * * *")
+    @SchedulerLock(name = "rebuild-car-stats")
+    @Transactional
+    public void rebuildCarStats() {
+        int rows = carStatsRepository.rebuildAll();
+        log.info("Car statistics rebuilt, affected rows: {}", rows);
+    }
+}
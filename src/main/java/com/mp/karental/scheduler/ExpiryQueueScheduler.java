@@ -0,0 +1,64 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.service.ExpiryQueueService;
+import com.mp.karental.service.PendingExpiryService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Expires the pending bookings and transactions of the {@link ExpiryQueueService}.
+ * <p>
+ * Every node polls the queue, a due item is claimed by one node only.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ExpiryQueueScheduler {
+    ExpiryQueueService expiryQueueService;
+    PendingExpiryService pendingExpiryService;
+
+    private static final int BATCH_SIZE = 100;
+    // an item not acknowledged within the lease is claimed again
+    private static final Duration CLAIM_LEASE = Duration.ofMinutes(5);
+
+    /**
+     * recover the expiry of the pending items when the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverExpiryQueue() {
+        pendingExpiryService.recoverExpiryQueue();
+    }
+
+    /**
+     * expire the due items every 5 seconds
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void expireDueItems() {
+        List<String> items;
+        do {
+            items = expiryQueueService.claimDue(BATCH_SIZE, CLAIM_LEASE);
+            for (String item : items) {
+                try {
+                    pendingExpiryService.expire(item);
+                    expiryQueueService.acknowledge(item);
+                } catch (RuntimeException e) {
+                    log.warn("Expire {} failed, it is claimed again after the lease: {}", item, e.getMessage());
+                }
+            }
+        } while (items.size() == BATCH_SIZE);
+    }
+}
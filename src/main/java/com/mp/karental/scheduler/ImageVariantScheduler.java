@@ -0,0 +1,88 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.entity.Car;
+import com.mp.karental.repository.CarRepository;
+import com.mp.karental.service.ImageVariantService;
+import com.mp.karental.util.SchedulerLockManager;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates the image variants of the cars that do not have them yet.
+ * <p>
+ * It back-fills the cars created before the variants existed and retries the generations that failed.
+ * A car whose generation failed {@value #MAX_ATTEMPTS} times is left out until its images change.
+ * </p>
+ * <p>
+ * The images are downloaded and resized on a pool of its own, the run only hands the cars over to it
+ * and does not hold the thread shared by the scheduled jobs.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ImageVariantScheduler {
+    static final int BATCH_SIZE = 50;
+    static final int MAX_ATTEMPTS = 5;
+    private static final int GENERATION_THREADS = 2;
+
+    CarRepository carRepository;
+    ImageVariantService imageVariantService;
+
+    ExecutorService generationExecutor = Executors.newFixedThreadPool(GENERATION_THREADS);
+    // the cars handed to the pool and not generated yet, a slow run is not picked again by the next one
+    Set<String> pendingCarIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * generate the missing variants of at most 50 cars every 15 minutes
+     */
+    @Scheduled(initialDelay = 60_000, fixedDelay = 900_000)
+    @SchedulerLock(name = "generate-image-variants", leaseSeconds = 120)
+    public void generateMissingVariants() {
+        List<Car> cars = carRepository.findCarsWithoutImageVariants(MAX_ATTEMPTS, PageRequest.of(0, BATCH_SIZE));
+        if (cars.isEmpty()) {
+            return;
+        }
+        log.info("Generating image variants of {} cars", cars.size());
+        SchedulerLockManager.Lease lease = SchedulerLockManager.currentLease();
+        for (Car car : cars) {
+            // another node took over the job after our lease expired, let it upload the variants
+            if (lease != null && !lease.isHeld()) {
+                log.warn("Lost the lock of the image variant generation, stopped");
+                return;
+            }
+            String carId = car.getId();
+            if (!pendingCarIds.add(carId)) {
+                continue;
+            }
+            generationExecutor.execute(() -> {
+                try {
+                    imageVariantService.generateVariants(carId);
+                } finally {
+                    pendingCarIds.remove(carId);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        generationExecutor.shutdownNow();
+    }
+}
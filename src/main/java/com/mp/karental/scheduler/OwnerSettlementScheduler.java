@@ -0,0 +1,80 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.service.OwnerSettlementService;
+import com.mp.karental.util.SchedulerLockManager;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pays the pending earnings of the car owners every 15 minutes.
+ * <p>
+ * Each batch is paid in its own transaction, the run stops when no earning is left.
+ * A failed batch is paid again owner by owner, one transaction per owner.
+ * The earnings of an owner that can never be paid (its wallet is missing) are marked failed,
+ * an owner failing for a transient reason (lock timeout, deadlock, lost connection) is left pending for the next run.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class OwnerSettlementScheduler {
+    static final int BATCH_SIZE = 500;
+
+    OwnerSettlementService ownerSettlementService;
+
+    /**
+     * settle the earnings of the car owners every 15 minutes
+     */
+    @Scheduled(cron = "0 */15 * * * *")
+    @SchedulerLock(name = "settle-owner-earnings")
+    public void settleOwnerEarnings() {
+        SchedulerLockManager.Lease lease = SchedulerLockManager.currentLease();
+        int settled;
+        do {
+            if (lease != null && !lease.isHeld()) {
+                log.warn("Lost the lock of the owner settlement, stopped");
+                return;
+            }
+            try {
+                settled = ownerSettlementService.settleNextBatch(BATCH_SIZE);
+            } catch (RuntimeException e) {
+                // the batch is rolled back, pay its owners one by one so one bad owner does not hold back the others
+                log.warn("Settlement of a batch failed, settling the owners one by one: {}", e.getMessage());
+                settled = settleOwnerByOwner();
+            }
+        } while (settled > 0);
+    }
+
+    private int settleOwnerByOwner() {
+        int settled = 0;
+        for (String ownerId : ownerSettlementService.findPendingOwnerIds(BATCH_SIZE)) {
+            try {
+                settled += ownerSettlementService.settleOwner(ownerId, BATCH_SIZE);
+            } catch (RuntimeException e) {
+                if (isPermanent(e)) {
+                    log.error("Settlement of car owner {} failed", ownerId, e);
+                    settled += ownerSettlementService.markFailed(ownerId);
+                } else {
+                    // only the progress of the other owners keeps the run going, this one is retried by the next run
+                    log.warn("Settlement of car owner {} failed, left pending: {}", ownerId, e.getMessage());
+                }
+            }
+        }
+        return settled;
+    }
+
+    private static boolean isPermanent(RuntimeException e) {
+        return e instanceof AppException appException
+                && appException.getErrorCode() == ErrorCode.WALLET_NOT_FOUND_IN_DB;
+    }
+}
@@ -0,0 +1,43 @@
+package com.mp.karental.scheduler;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs a scheduled job on one node of the cluster at a time, the other nodes skip the run.
+ * <p>
+ * A job with several partitions runs once per partition: each node takes the partitions that are free,
+ * starting from a random one, so the nodes running at the same time share the work.
+ * The job reads its partition from {@link com.mp.karental.util.SchedulerLockManager#currentLease()}.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SchedulerLock {
+    /**
+     * @return the name of the lock, shared by the methods running the same job
+     */
+    String name();
+
+    /**
+     * @return the lease of the lock in seconds, renewed while the job runs
+     */
+    long leaseSeconds() default 60;
+
+    /**
+     * @return the minimum time in seconds the lock is kept from the start of a run, even when the run ends earlier,
+     * so a node whose clock is a bit late does not run the job again; it must be shorter than the interval of the job
+     */
+    long lockAtLeastSeconds() default 30;
+
+    /**
+     * @return the number of partitions of the job
+     */
+    int partitions() default 1;
+}
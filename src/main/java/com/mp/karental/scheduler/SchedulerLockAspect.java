@@ -0,0 +1,61 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.util.SchedulerLockManager;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Takes the lock of the methods annotated with {@link SchedulerLock} around each run.
+ * <p>
+ * It runs before any other advice, the lock is taken before a transaction of the job begins
+ * and released after it commits.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SchedulerLockAspect {
+    SchedulerLockManager schedulerLockManager;
+
+    /**
+     * Runs the job for every partition whose lock is free.
+     */
+    @Around("@annotation(schedulerLock)")
+    public Object runLocked(ProceedingJoinPoint joinPoint, SchedulerLock schedulerLock) throws Throwable {
+        int partitions = Math.max(schedulerLock.partitions(), 1);
+        int first = ThreadLocalRandom.current().nextInt(partitions);
+        for (int i = 0; i < partitions; i++) {
+            int partition = (first + i) % partitions;
+            String name = partitions == 1 ? schedulerLock.name() : schedulerLock.name() + ":" + partition;
+            SchedulerLockManager.Lease lease = schedulerLockManager.tryAcquire(name,
+                    Duration.ofSeconds(schedulerLock.leaseSeconds()), Duration.ofSeconds(schedulerLock.lockAtLeastSeconds()),
+                    partition, partitions);
+            if (lease == null) {
+                log.debug("Skipped job {}, it is running on another node", name);
+                continue;
+            }
+            try (lease) {
+                joinPoint.proceed();
+            }
+        }
+        return null;
+    }
+}
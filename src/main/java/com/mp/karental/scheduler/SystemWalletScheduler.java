@@ -0,0 +1,48 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.service.SystemAccountRegistry;
+import com.mp.karental.service.WalletLedgerService;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Consolidates the shards of the system wallet into the admin wallet.
+ * <p>
+ * Each shard is moved in its own transaction, so the admin wallet row is only locked for a short time
+ * and a failed shard is retried on the next run.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SystemWalletScheduler {
+    WalletLedgerService walletLedgerService;
+    SystemAccountRegistry systemAccountRegistry;
+
+    /**
+     * consolidate the shards every 10 minutes
+     */
+    @Scheduled(cron = "0 */10 * * * *")
+    @SchedulerLock(name = "consolidate-system-wallet")
+    public void consolidateSystemWallet() {
+        String adminWalletId = systemAccountRegistry.getAdminWalletId();
+        long moved = 0;
+        for (int shard = 0; shard < WalletLedgerService.SYSTEM_WALLET_SHARDS; shard++) {
+            try {
+                moved += walletLedgerService.consolidateSystemWalletShard(shard, adminWalletId);
+            } catch (Exception e) {
+                log.error("Failed to consolidate system wallet shard {}", shard, e);
+            }
+        }
+        log.info("System wallet consolidated, moved: {}, balance: {}",
+                moved, walletLedgerService.getSystemWalletBalance(adminWalletId));
+    }
+}
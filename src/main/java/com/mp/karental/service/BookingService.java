@@ -1,6 +1,9 @@
 package com.mp.karental.service;
 
 import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.constant.EDocumentFile;
+import com.mp.karental.constant.EImageVariant;
 import com.mp.karental.constant.EPaymentType;
 import com.mp.karental.dto.request.booking.CreateBookingRequest;
 import com.mp.karental.constant.ERole;
@@ -9,12 +12,14 @@ import com.mp.karental.dto.response.booking.BookingResponse;
 import com.mp.karental.dto.response.booking.BookingThumbnailResponse;
 import com.mp.karental.dto.response.booking.BookingListResponse;
 import com.mp.karental.dto.response.booking.WalletResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.entity.*;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.BookingMapper;
 import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.repository.CarRepository;
+import com.mp.karental.repository.CarStatsRepository;
 import com.mp.karental.repository.WalletRepository;
 import com.mp.karental.security.SecurityUtil;
 import com.mp.karental.util.RedisUtil;
@@ -28,6 +33,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.Duration;
@@ -53,11 +60,19 @@ public class BookingService {
     CarRepository carRepository;
     BookingMapper bookingMapper;
     RedisUtil redisUtil;
+    ExpiryQueueService expiryQueueService;
     WalletRepository walletRepository;
     FileService fileService;
     CarService carService;
     TransactionService transactionService;
     EmailService emailService;
+    CarAvailabilityIndex carAvailabilityIndex;
+    CarStatsRepository carStatsRepository;
+    BookingSlotService bookingSlotService;
+    CarHoldService carHoldService;
+    BookingTimerService bookingTimerService;
+    ReminderLedgerService reminderLedgerService;
+    WalletLedgerService walletLedgerService;
 
     // Define constant field names to avoid repetition
     private static final String FIELD_UPDATED_AT = "updatedAt";
@@ -86,10 +101,20 @@ public class BookingService {
         if (!carService.isCarAvailable(car.getId(), createBookingRequest.getPickUpTime(), createBookingRequest.getDropOffTime())) {
             throw new AppException(ErrorCode.CAR_NOT_AVAILABLE);
         }
+        // Check that no other customer holds the slot while checking out.
+        if (carHoldService.isHeldByOthers(car.getId(), customerAccountId,
+                createBookingRequest.getPickUpTime(), createBookingRequest.getDropOffTime())) {
+            throw new AppException(ErrorCode.CAR_IS_HELD);
+        }
 
         // Map the booking request to a Booking entity.
         Booking booking = bookingMapper.toBooking(createBookingRequest);
         booking.setBookingNumber(redisUtil.generateBookingNumber());
+        // The booking number is the id, saving a number issued twice would overwrite the existing booking.
+        if (bookingRepository.existsByBookingNumber(booking.getBookingNumber())) {
+            log.error("Booking number {} is already used", booking.getBookingNumber());
+            throw new AppException(ErrorCode.BOOKING_NUMBER_ALREADY_USED);
+        }
 
         // Upload the driver's license to S3 storage.
         String drivingLicenseKey;
@@ -137,14 +162,95 @@ public class BookingService {
         } else {
             // the customer not using wallet to pay deposit or the wallet's balance is not enough
             booking.setStatus(EBookingStatus.PENDING_DEPOSIT);
-            redisUtil.cachePendingDepositBooking(booking.getBookingNumber());
+            expiryQueueService.schedulePendingDepositExpiry(booking.getBookingNumber());
         }
         // Save the booking to the database.
         bookingRepository.save(booking);
+        // The booking consumes the hold of the customer on the car.
+        carHoldService.release(car.getId(), customerAccountId);
 
         return buildBookingResponse(booking, drivingLicenseKey);
     }
 
+    /**
+     * Generates the URL to upload the driver's driving license of a booking directly to the storage.
+     * The license is attached to the booking once the upload is confirmed with {@link #confirmDriverDrivingLicense}.
+     *
+     * @param bookingNumber The booking number.
+     * @param fileName      The name of the driving license file.
+     * @return The upload URL and the key of the driving license.
+     * @throws AppException If the booking is not found, belongs to another account, can not be edited
+     *                      or the file type is not accepted.
+     */
+    public FileUploadUrlResponse getDriverDrivingLicenseUploadUrl(String bookingNumber, String fileName) {
+        Booking booking = validateAndGetEditableBookingCustomer(bookingNumber);
+
+        String extension = fileName != null && fileName.contains(".")
+                ? fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase()
+                : "";
+        if (!isValidDrivingLicenseExtension(extension)) {
+            throw new AppException(ErrorCode.INVALID_DOCUMENT_FILE);
+        }
+        String key = getDriverDrivingLicenseKeyPrefix(booking) + "." + extension;
+        return FileUploadUrlResponse.builder()
+                .key(key)
+                .uploadUrl(fileService.getUploadUrl(key))
+                .contentType(FileService.getUploadContentType(key))
+                .build();
+    }
+
+    /**
+     * Attaches the driver's driving license uploaded directly to the storage to a booking.
+     *
+     * @param bookingNumber The booking number.
+     * @param key           The key of the uploaded driving license.
+     * @return BookingResponse containing the updated booking details.
+     * @throws AppException If the booking is not found, belongs to another account, can not be edited,
+     *                      the key does not belong to the booking or the file is not uploaded.
+     */
+    public BookingResponse confirmDriverDrivingLicense(String bookingNumber, String key) {
+        Booking booking = validateAndGetEditableBookingCustomer(bookingNumber);
+
+        String keyPrefix = getDriverDrivingLicenseKeyPrefix(booking) + ".";
+        if (key == null || !key.startsWith(keyPrefix)
+                || !isValidDrivingLicenseExtension(key.substring(keyPrefix.length()))) {
+            throw new AppException(ErrorCode.INVALID_UPLOADED_FILE_KEY);
+        }
+        if (!fileService.confirmUpload(key)) {
+            throw new AppException(ErrorCode.UPLOADED_FILE_NOT_FOUND);
+        }
+
+        booking.setDriverDrivingLicenseUri(key);
+        booking.setUpdateBy(SecurityUtil.getCurrentAccountId());
+        bookingRepository.saveAndFlush(booking);
+        log.info("Attached uploaded driving license {} to booking {}", key, bookingNumber);
+        return buildBookingResponse(booking, key);
+    }
+
+    /**
+     * Retrieves a booking of the current customer that can still be edited.
+     *
+     * @param bookingNumber The booking number.
+     * @return The booking.
+     */
+    private Booking validateAndGetEditableBookingCustomer(String bookingNumber) {
+        Booking booking = validateAndGetBookingCustomer(bookingNumber);
+        if (booking.getStatus() != EBookingStatus.PENDING_DEPOSIT &&
+                booking.getStatus() != EBookingStatus.WAITING_CONFIRMED &&
+                booking.getStatus() != EBookingStatus.CONFIRMED) {
+            throw new AppException(ErrorCode.BOOKING_CANNOT_BE_EDITED);
+        }
+        return booking;
+    }
+
+    private String getDriverDrivingLicenseKeyPrefix(Booking booking) {
+        return "booking/" + booking.getBookingNumber() + "/driver-driving-license";
+    }
+
+    private boolean isValidDrivingLicenseExtension(String extension) {
+        return Arrays.stream(EDocumentFile.values()).anyMatch(type -> type.getExtension().equalsIgnoreCase(extension));
+    }
+
     /**
      * Uploads the driver's driving license for a booking.
      * Validates if a driving license file is provided and then uploads it to a designated location.
@@ -178,12 +284,15 @@ public class BookingService {
      * @throws AppException If email notifications fail to send.
      */
     private void payBookingDepositUsingWallet(Booking booking) {
+        // Hold the car before taking the deposit, fails if another booking got the car meanwhile
+        bookingSlotService.reserve(booking);
         // Process the deposit payment and update the booking status
         transactionService.payDeposit(booking);
         handleBookingConfirmation(booking);
     }
 
     private void confirmBookingDepositNotUsingWallet(Booking booking) {
+        bookingSlotService.reserve(booking);
         handleBookingConfirmation(booking);
     }
 
@@ -211,7 +320,7 @@ public class BookingService {
         }
 
         // Remove the cached pending deposit booking from Redis
-        redisUtil.removeCachePendingDepositBooking(booking.getBookingNumber());
+        expiryQueueService.cancelPendingDepositExpiry(booking.getBookingNumber());
 
         // Send confirmation emails to both the customer and car owner
         emailService.sendWaitingConfirmedEmail(booking.getAccount().getEmail(),
@@ -231,14 +340,8 @@ public class BookingService {
      * @throws AppException If there are any validation issues, the booking is not found, or the user doesn’t have access to edit the booking.
      */
     public BookingResponse editBooking(EditBookingRequest editBookingRequest, String bookingNumber) throws AppException {
-        Booking booking = validateAndGetBookingCustomer(bookingNumber);
-
-        //do not allow edit
-        if (booking.getStatus() != EBookingStatus.PENDING_DEPOSIT &&
-                booking.getStatus() != EBookingStatus.WAITING_CONFIRMED &&
-                booking.getStatus() != EBookingStatus.CONFIRMED) {
-            throw new AppException(ErrorCode.BOOKING_CANNOT_BE_EDITED);
-        }
+        //do not allow edit when the booking is not in an editable status
+        Booking booking = validateAndGetEditableBookingCustomer(bookingNumber);
 
         // Update the booking details using the request data
         bookingMapper.editBooking(booking, editBookingRequest);
@@ -528,11 +631,12 @@ public class BookingService {
             response.setCustomerPhoneNumber(booking.getAccount().getProfile().getPhoneNumber());
             response.setPaymentType(booking.getPaymentType());
 
-            // Retrieve car images
-            response.setCarImageFrontUrl(fileService.getFileUrl(booking.getCar().getCarImageFront()));
-            response.setCarImageBackUrl(fileService.getFileUrl(booking.getCar().getCarImageBack()));
-            response.setCarImageLeftUrl(fileService.getFileUrl(booking.getCar().getCarImageLeft()));
-            response.setCarImageRightUrl(fileService.getFileUrl(booking.getCar().getCarImageRight()));
+            // Retrieve the medium variants of the car images
+            Car car = booking.getCar();
+            response.setCarImageFrontUrl(fileService.getFileUrl(car.getImageKey(car.getCarImageFront(), EImageVariant.MEDIUM)));
+            response.setCarImageBackUrl(fileService.getFileUrl(car.getImageKey(car.getCarImageBack(), EImageVariant.MEDIUM)));
+            response.setCarImageLeftUrl(fileService.getFileUrl(car.getImageKey(car.getCarImageLeft(), EImageVariant.MEDIUM)));
+            response.setCarImageRightUrl(fileService.getFileUrl(car.getImageKey(car.getCarImageRight(), EImageVariant.MEDIUM)));
 
             return response;
         });
@@ -632,7 +736,7 @@ public class BookingService {
                 .orElseThrow(() -> new AppException(ErrorCode.ACCOUNT_NOT_FOUND_IN_DB));
         return new WalletResponse(
                 wallet.getId(),
-                wallet.getBalance()
+                walletLedgerService.getDisplayedBalance(wallet)
         );
     }
 
@@ -687,9 +791,8 @@ public class BookingService {
         if (!EBookingStatus.WAITING_CONFIRMED.equals(booking.getStatus())) {
             throw new AppException(ErrorCode.INVALID_BOOKING_STATUS);
         }
-        processOverdueWaitingBookings();
-        // Ensure the booking has not expired
-        if (booking.getPickUpTime() == null || LocalDateTime.now().isAfter(booking.getPickUpTime())) {
+        // Ensure the booking has not expired, its timer cancels it
+        if (booking.getPickUpTime() == null || isDeadlineReached(booking)) {
             throw new AppException(ErrorCode.BOOKING_EXPIRED);
         }
 
@@ -751,6 +854,8 @@ public class BookingService {
         booking.setStatus(EBookingStatus.CANCELLED);
         booking.setUpdateBy(SecurityUtil.getCurrentAccount().getId());
         bookingRepository.saveAndFlush(booking);
+        // The car is free again on the days of the booking
+        bookingSlotService.release(List.of(bookingNumber));
 
         // Return the updated booking details
         return buildBookingResponse(booking, booking.getDriverDrivingLicenseUri());
@@ -765,7 +870,6 @@ public class BookingService {
      */
     public BookingResponse confirmPickUp(String bookingNumber) {
         Booking booking = validateAndGetBookingCustomer(bookingNumber);
-        processOverduePickUpAndDropOffBookings();
         // Validate if the booking is eligible for pick-up confirmation
         if (booking.getStatus() != EBookingStatus.CONFIRMED) { // Cannot confirm pick-up too early
             throw new AppException(ErrorCode.BOOKING_CANNOT_PICKUP);
@@ -800,7 +904,6 @@ public class BookingService {
         if (booking.getStatus() != EBookingStatus.IN_PROGRESS) {
             throw new AppException(ErrorCode.CAR_CANNOT_RETURN);
         }
-        processOverduePickUpAndDropOffBookings();
         if (LocalDateTime.now().isBefore(booking.getDropOffTime())) {
             //set the status of booking to WAITING_CONFIRMED_RETURN_CAR
             booking.setStatus(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR);
@@ -828,7 +931,10 @@ public class BookingService {
         if (!EBookingStatus.WAITING_CONFIRMED_RETURN_CAR.equals(booking.getStatus())) {
             throw new AppException(ErrorCode.INVALID_BOOKING_STATUS);
         }
-        processOverdueWaitingBookings();
+        // Ensure the request has not expired, its timer gives the car back to the customer
+        if (booking.getDropOffTime() == null || isDeadlineReached(booking)) {
+            throw new AppException(ErrorCode.BOOKING_EXPIRED);
+        }
 
         processPaymentAndFinalizeBooking(booking);
 
@@ -856,6 +962,7 @@ public class BookingService {
         booking.setUpdateBy(SecurityUtil.getCurrentAccount().getId());
 
         bookingRepository.saveAndFlush(booking);
+        bookingSlotService.release(List.of(bookingNumber));
 
         // Process the refund for the booking deposit
         transactionService.refundAllDeposit(booking);
@@ -978,7 +1085,7 @@ public class BookingService {
         String accountId = account.getId();
 
         // Fetch the booking from the database using the booking number
-        Booking booking = bookingRepository.findBookingByBookingNumber(bookingNumber);
+        Booking booking = bookingRepository.findWithCarOwnerAndCustomer(bookingNumber);
 
         // If no booking is found, throw an exception
         if (booking == null) {
@@ -1016,7 +1123,7 @@ public class BookingService {
         Account account = SecurityUtil.getCurrentAccount();
 
         // Fetch the booking from the database using the booking number
-        Booking booking = bookingRepository.findBookingByBookingNumber(bookingNumber);
+        Booking booking = bookingRepository.findWithCarOwnerAndCustomer(bookingNumber);
 
         // If no booking is found, throw an exception
         if (booking == null) {
@@ -1047,7 +1154,7 @@ public class BookingService {
      */
     private Booking validateAndGetBookingCarOwner(String bookingNumber) {
         // Retrieve the booking from the database using the booking number
-        Booking booking = bookingRepository.findBookingByBookingNumber(bookingNumber);
+        Booking booking = bookingRepository.findWithCarOwnerAndCustomer(bookingNumber);
 
         // If no booking is found, throw an exception indicating that the booking does not exist
         if (booking == null) {
@@ -1112,6 +1219,8 @@ public class BookingService {
             transactionService.offsetFinalPayment(booking);
             // Mark the booking as completed
             booking.setStatus(EBookingStatus.COMPLETED);
+            // Count the completed ride in the statistics of the car
+            carStatsRepository.incrementCompletedRides(booking.getCar().getId());
             // Email the car owner about the payment they received
             emailService.sendPaymentEmailToCarOwner(carOwnerEmail, booking.getBookingNumber(), carOwnerShare);
             // Email the customer confirming the payment and remaining balance (if any)
@@ -1130,52 +1239,110 @@ public class BookingService {
 
 
     /**
-     * process overdue pick up time and drop off time to reminder customer
+     * Handles a due deadline of a booking (see {@link BookingTimerService}).
+     * The timer is ignored if the booking left the status of the timer,
+     * it is scheduled again if the deadline of the booking moved later.
+     *
+     * @param timer         the deadline
+     * @param bookingNumber the booking number
      */
-    public void processOverduePickUpAndDropOffBookings() {
-        //find all booking status CONFIRMED with pick up time <= now
-        List<Booking> overdueBookingPickUps = bookingRepository.findOverduePickups(EBookingStatus.CONFIRMED, LocalDateTime.now());
-        //find all booking status IN_PROGRESS with drop off time <= now
-        List<Booking> overdueBookingDropOffs = bookingRepository.findOverdueDropOffs(EBookingStatus.IN_PROGRESS, LocalDateTime.now());
-        //send email reminder
-
-        overdueBookingPickUps.forEach(emailService::sendPickUpReminderEmail);
-        overdueBookingDropOffs.forEach(emailService::sendDropOffReminderEmail);
+    public void handleBookingTimer(EBookingTimer timer, String bookingNumber) {
+        Booking booking = bookingRepository.findWithCarOwnerAndCustomer(bookingNumber);
+        if (booking != null) {
+            handleDeadline(timer, booking);
+        }
     }
 
     /**
-     * process overdue waiting in status WAITING CONFIRMED AND WAITING CONFIRMED RETURN CAR to auto handle when owner miss
+     * Handles a chunk of the overdue bookings found by the sweep of the waiting bookings, in one transaction.
+     * A booking whose timer handled it meanwhile is skipped.
+     *
+     * @param timer          the deadline reached by the bookings
+     * @param bookingNumbers the booking numbers of the chunk
      */
-    public void processOverdueWaitingBookings() {
-        LocalDateTime now = LocalDateTime.now();
-        //waiting confirm -> cancelled, refund full
-
-        //find all booking will cancel to refund
-        List<Booking> overdueWaitingConfirmBookings = bookingRepository.findOverduePickups(EBookingStatus.WAITING_CONFIRMED, now);
-        //update all bookings status WAITING CONFIRMED with pick up time <= now + 1 minute
-        int updatedWaitingConfirmBookings = bookingRepository.bulkUpdateWaitingConfirmedStatus(EBookingStatus.CANCELLED
-                , EBookingStatus.WAITING_CONFIRMED, now.minusMinutes(1));
-        // If any bookings were updated, process refunds and send cancellation emails
-        if (updatedWaitingConfirmBookings > 0) {
-            for(Booking booking : overdueWaitingConfirmBookings) { // Loop through each overdue booking
+    public void processOverdueWaitingBookings(EBookingTimer timer, List<String> bookingNumbers) {
+        bookingRepository.findByBookingNumberIn(bookingNumbers).forEach(booking -> handleDeadline(timer, booking));
+    }
+
+    private void handleDeadline(EBookingTimer timer, Booking booking) {
+        String bookingNumber = booking.getBookingNumber();
+        if (booking.getStatus() != timer.getStatus()) {
+            return;
+        }
+        LocalDateTime dueTime = timer.getDueTime(booking.getPickUpTime(), booking.getDropOffTime());
+        if (dueTime.isAfter(LocalDateTime.now())) {
+            bookingTimerService.schedule(bookingNumber, timer, dueTime);
+            return;
+        }
+        log.info("Booking {} reached its deadline {}", bookingNumber, timer);
+        switch (timer) {
+            case PICK_UP_REMINDER -> {
+                if (reminderLedgerService.tryRecord(bookingNumber, timer)) {
+                    emailService.sendPickUpReminderEmail(booking);
+                }
+            }
+            case DROP_OFF_REMINDER -> {
+                if (reminderLedgerService.tryRecord(bookingNumber, timer)) {
+                    emailService.sendDropOffReminderEmail(booking);
+                }
+            }
+            case WAITING_CONFIRMED_EXPIRY -> {
+                // the car owner did not confirm before the pick-up time, cancel and refund the deposit
+                if (bookingRepository.updateStatusIfCurrent(bookingNumber, EBookingStatus.WAITING_CONFIRMED, EBookingStatus.CANCELLED) == 0) {
+                    // the timer and the sweep both reached it, the other one cancelled it
+                    return;
+                }
+                booking.setStatus(EBookingStatus.CANCELLED);
+                bookingRepository.saveAndFlush(booking);
+                bookingSlotService.release(List.of(bookingNumber));
                 transactionService.refundAllDeposit(booking);
-                emailService.sendCancelledBookingEmail(booking.getAccount().getEmail(),
-                        booking.getCar().getBrand() + " " + booking.getCar().getModel(),
-                        "This booking was declined by car owner");
+                String email = booking.getAccount().getEmail();
+                String carName = booking.getCar().getBrand() + " " + booking.getCar().getModel();
+                runAfterCommit(() -> emailService.sendCancelledBookingEmail(email, carName,
+                        "This booking was declined by car owner"));
+            }
+            case WAITING_CONFIRMED_RETURN_CAR_EXPIRY -> {
+                // the car owner did not confirm the early return before the drop-off time, the customer keeps the car
+                if (bookingRepository.updateStatusIfCurrent(bookingNumber, EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, EBookingStatus.IN_PROGRESS) == 0) {
+                    return;
+                }
+                booking.setStatus(EBookingStatus.IN_PROGRESS);
+                bookingRepository.saveAndFlush(booking);
+                String email = booking.getAccount().getEmail();
+                runAfterCommit(() -> emailService.sendEarlyReturnRejectedEmail(email, bookingNumber));
             }
         }
+    }
 
-        //waiting confirm return car -> in-progress
-        //update all bookings status WAITING CONFIRMED RETURN CAR with drop off time <= now - 1 minute
-        List<Booking> overdueWaitingConfirmReturnCarBookings = bookingRepository.findOverdueDropOffs(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, now);
-        int updatedWaitingConfirmedReturn = bookingRepository.bulkUpdateWaitingConfirmedReturnCarStatus(EBookingStatus.IN_PROGRESS
-                , EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, now.minusMinutes(1));
-        // If any bookings were updated, send email notifications
-        if(updatedWaitingConfirmedReturn > 0) {
-            for(Booking booking : overdueWaitingConfirmReturnCarBookings) { // Loop through each overdue booking
-                emailService.sendEarlyReturnRejectedEmail(booking.getAccount().getEmail(), booking.getBookingNumber());
-            }
+    /**
+     * Runs an action once the surrounding transaction commits, right away without a transaction.
+     * A rolled back chunk of the sweep sends no email.
+     */
+    private static void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
         }
     }
+
+    /**
+     * Checks whether the booking reached the deadline of its current status (see {@link EBookingTimer}).
+     * The actions on a booking only evaluate the deadline of that booking, the overdue bookings are handled
+     * one by one by their timers.
+     *
+     * @param booking the booking acted on
+     * @return true if the deadline is reached, false if it is not or the status has no deadline
+     */
+    private static boolean isDeadlineReached(Booking booking) {
+        EBookingTimer timer = EBookingTimer.forStatus(booking.getStatus());
+        return timer != null
+                && !LocalDateTime.now().isBefore(timer.getDueTime(booking.getPickUpTime(), booking.getDropOffTime()));
+    }
 }
 
@@ -0,0 +1,148 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.entity.Booking;
+import com.mp.karental.entity.CarBookingDay;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.BookingRepository;
+import com.mp.karental.repository.CarBookingDayRepository;
+import com.mp.karental.util.CarLockManager;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reserves the slot of a booking on its car when the booking starts holding the car.
+ * <p>
+ * The reservation locks the car (see {@link CarLockManager}), checks again that the car is available
+ * and writes the days of the booking in {@code car_booking_day}, whose unique key (car_id, day)
+ * rejects an overlapping booking even if the locks fail.
+ * The lock only covers the check and the insert, it is released when the transaction ends.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+@Transactional
+public class BookingSlotService {
+    CarBookingDayRepository carBookingDayRepository;
+    BookingRepository bookingRepository;
+    CarService carService;
+    CarLockManager carLockManager;
+
+    /**
+     * Reserves the days of a booking on its car.
+     * Must be called before the booking is saved in a status holding the car.
+     *
+     * @param booking the booking about to hold the car
+     * @throws AppException if the car is not available anymore or is being booked by another request
+     */
+    public void reserve(Booking booking) {
+        String carId = booking.getCar().getId();
+        CarLockManager.CarLock lock = carLockManager.lock(carId);
+        boolean releasedOnCompletion = false;
+        try {
+            if (!carService.isCarAvailable(carId, booking.getPickUpTime(), booking.getDropOffTime())) {
+                log.info("Reserve booking {} failed, car {} is not available anymore", booking.getBookingNumber(), carId);
+                throw new AppException(ErrorCode.CAR_NOT_AVAILABLE);
+            }
+            try {
+                carBookingDayRepository.saveAllAndFlush(getBookingDays(carId, booking.getBookingNumber(),
+                        booking.getPickUpTime(), booking.getDropOffTime()));
+            } catch (DataIntegrityViolationException e) {
+                log.info("Reserve booking {} failed, a day of car {} is already held", booking.getBookingNumber(), carId);
+                throw new AppException(ErrorCode.CAR_NOT_AVAILABLE);
+            }
+            releasedOnCompletion = releaseOnCompletion(lock);
+        } finally {
+            if (!releasedOnCompletion) {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Releases the days held by bookings that do not hold their car anymore.
+     *
+     * @param bookingNumbers the booking numbers
+     */
+    public void release(Collection<String> bookingNumbers) {
+        if (bookingNumbers.isEmpty()) {
+            return;
+        }
+        int released = carBookingDayRepository.deleteByBookingNumberIn(bookingNumbers);
+        log.info("Released {} days held by bookings {}", released, bookingNumbers);
+    }
+
+    /**
+     * Writes the days of the bookings holding a car that were created before the days were recorded.
+     *
+     * @param excludedStatuses the booking statuses that do not hold the car
+     */
+    public void backfillBookingDays(Collection<EBookingStatus> excludedStatuses) {
+        int backfilled = 0;
+        for (Object[] row : bookingRepository.findBlockingBookingIntervals(excludedStatuses, LocalDateTime.now().minusDays(1))) {
+            String bookingNumber = (String) row[1];
+            if (carBookingDayRepository.existsByBookingNumber(bookingNumber)) {
+                continue;
+            }
+            for (CarBookingDay day : getBookingDays((String) row[0], bookingNumber, (LocalDateTime) row[2], (LocalDateTime) row[3])) {
+                if (carBookingDayRepository.insertIgnore(day.getCarId(), day.getDay(), bookingNumber) == 0) {
+                    log.warn("Booking {} overlaps another booking of car {} on {}", bookingNumber, day.getCarId(), day.getDay());
+                }
+            }
+            backfilled++;
+        }
+        if (backfilled > 0) {
+            log.info("Recorded the days of {} bookings", backfilled);
+        }
+    }
+
+    /**
+     * Lists the calendar days between the pick-up and the drop-off of a booking, both included.
+     */
+    static List<CarBookingDay> getBookingDays(String carId, String bookingNumber,
+                                              LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        List<CarBookingDay> days = new ArrayList<>();
+        for (LocalDate day = pickUpTime.toLocalDate(); !day.isAfter(dropOffTime.toLocalDate()); day = day.plusDays(1)) {
+            days.add(CarBookingDay.builder()
+                    .carId(carId)
+                    .day(day)
+                    .bookingNumber(bookingNumber)
+                    .build());
+        }
+        return days;
+    }
+
+    private boolean releaseOnCompletion(CarLockManager.CarLock lock) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        // keep the car locked until the booking is committed, the next reservation must see it
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.close();
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.repository.BookingRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delay queue of the booking deadlines (see {@link EBookingTimer}).
+ * <p>
+ * The timers are the members {@code TIMER:bookingNumber} of the Redis sorted set {@code booking-timers}
+ * scored by their due time. Scheduling a timer again only moves its due time.
+ * A due timer is claimed and removed in one step, so it fires on a single node.
+ * </p>
+ * <p>
+ * A timer is not removed when its booking changes status, the handler ignores a timer
+ * whose booking is not in the status of the timer anymore.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class BookingTimerService {
+    RedisTemplate<String, String> redisTemplate;
+    BookingRepository bookingRepository;
+
+    private static final String BOOKING_TIMERS_KEY = "booking-timers";
+    private static final String SEPARATOR = ":";
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local due = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+            if #due > 0 then
+                redis.call('zrem', KEYS[1], unpack(due))
+            end
+            return due
+            """, List.class);
+
+    /**
+     * A due timer of a booking.
+     *
+     * @param timer         the deadline
+     * @param bookingNumber the booking number
+     */
+    public record BookingTimer(EBookingTimer timer, String bookingNumber) {
+    }
+
+    /**
+     * Schedules the deadline of a booking, or moves it if it is already scheduled.
+     *
+     * @param bookingNumber the booking number
+     * @param timer         the deadline
+     * @param dueTime       the time the deadline is due
+     */
+    public void schedule(String bookingNumber, EBookingTimer timer, LocalDateTime dueTime) {
+        redisTemplate.opsForZSet().add(BOOKING_TIMERS_KEY, timer.name() + SEPARATOR + bookingNumber, toEpochMilli(dueTime));
+    }
+
+    /**
+     * Claims the due timers, they are removed from the queue and fire on the caller only.
+     *
+     * @param limit the maximum number of timers to claim
+     * @return the claimed timers, by due time
+     */
+    public List<BookingTimer> claimDue(int limit) {
+        List<?> members = redisTemplate.execute(CLAIM_SCRIPT, List.of(BOOKING_TIMERS_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(limit));
+        List<BookingTimer> timers = new ArrayList<>();
+        if (members == null) {
+            return timers;
+        }
+        for (Object member : members) {
+            String value = member.toString();
+            int separator = value.indexOf(SEPARATOR);
+            try {
+                timers.add(new BookingTimer(EBookingTimer.valueOf(value.substring(0, separator)),
+                        value.substring(separator + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                log.warn("Dropped invalid booking timer {}", value);
+            }
+        }
+        return timers;
+    }
+
+    /**
+     * Schedules again the deadline of every booking in a status with a deadline.
+     * Recovers the timers lost with Redis data or whose handling failed.
+     *
+     * @param partition  the partition of the bookings, by the hash of their car id
+     * @param partitions the number of partitions
+     * @return the number of scheduled timers
+     */
+    @Transactional(readOnly = true)
+    public int rescheduleAll(int partition, int partitions) {
+        List<EBookingStatus> statuses = Arrays.stream(EBookingTimer.values())
+                .map(EBookingTimer::getStatus)
+                .toList();
+        int scheduled = 0;
+        for (Object[] row : bookingRepository.findBookingDeadlines(statuses, partition, partitions)) {
+            EBookingTimer timer = EBookingTimer.forStatus((EBookingStatus) row[1]);
+            schedule((String) row[0], timer, timer.getDueTime((LocalDateTime) row[2], (LocalDateTime) row[3]));
+            scheduled++;
+        }
+        return scheduled;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
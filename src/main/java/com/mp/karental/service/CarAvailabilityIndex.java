@@ -0,0 +1,239 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of the booking intervals that hold a car.
+ * <p>
+ * Only bookings in a blocking status (every status except CANCELLED and PENDING_DEPOSIT) are kept.
+ * For each car the intervals are sorted by pick-up time and the longest interval is tracked,
+ * so an overlap query only walks the intervals that can possibly reach the requested range.
+ * </p>
+ * <p>
+ * The index is a fast read path for availability checks. The database stays the final guard
+ * when a booking is created.
+ * </p>
+ * <p>
+ * The changes applied while a rebuild runs are recorded and applied again on the rebuilt content,
+ * the query of the rebuild may have been answered before they were committed.
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CarAvailabilityIndex {
+
+    /**
+     * Booking statuses that do not hold the car
+     */
+    public static final Set<EBookingStatus> NON_BLOCKING_STATUSES =
+            EnumSet.of(EBookingStatus.CANCELLED, EBookingStatus.PENDING_DEPOSIT);
+
+    Map<String, CarIntervals> intervalsByCar = new ConcurrentHashMap<>();
+    // one rebuild at a time
+    Object rebuildLock = new Object();
+    // guards the swap of the rebuilt content against the changes applied meanwhile
+    Object changeLock = new Object();
+    // changes applied since the running rebuild started, null when no rebuild runs
+    @NonFinal
+    List<Change> changesDuringRebuild;
+
+    /**
+     * Checks whether a booking status holds the car.
+     *
+     * @param status the booking status
+     * @return true if a booking in this status makes the car unavailable
+     */
+    public static boolean isBlocking(EBookingStatus status) {
+        return status != null && !NON_BLOCKING_STATUSES.contains(status);
+    }
+
+    /**
+     * Applies the current state of a booking to the index.
+     * A booking in a blocking status is added (or moved if its times changed), otherwise it is removed.
+     *
+     * @param carId         the id of the booked car
+     * @param bookingNumber the booking number
+     * @param status        the current status of the booking
+     * @param pickUpTime    the pick-up time of the booking
+     * @param dropOffTime   the drop-off time of the booking
+     */
+    public void apply(String carId, String bookingNumber, EBookingStatus status,
+                      LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        if (carId == null || bookingNumber == null) {
+            return;
+        }
+        applyChange(new Change(carId, bookingNumber, status, pickUpTime, dropOffTime));
+    }
+
+    /**
+     * Removes a booking from the index.
+     *
+     * @param carId         the id of the booked car
+     * @param bookingNumber the booking number
+     */
+    public void remove(String carId, String bookingNumber) {
+        if (carId == null || bookingNumber == null) {
+            return;
+        }
+        applyChange(new Change(carId, bookingNumber, null, null, null));
+    }
+
+    private void applyChange(Change change) {
+        synchronized (changeLock) {
+            change.applyTo(intervalsByCar);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(change);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the car has no blocking booking overlapping the given range (bounds inclusive).
+     *
+     * @param carId the id of the car
+     * @param from  the start of the range
+     * @param to    the end of the range
+     * @return true if no blocking booking overlaps the range
+     */
+    public boolean isAvailable(String carId, LocalDateTime from, LocalDateTime to) {
+        CarIntervals intervals = intervalsByCar.get(carId);
+        return intervals == null || !intervals.overlaps(from, to);
+    }
+
+    /**
+     * Finds the cars among the given ids that have a blocking booking overlapping the range.
+     *
+     * @param carIds the ids of the cars to check
+     * @param from   the start of the range
+     * @param to     the end of the range
+     * @return the ids of the unavailable cars
+     */
+    public Set<String> findUnavailableCarIds(Collection<String> carIds, LocalDateTime from, LocalDateTime to) {
+        Set<String> unavailable = new HashSet<>();
+        for (String carId : carIds) {
+            if (!isAvailable(carId, from, to)) {
+                unavailable.add(carId);
+            }
+        }
+        return unavailable;
+    }
+
+    /**
+     * Replaces the whole content of the index by the result of a query.
+     * The changes applied while the query runs are applied again on its result, so they are not lost.
+     *
+     * @param query returns rows in the form [carId, bookingNumber, pickUpTime, dropOffTime] of blocking bookings
+     */
+    public void rebuild(Supplier<List<Object[]>> query) {
+        synchronized (rebuildLock) {
+            synchronized (changeLock) {
+                changesDuringRebuild = new ArrayList<>();
+            }
+            try {
+                List<Object[]> rows = query.get();
+                Map<String, CarIntervals> rebuilt = new HashMap<>();
+                for (Object[] row : rows) {
+                    rebuilt.computeIfAbsent((String) row[0], id -> new CarIntervals())
+                            .put((String) row[1], (LocalDateTime) row[2], (LocalDateTime) row[3]);
+                }
+                synchronized (changeLock) {
+                    changesDuringRebuild.forEach(change -> change.applyTo(rebuilt));
+                    intervalsByCar.keySet().retainAll(rebuilt.keySet());
+                    intervalsByCar.putAll(rebuilt);
+                }
+                log.info("Car availability index rebuilt, cars: {}, bookings: {}", rebuilt.size(), rows.size());
+            } finally {
+                synchronized (changeLock) {
+                    changesDuringRebuild = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of a booking applied to the index, a booking without status is removed.
+     */
+    private record Change(String carId, String bookingNumber, EBookingStatus status,
+                          LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        void applyTo(Map<String, CarIntervals> intervalsByCar) {
+            if (isBlocking(status) && pickUpTime != null && dropOffTime != null) {
+                intervalsByCar.computeIfAbsent(carId, id -> new CarIntervals())
+                        .put(bookingNumber, pickUpTime, dropOffTime);
+            } else {
+                CarIntervals intervals = intervalsByCar.get(carId);
+                if (intervals != null) {
+                    intervals.remove(bookingNumber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Booking intervals of one car, sorted by pick-up time.
+     */
+    private static final class CarIntervals {
+        final NavigableSet<Interval> byStart = new TreeSet<>();
+        final Map<String, Interval> byBooking = new HashMap<>();
+        // the longest interval ever added, bounds how far back an overlapping interval can start
+        Duration maxLength = Duration.ZERO;
+
+        synchronized void put(String bookingNumber, LocalDateTime start, LocalDateTime end) {
+            Interval previous = byBooking.remove(bookingNumber);
+            if (previous != null) {
+                byStart.remove(previous);
+            }
+            Interval interval = new Interval(start, end, bookingNumber);
+            byStart.add(interval);
+            byBooking.put(bookingNumber, interval);
+            Duration length = Duration.between(start, end);
+            if (length.compareTo(maxLength) > 0) {
+                maxLength = length;
+            }
+        }
+
+        synchronized void remove(String bookingNumber) {
+            Interval previous = byBooking.remove(bookingNumber);
+            if (previous != null) {
+                byStart.remove(previous);
+            }
+        }
+
+        synchronized boolean overlaps(LocalDateTime from, LocalDateTime to) {
+            LocalDateTime earliestStart = from.minus(maxLength);
+            // walk back from the last interval starting at or before "to"
+            for (Interval interval : byStart.headSet(new Interval(to, to, "\uffff"), true).descendingSet()) {
+                if (interval.start().isBefore(earliestStart)) {
+                    return false;
+                }
+                if (!interval.end().isBefore(from)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private record Interval(LocalDateTime start, LocalDateTime end, String bookingNumber)
+            implements Comparable<Interval> {
+        @Override
+        public int compareTo(Interval other) {
+            int byTime = start.compareTo(other.start);
+            return byTime != 0 ? byTime : bookingNumber.compareTo(other.bookingNumber);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.mp.karental.service;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the short-lived holds customers place on a car's time slot while they check out.
+ * <p>
+ * A hold lives in Redis only and expires by itself: the holds of a car are members
+ * {@code accountId|pickUp|dropOff} of the sorted set {@code car-holds:{carId}} scored by their expiry,
+ * the sorted set {@code car-holds} scores every held car by the expiry of its last hold.
+ * A customer has at most one hold per car, a new hold replaces the previous one,
+ * and at most {@value #MAX_HOLDS_PER_ACCOUNT} live holds: the sorted set {@code account-holds:{accountId}}
+ * scores the cars held by a customer by the expiry of the hold.
+ * </p>
+ * <p>
+ * Two holds of the same car conflict with the same rule as two bookings:
+ * they may not overlap once extended by one day on each side.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CarHoldService {
+    RedisTemplate<String, String> redisTemplate;
+
+    public static final Duration HOLD_TIME = Duration.ofMinutes(10);
+    public static final int MAX_HOLDS_PER_ACCOUNT = 3;
+
+    private static final String CAR_HOLDS_PREFIX = "car-holds:";
+    private static final String HELD_CARS_KEY = "car-holds";
+    private static final String ACCOUNT_HOLDS_PREFIX = "account-holds:";
+    private static final String SEPARATOR = "|";
+    private static final long BLOCKING_MARGIN_SECONDS = Duration.ofDays(1).toSeconds();
+    // prunes the expired holds, checks the number of cars held by the customer and the holds of the other customers
+    // and replaces the hold of the customer in one step, two customers can not hold overlapping slots of a car
+    private static final RedisScript<Long> HOLD_SCRIPT = new DefaultRedisScript<>("""
+            local now, expiresAt = tonumber(ARGV[1]), tonumber(ARGV[2])
+            redis.call('zremrangebyscore', KEYS[1], '-inf', now)
+            redis.call('zremrangebyscore', KEYS[2], '-inf', now)
+            redis.call('zremrangebyscore', KEYS[3], '-inf', now)
+            if not redis.call('zscore', KEYS[3], ARGV[6])
+                    and redis.call('zcard', KEYS[3]) >= tonumber(ARGV[8]) then
+                return -1
+            end
+            local previous = {}
+            for _, hold in ipairs(redis.call('zrange', KEYS[1], 0, -1)) do
+                local account, pickUp, dropOff = string.match(hold, '^(.*)|(%d+)|(%d+)$')
+                if account == ARGV[3] then
+                    table.insert(previous, hold)
+                elseif tonumber(pickUp) <= tonumber(ARGV[5]) + tonumber(ARGV[7])
+                        and tonumber(dropOff) >= tonumber(ARGV[4]) - tonumber(ARGV[7]) then
+                    return 0
+                end
+            end
+            for _, hold in ipairs(previous) do
+                redis.call('zrem', KEYS[1], hold)
+            end
+            redis.call('zadd', KEYS[1], expiresAt, ARGV[3] .. '|' .. ARGV[4] .. '|' .. ARGV[5])
+            redis.call('pexpireat', KEYS[1], expiresAt)
+            local heldUntil = redis.call('zscore', KEYS[2], ARGV[6])
+            if not heldUntil or tonumber(heldUntil) < expiresAt then
+                redis.call('zadd', KEYS[2], expiresAt, ARGV[6])
+            end
+            redis.call('zadd', KEYS[3], expiresAt, ARGV[6])
+            redis.call('pexpireat', KEYS[3], expiresAt)
+            return 1
+            """, Long.class);
+
+    /**
+     * Holds a slot of a car for a customer during {@link #HOLD_TIME}.
+     *
+     * @param carId       the id of the car
+     * @param accountId   the id of the customer
+     * @param pickUpTime  the pick-up time of the slot
+     * @param dropOffTime the drop-off time of the slot
+     * @return true if the slot is held, false if it conflicts with the hold of another customer
+     * @throws AppException if the customer already holds {@link #MAX_HOLDS_PER_ACCOUNT} other cars
+     */
+    public boolean hold(String carId, String accountId, LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        long expiresAt = System.currentTimeMillis() + HOLD_TIME.toMillis();
+        Long held = redisTemplate.execute(HOLD_SCRIPT,
+                List.of(CAR_HOLDS_PREFIX + carId, HELD_CARS_KEY, ACCOUNT_HOLDS_PREFIX + accountId),
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(expiresAt),
+                accountId,
+                String.valueOf(toEpochSecond(pickUpTime)),
+                String.valueOf(toEpochSecond(dropOffTime)),
+                carId,
+                String.valueOf(BLOCKING_MARGIN_SECONDS),
+                String.valueOf(MAX_HOLDS_PER_ACCOUNT));
+        if (Long.valueOf(-1).equals(held)) {
+            throw new AppException(ErrorCode.CAR_HOLD_LIMIT_REACHED);
+        }
+        return Long.valueOf(1).equals(held);
+    }
+
+    /**
+     * Releases the hold of a customer on a car, if any.
+     *
+     * @param carId     the id of the car
+     * @param accountId the id of the customer
+     */
+    public void release(String carId, String accountId) {
+        redisTemplate.opsForZSet().remove(ACCOUNT_HOLDS_PREFIX + accountId, carId);
+        String key = CAR_HOLDS_PREFIX + carId;
+        Set<String> holds = redisTemplate.opsForZSet().range(key, 0, -1);
+        if (holds == null) {
+            return;
+        }
+        Object[] ownHolds = holds.stream()
+                .filter(hold -> accountId.equals(getAccountId(hold)))
+                .toArray();
+        if (ownHolds.length > 0) {
+            redisTemplate.opsForZSet().remove(key, ownHolds);
+        }
+    }
+
+    /**
+     * Checks whether another customer holds a slot of a car overlapping the given range.
+     *
+     * @param carId       the id of the car
+     * @param accountId   the id of the current customer, whose own hold is ignored (null to count every hold)
+     * @param pickUpTime  the pick-up time of the requested slot
+     * @param dropOffTime the drop-off time of the requested slot
+     * @return true if the slot is held by another customer
+     */
+    public boolean isHeldByOthers(String carId, String accountId, LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        return isHeldByOthers(getLiveHolds(carId), accountId, toEpochSecond(pickUpTime), toEpochSecond(dropOffTime));
+    }
+
+    /**
+     * Lists the cars held by other customers on a slot overlapping the given range.
+     * Only the few cars with a live hold are read.
+     *
+     * @param accountId   the id of the current customer, whose own holds are ignored (null to count every hold)
+     * @param pickUpTime  the pick-up time of the requested slot
+     * @param dropOffTime the drop-off time of the requested slot
+     * @return the ids of the held cars
+     */
+    public Set<String> getCarsHeldByOthers(String accountId, LocalDateTime pickUpTime, LocalDateTime dropOffTime) {
+        Set<String> heldCars = redisTemplate.opsForZSet()
+                .rangeByScore(HELD_CARS_KEY, System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+        if (heldCars == null || heldCars.isEmpty()) {
+            return Set.of();
+        }
+        long pickUp = toEpochSecond(pickUpTime);
+        long dropOff = toEpochSecond(dropOffTime);
+        Set<String> result = new HashSet<>();
+        for (String carId : heldCars) {
+            if (isHeldByOthers(getLiveHolds(carId), accountId, pickUp, dropOff)) {
+                result.add(carId);
+            }
+        }
+        return result;
+    }
+
+    private Set<String> getLiveHolds(String carId) {
+        Set<String> holds = redisTemplate.opsForZSet()
+                .rangeByScore(CAR_HOLDS_PREFIX + carId, System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+        return holds == null ? Set.of() : holds;
+    }
+
+    private static boolean isHeldByOthers(Collection<String> holds, String accountId, long pickUp, long dropOff) {
+        for (String hold : holds) {
+            String[] parts = hold.split("\\|");
+            if (parts.length != 3 || parts[0].equals(accountId)) {
+                continue;
+            }
+            if (Long.parseLong(parts[1]) <= dropOff + BLOCKING_MARGIN_SECONDS
+                    && Long.parseLong(parts[2]) >= pickUp - BLOCKING_MARGIN_SECONDS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getAccountId(String hold) {
+        int end = hold.indexOf(SEPARATOR);
+        return end < 0 ? hold : hold.substring(0, end);
+    }
+
+    private static long toEpochSecond(LocalDateTime time) {
+        // only compared with each other, the offset does not matter as long as it is always the same
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+}
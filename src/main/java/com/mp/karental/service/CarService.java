@@ -1,30 +1,40 @@
 package com.mp.karental.service;
 
 import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.ECarFile;
 import com.mp.karental.constant.ECarStatus;
+import com.mp.karental.constant.EImageVariant;
 import com.mp.karental.dto.request.car.AddCarRequest;
 import com.mp.karental.dto.request.car.CarDetailRequest;
+import com.mp.karental.dto.request.car.CarFileUploadUrlRequest;
+import com.mp.karental.dto.request.car.CarHoldRequest;
+import com.mp.karental.dto.request.car.ConfirmCarFilesRequest;
 import com.mp.karental.dto.request.car.EditCarRequest;
 import com.mp.karental.dto.request.car.SearchCarRequest;
 import com.mp.karental.dto.response.car.CarDetailResponse;
 import com.mp.karental.dto.response.car.CarDocumentsResponse;
+import com.mp.karental.dto.response.car.CarHoldResponse;
 import com.mp.karental.dto.response.car.CarResponse;
 import com.mp.karental.dto.response.car.CarThumbnailResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.entity.Account;
 import com.mp.karental.entity.Booking;
 import com.mp.karental.entity.Car;
+import com.mp.karental.entity.CarStats;
+import com.mp.karental.event.CarImagesChangedEvent;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.CarMapper;
 import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.repository.CarRepository;
-import com.mp.karental.repository.FeedbackRepository;
+import com.mp.karental.repository.CarStatsRepository;
 import com.mp.karental.security.SecurityUtil;
-import com.mp.karental.util.RedisUtil;
+import com.mp.karental.util.LocationUtil;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,6 +43,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Service class for handling car operations.
@@ -52,12 +63,21 @@ public class CarService {
     FileService fileService;
     BookingRepository bookingRepository;
     EmailService emailService;
-    RedisUtil redisUtil;
+    ExpiryQueueService expiryQueueService;
+    CarAvailabilityIndex carAvailabilityIndex;
+    CarStatsRepository carStatsRepository;
+    ApplicationEventPublisher eventPublisher;
+    CarHoldService carHoldService;
 
     // Define constant field names to avoid repetition
     private static final String FIELD_PRODUCTION_YEAR = "productionYear";
     private static final String FIELD_PRICE = "basePrice";
-    private final FeedbackRepository feedbackRepository;
+    // Booking statuses that do not hold the car
+    private static final List<EBookingStatus> NON_BLOCKING_BOOKING_STATUSES =
+            List.of(EBookingStatus.CANCELLED, EBookingStatus.PENDING_DEPOSIT);
+    // a hold is limited to the window a booking can be created in
+    private static final int MAX_HOLD_PICK_UP_DAYS = 60;
+    private static final int MAX_HOLD_RANGE_DAYS = 30;
 
     /**
      * Adds a new car to the system.
@@ -183,6 +203,130 @@ public class CarService {
         return carResponse;
     }
 
+    /**
+     * Generates the URLs to upload files of a car directly to the storage.
+     * <p>
+     * The files are stored under the same keys as the files uploaded with add/edit car,
+     * they are attached to the car once the upload is confirmed with {@link #confirmCarFiles}.
+     * </p>
+     *
+     * @param carId   The ID of the car.
+     * @param request The name of the file to upload by car file.
+     * @return The upload URL and the key by car file.
+     * @throws AppException If the car is not found, belongs to another account, a file type is not accepted
+     *                      or the documents of the car can not be changed.
+     */
+    public Map<ECarFile, FileUploadUrlResponse> getCarFileUploadUrls(String carId, CarFileUploadUrlRequest request) {
+        Car car = getOwnedCarForFileChange(carId, request.getFileNames().keySet());
+
+        Map<ECarFile, FileUploadUrlResponse> uploadUrls = new EnumMap<>(ECarFile.class);
+        request.getFileNames().forEach((carFile, fileName) -> {
+            String extension = getExtension(fileName);
+            if (!carFile.isValidExtension(extension)) {
+                throw new AppException(carFile.isDocument() ? ErrorCode.INVALID_DOCUMENT_FILE : ErrorCode.INVALID_CAR_IMAGE_FILE);
+            }
+            String key = getCarFileKeyPrefix(car, carFile) + "." + extension;
+            uploadUrls.put(carFile, FileUploadUrlResponse.builder()
+                    .key(key)
+                    .uploadUrl(fileService.getUploadUrl(key))
+                    .contentType(FileService.getUploadContentType(key))
+                    .build());
+        });
+        log.info("Generated upload urls of files {} of car {}, accessBy: {}", uploadUrls.keySet(), carId, car.getAccount().getId());
+        return uploadUrls;
+    }
+
+    /**
+     * Attaches the files uploaded directly to the storage to a car.
+     *
+     * @param carId   The ID of the car.
+     * @param request The key of the uploaded file by car file.
+     * @return The response object containing the updated car details.
+     * @throws AppException If the car is not found, belongs to another account, a key does not belong to its file,
+     *                      a file is not uploaded or the documents of the car can not be changed.
+     */
+    public CarResponse confirmCarFiles(String carId, ConfirmCarFilesRequest request) {
+        Car car = getOwnedCarForFileChange(carId, request.getKeys().keySet());
+
+        request.getKeys().forEach((carFile, key) -> {
+            // the key must be the one generated for this file of this car, with an accepted extension
+            String keyPrefix = getCarFileKeyPrefix(car, carFile) + ".";
+            if (key == null || !key.startsWith(keyPrefix) || !carFile.isValidExtension(key.substring(keyPrefix.length()))) {
+                throw new AppException(ErrorCode.INVALID_UPLOADED_FILE_KEY);
+            }
+            if (!fileService.confirmUpload(key)) {
+                throw new AppException(ErrorCode.UPLOADED_FILE_NOT_FOUND);
+            }
+            switch (carFile) {
+                case REGISTRATION_PAPER -> car.setRegistrationPaperUri(key);
+                case CERTIFICATE_OF_INSPECTION -> car.setCertificateOfInspectionUri(key);
+                case INSURANCE -> car.setInsuranceUri(key);
+                case CAR_IMAGE_FRONT -> car.setCarImageFront(key);
+                case CAR_IMAGE_BACK -> car.setCarImageBack(key);
+                case CAR_IMAGE_LEFT -> car.setCarImageLeft(key);
+                case CAR_IMAGE_RIGHT -> car.setCarImageRight(key);
+            }
+        });
+        if (request.getKeys().keySet().stream().anyMatch(carFile -> !carFile.isDocument())) {
+            onCarImagesChanged(car);
+        }
+        car.setUpdateBy(car.getAccount().getId());
+        Car savedCar = carRepository.save(car);
+        log.info("Attached uploaded files {} to car {}", request.getKeys().keySet(), carId);
+
+        CarResponse carResponse = carMapper.toCarResponse(savedCar);
+        carResponse.setAddress(savedCar.getCityProvince() + ", " + savedCar.getDistrict() + ", "
+                + savedCar.getWard() + ", " + savedCar.getHouseNumberStreet());
+        setCarResponseUrls(carResponse, savedCar);
+        return carResponse;
+    }
+
+    /**
+     * Retrieves a car of the current user whose files are about to be changed.
+     * The documents can only be changed while the car is not verified or stopped, like in edit car.
+     *
+     * @param carId    The ID of the car.
+     * @param carFiles The files to change.
+     * @return The car.
+     */
+    private Car getOwnedCarForFileChange(String carId, Collection<ECarFile> carFiles) {
+        String accountId = SecurityUtil.getCurrentAccountId();
+        Car car = carRepository.findById(carId)
+                .orElseThrow(() -> new AppException(ErrorCode.CAR_NOT_FOUND_IN_DB));
+        if (!car.getAccount().getId().equals(accountId)) {
+            throw new AppException(ErrorCode.FORBIDDEN_CAR_ACCESS);
+        }
+        boolean documentsChangeable = car.getStatus() == ECarStatus.NOT_VERIFIED || car.getStatus() == ECarStatus.STOPPED;
+        if (!documentsChangeable && carFiles.stream().anyMatch(ECarFile::isDocument)) {
+            throw new AppException(ErrorCode.CAR_DOCUMENTS_CANNOT_BE_CHANGED);
+        }
+        return car;
+    }
+
+    /**
+     * Builds the S3 key of a car file, without the extension.
+     *
+     * @param car     The car.
+     * @param carFile The file of the car.
+     * @return The S3 key without the extension, e.g. car/{accountId}/{carId}/images/front
+     */
+    private String getCarFileKeyPrefix(Car car, ECarFile carFile) {
+        return String.format("car/%s/%s/%s", car.getAccount().getId(), car.getId(), carFile.getPath());
+    }
+
+    /**
+     * Gets the extension of a file name, in lower case and without the dot.
+     *
+     * @param fileName The file name.
+     * @return The extension, or an empty string if the file name has none.
+     */
+    private String getExtension(String fileName) {
+        if (fileName == null || !fileName.contains(".")) {
+            return "";
+        }
+        return fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+    }
+
     /**
      * Checks if the status change from the current status to the new status is valid.
      *
@@ -206,9 +350,7 @@ public class CarService {
      * @return true if the car is booked by account ID, false otherwise
      */
     private boolean isCarCurrentlyBooked(String carId) {
-        // 2 status is not booked
-        List<EBookingStatus> excludedStatuses = Arrays.asList(EBookingStatus.CANCELLED, EBookingStatus.PENDING_DEPOSIT);
-        return bookingRepository.hasActiveBooking(carId,excludedStatuses);
+        return bookingRepository.hasActiveBooking(carId, NON_BLOCKING_BOOKING_STATUSES);
     }
     /**
      * Cancels all pending deposit bookings for a car that has been stopped.
@@ -243,7 +385,7 @@ public class CarService {
                     reason );
 
             // Remove the cached pending deposit booking from Redis
-            redisUtil.removeCachePendingDepositBooking(booking.getBookingNumber());
+            expiryQueueService.cancelPendingDepositExpiry(booking.getBookingNumber());
 
             // Log the cancellation
             log.info("Booking {} has been cancelled due to car {} being stopped.", booking.getBookingNumber(), carId);
@@ -292,11 +434,13 @@ public class CarService {
             car.setDistrict(addressParts[1].trim());       // Second part: District
             car.setWard(addressParts[2].trim());           // Third part: Ward
             car.setHouseNumberStreet(addressParts[3].trim()); // Fourth part: House Number & Street
+            car.updateLocationKeys();
         }
     }
 
     /**
      * Handles file uploads for a car and assigns the corresponding URIs.
+     * The files are uploaded concurrently, if one of them fails the others are cleaned up.
      *
      * @param request   The request object containing the uploaded files.
      * @param accountId The ID of the account uploading the files.
@@ -309,105 +453,98 @@ public class CarService {
         String baseDocumentsUri = String.format("car/%s/%s/documents/", accountId, car.getId());
         String baseImagesUri = String.format("car/%s/%s/images/", accountId, car.getId());
 
-        // Initialize file storage keys for car images
-        String s3KeyImageFront;
-        String s3KeyImageBack;
-        String s3KeyImageLeft;
-        String s3KeyImageRight;
-
-        // Initialize document and image file variables
-        MultipartFile registrationPaper;
-        MultipartFile certificateOfInspection;
-        MultipartFile insurance;
-        MultipartFile imageFront;
-        MultipartFile imageBack;
-        MultipartFile imageLeft;
-        MultipartFile imageRight;
+        // Files to upload by their S3 key
+        Map<String, MultipartFile> uploads = new LinkedHashMap<>();
+        // Keys already used by the car, their files are replaced by the upload
+        List<String> existingKeys = Stream.of(car.getRegistrationPaperUri(), car.getCertificateOfInspectionUri(),
+                        car.getInsuranceUri(), car.getCarImageFront(), car.getCarImageBack(),
+                        car.getCarImageLeft(), car.getCarImageRight())
+                .filter(Objects::nonNull)
+                .toList();
 
         // If the request is an AddCarRequest, handle document and image uploads
         if (request instanceof AddCarRequest addCarRequest) {
-            registrationPaper = addCarRequest.getRegistrationPaper();
-            certificateOfInspection = addCarRequest.getCertificateOfInspection();
-            insurance = addCarRequest.getInsurance();
-            imageFront = addCarRequest.getCarImageFront();
-            imageBack = addCarRequest.getCarImageBack();
-            imageLeft = addCarRequest.getCarImageLeft();
-            imageRight = addCarRequest.getCarImageRight();
-
-            // Construct S3 keys for document files
-            String s3KeyRegistration = baseDocumentsUri + "registration-paper" + fileService.getFileExtension(registrationPaper);
-            String s3KeyCertificate = baseDocumentsUri + "certificate-of-inspection" + fileService.getFileExtension(certificateOfInspection);
-            String s3KeyInsurance = baseDocumentsUri + "insurance" + fileService.getFileExtension(insurance);
-
-            s3KeyImageFront = baseImagesUri + "front" + fileService.getFileExtension(imageFront);
-            s3KeyImageBack = baseImagesUri + "back" + fileService.getFileExtension(imageBack);
-            s3KeyImageLeft = baseImagesUri + "left" + fileService.getFileExtension(imageLeft);
-            s3KeyImageRight = baseImagesUri + "right" + fileService.getFileExtension(imageRight);
-
-            // Upload document files to S3
-            fileService.uploadFile(registrationPaper, s3KeyRegistration);
-            fileService.uploadFile(certificateOfInspection, s3KeyCertificate);
-            fileService.uploadFile(insurance, s3KeyInsurance);
-
-            fileService.uploadFile(imageFront, s3KeyImageFront);
-            fileService.uploadFile(imageBack, s3KeyImageBack);
-            fileService.uploadFile(imageLeft, s3KeyImageLeft);
-            fileService.uploadFile(imageRight, s3KeyImageRight);
-
             // Set document URIs in the car object
-            car.setRegistrationPaperUri(s3KeyRegistration);
-            car.setCertificateOfInspectionUri(s3KeyCertificate);
-            car.setInsuranceUri(s3KeyInsurance);
+            car.setRegistrationPaperUri(addUpload(uploads, baseDocumentsUri + "registration-paper", addCarRequest.getRegistrationPaper()));
+            car.setCertificateOfInspectionUri(addUpload(uploads, baseDocumentsUri + "certificate-of-inspection", addCarRequest.getCertificateOfInspection()));
+            car.setInsuranceUri(addUpload(uploads, baseDocumentsUri + "insurance", addCarRequest.getInsurance()));
             // Set image URIs in the car object
-            car.setCarImageFront(s3KeyImageFront);
-            car.setCarImageBack(s3KeyImageBack);
-            car.setCarImageLeft(s3KeyImageLeft);
-            car.setCarImageRight(s3KeyImageRight);
+            car.setCarImageFront(addUpload(uploads, baseImagesUri + "front", addCarRequest.getCarImageFront()));
+            car.setCarImageBack(addUpload(uploads, baseImagesUri + "back", addCarRequest.getCarImageBack()));
+            car.setCarImageLeft(addUpload(uploads, baseImagesUri + "left", addCarRequest.getCarImageLeft()));
+            car.setCarImageRight(addUpload(uploads, baseImagesUri + "right", addCarRequest.getCarImageRight()));
         }
 
-        // If the request is an EditCarRequest, only update image files
+        // If the request is an EditCarRequest, only update the provided files
         if (request instanceof EditCarRequest editCarRequest) {
             //when car status is not verify, owner can change the documents to have valid document to verify by operator
             if (car.getStatus() == ECarStatus.NOT_VERIFIED || car.getStatus() == ECarStatus.STOPPED) {
-                if (editCarRequest.getRegistrationPaper() != null && !editCarRequest.getRegistrationPaper().isEmpty()) {
-                    String s3KeyRegistration = baseDocumentsUri + "registration-paper" + fileService.getFileExtension(editCarRequest.getRegistrationPaper());
-                    fileService.uploadFile(editCarRequest.getRegistrationPaper(), s3KeyRegistration);
-                    car.setRegistrationPaperUri(s3KeyRegistration);
+                if (isProvided(editCarRequest.getRegistrationPaper())) {
+                    car.setRegistrationPaperUri(addUpload(uploads, baseDocumentsUri + "registration-paper", editCarRequest.getRegistrationPaper()));
                 }
-                if (editCarRequest.getCertificateOfInspection() != null && !editCarRequest.getCertificateOfInspection().isEmpty()) {
-                    String s3KeyCertificate = baseDocumentsUri + "certificate-of-inspection" + fileService.getFileExtension(editCarRequest.getCertificateOfInspection());
-                    fileService.uploadFile(editCarRequest.getCertificateOfInspection(), s3KeyCertificate);
-                    car.setCertificateOfInspectionUri(s3KeyCertificate);
+                if (isProvided(editCarRequest.getCertificateOfInspection())) {
+                    car.setCertificateOfInspectionUri(addUpload(uploads, baseDocumentsUri + "certificate-of-inspection", editCarRequest.getCertificateOfInspection()));
                 }
-                if (editCarRequest.getInsurance() != null && !editCarRequest.getInsurance().isEmpty()) {
-                    String s3KeyInsurance = baseDocumentsUri + "insurance" + fileService.getFileExtension(editCarRequest.getInsurance());
-                    fileService.uploadFile(editCarRequest.getInsurance(), s3KeyInsurance);
-                    car.setInsuranceUri(s3KeyInsurance);
+                if (isProvided(editCarRequest.getInsurance())) {
+                    car.setInsuranceUri(addUpload(uploads, baseDocumentsUri + "insurance", editCarRequest.getInsurance()));
                 }
             }
 
-            if (editCarRequest.getCarImageFront() != null && !editCarRequest.getCarImageFront().isEmpty()) {
-                s3KeyImageFront = baseImagesUri + "front" + fileService.getFileExtension(editCarRequest.getCarImageFront());
-                fileService.uploadFile(editCarRequest.getCarImageFront(), s3KeyImageFront);
-                car.setCarImageFront(s3KeyImageFront);
+            if (isProvided(editCarRequest.getCarImageFront())) {
+                car.setCarImageFront(addUpload(uploads, baseImagesUri + "front", editCarRequest.getCarImageFront()));
             }
-            if (editCarRequest.getCarImageBack() != null && !editCarRequest.getCarImageBack().isEmpty()) {
-                s3KeyImageBack = baseImagesUri + "back" + fileService.getFileExtension(((EditCarRequest) request).getCarImageBack());
-                fileService.uploadFile(((EditCarRequest) request).getCarImageBack(), s3KeyImageBack);
-                car.setCarImageBack(s3KeyImageBack);
+            if (isProvided(editCarRequest.getCarImageBack())) {
+                car.setCarImageBack(addUpload(uploads, baseImagesUri + "back", editCarRequest.getCarImageBack()));
             }
-            if (editCarRequest.getCarImageLeft() != null && !editCarRequest.getCarImageLeft().isEmpty()) {
-                s3KeyImageLeft = baseImagesUri + "left" + fileService.getFileExtension(editCarRequest.getCarImageLeft());
-                fileService.uploadFile(editCarRequest.getCarImageLeft(), s3KeyImageLeft);
-                car.setCarImageLeft(s3KeyImageLeft);
+            if (isProvided(editCarRequest.getCarImageLeft())) {
+                car.setCarImageLeft(addUpload(uploads, baseImagesUri + "left", editCarRequest.getCarImageLeft()));
             }
-            if (editCarRequest.getCarImageRight() != null && !(editCarRequest.getCarImageRight().isEmpty())) {
-                s3KeyImageRight = baseImagesUri + "right" + fileService.getFileExtension(editCarRequest.getCarImageRight());
-                fileService.uploadFile(editCarRequest.getCarImageRight(), s3KeyImageRight);
-                car.setCarImageRight(s3KeyImageRight);
+            if (isProvided(editCarRequest.getCarImageRight())) {
+                car.setCarImageRight(addUpload(uploads, baseImagesUri + "right", editCarRequest.getCarImageRight()));
             }
         }
 
+        // Upload all the files at once, the unchanged ones are skipped
+        Set<String> changedKeys = uploads.isEmpty() ? Set.of() : fileService.uploadFiles(uploads, existingKeys);
+        if (changedKeys.stream().anyMatch(key -> key.startsWith(baseImagesUri))) {
+            onCarImagesChanged(car);
+        }
+    }
+
+    /**
+     * Drops the image variants of a car until they are generated again for its new images.
+     *
+     * @param car The car whose images changed.
+     */
+    private void onCarImagesChanged(Car car) {
+        car.setImageVariantsReady(false);
+        car.setImagesVersion(car.getImagesVersion() + 1);
+        car.setImageVariantAttempts(0);
+        eventPublisher.publishEvent(new CarImagesChangedEvent(car.getId()));
+    }
+
+    /**
+     * Adds a file to the files to upload.
+     *
+     * @param uploads   The files to upload by their S3 key.
+     * @param keyPrefix The S3 key of the file, without the extension.
+     * @param file      The file to upload.
+     * @return The S3 key of the file.
+     */
+    private String addUpload(Map<String, MultipartFile> uploads, String keyPrefix, MultipartFile file) {
+        String key = keyPrefix + fileService.getFileExtension(file);
+        uploads.put(key, file);
+        return key;
+    }
+
+    /**
+     * Checks whether a file is provided in the request.
+     *
+     * @param file The file of the request.
+     * @return true if the file is not null and not empty.
+     */
+    private boolean isProvided(MultipartFile file) {
+        return file != null && !file.isEmpty();
     }
 
     /**
@@ -428,19 +565,21 @@ public class CarService {
         Page<Car> cars = carRepository.findByAccountId(accountId, pageable);
         log.info("Successfully access to car information, number of records: {}, accessBy {}", cars.getTotalElements(), accountId);
 
+        // Load the statistics of the whole page at once
+        Map<String, CarStats> statsByCarId = getCarStatsByCarId(cars);
+
         return cars.map(car -> {
             CarThumbnailResponse response = carMapper.toCarThumbnailResponse(car);
             response.setAddress(car.getWard() + ", " + car.getCityProvince());
-            response.setCarImageFront(fileService.getFileUrl(car.getCarImageFront()));
-            response.setCarImageBack(fileService.getFileUrl(car.getCarImageBack()));
-            response.setCarImageLeft(fileService.getFileUrl(car.getCarImageLeft()));
-            response.setCarImageRight(fileService.getFileUrl(car.getCarImageRight()));
-
-            // Call the reusable method to get the rating
-            response.setAverageRatingByCar(getAverageRatingByCar(car.getId()));
+            response.setCarImageFront(fileService.getFileUrl(car.getImageKey(car.getCarImageFront(), EImageVariant.THUMBNAIL)));
+            response.setCarImageBack(fileService.getFileUrl(car.getImageKey(car.getCarImageBack(), EImageVariant.THUMBNAIL)));
+            response.setCarImageLeft(fileService.getFileUrl(car.getImageKey(car.getCarImageLeft(), EImageVariant.THUMBNAIL)));
+            response.setCarImageRight(fileService.getFileUrl(car.getImageKey(car.getCarImageRight(), EImageVariant.THUMBNAIL)));
 
-            long noOfRides = bookingRepository.countCompletedBookingsByCar(car.getId());
-            response.setNoOfRides(noOfRides);
+            // Set the rating and number of rides from the car statistics
+            CarStats stats = statsByCarId.getOrDefault(car.getId(), emptyCarStats(car.getId()));
+            response.setAverageRatingByCar(stats.getAverageRating());
+            response.setNoOfRides(stats.getCompletedRides());
 
             return response;
         });
@@ -468,16 +607,17 @@ public class CarService {
                     return new AppException(ErrorCode.CAR_NOT_FOUND_IN_DB);
                 });
 
-        double averageRating = getAverageRatingByCar(request.getCarId());
-
         // Check if the car is verified
         if (car.getStatus() != ECarStatus.VERIFIED) {
             log.info("Fail access to car's information, carId: {}, car is not verified, accessBy {}", request.getCarId(), accountId);
             throw new AppException(ErrorCode.CAR_NOT_VERIFIED);
         }
 
-        //Check car is available
-        boolean isAvailable = isCarAvailable(request.getCarId(), request.getPickUpTime(), request.getDropOffTime());
+        //Check car is available, the car is already known to be VERIFIED so only the bookings are checked
+        boolean isAvailable = carAvailabilityIndex.isAvailable(request.getCarId(),
+                request.getPickUpTime().minusDays(1), request.getDropOffTime().plusDays(1))
+                && !carHoldService.isHeldByOthers(request.getCarId(), accountId,
+                request.getPickUpTime(), request.getDropOffTime());
 
         // Map the car entity to a CarDetailResponse DTO
         CarDetailResponse response = carMapper.toCarDetailResponse(car, isAvailable);
@@ -521,17 +661,72 @@ public class CarService {
         // Set booking status in the response
         response.setBooked(isBooked);
 
-        // Set average rating follow by car
-        response.setAverageRatingByCar(averageRating);
-
-        // Count the number of completed bookings for this car and set it
-        long noOfRides = bookingRepository.countCompletedBookingsByCar(request.getCarId());
-        response.setNoOfRides(noOfRides);
+        // Set average rating and the number of completed bookings from the car statistics
+        CarStats stats = getCarStats(request.getCarId());
+        response.setAverageRatingByCar(stats.getAverageRating());
+        response.setNoOfRides(stats.getCompletedRides());
         log.info("Successfully access to car's information, carId: {}, accessBy {}", request.getCarId(), accountId);
 
         return response;
     }
 
+    /**
+     * Holds a time slot of a car for the current customer during {@link CarHoldService#HOLD_TIME},
+     * so other customers can not book it while the customer checks out.
+     * The hold is consumed by the booking of the slot.
+     *
+     * @param request the car and the time slot to hold
+     * @return the held slot and the time the hold expires
+     * @throws AppException if the range is invalid or outside the bookable window, the car is not verified,
+     *                      the slot is not available or the customer holds too many cars
+     */
+    public CarHoldResponse holdCar(CarHoldRequest request) {
+        String accountId = SecurityUtil.getCurrentAccountId();
+
+        if (!request.getPickUpTime().isBefore(request.getDropOffTime())) {
+            throw new AppException(ErrorCode.INVALID_DATE_RANGE);
+        }
+        // only a slot that could be booked can be held, same window as the booking
+        LocalDateTime now = LocalDateTime.now();
+        if (!request.getPickUpTime().isAfter(now)
+                || request.getPickUpTime().toLocalDate().isAfter(now.toLocalDate().plusDays(MAX_HOLD_PICK_UP_DAYS))
+                || request.getDropOffTime().toLocalDate().isAfter(request.getPickUpTime().toLocalDate().plusDays(MAX_HOLD_RANGE_DAYS))) {
+            throw new AppException(ErrorCode.INVALID_BOOKING_TIME);
+        }
+        Car car = carRepository.findById(request.getCarId())
+                .orElseThrow(() -> new AppException(ErrorCode.CAR_NOT_FOUND_IN_DB));
+        if (car.getStatus() != ECarStatus.VERIFIED) {
+            throw new AppException(ErrorCode.CAR_NOT_VERIFIED);
+        }
+        // the car is already known to be VERIFIED so only the bookings are checked
+        if (!carAvailabilityIndex.isAvailable(car.getId(),
+                request.getPickUpTime().minusDays(1), request.getDropOffTime().plusDays(1))) {
+            throw new AppException(ErrorCode.CAR_NOT_AVAILABLE);
+        }
+
+        LocalDateTime expiresAt = LocalDateTime.now().plus(CarHoldService.HOLD_TIME);
+        if (!carHoldService.hold(car.getId(), accountId, request.getPickUpTime(), request.getDropOffTime())) {
+            log.info("Hold car {} failed, the slot is held by another customer, accessBy {}", car.getId(), accountId);
+            throw new AppException(ErrorCode.CAR_IS_HELD);
+        }
+        log.info("Car {} held from {} to {}, accessBy {}", car.getId(), request.getPickUpTime(), request.getDropOffTime(), accountId);
+        return CarHoldResponse.builder()
+                .carId(car.getId())
+                .pickUpTime(request.getPickUpTime())
+                .dropOffTime(request.getDropOffTime())
+                .expiresAt(expiresAt)
+                .build();
+    }
+
+    /**
+     * Releases the hold of the current customer on a car, when the customer leaves the checkout.
+     *
+     * @param carId the id of the car
+     */
+    public void releaseCarHold(String carId) {
+        carHoldService.release(carId, SecurityUtil.getCurrentAccountId());
+    }
+
     /**
      * Checks if a car is available within the given time range.
      *
@@ -634,47 +829,53 @@ public class CarService {
         log.info("Search request received - Address: {}, PickUp: {}, DropOff: {}",
                 request.getAddress(), request.getPickUpTime(), request.getDropOffTime());
 
-        // Get list car is VERIFIED with pagination
-        List<Car> verifiedCars = carRepository.findVerifiedCarsByAddress(ECarStatus.VERIFIED, request.getAddress());
+        Pageable pageable = getPageable(page, size, sort);
 
-        // Filter to take car is AVAILABLE
-        List<CarThumbnailResponse> availableCars = new ArrayList<>();
+        // Split the address into normalized city/province, district and ward keys (missing parts are null)
+        String[] locationKeys = LocationUtil.toLocationKeys(request.getAddress());
 
-        for (Car car : verifiedCars) {
-            log.info("Checking completed bookings for Car ID: {}", car.getId());
+        // The cars held by other customers on the requested slot are left out
+        String accountId = SecurityUtil.getCurrentAccountId();
+        Set<String> heldCarIds = carHoldService.getCarsHeldByOthers(accountId,
+                request.getPickUpTime(), request.getDropOffTime());
+
+        // Get the page of VERIFIED cars without any blocking booking in range (pickUp - 1 day) to (dropOff + 1 day)
+        Page<Car> availableCars = carRepository.findAvailableCarsByLocation(
+                ECarStatus.VERIFIED,
+                locationKeys[0],
+                locationKeys[1],
+                locationKeys[2],
+                request.getPickUpTime().minusDays(1),
+                request.getDropOffTime().plusDays(1),
+                NON_BLOCKING_BOOKING_STATUSES,
+                // NOT IN needs at least one value, no car has an empty id
+                heldCarIds.isEmpty() ? Set.of("") : heldCarIds,
+                pageable);
 
-            boolean available = isCarAvailable(car.getId(), request.getPickUpTime(), request.getDropOffTime());
-            if (!available) {
-                continue;
-            }
+        log.info("Successfully completed search request, total available cars: {}, accessBy: {}",
+                availableCars.getTotalElements(), accountId);
 
-            long noOfRides = bookingRepository.countCompletedBookingsByCar(car.getId());
-            log.info("Number of completed rides for Car ID {}: {}", car.getId(), noOfRides);
+        // Load the statistics of the whole page at once
+        Map<String, CarStats> statsByCarId = getCarStatsByCarId(availableCars);
+
+        return availableCars.map(car -> {
+            CarStats stats = statsByCarId.getOrDefault(car.getId(), emptyCarStats(car.getId()));
+            long noOfRides = stats.getCompletedRides();
 
             CarThumbnailResponse response = carMapper.toSearchCar(car, noOfRides);
             response.setAddress(car.getCityProvince() + ", " + car.getDistrict() + ", " + car.getWard());
 
-            // Get rating by car id
-            response.setAverageRatingByCar(getAverageRatingByCar(car.getId()));
+            // Get rating from the car statistics
+            response.setAverageRatingByCar(stats.getAverageRating());
 
             // Get URL image car
-            response.setCarImageFront(fileService.getFileUrl(car.getCarImageFront()));
-            response.setCarImageBack(fileService.getFileUrl(car.getCarImageBack()));
-            response.setCarImageLeft(fileService.getFileUrl(car.getCarImageLeft()));
-            response.setCarImageRight(fileService.getFileUrl(car.getCarImageRight()));
+            response.setCarImageFront(fileService.getFileUrl(car.getImageKey(car.getCarImageFront(), EImageVariant.THUMBNAIL)));
+            response.setCarImageBack(fileService.getFileUrl(car.getImageKey(car.getCarImageBack(), EImageVariant.THUMBNAIL)));
+            response.setCarImageLeft(fileService.getFileUrl(car.getImageKey(car.getCarImageLeft(), EImageVariant.THUMBNAIL)));
+            response.setCarImageRight(fileService.getFileUrl(car.getImageKey(car.getCarImageRight(), EImageVariant.THUMBNAIL)));
             response.setNoOfRides(noOfRides);
-            availableCars.add(response);
-        }
-        // Use pageable after filter
-        Pageable pageable = getPageable(page, size, sort);
-        int start = (int) pageable.getOffset();
-        int end = Math.min(start + pageable.getPageSize(), availableCars.size());
-        List<CarThumbnailResponse> pagedCars = availableCars.subList(start, end);
-
-        log.info("Successfully completed search request, total available cars: {}, accessBy: {}",
-                availableCars.size(), SecurityUtil.getCurrentAccountId());
-
-        return new PageImpl<>(pagedCars, pageable, availableCars.size());
+            return response;
+        });
     }
 
     /**
@@ -701,15 +902,13 @@ public class CarService {
             throw new AppException(ErrorCode.FORBIDDEN_CAR_ACCESS);
         }
 
-        // Get average rating of car
-        double averageRating = getAverageRatingByCar(car.getId());
-
         // Convert Car entity to CarResponse DTO
         CarResponse carResponse = carMapper.toCarResponse(car);
 
-        carResponse.setAverageRatingByCar(averageRating);
-        long noOfRides = bookingRepository.countCompletedBookingsByCar(car.getId());
-        carResponse.setNoOfRides(noOfRides);
+        // Get average rating and number of rides of car
+        CarStats stats = getCarStats(car.getId());
+        carResponse.setAverageRatingByCar(stats.getAverageRating());
+        carResponse.setNoOfRides(stats.getCompletedRides());
 
         // Concatenate address fields into a single string and set it in CarResponse
         carResponse.setAddress(car.getCityProvince() + ", " + car.getDistrict() + ", "
@@ -728,8 +927,37 @@ public class CarService {
      * @return The average rating if feedback exists; otherwise, returns 0.0.
      */
     public double getAverageRatingByCar(String carId) {
-        Double averageRating = feedbackRepository.calculateAverageRatingByCar(carId);
-        return (averageRating != null) ? averageRating : 0.0;
+        return getCarStats(carId).getAverageRating();
+    }
+
+    /**
+     * Retrieves the statistics (rating, number of rides) of a car.
+     *
+     * @param carId The ID of the car.
+     * @return The statistics of the car, with all counters at 0 if the car has none yet.
+     */
+    private CarStats getCarStats(String carId) {
+        return carStatsRepository.findById(carId).orElseGet(() -> emptyCarStats(carId));
+    }
+
+    /**
+     * Retrieves the statistics of all cars of a page in one query.
+     *
+     * @param cars The page of cars.
+     * @return The statistics mapped by car ID, cars without statistics are not in the map.
+     */
+    private Map<String, CarStats> getCarStatsByCarId(Page<Car> cars) {
+        if (cars.isEmpty()) {
+            return Map.of();
+        }
+        List<String> carIds = cars.getContent().stream().map(Car::getId).toList();
+        Map<String, CarStats> statsByCarId = new HashMap<>();
+        carStatsRepository.findByCarIdIn(carIds).forEach(stats -> statsByCarId.put(stats.getCarId(), stats));
+        return statsByCarId;
+    }
+
+    private static CarStats emptyCarStats(String carId) {
+        return CarStats.builder().carId(carId).build();
     }
 
     /**
@@ -752,6 +980,9 @@ public class CarService {
         Page<Car> cars = carRepository.findCars(status, pageable);
         log.info("Successfully retrieved {} cars for operator {}, status: {}", cars.getTotalElements(), SecurityUtil.getCurrentAccountId(), status);
 
+        // Load the statistics of the whole page at once
+        Map<String, CarStats> statsByCarId = getCarStatsByCarId(cars);
+
         // Convert each Car entity into a CarThumbnailResponse DTO
         return cars.map(car -> {
             CarThumbnailResponse response = carMapper.toCarThumbnailResponse(car);
@@ -760,16 +991,15 @@ public class CarService {
             response.setAddress(car.getWard() + ", " + car.getCityProvince());
 
             // Retrieve and set car images from the file storage system
-            response.setCarImageFront(fileService.getFileUrl(car.getCarImageFront()));
-            response.setCarImageBack(fileService.getFileUrl(car.getCarImageBack()));
-            response.setCarImageLeft(fileService.getFileUrl(car.getCarImageLeft()));
-            response.setCarImageRight(fileService.getFileUrl(car.getCarImageRight()));
-
-            // Get the average rating of the car based on user reviews
-            response.setAverageRatingByCar(getAverageRatingByCar(car.getId()));
-
-            // Retrieve the count of completed bookings for this car
-            response.setNoOfRides(bookingRepository.countCompletedBookingsByCar(car.getId()));
+            response.setCarImageFront(fileService.getFileUrl(car.getImageKey(car.getCarImageFront(), EImageVariant.THUMBNAIL)));
+            response.setCarImageBack(fileService.getFileUrl(car.getImageKey(car.getCarImageBack(), EImageVariant.THUMBNAIL)));
+            response.setCarImageLeft(fileService.getFileUrl(car.getImageKey(car.getCarImageLeft(), EImageVariant.THUMBNAIL)));
+            response.setCarImageRight(fileService.getFileUrl(car.getImageKey(car.getCarImageRight(), EImageVariant.THUMBNAIL)));
+
+            // Get the average rating and the count of completed bookings from the car statistics
+            CarStats stats = statsByCarId.getOrDefault(car.getId(), emptyCarStats(car.getId()));
+            response.setAverageRatingByCar(stats.getAverageRating());
+            response.setNoOfRides(stats.getCompletedRides());
 
             return response;
         });
@@ -0,0 +1,149 @@
+package com.mp.karental.service;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable queue of the pending items that expire after a while:
+ * the bookings waiting for their deposit and the top-up transactions waiting for the payment.
+ * <p>
+ * The items ({@code booking:bookingNumber} or {@code trans:transactionId}) are members of the Redis sorted set
+ * {@code expiry-queue} scored by their expiry time. A due item is claimed by moving it to {@code expiry-queue:claimed},
+ * scored by the end of the claim lease, and acknowledged once handled. An item whose claimer
+ * crashed is claimed again when the lease ends, the handlers make the expiry happen only once.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ExpiryQueueService {
+    RedisTemplate<String, String> redisTemplate;
+
+    public static final String PENDING_DEPOSIT_BOOKING_PREFIX = "booking:";
+    public static final String PROCESSING_TRANSACTION_PREFIX = "trans:";
+    public static final Duration PENDING_DEPOSIT_TIME = Duration.ofHours(1);
+    public static final Duration PROCESSING_TRANSACTION_TIME = Duration.ofMinutes(15);
+
+    private static final String EXPIRY_QUEUE_KEY = "expiry-queue";
+    private static final String CLAIMED_KEY = "expiry-queue:claimed";
+    // claims the items whose lease ended first, then the due items, in one step
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local limit = tonumber(ARGV[3])
+            local claimed = redis.call('zrangebyscore', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, limit)
+            if #claimed < limit then
+                local due = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, limit - #claimed)
+                if #due > 0 then
+                    redis.call('zrem', KEYS[1], unpack(due))
+                end
+                for _, item in ipairs(due) do
+                    table.insert(claimed, item)
+                end
+            end
+            for _, item in ipairs(claimed) do
+                redis.call('zadd', KEYS[2], ARGV[2], item)
+            end
+            return claimed
+            """, List.class);
+
+    /**
+     * Schedules the expiry of a booking waiting for its deposit.
+     *
+     * @param bookingNumber the booking number
+     */
+    public void schedulePendingDepositExpiry(String bookingNumber) {
+        schedule(PENDING_DEPOSIT_BOOKING_PREFIX + bookingNumber, System.currentTimeMillis() + PENDING_DEPOSIT_TIME.toMillis());
+    }
+
+    /**
+     * Cancels the expiry of a booking, once its deposit is paid or it is cancelled.
+     *
+     * @param bookingNumber the booking number
+     */
+    public void cancelPendingDepositExpiry(String bookingNumber) {
+        cancel(PENDING_DEPOSIT_BOOKING_PREFIX + bookingNumber);
+    }
+
+    /**
+     * Schedules the expiry of a transaction waiting for its payment.
+     *
+     * @param transactionId the id of the transaction
+     */
+    public void scheduleProcessingTransactionExpiry(String transactionId) {
+        schedule(PROCESSING_TRANSACTION_PREFIX + transactionId, System.currentTimeMillis() + PROCESSING_TRANSACTION_TIME.toMillis());
+    }
+
+    /**
+     * Cancels the expiry of a transaction, once its payment is done.
+     *
+     * @param transactionId the id of the transaction
+     */
+    public void cancelProcessingTransactionExpiry(String transactionId) {
+        cancel(PROCESSING_TRANSACTION_PREFIX + transactionId);
+    }
+
+    /**
+     * Schedules the expiry of an item unless it is already scheduled.
+     * Used to recover the items lost with Redis data.
+     *
+     * @param item      the item
+     * @param expiresAt the time the item expires
+     * @return true if the item was not scheduled yet
+     */
+    public boolean scheduleIfAbsent(String item, LocalDateTime expiresAt) {
+        return Boolean.TRUE.equals(redisTemplate.opsForZSet().addIfAbsent(EXPIRY_QUEUE_KEY, item,
+                expiresAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+    }
+
+    /**
+     * Claims the expired items, they are not claimed by another node until the lease ends.
+     *
+     * @param limit the maximum number of items to claim
+     * @param lease the time to handle and acknowledge the items
+     * @return the claimed items
+     */
+    public List<String> claimDue(int limit, Duration lease) {
+        long now = System.currentTimeMillis();
+        List<?> items = redisTemplate.execute(CLAIM_SCRIPT, List.of(EXPIRY_QUEUE_KEY, CLAIMED_KEY),
+                String.valueOf(now), String.valueOf(now + lease.toMillis()), String.valueOf(limit));
+        List<String> claimed = new ArrayList<>();
+        if (items != null) {
+            items.forEach(item -> claimed.add(item.toString()));
+        }
+        return claimed;
+    }
+
+    /**
+     * Acknowledges a handled item, it is removed from the queue.
+     *
+     * @param item the item
+     */
+    public void acknowledge(String item) {
+        redisTemplate.opsForZSet().remove(CLAIMED_KEY, item);
+    }
+
+    private void schedule(String item, long expiresAt) {
+        redisTemplate.opsForZSet().add(EXPIRY_QUEUE_KEY, item, expiresAt);
+    }
+
+    private void cancel(String item) {
+        redisTemplate.opsForZSet().remove(EXPIRY_QUEUE_KEY, item);
+        redisTemplate.opsForZSet().remove(CLAIMED_KEY, item);
+    }
+}
@@ -13,6 +13,7 @@ import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.FeedbackMapper;
 import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.repository.CarRepository;
+import com.mp.karental.repository.CarStatsRepository;
 import com.mp.karental.repository.FeedbackRepository;
 import com.mp.karental.security.SecurityUtil;
 import lombok.AccessLevel;
@@ -56,6 +57,7 @@ public class FeedbackService {
     FeedbackMapper feedbackMapper;
     CarRepository carRepository;
     FileService fileService;
+    CarStatsRepository carStatsRepository;
 
     /**
      * Adds feedback (rating + comment) for a completed booking.
@@ -98,6 +100,10 @@ public class FeedbackService {
 
         // Save feedback to the database
         feedback = feedbackRepository.save(feedback);
+
+        // Add the rating to the statistics of the car
+        carStatsRepository.addRating(booking.getCar().getId(), feedback.getRating());
+
         FeedbackResponse response = feedbackMapper.toFeedbackResponse(feedback);
         response.setCreatedAt(feedback.getCreateAt());
 
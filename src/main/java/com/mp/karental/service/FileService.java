@@ -1,7 +1,10 @@
 package com.mp.karental.service;
 
+import com.mp.karental.entity.FileContentHash;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.FileContentHashRepository;
+import jakarta.annotation.PreDestroy;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -9,16 +12,44 @@ import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the service handle upload file to s3 and get url of the file
@@ -33,7 +64,41 @@ import java.time.Duration;
 @Slf4j
 public class FileService {
     S3Client s3Client;
+    S3AsyncClient s3AsyncClient;
     S3Presigner s3Presigner;
+    FileContentHashRepository fileContentHashRepository;
+
+    // a presigned url is reused during a window of 10 minutes
+    private static final long URL_WINDOW_MILLIS = Duration.ofMinutes(10).toMillis();
+    // a url handed out at the end of its window is still valid for 30 minutes
+    private static final Duration URL_SIGNATURE_DURATION = Duration.ofMinutes(30).plusMillis(URL_WINDOW_MILLIS);
+
+    // the client has 15 minutes to start a direct upload
+    private static final Duration UPLOAD_URL_SIGNATURE_DURATION = Duration.ofMinutes(15);
+    // a direct upload lands under this prefix and is only moved to its key once it is checked
+    private static final String UPLOAD_STAGING_PREFIX = "upload-staging/";
+    // same limit as spring.servlet.multipart.max-file-size
+    private static final long MAX_UPLOAD_FILE_SIZE = DataSize.ofMegabytes(5).toBytes();
+    // content types of the files accepted in a direct upload, by extension
+    private static final Map<String, String> UPLOAD_CONTENT_TYPES = Map.of(
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "png", "image/png",
+            "gif", "image/gif",
+            "pdf", "application/pdf",
+            "doc", "application/msword",
+            "docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+
+    // presigned urls by S3 key, only the urls signed in the current window are kept
+    Map<String, PresignedUrl> presignedUrls = new ConcurrentHashMap<>();
+    @NonFinal
+    volatile long currentWindow;
+
+    // threads feeding the content of the files to the async client, an upload holds one while it streams
+    private static final int UPLOAD_STREAM_THREADS = 16;
+    // uploads waiting for a thread, beyond it an upload is rejected and fails instead of queuing without limit
+    private static final int UPLOAD_STREAM_QUEUE_SIZE = 64;
+    ExecutorService uploadStreamExecutor = createUploadStreamExecutor();
 
     @NonFinal
     @Value("${cloud.aws.s3.buckets.name}")
@@ -41,6 +106,8 @@ public class FileService {
 
     /**
      * Uploads a file to the specified S3 bucket with the given key.
+     * The content is streamed from the file, it is not loaded in memory.
+     * The upload is skipped if the key already holds the same content.
      *
      * @param file the file to be uploaded (as MultipartFile)
      * @param key  the key (path/filename) under which the file will be stored in the S3 bucket
@@ -50,11 +117,23 @@ public class FileService {
     public boolean uploadFile(MultipartFile file, String key) {
         //upload object to s3
         try {
+            String contentHash = getContentHash(file);
+            if (fileContentHashRepository.findById(key)
+                    .map(stored -> stored.getSha256().equals(contentHash))
+                    .orElse(false)) {
+                log.info("File {} is unchanged, skip upload to S3", key);
+                return true;
+            }
             PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                     .bucket(bucketName)
                     .key(key)
                     .build();
-            s3Client.putObject(putObjectRequest, RequestBody.fromBytes(file.getBytes()));
+            try (InputStream in = file.getInputStream()) {
+                s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(in, file.getSize()));
+            }
+            fileContentHashRepository.saveHash(key, contentHash);
+            //the content of the key changed, do not hand out the url cached for the old content
+            presignedUrls.remove(key);
             log.info("Upload file {} to S3 successful", key);
             return true;
         } catch (IOException e) {
@@ -64,20 +143,345 @@ public class FileService {
     }
 
     /**
-     * Generates a presigned URL for accessing a file stored in the S3 bucket.
-     * This URL is temporary and valid for 30 minutes.
+     * Uploads content generated by the application to the S3 bucket with the given key.
+     *
+     * @param content     the content of the file
+     * @param key         the key (path/filename) under which the file will be stored in the S3 bucket
+     * @param contentType the media type of the content
+     */
+    public void uploadFile(byte[] content, String key, String contentType) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(content));
+        //the content of the key changed, do not hand out the url cached for the old content
+        presignedUrls.remove(key);
+        log.info("Upload file {} to S3 successful", key);
+    }
+
+    /**
+     * Downloads the content of a file stored in the S3 bucket.
+     *
+     * @param key the key (path/filename) of the file
+     * @return the content of the file
+     */
+    public byte[] getFileContent(String key) {
+        return s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .build())
+                .asByteArray();
+    }
+
+    /**
+     * Uploads several files to the S3 bucket concurrently and waits until all of them are uploaded.
+     * <p>
+     * The content is streamed from the files, the async client sends the large ones with a multipart upload.
+     * A file is not uploaded again if its key already holds the same content.
+     * </p>
+     * <p>
+     * If one of the uploads fails, the files that were uploaded by this call are deleted again,
+     * except the ones stored under a key that already held a file before (the previous content is lost anyway,
+     * and the key is still referenced).
+     * </p>
+     *
+     * @param filesByKey   the files to upload by the key (path/filename) they are stored under
+     * @param existingKeys the keys that already held a file before this upload
+     * @return the keys whose content changed, the unchanged files are not in it
+     * @throws AppException if one of the files can not be uploaded
+     */
+    public Set<String> uploadFiles(Map<String, MultipartFile> filesByKey, Collection<String> existingKeys) {
+        Map<String, CompletableFuture<?>> uploads = new LinkedHashMap<>();
+        Map<String, String> contentHashes = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, MultipartFile> entry : filesByKey.entrySet()) {
+                contentHashes.put(entry.getKey(), getContentHash(entry.getValue()));
+            }
+            // skip the files whose key already holds the same content
+            for (FileContentHash stored : fileContentHashRepository.findByFileKeyIn(filesByKey.keySet())) {
+                if (stored.getSha256().equals(contentHashes.get(stored.getFileKey()))) {
+                    contentHashes.remove(stored.getFileKey());
+                }
+            }
+            for (String key : contentHashes.keySet()) {
+                PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .build();
+                MultipartFile file = filesByKey.get(key);
+                InputStream in = file.getInputStream();
+                CompletableFuture<?> upload;
+                try {
+                    upload = s3AsyncClient.putObject(putObjectRequest,
+                            AsyncRequestBody.fromInputStream(in, file.getSize(), uploadStreamExecutor));
+                } catch (RuntimeException e) {
+                    closeUploadStream(key, in);
+                    throw e;
+                }
+                // the stream is read until the upload completes, only then it can be closed
+                uploads.put(key, upload.whenComplete((response, error) -> closeUploadStream(key, in)));
+            }
+            CompletableFuture.allOf(uploads.values().toArray(CompletableFuture[]::new)).join();
+        } catch (IOException | RuntimeException e) {
+            log.info("Upload files {} to S3 failed", filesByKey.keySet(), e);
+            deleteUploadedFiles(uploads, existingKeys);
+            // some keys may hold the new content now, whatever they held is not known anymore
+            if (!uploads.isEmpty()) {
+                fileContentHashRepository.deleteHashes(uploads.keySet());
+            }
+            throw new AppException(ErrorCode.UPLOAD_OBJECT_TO_S3_FAIL);
+        }
+        contentHashes.forEach(fileContentHashRepository::saveHash);
+        //the content of the keys changed, do not hand out the urls cached for the old content
+        contentHashes.keySet().forEach(presignedUrls::remove);
+        log.info("Upload files {} to S3 successful, unchanged files: {}", contentHashes.keySet(),
+                filesByKey.size() - contentHashes.size());
+        return contentHashes.keySet();
+    }
+
+    /**
+     * Computes the SHA-256 of the content of a file, reading it as a stream.
+     *
+     * @param file the file
+     * @return the hex encoded hash
+     * @throws IOException if the file can not be read
+     */
+    private String getContentHash(MultipartFile file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Closes the content stream of an upload, a failure is only logged.
+     *
+     * @param key the key of the uploaded file
+     * @param in  the stream of the content
+     */
+    private static void closeUploadStream(String key, InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.info("Close the content of file {} failed", key, e);
+        }
+    }
+
+    /**
+     * Creates the pool of named daemon threads streaming the content of the uploads, with a bounded queue.
+     *
+     * @return the executor
+     */
+    private static ExecutorService createUploadStreamExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(UPLOAD_STREAM_THREADS, UPLOAD_STREAM_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(UPLOAD_STREAM_QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "file-upload-stream-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Stops the threads streaming the uploads when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdownUploadStreamExecutor() {
+        uploadStreamExecutor.shutdown();
+    }
+
+    /**
+     * Deletes the files of a failed concurrent upload that were uploaded successfully.
+     *
+     * @param uploads      the started uploads by key
+     * @param existingKeys the keys that already held a file before the upload, they are not deleted
+     */
+    private void deleteUploadedFiles(Map<String, CompletableFuture<?>> uploads, Collection<String> existingKeys) {
+        List<CompletableFuture<?>> deletions = new ArrayList<>();
+        uploads.forEach((key, upload) -> {
+            // wait until the upload is finished, so it can not complete after the deletion
+            boolean uploaded = upload.handle((response, error) -> error == null).join();
+            if (uploaded && !existingKeys.contains(key)) {
+                deletions.add(s3AsyncClient.deleteObject(DeleteObjectRequest.builder()
+                                .bucket(bucketName)
+                                .key(key)
+                                .build())
+                        .whenComplete((response, error) -> {
+                            if (error != null) {
+                                log.info("Delete file {} from S3 failed", key, error);
+                            }
+                        }));
+            }
+        });
+        CompletableFuture.allOf(deletions.toArray(CompletableFuture[]::new))
+                .handle((response, error) -> null)
+                .join();
+    }
+
+    /**
+     * Gets a presigned URL for accessing a file stored in the S3 bucket.
+     * <p>
+     * The URL is signed once per key and per window of 10 minutes, then reused until the window ends.
+     * So the same file keeps the same URL during a window, which can be cached by the browser,
+     * and it is valid for at least 30 minutes.
+     * </p>
      *
      * @param uri the key (path/filename) of the file stored in the S3 bucket
      * @return the presigned URL as a String
      */
     public String getFileUrl(String uri) {
+        if (uri == null) {
+            return presignFileUrl(null);
+        }
+        long window = System.currentTimeMillis() / URL_WINDOW_MILLIS;
+        if (window != currentWindow) {
+            //a new window started, drop the urls of the previous ones
+            currentWindow = window;
+            presignedUrls.values().removeIf(presignedUrl -> presignedUrl.window() != window);
+        }
+        return presignedUrls.compute(uri, (key, presignedUrl) ->
+                presignedUrl != null && presignedUrl.window() == window
+                        ? presignedUrl
+                        : new PresignedUrl(presignFileUrl(key), window)
+        ).url();
+    }
+
+    /**
+     * Generates a presigned URL the client uses to upload a file directly to the S3 bucket with a PUT request.
+     * The file is uploaded to a staging key and only replaces the file of the key when the upload is confirmed.
+     * The URL is valid for 15 minutes and the PUT request must send the content type of the extension of the key.
+     *
+     * @param key the key (path/filename) the file will be stored under
+     * @return the presigned upload URL as a String
+     */
+    public String getUploadUrl(String key) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(getStagingKey(key))
+                .contentType(getUploadContentType(key))
+                .build();
+
+        PutObjectPresignRequest presignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(UPLOAD_URL_SIGNATURE_DURATION)
+                .putObjectRequest(putObjectRequest)
+                .build();
+        //the key is about to get a content the application does not know, stop deduplicating against the stored hash
+        fileContentHashRepository.deleteHashes(List.of(key));
+        log.info("Get upload url of the file with the key={} successful", key);
+        return s3Presigner.presignPutObject(presignRequest).url().toString();
+    }
+
+    /**
+     * Confirms that a file was uploaded directly to the S3 bucket by the client.
+     * The uploaded file is checked the same way as a file uploaded through the application,
+     * then moved from the staging key to the key.
+     *
+     * @param key the key (path/filename) of the uploaded file
+     * @return true if the file was uploaded and moved to the key, false if it was not uploaded
+     * @throws AppException if the file is larger than 5MB or its content type does not match the extension of the key
+     */
+    public boolean confirmUpload(String key) {
+        String stagingKey = getStagingKey(key);
+        HeadObjectResponse uploadedFile;
+        try {
+            uploadedFile = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(stagingKey)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            log.info("Confirm upload of the file {} failed, the file does not exist", key);
+            return false;
+        }
+        if (uploadedFile.contentLength() == null || uploadedFile.contentLength() > MAX_UPLOAD_FILE_SIZE) {
+            deleteStagedFile(stagingKey);
+            throw new AppException(ErrorCode.MAXIMUM_FILE_UPLOAD_EXCEED);
+        }
+        if (!getUploadContentType(key).equals(uploadedFile.contentType())) {
+            deleteStagedFile(stagingKey);
+            throw new AppException(ErrorCode.INVALID_UPLOADED_FILE_CONTENT_TYPE);
+        }
+        s3Client.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(stagingKey)
+                .destinationBucket(bucketName)
+                .destinationKey(key)
+                .build());
+        deleteStagedFile(stagingKey);
+        //the content was not uploaded by the application, its hash is not known
+        fileContentHashRepository.deleteHashes(List.of(key));
+        //the content of the key changed, do not hand out the url cached for the old content
+        presignedUrls.remove(key);
+        log.info("Confirm upload of the file {} successful", key);
+        return true;
+    }
+
+    /**
+     * Gets the content type a file uploaded directly under the key must have, from the extension of the key.
+     *
+     * @param key the key (path/filename) of the file
+     * @return the content type of the file
+     * @throws AppException if the extension of the key is not one of the accepted files
+     */
+    public static String getUploadContentType(String key) {
+        String contentType = UPLOAD_CONTENT_TYPES.get(key.substring(key.lastIndexOf('.') + 1).toLowerCase());
+        if (contentType == null) {
+            throw new AppException(ErrorCode.INVALID_UPLOADED_FILE_KEY);
+        }
+        return contentType;
+    }
+
+    private static String getStagingKey(String key) {
+        return UPLOAD_STAGING_PREFIX + key;
+    }
+
+    private void deleteStagedFile(String stagingKey) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(stagingKey)
+                .build());
+    }
+
+    /**
+     * Gets the presigned URLs of several files stored in the S3 bucket.
+     *
+     * @param uris the keys (path/filename) of the files, null keys are skipped
+     * @return the presigned URLs by key, in the order of the given keys
+     */
+    public Map<String, String> getFileUrls(Collection<String> uris) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (String uri : uris) {
+            if (uri != null && !urls.containsKey(uri)) {
+                urls.put(uri, getFileUrl(uri));
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Generates a new presigned URL for accessing a file stored in the S3 bucket.
+     *
+     * @param uri the key (path/filename) of the file stored in the S3 bucket
+     * @return the presigned URL as a String
+     */
+    private String presignFileUrl(String uri) {
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(uri)
                 .build();
 
         GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofMinutes(30)) //allow this url to be access in 30
+                .signatureDuration(URL_SIGNATURE_DURATION)
                 .getObjectRequest(getObjectRequest)
                 .build();
         log.info("Get url of the file with the key={} successful", uri);
@@ -97,4 +501,7 @@ public class FileService {
         }
         return ""; // return empty string if the file doesn't has the extension
     }
+
+    private record PresignedUrl(String url, long window) {
+    }
 }
@@ -0,0 +1,195 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EImageVariant;
+import com.mp.karental.entity.Car;
+import com.mp.karental.repository.CarRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Generates the resized variants of the car images (see {@link EImageVariant}).
+ * <p>
+ * The list endpoints hand out the small variants instead of the full size originals.
+ * The variants of a car are only used once all of them are generated for its current images.
+ * </p>
+ * <p>
+ * It is not transactional: the images are downloaded, resized and uploaded without holding a connection,
+ * only the final update of the car runs in a transaction.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ImageVariantService {
+    FileService fileService;
+    CarRepository carRepository;
+
+    private static final String VARIANT_CONTENT_TYPE = "image/jpeg";
+    private static final float JPEG_QUALITY = 0.8f;
+    // a small compressed image can decode to gigabytes of pixels, larger images are refused before decoding
+    static final long MAX_IMAGE_PIXELS = 40_000_000L;
+    // the image is decoded at twice the width of the largest variant at least, the resize smooths the rest
+    private static final int DECODE_WIDTH = 2 * Stream.of(EImageVariant.values())
+            .mapToInt(EImageVariant::getWidth)
+            .max()
+            .orElse(0);
+
+    /**
+     * Generates the variants of the current images of a car and marks them ready.
+     * The car is not marked if its images changed meanwhile, the change triggers a new generation.
+     *
+     * @param carId the id of the car
+     */
+    public void generateVariants(String carId) {
+        Car car = carRepository.findById(carId).orElse(null);
+        if (car == null || car.isImageVariantsReady()) {
+            return;
+        }
+        long imagesVersion = car.getImagesVersion();
+        List<String> imageKeys = Stream.of(car.getCarImageFront(), car.getCarImageBack(),
+                        car.getCarImageLeft(), car.getCarImageRight())
+                .filter(Objects::nonNull)
+                .toList();
+        try {
+            for (String imageKey : imageKeys) {
+                generateImageVariants(imageKey);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the car keeps using the originals, the scheduler tries again later
+            log.warn("Generate image variants of car {} failed: {}", carId, e.getMessage());
+            carRepository.recordImageVariantFailure(carId, imagesVersion);
+            return;
+        }
+        if (carRepository.markImageVariantsReady(carId, imagesVersion) > 0) {
+            log.info("Image variants of car {} generated", carId);
+        } else {
+            log.info("Images of car {} changed while generating their variants", carId);
+        }
+    }
+
+    /**
+     * Generates and uploads every variant of one image.
+     *
+     * @param imageKey the key of the original image
+     * @throws IOException if the image can not be read or encoded
+     */
+    private void generateImageVariants(String imageKey) throws IOException {
+        BufferedImage original = readImage(imageKey, fileService.getFileContent(imageKey));
+        for (EImageVariant variant : EImageVariant.values()) {
+            fileService.uploadFile(toJpeg(original, variant.getWidth()), variant.getKey(imageKey), VARIANT_CONTENT_TYPE);
+        }
+    }
+
+    /**
+     * Decodes an image, checking its size in the header first.
+     * A large image is subsampled while it is decoded, only the pixels the variants need are kept in memory.
+     *
+     * @param imageKey the key of the image, for the messages
+     * @param content  the content of the image
+     * @return the decoded image
+     * @throws IOException if the format is not supported, the image has more than {@link #MAX_IMAGE_PIXELS} pixels
+     *                     or it can not be decoded
+     */
+    static BufferedImage readImage(String imageKey, byte[] content) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("unsupported image format of " + imageKey);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_IMAGE_PIXELS) {
+                    throw new IOException("image " + imageKey + " is too large: " + width + "x" + height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, width / DECODE_WIDTH);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales an image down to the given width, keeping its aspect ratio, and encodes it as JPEG.
+     * A narrower image keeps its size, it is only re-encoded.
+     *
+     * @param original the image to resize
+     * @param width    the maximum width of the result
+     * @return the content of the JPEG image
+     * @throws IOException if the image can not be encoded
+     */
+    static byte[] toJpeg(BufferedImage original, int width) throws IOException {
+        int targetWidth = Math.min(width, original.getWidth());
+        int targetHeight = Math.max(1, Math.round((float) original.getHeight() * targetWidth / original.getWidth()));
+
+        // halve the image until it is close to the target, a single bilinear step skips pixels on large factors
+        BufferedImage current = original;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        BufferedImage resized = draw(current, targetWidth, targetHeight);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(resized, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        // JPEG has no alpha channel, transparent pixels become white
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+}
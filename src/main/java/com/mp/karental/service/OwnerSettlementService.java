@@ -0,0 +1,143 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.ETransactionStatus;
+import com.mp.karental.constant.ETransactionType;
+import com.mp.karental.entity.Booking;
+import com.mp.karental.entity.OwnerEarning;
+import com.mp.karental.entity.Transaction;
+import com.mp.karental.repository.OwnerEarningRepository;
+import com.mp.karental.repository.TransactionRepository;
+import com.mp.karental.repository.WalletRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Pays the car owners by batches.
+ * <p>
+ * Completing or cancelling a booking only records the earning of the owner.
+ * A settlement then credits the wallet of each owner once with the sum of its pending earnings,
+ * debits each shard of the system wallet once, and inserts the transactions of the owners in JDBC batches.
+ * When a batch fails, its owners are settled one by one, the earnings of an owner that still fails are marked failed
+ * so they do not hold back the other owners.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class OwnerSettlementService {
+    OwnerEarningRepository ownerEarningRepository;
+    TransactionRepository transactionRepository;
+    WalletRepository walletRepository;
+    WalletLedgerService walletLedgerService;
+
+    /**
+     * Records an amount earned by the owner of the car of a booking, paid by the next settlement.
+     *
+     * @param booking the booking
+     * @param amount  the earned amount
+     * @param type    the type of the transaction shown to the owner
+     */
+    public void recordEarning(Booking booking, long amount, ETransactionType type) {
+        ownerEarningRepository.save(OwnerEarning.builder()
+                .ownerId(booking.getCar().getAccount().getId())
+                .amount(amount)
+                .type(type)
+                .bookingNumber(booking.getBookingNumber())
+                .carName(booking.getCar().getModel())
+                .build());
+    }
+
+    /**
+     * Pays the oldest pending earnings.
+     *
+     * @param batchSize the maximum number of earnings to pay
+     * @return the number of paid earnings
+     */
+    public int settleNextBatch(int batchSize) {
+        return settle(ownerEarningRepository.findPendingForSettlement(PageRequest.of(0, batchSize)));
+    }
+
+    /**
+     * Pays the oldest pending earnings of one car owner.
+     *
+     * @param ownerId   the id of the car owner
+     * @param batchSize the maximum number of earnings to pay
+     * @return the number of paid earnings
+     */
+    public int settleOwner(String ownerId, int batchSize) {
+        return settle(ownerEarningRepository.findPendingForSettlementByOwnerId(ownerId, PageRequest.of(0, batchSize)));
+    }
+
+    /**
+     * Finds the car owners having pending earnings, to settle them one by one.
+     *
+     * @param limit the maximum number of owners
+     * @return the ids of the owners
+     */
+    @Transactional(readOnly = true)
+    public List<String> findPendingOwnerIds(int limit) {
+        return ownerEarningRepository.findPendingOwnerIds(PageRequest.of(0, limit));
+    }
+
+    /**
+     * Marks the pending earnings of a car owner that can not be paid failed, the next settlements skip them.
+     *
+     * @param ownerId the id of the car owner
+     * @return the number of marked earnings
+     */
+    public int markFailed(String ownerId) {
+        int failed = ownerEarningRepository.markFailed(ownerId);
+        log.error("Settlement of car owner {} failed, {} earnings are marked failed", ownerId, failed);
+        return failed;
+    }
+
+    private int settle(List<OwnerEarning> earnings) {
+        if (earnings.isEmpty()) {
+            return 0;
+        }
+
+        // sorted, so concurrent settlements lock the wallets in the same order
+        Map<String, Long> owedByOwner = earnings.stream().collect(Collectors.groupingBy(
+                OwnerEarning::getOwnerId, TreeMap::new, Collectors.summingLong(OwnerEarning::getAmount)));
+        owedByOwner.forEach((ownerId, amount) ->
+                walletLedgerService.credit(ownerId, amount, ETransactionType.RECEIVE_DEPOSIT, null));
+
+        Map<Integer, Long> paidByShard = earnings.stream().collect(Collectors.groupingBy(
+                e -> WalletLedgerService.systemWalletShard(e.getBookingNumber()),
+                TreeMap::new, Collectors.summingLong(OwnerEarning::getAmount)));
+        paidByShard.forEach((shard, amount) ->
+                walletLedgerService.debitSystemWalletShard(shard, amount, ETransactionType.RECEIVE_DEPOSIT));
+
+        // one transaction per booking, as the owner saw them before
+        transactionRepository.saveAll(earnings.stream()
+                .map(e -> Transaction.builder()
+                        .type(e.getType())
+                        .amount(e.getAmount())
+                        .bookingNo(e.getBookingNumber())
+                        .carName(e.getCarName())
+                        .status(ETransactionStatus.SUCCESSFUL)
+                        .wallet(walletRepository.getReferenceById(e.getOwnerId()))
+                        .build())
+                .toList());
+        ownerEarningRepository.deleteAllInBatch(earnings);
+
+        log.info("Settled {} earnings of {} car owners", earnings.size(), owedByOwner.size());
+        return earnings.size();
+    }
+}
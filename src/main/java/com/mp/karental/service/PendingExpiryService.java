@@ -0,0 +1,105 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.ETransactionStatus;
+import com.mp.karental.repository.BookingRepository;
+import com.mp.karental.repository.TransactionRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+import static com.mp.karental.service.ExpiryQueueService.PENDING_DEPOSIT_BOOKING_PREFIX;
+import static com.mp.karental.service.ExpiryQueueService.PROCESSING_TRANSACTION_PREFIX;
+
+/**
+ * Handles the expired items of the {@link ExpiryQueueService}:
+ * cancels the bookings whose deposit was not paid in time and fails the transactions whose payment was not done in time.
+ * <p>
+ * An item may be delivered more than once, the status is only changed if it is still pending,
+ * so the expiry and its email happen once.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class PendingExpiryService {
+    BookingRepository bookingRepository;
+    TransactionRepository transactionRepository;
+    EmailService emailService;
+    ExpiryQueueService expiryQueueService;
+
+    /**
+     * Expires an item of the queue.
+     *
+     * @param item the item, {@code booking:bookingNumber} or {@code trans:transactionId}
+     */
+    public void expire(String item) {
+        if (item.startsWith(PENDING_DEPOSIT_BOOKING_PREFIX)) {
+            expireBooking(item.substring(PENDING_DEPOSIT_BOOKING_PREFIX.length()));
+        } else if (item.startsWith(PROCESSING_TRANSACTION_PREFIX)) {
+            expireTransaction(item.substring(PROCESSING_TRANSACTION_PREFIX.length()));
+        } else {
+            log.warn("Dropped unknown expiry item {}", item);
+        }
+    }
+
+    /**
+     * Schedules again the expiry of every pending booking and transaction that is not in the queue,
+     * e.g. after a loss of Redis data.
+     */
+    @Transactional(readOnly = true)
+    public void recoverExpiryQueue() {
+        int recovered = 0;
+        for (Object[] row : bookingRepository.findBookingNumbersByStatus(EBookingStatus.PENDING_DEPOSIT)) {
+            if (expiryQueueService.scheduleIfAbsent(PENDING_DEPOSIT_BOOKING_PREFIX + row[0],
+                    getExpiryTime((LocalDateTime) row[1], ExpiryQueueService.PENDING_DEPOSIT_TIME.toMinutes()))) {
+                recovered++;
+            }
+        }
+        for (Object[] row : transactionRepository.findIdsByStatus(ETransactionStatus.PROCESSING)) {
+            if (expiryQueueService.scheduleIfAbsent(PROCESSING_TRANSACTION_PREFIX + row[0],
+                    getExpiryTime((LocalDateTime) row[1], ExpiryQueueService.PROCESSING_TRANSACTION_TIME.toMinutes()))) {
+                recovered++;
+            }
+        }
+        if (recovered > 0) {
+            log.info("Recovered the expiry of {} pending items", recovered);
+        }
+    }
+
+    private void expireBooking(String bookingNumber) {
+        if (bookingRepository.updateStatusIfCurrent(bookingNumber, EBookingStatus.PENDING_DEPOSIT, EBookingStatus.CANCELLED) == 0) {
+            // paid, cancelled or already expired
+            return;
+        }
+        log.info("Booking: {} has been cancelled due to expired of paying deposit time", bookingNumber);
+        bookingRepository.findByBookingNumber(bookingNumber).ifPresent(booking -> {
+            String reason = "Your booking was automatically canceled because the deposit was not paid within 1 hour.";
+            emailService.sendCancelledBookingEmail(booking.getAccount().getEmail(),
+                    booking.getCar().getBrand() + " " + booking.getCar().getModel(),
+                    reason);
+        });
+    }
+
+    private void expireTransaction(String transactionId) {
+        // the amount of a top-up is only added to the wallet once paid, a failed one leaves the wallet as is
+        if (transactionRepository.updateStatusIfCurrent(transactionId, ETransactionStatus.PROCESSING, ETransactionStatus.FAILED) > 0) {
+            log.info("Transaction: {} has been cancelled due to expired of paying transaction time.", transactionId);
+        }
+    }
+
+    private static LocalDateTime getExpiryTime(LocalDateTime createdAt, long minutes) {
+        return (createdAt == null ? LocalDateTime.now() : createdAt).plusMinutes(minutes);
+    }
+}
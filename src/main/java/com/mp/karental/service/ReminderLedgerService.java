@@ -0,0 +1,51 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingTimer;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Ledger of the reminder emails sent for the bookings, so a customer gets a reminder at most once per cooldown.
+ * <p>
+ * A sent reminder is the Redis key {@code reminder-sent:{reminder}:{bookingNumber}}, it expires after the cooldown.
+ * The key is taken before the email is sent: of the timers, retries and sweeps reaching the same booking,
+ * only the first one sends the reminder.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ReminderLedgerService {
+    RedisTemplate<String, String> redisTemplate;
+
+    public static final Duration REMINDER_COOLDOWN = Duration.ofHours(24);
+
+    private static final String REMINDER_SENT_PREFIX = "reminder-sent:";
+
+    /**
+     * Records a reminder of a booking, unless it was sent during the cooldown.
+     *
+     * @param bookingNumber the booking number
+     * @param reminder      the reminder
+     * @return true if the reminder is due and must be sent, false if it was already sent
+     */
+    public boolean tryRecord(String bookingNumber, EBookingTimer reminder) {
+        boolean due = Boolean.TRUE.equals(redisTemplate.opsForValue()
+                .setIfAbsent(REMINDER_SENT_PREFIX + reminder.name() + ":" + bookingNumber, "1", REMINDER_COOLDOWN));
+        if (!due) {
+            log.debug("Skipped reminder {} of booking {}, already sent", reminder, bookingNumber);
+        }
+        return due;
+    }
+}
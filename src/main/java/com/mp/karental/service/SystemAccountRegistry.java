@@ -0,0 +1,86 @@
+package com.mp.karental.service;
+
+import com.mp.karental.entity.Account;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.AccountRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the id of the admin account of the system, whose wallet is the wallet of the system.
+ * <p>
+ * The admin account is resolved once at startup and refreshed every hour,
+ * so the money transfers do not look it up in the database.
+ * The wallet of an account has the id of the account.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SystemAccountRegistry {
+    static final int ADMIN_ROLE_ID = 3;
+
+    AccountRepository accountRepository;
+
+    @NonFinal
+    volatile String adminAccountId;
+
+    /**
+     * Resolves the admin account again, at startup and every hour.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelay = 3_600_000, fixedDelay = 3_600_000)
+    public void refresh() {
+        Account admin = accountRepository.findByRoleId(ADMIN_ROLE_ID);
+        if (admin == null) {
+            log.warn("No admin account found, the system wallet is not available");
+            return;
+        }
+        if (!admin.getId().equals(adminAccountId)) {
+            log.info("System account resolved: {}", admin.getId());
+        }
+        adminAccountId = admin.getId();
+    }
+
+    /**
+     * Gets the id of the wallet of the system.
+     *
+     * @return the id of the admin wallet
+     * @throws AppException if there is no admin account
+     */
+    public String getAdminWalletId() {
+        if (adminAccountId == null) {
+            refresh();
+            if (adminAccountId == null) {
+                throw new AppException(ErrorCode.ACCOUNT_NOT_FOUND_IN_DB);
+            }
+        }
+        return adminAccountId;
+    }
+
+    /**
+     * Checks whether a wallet is the wallet of the system.
+     *
+     * @param walletId the id of the wallet
+     * @return true if the wallet is the admin wallet, false otherwise or if there is no admin account
+     */
+    public boolean isSystemWallet(String walletId) {
+        if (adminAccountId == null) {
+            refresh();
+        }
+        return walletId != null && walletId.equals(adminAccountId);
+    }
+}
@@ -1,10 +1,13 @@
 package com.mp.karental.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mp.karental.constant.ETransactionExportFormat;
 import com.mp.karental.constant.ETransactionStatus;
 import com.mp.karental.constant.ETransactionType;
 
 import com.mp.karental.dto.request.transaction.TransactionRequest;
 import com.mp.karental.dto.response.transaction.ListTransactionResponse;
+import com.mp.karental.dto.response.transaction.TransactionPageResponse;
 import com.mp.karental.dto.response.transaction.TransactionPaymentURLResponse;
 import com.mp.karental.dto.response.transaction.TransactionResponse;
 import com.mp.karental.entity.Account;
@@ -20,11 +23,9 @@ import com.mp.karental.payment.dto.response.InitPaymentResponse;
 import com.mp.karental.payment.dto.response.IpnResponse;
 import com.mp.karental.payment.service.IpnHandler;
 import com.mp.karental.payment.service.PaymentService;
-import com.mp.karental.repository.AccountRepository;
 import com.mp.karental.repository.TransactionRepository;
 import com.mp.karental.repository.WalletRepository;
 import com.mp.karental.security.SecurityUtil;
-import com.mp.karental.util.RedisUtil;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -32,12 +33,18 @@ import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -45,15 +52,23 @@ import java.util.*;
 @Transactional
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class TransactionService {
+    static final int MAX_PAGE_SIZE = 100;
+    // bounds used when the history is not filtered by date
+    static final LocalDateTime MIN_CREATED_AT = LocalDateTime.of(1970, 1, 1, 0, 0);
+    static final LocalDateTime MAX_CREATED_AT = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+    static final String CSV_HEADER = "createdAt,type,bookingNo,carName,amount,message,status\n";
+
     TransactionRepository transactionRepository;
     WalletRepository walletRepository;
-    AccountRepository accountRepository;
     TransactionMapper transactionMapper;
     PaymentService paymentService;
     EmailService emailService;
     private final ApplicationRunner init;
     IpnHandler ipnHandler;
-    private final RedisUtil redisUtil;
+    private final ExpiryQueueService expiryQueueService;
+    WalletLedgerService walletLedgerService;
+    OwnerSettlementService ownerSettlementService;
+    ObjectMapper objectMapper;
 
     @Value("${payment.vnpay.return-url}")
     @NonFinal
@@ -63,23 +78,16 @@ public class TransactionService {
     public TransactionResponse withdraw(long amount){
         String accountId = SecurityUtil.getCurrentAccountId();
         Account currentUser = SecurityUtil.getCurrentAccount();
-        Wallet wallet = walletRepository.findById(accountId).orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
+        // if amount is larger than balance, throw error
+        if (!walletLedgerService.debit(accountId, amount, ETransactionType.WITHDRAW, null)) {
+            throw new AppException(ErrorCode.PAYMENT_FAILED);
+        }
         Transaction transaction = Transaction.builder()
                 .amount(amount)
-                .wallet(wallet)
+                .wallet(walletRepository.getReferenceById(accountId))
                 .type(ETransactionType.WITHDRAW)
-                .status(ETransactionStatus.PROCESSING)
+                .status(ETransactionStatus.SUCCESSFUL)
                 .build();
-
-        // if amount is larger than balance, throw error
-        if (wallet.getBalance() < amount) {
-            transaction.setStatus(ETransactionStatus.FAILED);
-            throw new AppException(ErrorCode.PAYMENT_FAILED);
-        } else {
-            transaction.setStatus(ETransactionStatus.SUCCESSFUL);
-            wallet.setBalance(wallet.getBalance() - transaction.getAmount());
-        }
-        walletRepository.save(wallet);
         transactionRepository.save(transaction);
         //send email if withdraw successfully
         emailService.sendWalletUpdateEmail(currentUser.getEmail(), walletUrl);
@@ -100,7 +108,7 @@ public class TransactionService {
         transaction.setWallet(wallet);
         transaction.setStatus(ETransactionStatus.PROCESSING);
         Transaction transaction1 = transactionRepository.save(transaction);
-        redisUtil.cacheProcessingTransaction(transaction1.getId());
+        expiryQueueService.scheduleProcessingTransactionExpiry(transaction1.getId());
 
         TransactionResponse transactionResponse = transactionMapper.toTransactionResponse(transaction);
 
@@ -129,7 +137,6 @@ public class TransactionService {
         Transaction transaction = transactionRepository.findById(transactionId).orElseThrow(() -> new AppException(ErrorCode.TRANSACTION_NOT_FOUND_IN_DB));
         String accountId = SecurityUtil.getCurrentAccountId();
         Account currentUser = SecurityUtil.getCurrentAccount();
-        Wallet wallet = walletRepository.findById(accountId).orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
         TransactionResponse transactionResponse = transactionMapper.toTransactionResponse(transaction);
         log.info("Transaction Status: transactionResponse={}", transactionResponse);
         // if current transaction status is PROCESSING
@@ -137,19 +144,20 @@ public class TransactionService {
                 !transaction.getStatus().equals(ETransactionStatus.FAILED)) {
             // if response from vnpay returnUrl is success
             if (ipnResponse.getResponseCode().equals(VNPayIPNResponseConst.SUCCESS.getResponseCode())) {
-                if (transaction.getType().equals(ETransactionType.TOP_UP)) {
+                // only the request which moves the transaction out of PROCESSING credits the wallet
+                if (transaction.getType().equals(ETransactionType.TOP_UP)
+                        && transactionRepository.updateStatusIfCurrent(transaction.getId(),
+                        ETransactionStatus.PROCESSING, ETransactionStatus.SUCCESSFUL) > 0) {
                     // update transaction status to SUCCESSFUL
                     transactionResponse.setStatus(ETransactionStatus.SUCCESSFUL);
                     transaction.setStatus(ETransactionStatus.SUCCESSFUL);
                     log.info("Updating transaction to SUCCESSFUL: transactionId={}", transaction.getId());
                     // set balance for wallet
-                    wallet.setBalance(wallet.getBalance() + transaction.getAmount());
+                    walletLedgerService.credit(accountId, transaction.getAmount(), ETransactionType.TOP_UP, null);
                     //send email if top-up successfully
                     emailService.sendWalletUpdateEmail(currentUser.getEmail(), walletUrl);
-                    redisUtil.removeCacheProcessingTransaction(transaction.getId());
+                    expiryQueueService.cancelProcessingTransactionExpiry(transaction.getId());
                 }
-                //save balance
-                walletRepository.save(wallet);
             }
             // if vnpay response is failed
             else {
@@ -165,47 +173,33 @@ public class TransactionService {
         return transactionResponse;
     }
 
-    // Method to transfer money from admin wallet to user wallet (include customer and car owner)
-    private Wallet transferFromSystemToUser(String userId, long amount){
-        Wallet userWallet = walletRepository.findById(userId)
-                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
-        Wallet adminWallet = walletRepository.findById(accountRepository.findByRoleId(3).getId())
-                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
-        // deduct from admin wallet
-        adminWallet.setBalance(adminWallet.getBalance() - amount);
+    // Method to transfer money from system wallet to user wallet (include customer and car owner)
+    // the user wallet is always changed before the system wallet, so concurrent transfers lock them in the same order
+    private Wallet transferFromSystemToUser(String userId, long amount, ETransactionType type, String bookingNo){
         // plus to user wallet
-        userWallet.setBalance(userWallet.getBalance() + amount);
-        //save wallet
-        walletRepository.save(userWallet);
-        walletRepository.save(adminWallet);
-        return userWallet;
+        walletLedgerService.credit(userId, amount, type, bookingNo);
+        // deduct from the shard of the system wallet of the booking
+        walletLedgerService.debitSystemWallet(amount, type, bookingNo);
+        return walletRepository.getReferenceById(userId);
     }
 
 
-    // Method to transfer money from user wallet (include customer and car owner) to admin wallet
-    private Wallet transferFromUserToSystem(String userId, long amount){
-        Wallet userWallet = walletRepository.findById(userId)
-                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
-        Wallet adminWallet = walletRepository.findById(accountRepository.findByRoleId(3).getId())
-                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
-        if(userWallet.getBalance() < amount){
+    // Method to transfer money from user wallet (include customer and car owner) to system wallet
+    private Wallet transferFromUserToSystem(String userId, long amount, ETransactionType type, String bookingNo){
+        // deduct from customer wallet, only if the balance is enough
+        if(!walletLedgerService.debit(userId, amount, type, bookingNo)){
             throw new AppException(ErrorCode.INSUFFICIENT_BALANCE);
         }
-        // deduct from customer wallet
-        userWallet.setBalance(userWallet.getBalance() - amount);
-        // plus to admin wallet
-        adminWallet.setBalance(adminWallet.getBalance() + amount);
-        //save wallet
-        walletRepository.save(userWallet);
-        walletRepository.save(adminWallet);
-        return userWallet;
+        // plus to the shard of the system wallet of the booking
+        walletLedgerService.creditSystemWallet(amount, type, bookingNo);
+        return walletRepository.getReferenceById(userId);
     }
 
     // method serves as third-party, customer will transfer money from wallet to admin wallet when pay deposit
     public void payDeposit(Booking b ){
         String customerId = b.getAccount().getId();
         // customer pay for system
-        Wallet customerWallet =  transferFromUserToSystem(customerId,b.getDeposit());
+        Wallet customerWallet =  transferFromUserToSystem(customerId,b.getDeposit(), ETransactionType.PAY_DEPOSIT, b.getBookingNumber());
         // save as new transaction
         Transaction transaction = Transaction.builder()
                 .type(ETransactionType.PAY_DEPOSIT)
@@ -223,13 +217,12 @@ public class TransactionService {
      user cancel booking (car owner: 22% and customer: 70%, system get 8%)
     */
     public void refundPartialDeposit (Booking b){
-        //Find id of customer, car owner
+        //Find id of customer
         String customerId = b.getAccount().getId();
-        String carOwnerId = b.getCar().getAccount().getId();
         //system pay for customer 70%
-        Wallet customerWallet = transferFromSystemToUser(customerId,(long)(b.getDeposit()*0.7));
-        //system pay for customer 22%
-        Wallet carOwnerWallet = transferFromSystemToUser(carOwnerId,(long)(b.getDeposit()*0.22));
+        Wallet customerWallet = transferFromSystemToUser(customerId,(long)(b.getDeposit()*0.7), ETransactionType.REFUND_DEPOSIT, b.getBookingNumber());
+        //system pay for car owner 22%, with the next settlement
+        ownerSettlementService.recordEarning(b, (long)(b.getDeposit()*0.22), ETransactionType.REFUND_DEPOSIT);
 
         // save as new transaction for customer
         Transaction transactionCustomer = Transaction.builder()
@@ -241,16 +234,6 @@ public class TransactionService {
                 .wallet(customerWallet)
                 .build();
         transactionRepository.save(transactionCustomer);
-        // save as new transaction for carOwner
-        Transaction transactionCarOwner = Transaction.builder()
-                .type(ETransactionType.REFUND_DEPOSIT)
-                .amount((long)(b.getDeposit()*0.22))
-                .bookingNo(b.getBookingNumber())
-                .carName(b.getCar().getModel())
-                .status(ETransactionStatus.SUCCESSFUL)
-                .wallet(carOwnerWallet)
-                .build();
-        transactionRepository.save(transactionCarOwner);
     }
 
 
@@ -259,7 +242,7 @@ public class TransactionService {
     // car owner refuse that booking
     public void refundAllDeposit(Booking b){
         //pay 100% deposit to customer
-        Wallet customerWallet = transferFromSystemToUser(b.getAccount().getId(), b.getDeposit());
+        Wallet customerWallet = transferFromSystemToUser(b.getAccount().getId(), b.getDeposit(), ETransactionType.REFUND_DEPOSIT, b.getBookingNumber());
         // save as new transaction
         Transaction transaction = Transaction.builder()
                 .type(ETransactionType.REFUND_DEPOSIT)
@@ -279,16 +262,18 @@ public class TransactionService {
         long totalPayment = calculateTotalPayment(b);
 
         Wallet customerWallet ;
-        Wallet carOnwerWallet;
         // When deposit is less than total, system will deduct money from user’s wallet
         if(b.getDeposit() < totalPayment){
-            customerWallet = transferFromUserToSystem(b.getAccount().getId(), totalPayment - b.getDeposit());
+            customerWallet = transferFromUserToSystem(b.getAccount().getId(), totalPayment - b.getDeposit(),
+                    ETransactionType.OFFSET_FINAL_PAYMENT, b.getBookingNumber());
         }
         //If the deposit amount is more than the total amount, system will return money to user’s wallet
         else{
-            customerWallet = transferFromSystemToUser(b.getAccount().getId(), b.getDeposit() - totalPayment);
+            customerWallet = transferFromSystemToUser(b.getAccount().getId(), b.getDeposit() - totalPayment,
+                    ETransactionType.OFFSET_FINAL_PAYMENT, b.getBookingNumber());
         }
-        carOnwerWallet = transferFromSystemToUser(b.getCar().getAccount().getId(),(long)(totalPayment*0.92 ));
+        // car owner receives 92% of the total with the next settlement
+        ownerSettlementService.recordEarning(b, (long)(totalPayment*0.92 ), ETransactionType.RECEIVE_DEPOSIT);
         //Create transaction for customer wallet
         Transaction transactionCustomer = Transaction.builder()
                 .type(ETransactionType.OFFSET_FINAL_PAYMENT)
@@ -299,16 +284,6 @@ public class TransactionService {
                 .wallet(customerWallet)
                 .build();
         transactionRepository.save(transactionCustomer);
-        //Create transaction for car owner wallet
-        Transaction transactionCarOwner = Transaction.builder()
-                .type(ETransactionType.RECEIVE_DEPOSIT)
-                .amount(b.getDeposit())
-                .bookingNo(b.getBookingNumber())
-                .carName(b.getCar().getModel())
-                .status(ETransactionStatus.SUCCESSFUL)
-                .wallet(carOnwerWallet)
-                .build();
-        transactionRepository.save(transactionCarOwner);
     }
 
     public long calculateTotalPayment(Booking b){
@@ -330,7 +305,7 @@ public class TransactionService {
         }
         // this response include wallet balance
         ListTransactionResponse listTransactionResponse = new ListTransactionResponse();
-        listTransactionResponse.setBalance(wallet.getBalance());
+        listTransactionResponse.setBalance(walletLedgerService.getDisplayedBalance(wallet));
         listTransactionResponse.setListTransactionResponse(transactionResponses);
         return listTransactionResponse;
     }
@@ -347,8 +322,133 @@ public class TransactionService {
         }
         // this response include wallet balance
         ListTransactionResponse listTransactionResponse = new ListTransactionResponse();
-        listTransactionResponse.setBalance(wallet.getBalance());
+        listTransactionResponse.setBalance(walletLedgerService.getDisplayedBalance(wallet));
         listTransactionResponse.setListTransactionResponse(transactionResponses);
         return listTransactionResponse;
     }
+
+    /**
+     * Gets a page of the transaction history of the current user, newest first.
+     * <p>
+     * The pages are chained by a cursor on (createdAt, id) instead of an offset,
+     * so a page is read from the index without counting or skipping the previous rows.
+     * </p>
+     *
+     * @param from   the start of the date range, or null
+     * @param to     the end of the date range, or null
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param size   the size of the page, at most 100
+     * @return the page with the balance of the wallet and the cursor of the next page
+     */
+    @Transactional(readOnly = true)
+    public TransactionPageResponse getTransactionPage(LocalDateTime from, LocalDateTime to, String cursor, int size) {
+        String accountId = SecurityUtil.getCurrentAccountId();
+        int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+        LocalDateTime lower = from == null ? MIN_CREATED_AT : from;
+        LocalDateTime upper = to == null ? MAX_CREATED_AT : to;
+        // one more row tells whether there is a next page
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<Transaction> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = transactionRepository.findFirstPageByWalletId(accountId, lower, upper, limit);
+        } else {
+            TransactionCursor after = decodeCursor(cursor);
+            rows = transactionRepository.findPageByWalletIdAfter(accountId, lower, upper,
+                    after.createdAt(), after.id(), limit);
+        }
+        boolean hasNext = rows.size() > pageSize;
+        List<Transaction> page = hasNext ? rows.subList(0, pageSize) : rows;
+
+        Wallet wallet = walletRepository.findById(accountId)
+                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
+        return TransactionPageResponse.builder()
+                .balance(walletLedgerService.getDisplayedBalance(wallet))
+                .transactions(page.stream().map(transactionMapper::toTransactionResponse).toList())
+                .nextCursor(hasNext ? encodeCursor(page.get(page.size() - 1)) : null)
+                .build();
+    }
+
+    /**
+     * Writes the transaction history of the current user, newest first.
+     * <p>
+     * The rows are written as they are read from a database cursor,
+     * so the history is never held in memory.
+     * </p>
+     *
+     * @param from   the start of the date range, or null
+     * @param to     the end of the date range, or null
+     * @param format the format of the rows
+     * @param writer the writer of the response
+     */
+    @Transactional(readOnly = true)
+    public void exportTransactions(LocalDateTime from, LocalDateTime to, ETransactionExportFormat format, Writer writer) {
+        String accountId = SecurityUtil.getCurrentAccountId();
+        LocalDateTime lower = from == null ? MIN_CREATED_AT : from;
+        LocalDateTime upper = to == null ? MAX_CREATED_AT : to;
+        long count = 0;
+        try (Stream<TransactionResponse> rows = transactionRepository.streamByWalletId(accountId, lower, upper)) {
+            if (format == ETransactionExportFormat.CSV) {
+                writer.write(CSV_HEADER);
+            }
+            Iterator<TransactionResponse> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                TransactionResponse row = iterator.next();
+                writer.write(format == ETransactionExportFormat.CSV
+                        ? toCsvLine(row)
+                        : objectMapper.writeValueAsString(row) + "\n");
+                count++;
+            }
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Failed to export the transactions of wallet {}", accountId, e);
+            throw new AppException(ErrorCode.EXPORT_TRANSACTIONS_FAIL);
+        }
+        log.info("Exported {} transactions of wallet {} as {}", count, accountId, format);
+    }
+
+    private record TransactionCursor(LocalDateTime createdAt, String id) {
+    }
+
+    private static String encodeCursor(Transaction last) {
+        String value = last.getCreatedAt() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static TransactionCursor decodeCursor(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf('|');
+            if (separator < 0) {
+                throw new AppException(ErrorCode.INVALID_TRANSACTION_CURSOR);
+            }
+            return new TransactionCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    value.substring(separator + 1));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new AppException(ErrorCode.INVALID_TRANSACTION_CURSOR);
+        }
+    }
+
+    private static String toCsvLine(TransactionResponse row) {
+        return String.join(",",
+                csvField(row.getCreatedAt()),
+                csvField(row.getType()),
+                csvField(row.getBookingNo()),
+                csvField(row.getCarName()),
+                String.valueOf(row.getAmount()),
+                csvField(row.getMessage()),
+                csvField(row.getStatus())) + "\n";
+    }
+
+    // quotes the field when it contains a separator, a quote or a line break
+    private static String csvField(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
 }
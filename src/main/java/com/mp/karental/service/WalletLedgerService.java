@@ -0,0 +1,207 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.ETransactionType;
+import com.mp.karental.entity.SystemWalletShard;
+import com.mp.karental.entity.Wallet;
+import com.mp.karental.entity.WalletLedgerEntry;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.SystemWalletShardRepository;
+import com.mp.karental.repository.WalletLedgerEntryRepository;
+import com.mp.karental.repository.WalletRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Changes the balances of the wallets.
+ * <p>
+ * A balance is never read then written back: it changes through one conditional {@code UPDATE}
+ * which also checks the balance does not go negative, and the change is appended to the wallet ledger
+ * in the same transaction. Concurrent refunds and payments on the same wallet all apply,
+ * the row is only locked for the duration of the statement's transaction.
+ * </p>
+ * <p>
+ * The money of the system goes through the {@link SystemWalletShard shards} of the system wallet,
+ * picked by the booking number, and is consolidated into the admin wallet by
+ * {@link #consolidateSystemWalletShard(int, String)}.
+ * </p>
+ * <p>
+ * The {@link com.mp.karental.entity.Wallet} entities loaded in the same transaction keep their old balance,
+ * the balance must be read again in a new transaction.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class WalletLedgerService {
+    public static final int SYSTEM_WALLET_SHARDS = 16;
+    static final String SYSTEM_WALLET_SHARD_PREFIX = "system-wallet:";
+
+    WalletRepository walletRepository;
+    WalletLedgerEntryRepository walletLedgerEntryRepository;
+    SystemWalletShardRepository systemWalletShardRepository;
+    SystemAccountRegistry systemAccountRegistry;
+
+    /**
+     * Credits a wallet.
+     *
+     * @param walletId      the id of the wallet
+     * @param amount        the amount to add
+     * @param type          the type of the transaction
+     * @param bookingNumber the booking number of the transaction, if any
+     * @throws AppException if the wallet does not exist
+     */
+    public void credit(String walletId, long amount, ETransactionType type, String bookingNumber) {
+        if (!apply(walletId, amount, true, type, bookingNumber)) {
+            throw new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB);
+        }
+    }
+
+    /**
+     * Debits a wallet if its balance is enough.
+     *
+     * @param walletId      the id of the wallet
+     * @param amount        the amount to deduct
+     * @param type          the type of the transaction
+     * @param bookingNumber the booking number of the transaction, if any
+     * @return true if the wallet is debited, false if its balance is not enough
+     * @throws AppException if the wallet does not exist
+     */
+    public boolean debit(String walletId, long amount, ETransactionType type, String bookingNumber) {
+        if (apply(walletId, -amount, false, type, bookingNumber)) {
+            return true;
+        }
+        if (!walletRepository.existsById(walletId)) {
+            throw new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB);
+        }
+        return false;
+    }
+
+    /**
+     * Credits the wallet of the system with money received for a booking.
+     *
+     * @param amount        the amount to add
+     * @param type          the type of the transaction
+     * @param bookingNumber the booking number of the transaction
+     */
+    public void creditSystemWallet(long amount, ETransactionType type, String bookingNumber) {
+        applyToSystemWallet(systemWalletShard(bookingNumber), amount, type, bookingNumber);
+    }
+
+    /**
+     * Debits the wallet of the system to pay a refund or a car owner, the system wallet may go negative.
+     *
+     * @param amount        the amount to deduct
+     * @param type          the type of the transaction
+     * @param bookingNumber the booking number of the transaction
+     */
+    public void debitSystemWallet(long amount, ETransactionType type, String bookingNumber) {
+        applyToSystemWallet(systemWalletShard(bookingNumber), -amount, type, bookingNumber);
+    }
+
+    /**
+     * Debits a shard of the wallet of the system once for several bookings, the system wallet may go negative.
+     *
+     * @param shard  the index of the shard
+     * @param amount the amount to deduct
+     * @param type   the type of the transactions
+     */
+    public void debitSystemWalletShard(int shard, long amount, ETransactionType type) {
+        applyToSystemWallet(shard, -amount, type, null);
+    }
+
+    /**
+     * Moves the balance of a shard of the system wallet into the admin wallet.
+     * The shard keeps the amounts added after its balance was read.
+     *
+     * @param shard         the index of the shard
+     * @param adminWalletId the id of the admin wallet
+     * @return the moved amount
+     */
+    public long consolidateSystemWalletShard(int shard, String adminWalletId) {
+        long balance = systemWalletShardRepository.findById(shard)
+                .map(SystemWalletShard::getBalance)
+                .orElse(0L);
+        if (balance == 0) {
+            return 0;
+        }
+        // internal transfer, the ledger entries have no transaction type
+        applyToSystemWallet(shard, -balance, null, null);
+        if (!apply(adminWalletId, balance, true, null, null)) {
+            throw new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB);
+        }
+        return balance;
+    }
+
+    /**
+     * Calculates the balance of the system: the admin wallet plus the shards not consolidated yet.
+     *
+     * @param adminWalletId the id of the admin wallet
+     * @return the balance of the system
+     */
+    @Transactional(readOnly = true)
+    public long getSystemWalletBalance(String adminWalletId) {
+        long adminBalance = walletRepository.findById(adminWalletId)
+                .orElseThrow(() -> new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB))
+                .getBalance();
+        return adminBalance + systemWalletShardRepository.sumBalance();
+    }
+
+    /**
+     * Gets the balance of a wallet as shown to its owner.
+     * The admin wallet shows the balance of the system, including the shards not consolidated yet.
+     *
+     * @param wallet the wallet
+     * @return the balance of the wallet
+     */
+    @Transactional(readOnly = true)
+    public long getDisplayedBalance(Wallet wallet) {
+        if (!systemAccountRegistry.isSystemWallet(wallet.getId())) {
+            return wallet.getBalance();
+        }
+        return wallet.getBalance() + systemWalletShardRepository.sumBalance();
+    }
+
+    /**
+     * Picks the shard of the system wallet used by a booking.
+     *
+     * @param bookingNumber the booking number
+     * @return the index of the shard
+     */
+    static int systemWalletShard(String bookingNumber) {
+        return bookingNumber == null ? 0 : Math.floorMod(bookingNumber.hashCode(), SYSTEM_WALLET_SHARDS);
+    }
+
+    private void applyToSystemWallet(int shard, long amount, ETransactionType type, String bookingNumber) {
+        systemWalletShardRepository.addToBalance(shard, amount);
+        walletLedgerEntryRepository.save(WalletLedgerEntry.builder()
+                .walletId(SYSTEM_WALLET_SHARD_PREFIX + shard)
+                .amount(amount)
+                .type(type)
+                .bookingNumber(bookingNumber)
+                .build());
+    }
+
+    private boolean apply(String walletId, long amount, boolean allowOverdraft, ETransactionType type, String bookingNumber) {
+        if (walletRepository.addToBalance(walletId, amount, allowOverdraft) == 0) {
+            return false;
+        }
+        walletLedgerEntryRepository.save(WalletLedgerEntry.builder()
+                .walletId(walletId)
+                .amount(amount)
+                .type(type)
+                .bookingNumber(bookingNumber)
+                .build());
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package com.mp.karental.util;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-car lock serializing the reservations of a car.
+ * <p>
+ * A lock is taken in two steps: a striped lock inside this instance, so the threads of one node
+ * queue locally instead of polling Redis, then a Redis lock shared by all the nodes.
+ * The Redis lock has a lease, a crashed node can not hold a car forever.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CarLockManager {
+    RedisTemplate<String, String> redisTemplate;
+
+    private static final String CAR_LOCK_PREFIX = "car-lock:";
+    private static final int STRIPES = 64;
+    // a caller gives up after 2 seconds, the lock is only held for a short check and insert
+    private static final Duration WAIT_TIME = Duration.ofSeconds(2);
+    private static final Duration LEASE_TIME = Duration.ofSeconds(30);
+    private static final long RETRY_INTERVAL_MILLIS = 50;
+    // only the owner of the lock deletes it, the lease may have expired and another node may hold it now
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    ReentrantLock[] stripes = createStripes();
+
+    /**
+     * Locks a car.
+     *
+     * @param carId the id of the car
+     * @return the lock, to be closed by the same thread
+     * @throws AppException if the car is still locked by another reservation after the wait time
+     */
+    public CarLock lock(String carId) {
+        long deadline = System.nanoTime() + WAIT_TIME.toNanos();
+        ReentrantLock localLock = stripes[Math.floorMod(carId.hashCode(), STRIPES)];
+        boolean locked = false;
+        try {
+            if (!localLock.tryLock(WAIT_TIME.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new AppException(ErrorCode.CAR_IS_BEING_BOOKED);
+            }
+            String key = CAR_LOCK_PREFIX + carId;
+            String token = UUID.randomUUID().toString();
+            while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, token, LEASE_TIME))) {
+                if (System.nanoTime() >= deadline) {
+                    throw new AppException(ErrorCode.CAR_IS_BEING_BOOKED);
+                }
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            }
+            locked = true;
+            return new CarLock(key, token, localLock);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppException(ErrorCode.CAR_IS_BEING_BOOKED);
+        } finally {
+            if (!locked && localLock.isHeldByCurrentThread()) {
+                localLock.unlock();
+            }
+        }
+    }
+
+    private static ReentrantLock[] createStripes() {
+        ReentrantLock[] locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * A lock held on a car.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public final class CarLock implements AutoCloseable {
+        private final String key;
+        private final String token;
+        private final ReentrantLock localLock;
+
+        @Override
+        public void close() {
+            try {
+                redisTemplate.execute(RELEASE_SCRIPT, List.of(key), token);
+            } catch (RuntimeException e) {
+                // the lease releases the lock
+                log.warn("Release lock {} failed: {}", key, e.getMessage());
+            } finally {
+                localLock.unlock();
+            }
+        }
+    }
+}
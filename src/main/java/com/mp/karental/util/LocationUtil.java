@@ -0,0 +1,60 @@
+package com.mp.karental.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes the location parts of an address (city/province, district, ward) into keys
+ * that can be compared with equality, so the car search can use an index instead of a LIKE scan.
+ * <p>
+ * A key is lower case, without Vietnamese accents and with single spaces,
+ * e.g. "Thành phố  Hà Nội" becomes "thanh pho ha noi".
+ * </p>
+ *
+ * @author QuangPM20
+ * @version 1.0
+ */
+public class LocationUtil {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+    private LocationUtil() {
+    }
+
+    /**
+     * Normalizes one location part of an address.
+     *
+     * @param value the location part, e.g. a district name
+     * @return the normalized key, or null if the value is null or blank
+     */
+    public static String normalize(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        // đ/Đ is a letter on its own, not a d with a combining mark
+        String folded = value.replace('đ', 'd').replace('Đ', 'D');
+        folded = COMBINING_MARKS.matcher(Normalizer.normalize(folded, Normalizer.Form.NFD)).replaceAll("");
+        return WHITESPACES.matcher(folded.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a search address in the form "city/province, district, ward[, street]" into normalized keys.
+     * The parts not given in the address are null.
+     *
+     * @param address the address to split
+     * @return an array of 3 keys: city/province, district and ward
+     */
+    public static String[] toLocationKeys(String address) {
+        String[] keys = new String[3];
+        if (address == null) {
+            return keys;
+        }
+        String[] parts = address.split(",", 4);
+        for (int i = 0; i < keys.length && i < parts.length; i++) {
+            keys[i] = normalize(parts[i]);
+        }
+        return keys;
+    }
+}
@@ -1,5 +1,6 @@
 package com.mp.karental.util;
 
+import com.mp.karental.repository.BookingRepository;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -7,11 +8,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Objects;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Component
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
@@ -19,26 +22,75 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class RedisUtil {
     RedisTemplate<String, String> redisTemplate;
+    BookingRepository bookingRepository;
+    AtomicReference<SequenceBlock> bookingSequenceBlock = new AtomicReference<>();
 
     private static final String BOOKING_SEQUENCE_KEY = "booking-sequence";
-    private static final String PENDING_DEPOSIT_BOOKING_KEY = "booking:";
+    private static final int BOOKING_SEQUENCE_BLOCK_SIZE = 100;
+    private static final Duration BOOKING_SEQUENCE_TTL = Duration.ofDays(2);
+    private static final DateTimeFormatter BOOKING_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
     private static final String VERIFY_EMAIL_TOKEN_PREFIX = "verify-email-tk:";
     private static final String FORGOT_PASSWORD_TOKEN_PREFIX = "forgot-password-tk:";
-    private static final String PROCESSING_TRANSACTION_PREFIX = "trans:";
+    private static final String SWEEP_CHECKPOINT_PREFIX = "sweep-checkpoint:";
 
+    /**
+     * generate the booking number {@code yyyyMMdd-sequence}, the sequence restarts every day.
+     * <p>
+     * Each node leases a block of sequence numbers of the day from Redis with a single INCRBY
+     * and hands them out locally, Redis is only called once per block.
+     * The numbers are unique but not ordered across the nodes.
+     * The counter of a day starts after the last booking number already issued that day
+     * (by the former single counter or before Redis lost its data), so no number is issued twice.
+     * </p>
+     * @return the booking number
+     */
     public String generateBookingNumber() {
-        Long sequence = redisTemplate.opsForValue().increment(BOOKING_SEQUENCE_KEY, 1);
-        if(Objects.equals(sequence, 1L)){ //the first booking is placed
-            //reset sequence every day
-            redisTemplate.expireAt(BOOKING_SEQUENCE_KEY, new Date(System.currentTimeMillis() + 86400000));
-            //TODO: FOR TEST ONLY
-//            redisTemplate.expire(BOOKING_SEQUENCE_KEY, 1, TimeUnit.MINUTES);
+        String date = LocalDate.now().format(BOOKING_DATE_FORMATTER);
+        while (true) {
+            SequenceBlock block = bookingSequenceBlock.get();
+            if (block != null && block.date().equals(date)) {
+                long sequence = block.next().getAndIncrement();
+                if (sequence <= block.last()) {
+                    return date + "-" + String.format("%08d", sequence);
+                }
+            }
+            synchronized (bookingSequenceBlock) {
+                // another thread may have leased the next block meanwhile
+                if (bookingSequenceBlock.get() == block) {
+                    bookingSequenceBlock.set(leaseBookingSequenceBlock(date));
+                }
+            }
         }
+    }
 
-        //get current date in form yyyyMMdd
-        String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
+    private SequenceBlock leaseBookingSequenceBlock(String date) {
+        // one key per day, the date of the booking number and its sequence can not drift apart
+        String key = BOOKING_SEQUENCE_KEY + ":" + date;
+        seedBookingSequence(key, date);
+        Long last = redisTemplate.opsForValue().increment(key, BOOKING_SEQUENCE_BLOCK_SIZE);
+        if (last == null) {
+            throw new IllegalStateException("Can not lease a block of booking sequence");
+        }
+        redisTemplate.expire(key, BOOKING_SEQUENCE_TTL);
+        return new SequenceBlock(date, new AtomicLong(last - BOOKING_SEQUENCE_BLOCK_SIZE + 1), last);
+    }
 
-        return date + "-" + String.format("%08d", sequence);
+    private void seedBookingSequence(String key, String date) {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
+            return;
+        }
+        // the former counter, shared by every day, is left to expire and only seeds the counter of the first day
+        String legacySequence = redisTemplate.opsForValue().get(BOOKING_SEQUENCE_KEY);
+        long seed = legacySequence == null ? 0 : Long.parseLong(legacySequence);
+        String lastBookingNumber = bookingRepository.findMaxBookingNumberOfDate(date);
+        if (lastBookingNumber != null) {
+            seed = Math.max(seed, Long.parseLong(lastBookingNumber.substring(date.length() + 1)));
+        }
+        // only the first node to seed the day sets it, the others increment from there
+        redisTemplate.opsForValue().setIfAbsent(key, String.valueOf(seed), BOOKING_SEQUENCE_TTL);
+    }
+
+    private record SequenceBlock(String date, AtomicLong next, long last) {
     }
 
     public String generateVerifyEmailToken(String accountId){
@@ -82,25 +134,22 @@ public class RedisUtil {
         redisTemplate.delete(key);
    }
 
-   public void cachePendingDepositBooking(String bookingNumber){
-        String key = PENDING_DEPOSIT_BOOKING_KEY + bookingNumber;
-       redisTemplate.opsForValue().set(key, key, 1, TimeUnit.HOURS);
-//       redisTemplate.opsForValue().set(key, key, 20, TimeUnit.SECONDS);
-   }
-
-   public void removeCachePendingDepositBooking(String bookingNumber){
-        String key = PENDING_DEPOSIT_BOOKING_KEY + bookingNumber;
-        redisTemplate.delete(key);
+    /**
+     * get the last key done by a sweep that stopped halfway
+     * @param sweep the name of the sweep
+     * @return the last key done, or null if the last sweep finished
+     */
+   public String getSweepCheckpoint(String sweep){
+        return redisTemplate.opsForValue().get(SWEEP_CHECKPOINT_PREFIX + sweep);
    }
 
-   public void cacheProcessingTransaction(String transactionId){
-        String key = PROCESSING_TRANSACTION_PREFIX + transactionId;
-        redisTemplate.opsForValue().set(key, transactionId, 15, TimeUnit.MINUTES);
+   public void saveSweepCheckpoint(String sweep, String lastKey){
+        // a checkpoint left for a day is outdated, the next sweep starts over
+        redisTemplate.opsForValue().set(SWEEP_CHECKPOINT_PREFIX + sweep, lastKey, 1, TimeUnit.DAYS);
    }
 
-   public void removeCacheProcessingTransaction(String transactionId){
-        String key = PROCESSING_TRANSACTION_PREFIX + transactionId;
-        redisTemplate.delete(key);
+   public void deleteSweepCheckpoint(String sweep){
+        redisTemplate.delete(SWEEP_CHECKPOINT_PREFIX + sweep);
    }
 
 }
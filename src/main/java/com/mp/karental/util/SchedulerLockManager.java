@@ -0,0 +1,184 @@
+package com.mp.karental.util;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster-wide locks of the scheduled jobs, so a run of a job executes on one node only.
+ * <p>
+ * A lock is the Redis key {@code scheduler-lock:{name}} with a lease, renewed in the background while the job runs:
+ * a crashed node does not hold a job forever, a long run does not lose its lock.
+ * Every acquisition gets a generation, increasing for a lock name, kept in the value of the key with the owner.
+ * A job checks {@link Lease#isHeld()} before each batch of writes: a holder whose lease expired
+ * (e.g. after a long GC pause) sees that the key holds a newer generation and stops.
+ * </p>
+ * <p>
+ * This is not fencing: the generation is not checked by the writes, a holder paused between the check and its writes
+ * still writes after another node took the lock. The jobs check the state they change before writing
+ * (the status of a booking, the pending earnings locked by the batch), so such a late write finds its work mostly done.
+ * </p>
+ * <p>
+ * A released lock is kept until a minimum time after its acquisition has passed,
+ * a node firing the same run a little later, because its clock is late, still finds the lock taken.
+ * </p>
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@Component
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SchedulerLockManager {
+    RedisTemplate<String, String> redisTemplate;
+
+    private static final String SCHEDULER_LOCK_PREFIX = "scheduler-lock:";
+    private static final String GENERATION_SUFFIX = ":generation";
+    // takes the lock and its next generation in one step
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 1 then
+                return 0
+            end
+            local generation = redis.call('incr', KEYS[2])
+            redis.call('set', KEYS[1], generation .. ':' .. ARGV[2], 'PX', ARGV[1])
+            return generation
+            """, Long.class);
+    // only the owner of the lock extends or deletes it
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+    // keeps the lock for the rest of its minimum hold time, or deletes it if the time has passed
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) ~= ARGV[1] then
+                return 0
+            end
+            if tonumber(ARGV[2]) > 0 then
+                return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return redis.call('del', KEYS[1])
+            """, Long.class);
+    private static final ThreadLocal<Lease> CURRENT_LEASE = new ThreadLocal<>();
+
+    ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scheduler-lock-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Tries to take a lock, without waiting.
+     *
+     * @param name          the name of the lock
+     * @param leaseTime     the lease of the lock, renewed every third of it while the lease is open
+     * @param minHoldTime   the minimum time the lock is kept from now, even if the lease is closed earlier
+     * @param partition     the partition of the job the lock covers
+     * @param partitions    the number of partitions of the job
+     * @return the lease, to be closed by the same thread, or null if another node holds the lock
+     */
+    public Lease tryAcquire(String name, Duration leaseTime, Duration minHoldTime, int partition, int partitions) {
+        String key = SCHEDULER_LOCK_PREFIX + name;
+        String owner = UUID.randomUUID().toString();
+        Long generation = redisTemplate.execute(ACQUIRE_SCRIPT, List.of(key, key + GENERATION_SUFFIX),
+                String.valueOf(leaseTime.toMillis()), owner);
+        if (generation == null || generation == 0) {
+            return null;
+        }
+        Lease lease = new Lease(key, generation + ":" + owner, generation, partition, partitions, leaseTime,
+                System.currentTimeMillis() + minHoldTime.toMillis());
+        long renewInterval = Math.max(leaseTime.toMillis() / 3, 1);
+        lease.renewal = renewer.scheduleAtFixedRate(lease::renew, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        CURRENT_LEASE.set(lease);
+        return lease;
+    }
+
+    /**
+     * @return the lease held by the job running on the current thread, or null if the job is not locked
+     */
+    public static Lease currentLease() {
+        return CURRENT_LEASE.get();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renewer.shutdownNow();
+    }
+
+    /**
+     * A lock held on a scheduled job.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public final class Lease implements AutoCloseable {
+        private final String key;
+        private final String value;
+        @Getter
+        private final long generation;
+        @Getter
+        private final int partition;
+        @Getter
+        private final int partitions;
+        private final Duration leaseTime;
+        // the lock is kept until this time (epoch millis) when the lease is closed earlier
+        private final long holdUntil;
+        private volatile boolean lost;
+        private ScheduledFuture<?> renewal;
+
+        /**
+         * Checks that the lock still belongs to this lease, a job checks it before each batch of writes.
+         *
+         * @return false if the lease expired or a newer generation holds the lock
+         */
+        public boolean isHeld() {
+            if (lost) {
+                return false;
+            }
+            if (!value.equals(redisTemplate.opsForValue().get(key))) {
+                lost = true;
+            }
+            return !lost;
+        }
+
+        private void renew() {
+            try {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(key), value, String.valueOf(leaseTime.toMillis()));
+                if (!Long.valueOf(1).equals(renewed)) {
+                    lost = true;
+                    renewal.cancel(false);
+                    log.warn("Lock {} of generation {} is lost", key, generation);
+                }
+            } catch (RuntimeException e) {
+                // retried at the next renewal, the lease is long enough to miss one
+                log.warn("Renew lock {} failed: {}", key, e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            CURRENT_LEASE.remove();
+            renewal.cancel(false);
+            try {
+                long remainingHold = holdUntil - System.currentTimeMillis();
+                redisTemplate.execute(RELEASE_SCRIPT, List.of(key), value, String.valueOf(Math.max(remainingHold, 0)));
+            } catch (RuntimeException e) {
+                // the lease releases the lock
+                log.warn("Release lock {} failed: {}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.mp.karental.dto.request.transaction.TransactionRequest;
 import com.mp.karental.dto.response.ApiResponse;
 
 import com.mp.karental.dto.response.transaction.ListTransactionResponse;
+import com.mp.karental.dto.response.transaction.TransactionPageResponse;
 import com.mp.karental.dto.response.transaction.TransactionPaymentURLResponse;
 import com.mp.karental.dto.response.transaction.TransactionResponse;
 import com.mp.karental.service.TransactionService;
@@ -128,4 +129,15 @@ class TransactionControllerTest {
         assertNotNull(response.getData());
         verifyNoInteractions(transactionService);
     }
+
+    @Test
+    void testGetTransactionPage() {
+        when(transactionService.getTransactionPage(null, null, "cursor", 20)).thenReturn(new TransactionPageResponse());
+
+        ApiResponse<TransactionPageResponse> response = transactionController.getTransactionPage(null, null, "cursor", 20);
+
+        assertNotNull(response);
+        assertNotNull(response.getData());
+        verify(transactionService, times(1)).getTransactionPage(null, null, "cursor", 20);
+    }
 }
@@ -1,19 +1,38 @@
 package com.mp.karental.scheduler;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.service.BookingService;
-import com.mp.karental.scheduler.BookingScheduler;
+import com.mp.karental.service.BookingTimerService;
+import com.mp.karental.util.RedisUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 class BookingSchedulerTest {
 
     @Mock
     private BookingService bookingService; // Mock BookingService
 
+    @Mock
+    private BookingTimerService bookingTimerService;
+
+    @Mock
+    private BookingRepository bookingRepository;
+
+    @Mock
+    private RedisUtil redisUtil;
+
     @InjectMocks
     private BookingScheduler bookingScheduler; // Inject mock vào BookingScheduler
 
@@ -23,21 +42,86 @@ class BookingSchedulerTest {
     }
 
     @Test
-    void testCheckOverduePickUpAndDropOffBookings() {
+    void testFireDueBookingTimers() {
+        // Given
+        when(bookingTimerService.claimDue(anyInt())).thenReturn(List.of(
+                new BookingTimerService.BookingTimer(EBookingTimer.PICK_UP_REMINDER, "BK1"),
+                new BookingTimerService.BookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK2")));
+
         // When
-        bookingScheduler.checkOverduePickUpAndDropOffBookings();
+        bookingScheduler.fireDueBookingTimers();
 
-        // Then: Kiểm tra xem phương thức đã được gọi
-        verify(bookingService, times(1)).processOverduePickUpAndDropOffBookings();
+        // Then
+        verify(bookingService, times(1)).handleBookingTimer(EBookingTimer.PICK_UP_REMINDER, "BK1");
+        verify(bookingService, times(1)).handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK2");
+        verify(bookingTimerService, never()).schedule(any(), any(), any());
     }
 
     @Test
-    void testCheckOverdueWaitingBookings() {
+    void testFireDueBookingTimers_ShouldRetryFailedTimer() {
+        // Given
+        when(bookingTimerService.claimDue(anyInt())).thenReturn(List.of(
+                new BookingTimerService.BookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK1")));
+        doThrow(new IllegalStateException("db down")).when(bookingService)
+                .handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK1");
+
         // When
-        bookingScheduler.checkOverdueWaitingBookings();
+        bookingScheduler.fireDueBookingTimers();
 
-        // Then: Kiểm tra xem phương thức đã được gọi
-        verify(bookingService, times(1)).processOverdueWaitingBookings();
+        // Then
+        verify(bookingTimerService, times(1)).schedule(eq("BK1"), eq(EBookingTimer.WAITING_CONFIRMED_EXPIRY), any(LocalDateTime.class));
     }
-}
 
+    @Test
+    void testRescheduleBookingTimers() {
+        // When
+        bookingScheduler.rescheduleBookingTimers();
+
+        // Then
+        verify(bookingTimerService, times(1)).rescheduleAll(0, 1);
+    }
+
+    @Test
+    void testSweepOverdueWaitingBookings_ShouldResumeFromCheckpointByChunks() {
+        // Given
+        when(redisUtil.getSweepCheckpoint("WAITING_CONFIRMED_EXPIRY")).thenReturn("BK2");
+        when(bookingRepository.findOverduePickUpBookingNumbers(eq(EBookingStatus.WAITING_CONFIRMED), any(LocalDateTime.class),
+                eq("BK2"), any(Pageable.class))).thenReturn(List.of("BK3", "BK4"));
+        when(bookingRepository.findOverduePickUpBookingNumbers(eq(EBookingStatus.WAITING_CONFIRMED), any(LocalDateTime.class),
+                eq("BK4"), any(Pageable.class))).thenReturn(List.of());
+        when(bookingRepository.findOverdueDropOffBookingNumbers(eq(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR),
+                any(LocalDateTime.class), eq(""), any(Pageable.class))).thenReturn(List.of());
+
+        // When
+        bookingScheduler.sweepOverdueWaitingBookings();
+
+        // Then
+        verify(bookingService, times(1)).processOverdueWaitingBookings(EBookingTimer.WAITING_CONFIRMED_EXPIRY, List.of("BK3", "BK4"));
+        verify(redisUtil, times(1)).saveSweepCheckpoint("WAITING_CONFIRMED_EXPIRY", "BK4");
+        verify(redisUtil, times(1)).deleteSweepCheckpoint("WAITING_CONFIRMED_EXPIRY");
+        verify(redisUtil, times(1)).deleteSweepCheckpoint("WAITING_CONFIRMED_RETURN_CAR_EXPIRY");
+    }
+
+    @Test
+    void testSweepOverdueWaitingBookings_ShouldMoveOnAfterFailedChunk() {
+        // Given
+        when(bookingRepository.findOverduePickUpBookingNumbers(any(), any(), eq(""), any(Pageable.class))).thenReturn(List.of());
+        when(bookingRepository.findOverdueDropOffBookingNumbers(any(), any(), eq(""), any(Pageable.class))).thenReturn(List.of("BK0", "BK1"));
+        when(bookingRepository.findOverdueDropOffBookingNumbers(any(), any(), eq("BK1"), any(Pageable.class))).thenReturn(List.of("BK2"));
+        when(bookingRepository.findOverdueDropOffBookingNumbers(any(), any(), eq("BK2"), any(Pageable.class))).thenReturn(List.of());
+        doThrow(new RuntimeException("Deadlock")).when(bookingService)
+                .processOverdueWaitingBookings(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, List.of("BK0", "BK1"));
+        doThrow(new RuntimeException("Wallet not found")).when(bookingService)
+                .handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, "BK0");
+
+        // When
+        bookingScheduler.sweepOverdueWaitingBookings();
+
+        // Then
+        // the failed chunk is retried one booking at a time, the bad booking does not hold back the other one
+        verify(bookingService, times(1)).handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, "BK0");
+        verify(bookingService, times(1)).handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, "BK1");
+        verify(bookingService, times(1)).processOverdueWaitingBookings(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, List.of("BK2"));
+        verify(redisUtil, times(1)).saveSweepCheckpoint("WAITING_CONFIRMED_RETURN_CAR_EXPIRY", "BK2");
+    }
+}
@@ -0,0 +1,57 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.service.ExpiryQueueService;
+import com.mp.karental.service.PendingExpiryService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test ExpiryQueueScheduler
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class ExpiryQueueSchedulerTest {
+    @Mock
+    private ExpiryQueueService expiryQueueService;
+
+    @Mock
+    private PendingExpiryService pendingExpiryService;
+
+    @InjectMocks
+    private ExpiryQueueScheduler expiryQueueScheduler;
+
+    @Test
+    void expireDueItems_ShouldAcknowledgeExpiredItems() {
+        when(expiryQueueService.claimDue(eq(100), any(Duration.class))).thenReturn(List.of("booking:B1", "trans:t1"));
+
+        expiryQueueScheduler.expireDueItems();
+
+        verify(pendingExpiryService).expire("booking:B1");
+        verify(pendingExpiryService).expire("trans:t1");
+        verify(expiryQueueService).acknowledge("booking:B1");
+        verify(expiryQueueService).acknowledge("trans:t1");
+    }
+
+    @Test
+    void expireDueItems_ShouldNotAcknowledgeFailedItem() {
+        when(expiryQueueService.claimDue(eq(100), any(Duration.class))).thenReturn(List.of("booking:B1", "trans:t1"));
+        doThrow(new RuntimeException("db down")).when(pendingExpiryService).expire("booking:B1");
+
+        expiryQueueScheduler.expireDueItems();
+
+        verify(expiryQueueService, never()).acknowledge("booking:B1");
+        verify(expiryQueueService).acknowledge("trans:t1");
+    }
+}
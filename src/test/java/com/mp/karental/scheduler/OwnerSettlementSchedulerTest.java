@@ -0,0 +1,72 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.service.OwnerSettlementService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test OwnerSettlementScheduler
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class OwnerSettlementSchedulerTest {
+    @Mock
+    OwnerSettlementService ownerSettlementService;
+
+    @InjectMocks
+    OwnerSettlementScheduler ownerSettlementScheduler;
+
+    @Test
+    void settleOwnerEarnings_ShouldSettleBatchesUntilNoEarningIsLeft() {
+        when(ownerSettlementService.settleNextBatch(500)).thenReturn(500, 20, 0);
+
+        ownerSettlementScheduler.settleOwnerEarnings();
+
+        verify(ownerSettlementService, times(3)).settleNextBatch(500);
+        verify(ownerSettlementService, never()).findPendingOwnerIds(anyInt());
+    }
+
+    @Test
+    void settleOwnerEarnings_ShouldSettleOwnersOneByOneAndMarkFailingOwner_WhenBatchFails() {
+        when(ownerSettlementService.settleNextBatch(500))
+                .thenThrow(new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB))
+                .thenReturn(0);
+        when(ownerSettlementService.findPendingOwnerIds(500)).thenReturn(List.of("owner1", "owner2"));
+        when(ownerSettlementService.settleOwner("owner1", 500)).thenThrow(new AppException(ErrorCode.WALLET_NOT_FOUND_IN_DB));
+        when(ownerSettlementService.markFailed("owner1")).thenReturn(3);
+        when(ownerSettlementService.settleOwner("owner2", 500)).thenReturn(2);
+
+        ownerSettlementScheduler.settleOwnerEarnings();
+
+        verify(ownerSettlementService).markFailed("owner1");
+        verify(ownerSettlementService, never()).markFailed("owner2");
+        verify(ownerSettlementService, times(2)).settleNextBatch(500);
+    }
+
+    @Test
+    void settleOwnerEarnings_ShouldLeaveOwnerPending_WhenSettlementFailsTransiently() {
+        when(ownerSettlementService.settleNextBatch(500))
+                .thenThrow(new CannotAcquireLockException("Lock wait timeout exceeded"));
+        when(ownerSettlementService.findPendingOwnerIds(500)).thenReturn(List.of("owner1"));
+        when(ownerSettlementService.settleOwner("owner1", 500))
+                .thenThrow(new CannotAcquireLockException("Lock wait timeout exceeded"));
+
+        ownerSettlementScheduler.settleOwnerEarnings();
+
+        verify(ownerSettlementService, never()).markFailed(anyString());
+        verify(ownerSettlementService, times(1)).settleNextBatch(500);
+    }
+}
@@ -0,0 +1,80 @@
+package com.mp.karental.scheduler;
+
+import com.mp.karental.util.SchedulerLockManager;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test SchedulerLockAspect
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class SchedulerLockAspectTest {
+    @Mock
+    private SchedulerLockManager schedulerLockManager;
+
+    @Mock
+    private ProceedingJoinPoint joinPoint;
+
+    @InjectMocks
+    private SchedulerLockAspect schedulerLockAspect;
+
+    @Test
+    void runLocked_ShouldRunJobAndCloseLease_WhenLockIsFree() throws Throwable {
+        SchedulerLockManager.Lease lease = mock(SchedulerLockManager.Lease.class);
+        when(schedulerLockManager.tryAcquire("job", Duration.ofSeconds(60), Duration.ofSeconds(30), 0, 1)).thenReturn(lease);
+
+        schedulerLockAspect.runLocked(joinPoint, lockOf("runSingle"));
+
+        verify(joinPoint).proceed();
+        verify(lease).close();
+    }
+
+    @Test
+    void runLocked_ShouldSkipJob_WhenAnotherNodeHoldsLock() throws Throwable {
+        schedulerLockAspect.runLocked(joinPoint, lockOf("runSingle"));
+
+        verify(joinPoint, never()).proceed();
+    }
+
+    @Test
+    void runLocked_ShouldRunOncePerFreePartition() throws Throwable {
+        SchedulerLockManager.Lease lease = mock(SchedulerLockManager.Lease.class);
+        when(schedulerLockManager.tryAcquire(startsWith("job:"), eq(Duration.ofSeconds(30)), any(Duration.class), anyInt(), eq(3)))
+                .thenReturn(lease, null, lease);
+
+        schedulerLockAspect.runLocked(joinPoint, lockOf("runPartitioned"));
+
+        verify(schedulerLockManager).tryAcquire(eq("job:0"), any(Duration.class), any(Duration.class), eq(0), eq(3));
+        verify(schedulerLockManager).tryAcquire(eq("job:1"), any(Duration.class), any(Duration.class), eq(1), eq(3));
+        verify(schedulerLockManager).tryAcquire(eq("job:2"), any(Duration.class), any(Duration.class), eq(2), eq(3));
+        verify(joinPoint, times(2)).proceed();
+        verify(lease, times(2)).close();
+    }
+
+    private static SchedulerLock lockOf(String method) throws NoSuchMethodException {
+        return Jobs.class.getDeclaredMethod(method).getAnnotation(SchedulerLock.class);
+    }
+
+    private static class Jobs {
+        @SchedulerLock(name = "job")
+        void runSingle() {
+        }
+
+        @SchedulerLock(name = "job", leaseSeconds = 30, partitions = 3)
+        void runPartitioned() {
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mp.karental.service;
 import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
 import com.mp.karental.constant.EPaymentType;
 import com.mp.karental.constant.ERole;
 import com.mp.karental.dto.request.booking.CreateBookingRequest;
@@ -8,6 +9,7 @@ import com.mp.karental.dto.response.booking.BookingListResponse;
 import com.mp.karental.dto.response.booking.BookingResponse;
 import com.mp.karental.dto.response.booking.BookingThumbnailResponse;
 import com.mp.karental.dto.response.booking.WalletResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.entity.*;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
@@ -63,6 +65,12 @@ class BookingServiceTest {
     @Mock
     private RedisUtil redisUtil;
 
+    @Mock
+    private ExpiryQueueService expiryQueueService;
+
+    @Mock
+    private ReminderLedgerService reminderLedgerService;
+
     @Mock
     private WalletRepository walletRepository;
 
@@ -75,6 +83,18 @@ class BookingServiceTest {
     private CarService carService;
     @Mock
     private EmailService emailService;
+    @Mock
+    private CarAvailabilityIndex carAvailabilityIndex;
+    @Mock
+    private CarStatsRepository carStatsRepository;
+    @Mock
+    private BookingSlotService bookingSlotService;
+    @Mock
+    private CarHoldService carHoldService;
+    @Mock
+    private BookingTimerService bookingTimerService;
+    @Mock
+    private WalletLedgerService walletLedgerService;
 
     @Mock
     private MultipartFile mockFile;
@@ -121,7 +141,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -165,7 +185,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -209,7 +229,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -272,7 +292,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -316,7 +336,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -368,7 +388,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -421,7 +441,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -436,6 +456,136 @@ class BookingServiceTest {
         assertNotNull(response);
         assertEquals(EBookingStatus.WAITING_CONFIRMED, booking.getStatus());
         verify(bookingRepository, times(1)).saveAndFlush(booking);
+        verify(bookingSlotService).reserve(booking);
+    }
+
+    @Test
+    void testConfirmDeposit_CarBookedMeanwhile_ShouldKeepPendingDeposit() {
+        // Arrange
+        String bookingNumber = "BK12345";
+        Car car = new Car();
+        car.setId("car1");
+        Booking booking = new Booking();
+        booking.setBookingNumber(bookingNumber);
+        booking.setStatus(EBookingStatus.PENDING_DEPOSIT);
+        booking.setPickUpTime(LocalDateTime.now().plusDays(2));
+        booking.setDropOffTime(LocalDateTime.now().plusDays(3));
+        booking.setCar(car);
+
+        when(SecurityUtil.getCurrentAccount()).thenReturn(new Account());
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
+        doThrow(new AppException(ErrorCode.CAR_NOT_AVAILABLE)).when(bookingSlotService).reserve(booking);
+
+        // Act
+        AppException exception = assertThrows(AppException.class, () -> bookingService.confirmDeposit(bookingNumber));
+
+        // Assert
+        assertEquals(ErrorCode.CAR_NOT_AVAILABLE, exception.getErrorCode());
+        assertEquals(EBookingStatus.PENDING_DEPOSIT, booking.getStatus());
+        verify(bookingRepository, never()).saveAndFlush(any(Booking.class));
+    }
+
+    @Test
+    void handleBookingTimer_WaitingConfirmedExpiry_ShouldCancelAndRefund() {
+        Booking booking = timedBooking(EBookingStatus.WAITING_CONFIRMED, LocalDateTime.now().minusMinutes(1));
+        when(bookingRepository.updateStatusIfCurrent("BK1", EBookingStatus.WAITING_CONFIRMED, EBookingStatus.CANCELLED))
+                .thenReturn(1);
+
+        bookingService.handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK1");
+
+        assertEquals(EBookingStatus.CANCELLED, booking.getStatus());
+        verify(bookingRepository).saveAndFlush(booking);
+        verify(bookingSlotService).release(List.of("BK1"));
+        verify(transactionService).refundAllDeposit(booking);
+        verify(emailService).sendCancelledBookingEmail(eq("customer@example.com"), anyString(), anyString());
+    }
+
+    @Test
+    void handleBookingTimer_WaitingConfirmedReturnCarExpiry_ShouldKeepBookingInProgress() {
+        Booking booking = timedBooking(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, LocalDateTime.now().minusDays(2));
+        booking.setDropOffTime(LocalDateTime.now().minusMinutes(1));
+        when(bookingRepository.updateStatusIfCurrent("BK1", EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, EBookingStatus.IN_PROGRESS))
+                .thenReturn(1);
+
+        bookingService.handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_RETURN_CAR_EXPIRY, "BK1");
+
+        assertEquals(EBookingStatus.IN_PROGRESS, booking.getStatus());
+        verify(emailService).sendEarlyReturnRejectedEmail("customer@example.com", "BK1");
+    }
+
+    @Test
+    void handleBookingTimer_ShouldIgnoreTimer_WhenBookingLeftStatus() {
+        Booking booking = timedBooking(EBookingStatus.CONFIRMED, LocalDateTime.now().minusMinutes(1));
+
+        bookingService.handleBookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "BK1");
+
+        assertEquals(EBookingStatus.CONFIRMED, booking.getStatus());
+        verify(bookingRepository, never()).saveAndFlush(any());
+        verifyNoInteractions(transactionService, emailService);
+    }
+
+    @Test
+    void handleBookingTimer_PickUpReminder_ShouldSendReminderRecordedInLedger() {
+        Booking booking = timedBooking(EBookingStatus.CONFIRMED, LocalDateTime.now().minusMinutes(1));
+        when(reminderLedgerService.tryRecord("BK1", EBookingTimer.PICK_UP_REMINDER)).thenReturn(true);
+
+        bookingService.handleBookingTimer(EBookingTimer.PICK_UP_REMINDER, "BK1");
+
+        verify(emailService).sendPickUpReminderEmail(booking);
+    }
+
+    @Test
+    void handleBookingTimer_DropOffReminder_ShouldNotSendReminderAlreadySent() {
+        timedBooking(EBookingStatus.IN_PROGRESS, LocalDateTime.now().minusDays(2));
+        when(reminderLedgerService.tryRecord("BK1", EBookingTimer.DROP_OFF_REMINDER)).thenReturn(false);
+
+        bookingService.handleBookingTimer(EBookingTimer.DROP_OFF_REMINDER, "BK1");
+
+        verifyNoInteractions(emailService);
+    }
+
+    @Test
+    void handleBookingTimer_ShouldScheduleAgain_WhenDeadlineMovedLater() {
+        LocalDateTime pickUpTime = LocalDateTime.now().plusHours(3);
+        timedBooking(EBookingStatus.CONFIRMED, pickUpTime);
+
+        bookingService.handleBookingTimer(EBookingTimer.PICK_UP_REMINDER, "BK1");
+
+        verify(bookingTimerService).schedule("BK1", EBookingTimer.PICK_UP_REMINDER, pickUpTime);
+        verifyNoInteractions(emailService);
+    }
+
+    private static Booking overdueWaitingBooking(String bookingNumber) {
+        Account customer = new Account();
+        customer.setEmail("customer@example.com");
+        Car car = new Car();
+        car.setBrand("Toyota");
+        car.setModel("Camry");
+        Booking booking = new Booking();
+        booking.setBookingNumber(bookingNumber);
+        booking.setStatus(EBookingStatus.WAITING_CONFIRMED);
+        booking.setPickUpTime(LocalDateTime.now().minusMinutes(10));
+        booking.setDropOffTime(LocalDateTime.now().plusDays(1));
+        booking.setAccount(customer);
+        booking.setCar(car);
+        return booking;
+    }
+
+    private Booking timedBooking(EBookingStatus status, LocalDateTime pickUpTime) {
+        Account customer = new Account();
+        customer.setEmail("customer@example.com");
+        Car car = new Car();
+        car.setBrand("Toyota");
+        car.setModel("Camry");
+        Booking booking = new Booking();
+        booking.setBookingNumber("BK1");
+        booking.setStatus(status);
+        booking.setPickUpTime(pickUpTime);
+        booking.setDropOffTime(pickUpTime.plusDays(1));
+        booking.setAccount(customer);
+        booking.setCar(car);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK1")).thenReturn(booking);
+        return booking;
     }
 
     @Test
@@ -471,7 +621,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -520,7 +670,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -537,125 +687,22 @@ class BookingServiceTest {
     }
 
     @Test
-    void testProcessOverdueWaitingConfirmReturnCarBookings() {
-        // Giả lập thời gian hiện tại, làm tròn đến phút
-        LocalDateTime now = LocalDateTime.now();
-        Account account = new Account();
-        account.setId(accountId);
-        account.setEmail("customer@mail.com");
-
-        Account owner = new Account();
-        owner.setId(accountId);
-        owner.setEmail("owner@mail.com");
-        Car car = new Car();
-        car.setId("123");
-        car.setAccount(owner);
-
-        Car car2 = new Car();
-        car.setId("1234");
-        car.setAccount(owner);
-        // Tạo danh sách booking quá hạn
-        Booking booking1 = new Booking();
-        booking1.setBookingNumber("1");
-        booking1.setDropOffTime(now.minusMinutes(5)); // 5 phút trước
-        booking1.setStatus(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR);
-        booking1.setAccount(account);
-        booking1.setCar(car);
-
-        Booking booking2 = new Booking();
-        booking2.setBookingNumber("2");
-        booking2.setDropOffTime(now.minusMinutes(10)); // 10 phút trước
-        booking2.setStatus(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR);
-        booking2.setAccount(account);
-        booking2.setCar(car2);
-
-        List<Booking> overdueBookings = Arrays.asList(booking1, booking2);
-
-        // Mock repository với cùng thời gian đã làm tròn
-        lenient().when(bookingRepository.findOverdueDropOffs(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, now))
-                .thenReturn(overdueBookings);
-
-        lenient().when(bookingRepository.bulkUpdateWaitingConfirmedReturnCarStatus(EBookingStatus.IN_PROGRESS,
-                        EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, now.minusMinutes(1)))
-                .thenReturn(2);
-
-        // Gọi method cần test
-        bookingService.processOverdueWaitingBookings();
-
-
-        // Kiểm tra email có được gửi không
-        lenient().doAnswer(invocation -> {
-            System.out.println("Email sent: " + Arrays.toString(invocation.getArguments()));
-            return null;
-        }).when(emailService).sendEarlyReturnRejectedEmail(anyString(), anyString());
-
-        // Kiểm tra repository có được gọi đúng không
-        verify(bookingRepository, times(1)).findOverdueDropOffs(eq(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR), any());
-        verify(bookingRepository, times(1)).bulkUpdateWaitingConfirmedReturnCarStatus(eq(EBookingStatus.IN_PROGRESS),
-                eq(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR), any());
-    }
-
-    @Test
-    void testProcessOverdueWaitingConfirmBookings() {
-        // Giả lập thời gian hiện tại, làm tròn đến phút
-        LocalDateTime now = LocalDateTime.now();
-        Account account = new Account();
-        account.setId(accountId);
-        account.setEmail("customer@mail.com");
-        Account owner = new Account();
-        owner.setId(accountId);
-        owner.setEmail("owner@mail.com");
-        Car car = new Car();
-        car.setId("123");
-        car.setAccount(owner);
-
-        Car car2 = new Car();
-        car.setId("1234");
-        car.setAccount(owner);
-        // Tạo danh sách booking quá hạn
-        Booking booking1 = new Booking();
-        booking1.setBookingNumber("1");
-        booking1.setPickUpTime(now.minusMinutes(5)); // 5 phút trước
-        booking1.setStatus(EBookingStatus.WAITING_CONFIRMED);
-        booking1.setAccount(account);
-        booking1.setCar(car);
-
-        Booking booking2 = new Booking();
-        booking2.setBookingNumber("2");
-        booking2.setPickUpTime(now.minusMinutes(10)); // 10 phút trước
-        booking2.setStatus(EBookingStatus.WAITING_CONFIRMED);
-        booking2.setAccount(account);
-        booking2.setCar(car2);
-
-        List<Booking> overdueBookings = Arrays.asList(booking1, booking2);
-
-        // Mock repository với cùng thời gian đã làm tròn
-        lenient().when(bookingRepository.findOverduePickups(EBookingStatus.WAITING_CONFIRMED, now))
-                .thenReturn(overdueBookings);
-
-        lenient().when(bookingRepository.bulkUpdateWaitingConfirmedStatus(EBookingStatus.CANCELLED,
-                        EBookingStatus.WAITING_CONFIRMED, now.minusMinutes(1)))
-                .thenReturn(2);
-
-        // Gọi method cần test
-        bookingService.processOverdueWaitingBookings();
-
-        // Kiểm tra refund có được gọi không
-        lenient().doAnswer(invocation -> {
-            System.out.println("Email sent: " + Arrays.toString(invocation.getArguments()));
-            return null;
-        }).when(transactionService).refundAllDeposit(any(Booking.class));
-
-        // Kiểm tra email có được gửi không
-        lenient().doAnswer(invocation -> {
-            System.out.println("Email sent: " + Arrays.toString(invocation.getArguments()));
-            return null;
-        }).when(emailService).sendCancelledBookingEmail(anyString(), anyString(), anyString());
-
-        // Kiểm tra repository có được gọi đúng không
-        verify(bookingRepository, times(1)).findOverduePickups(eq(EBookingStatus.WAITING_CONFIRMED), any());
-        verify(bookingRepository, times(1)).bulkUpdateWaitingConfirmedStatus(eq(EBookingStatus.CANCELLED),
-                eq(EBookingStatus.WAITING_CONFIRMED), any());
+    void testProcessOverdueWaitingBookings_ShouldCancelChunkAndSkipHandledBookings() {
+        Booking overdue = overdueWaitingBooking("BK1");
+        Booking handledMeanwhile = overdueWaitingBooking("BK2");
+        when(bookingRepository.findByBookingNumberIn(List.of("BK1", "BK2"))).thenReturn(List.of(overdue, handledMeanwhile));
+        when(bookingRepository.updateStatusIfCurrent("BK1", EBookingStatus.WAITING_CONFIRMED, EBookingStatus.CANCELLED))
+                .thenReturn(1);
+        when(bookingRepository.updateStatusIfCurrent("BK2", EBookingStatus.WAITING_CONFIRMED, EBookingStatus.CANCELLED))
+                .thenReturn(0);
+
+        bookingService.processOverdueWaitingBookings(EBookingTimer.WAITING_CONFIRMED_EXPIRY, List.of("BK1", "BK2"));
+
+        assertEquals(EBookingStatus.CANCELLED, overdue.getStatus());
+        assertEquals(EBookingStatus.WAITING_CONFIRMED, handledMeanwhile.getStatus());
+        verify(transactionService, times(1)).refundAllDeposit(any(Booking.class));
+        verify(transactionService).refundAllDeposit(overdue);
+        verify(emailService, times(1)).sendCancelledBookingEmail(eq("customer@example.com"), anyString(), anyString());
     }
 
     @Test
@@ -691,7 +738,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -734,7 +781,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -784,7 +831,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -833,7 +880,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -882,7 +929,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -915,7 +962,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -958,7 +1005,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -975,6 +1022,30 @@ class BookingServiceTest {
         verify(bookingRepository, times(1)).saveAndFlush(booking);
     }
 
+    @Test
+    void testConfirmReturn_ShouldThrowBookingExpired_WhenDropOffTimeIsReached() {
+        Booking booking = new Booking();
+        booking.setBookingNumber("BK12345");
+        booking.setStatus(EBookingStatus.WAITING_CONFIRMED_RETURN_CAR);
+        booking.setPickUpTime(LocalDateTime.now().minusDays(3));
+        booking.setDropOffTime(LocalDateTime.now().minusMinutes(1));
+
+        Account carOwner = new Account();
+        carOwner.setId("user1234");
+        Car car = new Car();
+        car.setAccount(carOwner);
+        booking.setCar(car);
+
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user1234");
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK12345")).thenReturn(booking);
+
+        AppException exception = assertThrows(AppException.class, () -> bookingService.confirmEarlyReturnCar("BK12345"));
+
+        assertEquals(ErrorCode.BOOKING_EXPIRED, exception.getErrorCode());
+        verify(transactionService, never()).offsetFinalPayment(any());
+        verify(bookingRepository, never()).saveAndFlush(any());
+    }
+
     @Test
     void testRejectReturn_WhenBookingNotFound() {
         // Arrange
@@ -984,7 +1055,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(null);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(null);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -1027,7 +1098,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -1057,7 +1128,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(null);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(null);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -1100,7 +1171,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -1155,7 +1226,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -1175,6 +1246,7 @@ class BookingServiceTest {
                 eq(bookingNumber)
         );
         verify(bookingRepository, times(1)).saveAndFlush(booking);
+        verify(bookingRepository, never()).updateStatusIfCurrent(anyString(), any(), any());
     }
 
     @Test
@@ -1206,7 +1278,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -1246,7 +1318,7 @@ class BookingServiceTest {
         existingBooking.setCar(car);
         existingBooking.setStatus(status);
 
-        when(bookingRepository.findBookingByBookingNumber("BK123")).thenReturn(existingBooking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(existingBooking);
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(account);
 
         // Act & Assert
@@ -1273,7 +1345,7 @@ class BookingServiceTest {
         existingBooking.setDriverDrivingLicenseUri("abc");
 
 
-        when(bookingRepository.findBookingByBookingNumber("BK123")).thenReturn(existingBooking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(existingBooking);
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(account);
 
         BookingResponse mockResponse = new BookingResponse();
@@ -1310,7 +1382,7 @@ class BookingServiceTest {
         existingBooking.setDriverDrivingLicenseUri("abc");
 
 
-        when(bookingRepository.findBookingByBookingNumber("BK123")).thenReturn(existingBooking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(existingBooking);
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(account);
 
         BookingResponse mockResponse = new BookingResponse();
@@ -1326,6 +1398,7 @@ class BookingServiceTest {
         verify(transactionService, times(1)).refundAllDeposit(existingBooking); 
         verify(bookingRepository, times(1)).saveAndFlush(existingBooking); 
         assertEquals(EBookingStatus.CANCELLED, existingBooking.getStatus()); 
+        verify(bookingSlotService).release(List.of("BK123"));
     }
 
     @Test
@@ -1347,7 +1420,7 @@ class BookingServiceTest {
         existingBooking.setDriverDrivingLicenseUri("abc");
 
 
-        when(bookingRepository.findBookingByBookingNumber("BK123")).thenReturn(existingBooking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(existingBooking);
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(account);
 
         BookingResponse mockResponse = new BookingResponse();
@@ -1386,7 +1459,7 @@ class BookingServiceTest {
         existingBooking.setCar(car);
         existingBooking.setStatus(status);
 
-        when(bookingRepository.findBookingByBookingNumber("BK123")).thenReturn(existingBooking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(existingBooking);
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(account);
 
         // Act & Assert
@@ -1453,7 +1526,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock mapper
@@ -1532,7 +1605,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock mapper
@@ -1692,6 +1765,48 @@ class BookingServiceTest {
         assertEquals(ErrorCode.INVALID_PHONE_NUMBER, exception.getErrorCode());
     }
 
+    @Test
+    void testCreateBooking_ShouldThrow_WhenBookingNumberIsAlreadyUsed() {
+        CreateBookingRequest request = new CreateBookingRequest();
+        request.setCarId("car123");
+
+        Account customer = new Account();
+        customer.setId("user123");
+        UserProfile profile = new UserProfile();
+        profile.setDrivingLicenseUri("existing-license-uri");
+        profile.setDob(LocalDate.now().minusYears(18));
+        profile.setCityProvince("abc");
+        profile.setDistrict("abc");
+        profile.setWard("abc");
+        profile.setPhoneNumber("0886980035");
+        profile.setFullName("abc");
+        profile.setNationalId("1234567890");
+        profile.setHouseNumberStreet("abc");
+        customer.setProfile(profile);
+        profile.setAccount(customer);
+
+        Car car = new Car();
+        car.setId("car123");
+        car.setAccount(customer);
+
+        Booking booking = new Booking();
+        booking.setPaymentType(EPaymentType.WALLET);
+
+        lenient().when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(customer);
+        lenient().when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        lenient().when(walletRepository.findById("user123")).thenReturn(Optional.of(new Wallet()));
+        lenient().when(carService.isCarAvailable(any(), any(), any())).thenReturn(true);
+        lenient().when(bookingMapper.toBooking(request)).thenReturn(booking);
+        when(redisUtil.generateBookingNumber()).thenReturn("20250101-00000001");
+        when(bookingRepository.existsByBookingNumber("20250101-00000001")).thenReturn(true);
+
+        AppException exception = assertThrows(AppException.class, () -> bookingService.createBooking(request));
+
+        assertEquals(ErrorCode.BOOKING_NUMBER_ALREADY_USED, exception.getErrorCode());
+        verify(bookingRepository, never()).save(any(Booking.class));
+    }
+
     @Test
     void testCreateBooking_Success_WithOverlappingBookings() throws AppException {
         // Arrange
@@ -1788,7 +1903,7 @@ class BookingServiceTest {
         
         verify(redisUtil, times(1)).generateBookingNumber();
         verify(bookingRepository, times(1)).save(any(Booking.class));
-        verify(redisUtil, never()).cachePendingDepositBooking(anyString());
+        verify(expiryQueueService, never()).schedulePendingDepositExpiry(anyString());
         verify(bookingRepository, times(1)).saveAndFlush(overlappingBooking);
         verify(emailService, times(1)).sendCancelledBookingEmail(
                 eq("overlap@example.com"),
@@ -1796,7 +1911,7 @@ class BookingServiceTest {
                 contains("canceled because another customer has successfully placed a deposit")
         );
 
-        verify(redisUtil, times(1)).removeCachePendingDepositBooking("BK12345");
+        verify(expiryQueueService, times(1)).cancelPendingDepositExpiry("BK12345");
 
         verify(emailService, times(1)).sendWaitingConfirmedEmail(
                 eq("customer@example.com"),
@@ -1920,7 +2035,7 @@ class BookingServiceTest {
 
         Wallet wallet = new Wallet();
         wallet.setBalance(500);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
         when(walletRepository.findById("user123")).thenReturn(Optional.of(wallet));
         BookingResponse mockResponse = new BookingResponse();
         mockResponse.setBookingNumber("BK12345");
@@ -1935,6 +2050,7 @@ class BookingServiceTest {
         assertNotNull(response);
         assertEquals(EBookingStatus.COMPLETED, booking.getStatus());
         verify(transactionService, times(1)).offsetFinalPayment(booking);
+        verify(carStatsRepository).incrementCompletedRides(booking.getCar().getId());
         verify(emailService, times(1)).sendPaymentEmailToCarOwner("owner@example.com", bookingNumber, (long) (0.92 * response.getTotalPrice()));
     }
 
@@ -2008,7 +2124,7 @@ class BookingServiceTest {
 
         verify(redisUtil, times(1)).generateBookingNumber();
         verify(bookingRepository, times(1)).save(any(Booking.class));
-        verify(redisUtil, never()).cachePendingDepositBooking(anyString()); // Wallet has enough balance
+        verify(expiryQueueService, never()).schedulePendingDepositExpiry(anyString()); // Wallet has enough balance
     }
 
     @Test
@@ -2020,7 +2136,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(null); 
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(null); 
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2059,7 +2175,7 @@ class BookingServiceTest {
         when(SecurityUtil.getCurrentAccount()).thenReturn(customerAccount);
 
         // Mock repository
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         // Act
         BookingResponse mockResponse = new BookingResponse();
@@ -2131,7 +2247,7 @@ class BookingServiceTest {
         when(SecurityUtil.getCurrentAccount()).thenReturn(carOwnerAccount);
 
 
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2163,7 +2279,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2199,7 +2315,7 @@ class BookingServiceTest {
 
         when(SecurityUtil.getCurrentAccountId()).thenReturn("999"); 
         when(SecurityUtil.getCurrentAccount()).thenReturn(account2);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2216,7 +2332,7 @@ class BookingServiceTest {
         Account account = new Account();
         account.setId("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(null); 
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(null); 
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2249,7 +2365,7 @@ class BookingServiceTest {
             // Mock repository
         when(SecurityUtil.getCurrentAccountId()).thenReturn("123");
         when(SecurityUtil.getCurrentAccount()).thenReturn(account);
-        when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(booking);
 
         
         BookingResponse mockResponse = new BookingResponse();
@@ -2590,7 +2706,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -2675,7 +2791,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -2761,7 +2877,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -2848,7 +2964,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -2915,7 +3031,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
 
         
         AppException exception = assertThrows(AppException.class, () -> {
@@ -2992,7 +3108,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -3088,7 +3204,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -3176,7 +3292,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -3271,7 +3387,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock file upload
@@ -3342,7 +3458,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
 
         
         AppException exception = assertThrows(AppException.class, () -> {
@@ -3390,7 +3506,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(null);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(null);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock mapper
@@ -3413,7 +3529,7 @@ class BookingServiceTest {
         assertEquals(ErrorCode.BOOKING_NOT_FOUND_IN_DB, exception.getErrorCode());
 
         
-        verify(bookingRepository, times(1)).findBookingByBookingNumber(bookingNumber);
+        verify(bookingRepository, times(1)).findWithCarOwnerAndCustomer(bookingNumber);
     }
 
     @Test
@@ -3466,7 +3582,7 @@ class BookingServiceTest {
 
         // Mock repository
         lenient().when(SecurityUtil.getCurrentAccount()).thenReturn(mockAccount);
-        lenient().when(bookingRepository.findBookingByBookingNumber(bookingNumber)).thenReturn(existingBooking);
+        lenient().when(bookingRepository.findWithCarOwnerAndCustomer(bookingNumber)).thenReturn(existingBooking);
         lenient().when(bookingRepository.save(any(Booking.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         // Mock mapper
@@ -3750,6 +3866,43 @@ CreateBookingRequest request = new CreateBookingRequest();
         assertEquals(ErrorCode.CAR_NOT_AVAILABLE, exception.getErrorCode());
     }
 
+    @Test
+    void createBooking_CarHeldByAnotherCustomer_ThrowsException() {
+        CreateBookingRequest request = new CreateBookingRequest();
+        request.setCarId("car123");
+        request.setPickUpTime(LocalDateTime.now().plusDays(1).withHour(10));
+        request.setDropOffTime(LocalDateTime.now().plusDays(2).withHour(18));
+
+        Account mockAccount = new Account();
+        mockAccount.setId("user123");
+        UserProfile mockProfile = new UserProfile();
+        mockProfile.setFullName("Test User");
+        mockProfile.setDob(LocalDate.of(2000, 1, 1));
+        mockProfile.setNationalId("1234567890");
+        mockProfile.setPhoneNumber("0987654321");
+        mockProfile.setCityProvince("Hà Nội");
+        mockProfile.setDistrict("Ba Đình");
+        mockProfile.setWard("Kim Mã");
+        mockProfile.setHouseNumberStreet("123 Đường ABC");
+        mockProfile.setDrivingLicenseUri("license.jpg");
+        mockAccount.setProfile(mockProfile);
+        mockedSecurityUtil.when(SecurityUtil::getCurrentAccount).thenReturn(mockAccount);
+
+        Car car = new Car();
+        car.setId("car123");
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(walletRepository.findById("user123")).thenReturn(Optional.of(new Wallet()));
+        when(carService.isCarAvailable("car123", request.getPickUpTime(), request.getDropOffTime()))
+                .thenReturn(true);
+        when(carHoldService.isHeldByOthers("car123", "user123", request.getPickUpTime(), request.getDropOffTime()))
+                .thenReturn(true);
+
+        AppException exception = assertThrows(AppException.class, () -> bookingService.createBooking(request));
+
+        assertEquals(ErrorCode.CAR_IS_HELD, exception.getErrorCode());
+        verify(bookingRepository, never()).save(any());
+    }
+
     @Test
     void createBooking_WhenPaymentByCashOrBankTransfer_ShouldSetStatusPendingDeposit() throws MessagingException {
 
@@ -3836,6 +3989,7 @@ CreateBookingRequest request = new CreateBookingRequest();
         assertEquals(EBookingStatus.PENDING_DEPOSIT, response.getStatus());
         assertEquals(pickUpTime, response.getPickUpTime());
         assertEquals(dropOffTime, response.getDropOffTime());
+        verify(carHoldService).release("1", accountId);
     }
 
     @Test
@@ -4556,6 +4710,7 @@ CreateBookingRequest request = new CreateBookingRequest();
         mockWallet.setBalance(500000);
 
         when(walletRepository.findById(mockAccountId)).thenReturn(Optional.of(mockWallet));
+        when(walletLedgerService.getDisplayedBalance(mockWallet)).thenReturn(500000L);
 
 
         WalletResponse response = bookingService.getWallet();
@@ -4651,7 +4806,7 @@ CreateBookingRequest request = new CreateBookingRequest();
         booking.setAccount(anotherUser);
 
         when(SecurityUtil.getCurrentAccount()).thenReturn(customer);
-        when(bookingRepository.findBookingByBookingNumber("BK001")).thenReturn(booking);
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK001")).thenReturn(booking);
 
         // When & Then
         AppException exception = assertThrows(AppException.class, () -> bookingService.getBookingDetailsByBookingNumber("BK001"));
@@ -4803,4 +4958,90 @@ CreateBookingRequest request = new CreateBookingRequest();
         // Then
         assertTrue(result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void getDriverDrivingLicenseUploadUrl_ShouldReturnUrlOfBookingKey() {
+        Booking booking = editableBooking(EBookingStatus.CONFIRMED);
+        when(SecurityUtil.getCurrentAccount()).thenReturn(booking.getAccount());
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(booking);
+        when(fileService.getUploadUrl("booking/BK123/driver-driving-license.pdf")).thenReturn("http://upload-url");
+
+        FileUploadUrlResponse response = bookingService.getDriverDrivingLicenseUploadUrl("BK123", "License.PDF");
+
+        assertEquals("booking/BK123/driver-driving-license.pdf", response.getKey());
+        assertEquals("http://upload-url", response.getUploadUrl());
+    }
+
+    @Test
+    void getDriverDrivingLicenseUploadUrl_ShouldThrow_WhenBookingCannotBeEdited() {
+        Booking booking = editableBooking(EBookingStatus.IN_PROGRESS);
+        when(SecurityUtil.getCurrentAccount()).thenReturn(booking.getAccount());
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(booking);
+
+        AppException exception = assertThrows(AppException.class,
+                () -> bookingService.getDriverDrivingLicenseUploadUrl("BK123", "license.pdf"));
+
+        assertEquals(ErrorCode.BOOKING_CANNOT_BE_EDITED, exception.getErrorCode());
+        verify(fileService, never()).getUploadUrl(anyString());
+    }
+
+    @Test
+    void confirmDriverDrivingLicense_ShouldAttachUploadedLicense() {
+        Booking booking = editableBooking(EBookingStatus.WAITING_CONFIRMED);
+        when(SecurityUtil.getCurrentAccount()).thenReturn(booking.getAccount());
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(booking);
+        when(fileService.confirmUpload("booking/BK123/driver-driving-license.jpg")).thenReturn(true);
+        when(bookingMapper.toBookingResponse(booking)).thenReturn(new BookingResponse());
+
+        BookingResponse response = bookingService.confirmDriverDrivingLicense("BK123", "booking/BK123/driver-driving-license.jpg");
+
+        assertTrue(response.isDriver());
+        assertEquals("booking/BK123/driver-driving-license.jpg", booking.getDriverDrivingLicenseUri());
+        verify(bookingRepository).saveAndFlush(booking);
+    }
+
+    @Test
+    void confirmDriverDrivingLicense_ShouldThrow_WhenKeyBelongsToAnotherBooking() {
+        Booking booking = editableBooking(EBookingStatus.PENDING_DEPOSIT);
+        when(SecurityUtil.getCurrentAccount()).thenReturn(booking.getAccount());
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(booking);
+
+        AppException exception = assertThrows(AppException.class,
+                () -> bookingService.confirmDriverDrivingLicense("BK123", "booking/BK999/driver-driving-license.jpg"));
+
+        assertEquals(ErrorCode.INVALID_UPLOADED_FILE_KEY, exception.getErrorCode());
+        verify(fileService, never()).confirmUpload(anyString());
+    }
+
+    @Test
+    void confirmDriverDrivingLicense_ShouldThrow_WhenLicenseIsNotUploaded() {
+        Booking booking = editableBooking(EBookingStatus.PENDING_DEPOSIT);
+        when(SecurityUtil.getCurrentAccount()).thenReturn(booking.getAccount());
+        when(bookingRepository.findWithCarOwnerAndCustomer("BK123")).thenReturn(booking);
+        when(fileService.confirmUpload("booking/BK123/driver-driving-license.jpg")).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class,
+                () -> bookingService.confirmDriverDrivingLicense("BK123", "booking/BK123/driver-driving-license.jpg"));
+
+        assertEquals(ErrorCode.UPLOADED_FILE_NOT_FOUND, exception.getErrorCode());
+        verify(bookingRepository, never()).saveAndFlush(any());
+    }
+
+    private static Booking editableBooking(EBookingStatus status) {
+        Account account = new Account();
+        account.setId("user123");
+        Car car = new Car();
+        car.setId("car123");
+        car.setBasePrice(2000);
+        Booking booking = new Booking();
+        booking.setBookingNumber("BK123");
+        booking.setAccount(account);
+        booking.setCar(car);
+        booking.setStatus(status);
+        booking.setBasePrice(2000);
+        booking.setPickUpTime(LocalDateTime.now().plusDays(1));
+        booking.setDropOffTime(LocalDateTime.now().plusDays(2));
+        booking.setDriverDrivingLicenseUri("user/user123/driving-license.jpg");
+        return booking;
+    }
+}
@@ -0,0 +1,141 @@
+package com.mp.karental.service;
+
+import com.mp.karental.entity.Booking;
+import com.mp.karental.entity.Car;
+import com.mp.karental.entity.CarBookingDay;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.BookingRepository;
+import com.mp.karental.repository.CarBookingDayRepository;
+import com.mp.karental.util.CarLockManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test BookingSlotService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class BookingSlotServiceTest {
+
+    @Mock
+    private CarBookingDayRepository carBookingDayRepository;
+    @Mock
+    private BookingRepository bookingRepository;
+    @Mock
+    private CarService carService;
+    @Mock
+    private CarLockManager carLockManager;
+    @Mock
+    private CarLockManager.CarLock carLock;
+
+    @InjectMocks
+    private BookingSlotService bookingSlotService;
+
+    private static final LocalDateTime PICK_UP = LocalDateTime.of(2025, 3, 10, 22, 0);
+    private static final LocalDateTime DROP_OFF = LocalDateTime.of(2025, 3, 12, 6, 0);
+
+    @Test
+    void getBookingDays_ShouldIncludePickUpAndDropOffDays() {
+        List<CarBookingDay> days = BookingSlotService.getBookingDays("car1", "BK1", PICK_UP, DROP_OFF);
+
+        assertEquals(List.of(LocalDate.of(2025, 3, 10), LocalDate.of(2025, 3, 11), LocalDate.of(2025, 3, 12)),
+                days.stream().map(CarBookingDay::getDay).toList());
+        assertTrue(days.stream().allMatch(day -> "car1".equals(day.getCarId()) && "BK1".equals(day.getBookingNumber())));
+    }
+
+    @Test
+    void reserve_ShouldSaveBookingDaysAndReleaseLock() {
+        when(carLockManager.lock("car1")).thenReturn(carLock);
+        when(carService.isCarAvailable("car1", PICK_UP, DROP_OFF)).thenReturn(true);
+
+        bookingSlotService.reserve(booking());
+
+        verify(carBookingDayRepository).saveAllAndFlush(argThat(days -> ((List<?>) days).size() == 3));
+        verify(carLock).close();
+    }
+
+    @Test
+    void reserve_ShouldThrowCarNotAvailable_WhenCarWasBookedMeanwhile() {
+        when(carLockManager.lock("car1")).thenReturn(carLock);
+        when(carService.isCarAvailable("car1", PICK_UP, DROP_OFF)).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class, () -> bookingSlotService.reserve(booking()));
+
+        assertEquals(ErrorCode.CAR_NOT_AVAILABLE, exception.getErrorCode());
+        verify(carBookingDayRepository, never()).saveAllAndFlush(anyList());
+        verify(carLock).close();
+    }
+
+    @Test
+    void reserve_ShouldThrowCarNotAvailable_WhenDayIsAlreadyHeld() {
+        when(carLockManager.lock("car1")).thenReturn(carLock);
+        when(carService.isCarAvailable("car1", PICK_UP, DROP_OFF)).thenReturn(true);
+        when(carBookingDayRepository.saveAllAndFlush(anyList())).thenThrow(new DataIntegrityViolationException("uk_car_booking_day"));
+
+        AppException exception = assertThrows(AppException.class, () -> bookingSlotService.reserve(booking()));
+
+        assertEquals(ErrorCode.CAR_NOT_AVAILABLE, exception.getErrorCode());
+        verify(carLock).close();
+    }
+
+    @Test
+    void reserve_ShouldNotCheckCar_WhenCarIsBeingBooked() {
+        when(carLockManager.lock("car1")).thenThrow(new AppException(ErrorCode.CAR_IS_BEING_BOOKED));
+
+        AppException exception = assertThrows(AppException.class, () -> bookingSlotService.reserve(booking()));
+
+        assertEquals(ErrorCode.CAR_IS_BEING_BOOKED, exception.getErrorCode());
+        verifyNoInteractions(carService, carBookingDayRepository);
+    }
+
+    @Test
+    void release_ShouldDeleteBookingDays() {
+        when(carBookingDayRepository.deleteByBookingNumberIn(List.of("BK1"))).thenReturn(3);
+
+        bookingSlotService.release(List.of("BK1"));
+
+        verify(carBookingDayRepository).deleteByBookingNumberIn(List.of("BK1"));
+    }
+
+    @Test
+    void backfillBookingDays_ShouldSkipBookingsAlreadyRecorded() {
+        when(bookingRepository.findBlockingBookingIntervals(anyCollection(), any(LocalDateTime.class)))
+                .thenReturn(List.of(new Object[]{"car1", "BK1", PICK_UP, DROP_OFF},
+                        new Object[]{"car2", "BK2", PICK_UP, PICK_UP.plusHours(3)}));
+        when(carBookingDayRepository.existsByBookingNumber("BK1")).thenReturn(true);
+        when(carBookingDayRepository.existsByBookingNumber("BK2")).thenReturn(false);
+        when(carBookingDayRepository.insertIgnore(anyString(), any(LocalDate.class), anyString())).thenReturn(1);
+
+        bookingSlotService.backfillBookingDays(List.of());
+
+        verify(carBookingDayRepository, times(2)).insertIgnore(eq("car2"), any(LocalDate.class), eq("BK2"));
+        verify(carBookingDayRepository, never()).insertIgnore(eq("car1"), any(LocalDate.class), anyString());
+    }
+
+    private static Booking booking() {
+        Car car = new Car();
+        car.setId("car1");
+        Booking booking = new Booking();
+        booking.setBookingNumber("BK1");
+        booking.setCar(car);
+        booking.setPickUpTime(PICK_UP);
+        booking.setDropOffTime(DROP_OFF);
+        return booking;
+    }
+}
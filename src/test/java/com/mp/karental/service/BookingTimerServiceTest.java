@@ -0,0 +1,82 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.EBookingTimer;
+import com.mp.karental.repository.BookingRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test BookingTimerService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class BookingTimerServiceTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @Mock
+    private BookingRepository bookingRepository;
+
+    @InjectMocks
+    BookingTimerService bookingTimerService;
+
+    private static final LocalDateTime PICK_UP = LocalDateTime.of(2025, 4, 10, 9, 0);
+    private static final LocalDateTime DROP_OFF = LocalDateTime.of(2025, 4, 12, 18, 0);
+
+    @Test
+    void schedule_ShouldScoreTimerByDueTime() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+
+        bookingTimerService.schedule("20250401-00000001", EBookingTimer.PICK_UP_REMINDER, PICK_UP);
+
+        verify(zSetOperations).add("booking-timers", "PICK_UP_REMINDER:20250401-00000001",
+                PICK_UP.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    @Test
+    void claimDue_ShouldParseClaimedTimersAndDropInvalidOnes() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("booking-timers")), any(Object[].class)))
+                .thenReturn(List.of("WAITING_CONFIRMED_EXPIRY:20250401-00000001", "UNKNOWN:20250401-00000002", "garbage"));
+
+        List<BookingTimerService.BookingTimer> timers = bookingTimerService.claimDue(100);
+
+        assertEquals(List.of(new BookingTimerService.BookingTimer(EBookingTimer.WAITING_CONFIRMED_EXPIRY, "20250401-00000001")),
+                timers);
+    }
+
+    @Test
+    void rescheduleAll_ShouldScheduleDeadlineOfEachBookingStatus() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(bookingRepository.findBookingDeadlines(anyCollection(), eq(1), eq(4))).thenReturn(List.of(
+                new Object[]{"BK1", EBookingStatus.CONFIRMED, PICK_UP, DROP_OFF},
+                new Object[]{"BK2", EBookingStatus.WAITING_CONFIRMED_RETURN_CAR, PICK_UP, DROP_OFF}));
+
+        assertEquals(2, bookingTimerService.rescheduleAll(1, 4));
+
+        verify(zSetOperations).add(eq("booking-timers"), eq("PICK_UP_REMINDER:BK1"),
+                eq((double) PICK_UP.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        verify(zSetOperations).add(eq("booking-timers"), eq("WAITING_CONFIRMED_RETURN_CAR_EXPIRY:BK2"),
+                eq((double) DROP_OFF.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+    }
+}
@@ -0,0 +1,114 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test car availability index
+ *
+ * QuangPM20
+ * version 1.0
+ */
+class CarAvailabilityIndexTest {
+
+    private CarAvailabilityIndex index;
+    private LocalDateTime base;
+
+    @BeforeEach
+    void setUp() {
+        index = new CarAvailabilityIndex();
+        base = LocalDateTime.of(2025, 4, 1, 10, 0);
+    }
+
+    @Test
+    void isAvailable_NoBookings_ReturnsTrue() {
+        assertTrue(index.isAvailable("car1", base, base.plusDays(2)));
+    }
+
+    @Test
+    void isAvailable_BlockingBookingOverlaps_ReturnsFalse() {
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base.plusDays(1), base.plusDays(3));
+
+        assertFalse(index.isAvailable("car1", base, base.plusDays(1)));   // touches the start
+        assertFalse(index.isAvailable("car1", base.plusDays(2), base.plusDays(2).plusHours(1))); // inside
+        assertFalse(index.isAvailable("car1", base, base.plusDays(5)));   // covers the booking
+        assertTrue(index.isAvailable("car1", base.plusDays(4), base.plusDays(5)));
+        assertTrue(index.isAvailable("car2", base, base.plusDays(5)));
+    }
+
+    @Test
+    void isAvailable_LongBookingStartingFarBefore_ReturnsFalse() {
+        index.apply("car1", "long", EBookingStatus.IN_PROGRESS, base, base.plusDays(30));
+        index.apply("car1", "short", EBookingStatus.CONFIRMED, base.plusDays(40), base.plusDays(41));
+
+        assertFalse(index.isAvailable("car1", base.plusDays(20), base.plusDays(21)));
+        assertTrue(index.isAvailable("car1", base.plusDays(35), base.plusDays(36)));
+    }
+
+    @Test
+    void apply_NonBlockingStatus_RemovesBooking() {
+        index.apply("car1", "b1", EBookingStatus.WAITING_CONFIRMED, base, base.plusDays(1));
+        index.apply("car1", "b1", EBookingStatus.CANCELLED, base, base.plusDays(1));
+
+        assertTrue(index.isAvailable("car1", base, base.plusDays(1)));
+    }
+
+    @Test
+    void apply_PendingDeposit_DoesNotBlock() {
+        index.apply("car1", "b1", EBookingStatus.PENDING_DEPOSIT, base, base.plusDays(1));
+
+        assertTrue(index.isAvailable("car1", base, base.plusDays(1)));
+    }
+
+    @Test
+    void apply_SameBookingWithNewTimes_MovesInterval() {
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base, base.plusDays(1));
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base.plusDays(10), base.plusDays(11));
+
+        assertTrue(index.isAvailable("car1", base, base.plusDays(1)));
+        assertFalse(index.isAvailable("car1", base.plusDays(10), base.plusDays(11)));
+    }
+
+    @Test
+    void findUnavailableCarIds_ReturnsOnlyBlockedCars() {
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base, base.plusDays(1));
+        index.apply("car2", "b2", EBookingStatus.CONFIRMED, base.plusDays(5), base.plusDays(6));
+
+        Set<String> unavailable = index.findUnavailableCarIds(List.of("car1", "car2", "car3"), base, base.plusDays(2));
+
+        assertEquals(Set.of("car1"), unavailable);
+    }
+
+    @Test
+    void rebuild_ReplacesContent() {
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base, base.plusDays(1));
+
+        index.rebuild(() -> List.<Object[]>of(new Object[]{"car2", "b2", base, base.plusDays(1)}));
+
+        assertTrue(index.isAvailable("car1", base, base.plusDays(1)));
+        assertFalse(index.isAvailable("car2", base, base.plusDays(1)));
+    }
+
+    @Test
+    void rebuild_KeepsChangesAppliedWhileQueryRuns() {
+        index.apply("car1", "b1", EBookingStatus.CONFIRMED, base, base.plusDays(1));
+
+        index.rebuild(() -> {
+            // the query read the bookings before these changes were committed
+            List<Object[]> rows = List.<Object[]>of(new Object[]{"car1", "b1", base, base.plusDays(1)});
+            index.apply("car2", "b2", EBookingStatus.CONFIRMED, base, base.plusDays(1));
+            index.apply("car1", "b1", EBookingStatus.CANCELLED, base, base.plusDays(1));
+            return rows;
+        });
+
+        assertTrue(index.isAvailable("car1", base, base.plusDays(1)));
+        assertFalse(index.isAvailable("car2", base, base.plusDays(1)));
+    }
+}
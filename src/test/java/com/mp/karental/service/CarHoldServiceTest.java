@@ -0,0 +1,117 @@
+package com.mp.karental.service;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test CarHoldService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class CarHoldServiceTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @InjectMocks
+    CarHoldService carHoldService;
+
+    private static final LocalDateTime PICK_UP = LocalDateTime.of(2025, 4, 10, 9, 0);
+    private static final LocalDateTime DROP_OFF = LocalDateTime.of(2025, 4, 12, 18, 0);
+
+    @Test
+    void hold_ShouldReturnTrue_WhenScriptHoldsSlot() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("car-holds:car1", "car-holds", "account-holds:user1")), any(Object[].class)))
+                .thenReturn(1L);
+
+        assertTrue(carHoldService.hold("car1", "user1", PICK_UP, DROP_OFF));
+    }
+
+    @Test
+    void hold_ShouldReturnFalse_WhenSlotIsHeldByAnotherCustomer() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(0L);
+
+        assertFalse(carHoldService.hold("car1", "user1", PICK_UP, DROP_OFF));
+    }
+
+    @Test
+    void hold_ShouldThrow_WhenCustomerHoldsTooManyCars() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(-1L);
+
+        AppException exception = assertThrows(AppException.class, () -> carHoldService.hold("car1", "user1", PICK_UP, DROP_OFF));
+
+        assertEquals(ErrorCode.CAR_HOLD_LIMIT_REACHED, exception.getErrorCode());
+    }
+
+    @Test
+    void isHeldByOthers_ShouldIgnoreOwnHold() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.rangeByScore(eq("car-holds:car1"), anyDouble(), anyDouble()))
+                .thenReturn(Set.of(hold("user1", PICK_UP, DROP_OFF)));
+
+        assertFalse(carHoldService.isHeldByOthers("car1", "user1", PICK_UP, DROP_OFF));
+        assertTrue(carHoldService.isHeldByOthers("car1", "user2", PICK_UP, DROP_OFF));
+    }
+
+    @Test
+    void isHeldByOthers_ShouldApplyOneDayMargin() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.rangeByScore(eq("car-holds:car1"), anyDouble(), anyDouble()))
+                .thenReturn(Set.of(hold("user2", PICK_UP, DROP_OFF)));
+
+        // starts less than one day after the held slot ends
+        assertTrue(carHoldService.isHeldByOthers("car1", "user1", DROP_OFF.plusHours(20), DROP_OFF.plusDays(3)));
+        // starts more than one day after the held slot ends
+        assertFalse(carHoldService.isHeldByOthers("car1", "user1", DROP_OFF.plusDays(2), DROP_OFF.plusDays(3)));
+    }
+
+    @Test
+    void getCarsHeldByOthers_ShouldOnlyReturnCarsWithOverlappingHold() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.rangeByScore(eq("car-holds"), anyDouble(), anyDouble())).thenReturn(Set.of("car1", "car2"));
+        when(zSetOperations.rangeByScore(eq("car-holds:car1"), anyDouble(), anyDouble()))
+                .thenReturn(Set.of(hold("user2", PICK_UP, DROP_OFF)));
+        when(zSetOperations.rangeByScore(eq("car-holds:car2"), anyDouble(), anyDouble()))
+                .thenReturn(Set.of(hold("user2", PICK_UP.plusDays(10), DROP_OFF.plusDays(10))));
+
+        assertEquals(Set.of("car1"), carHoldService.getCarsHeldByOthers("user1", PICK_UP, DROP_OFF));
+    }
+
+    @Test
+    void release_ShouldOnlyRemoveHoldOfCustomer() {
+        String ownHold = hold("user1", PICK_UP, DROP_OFF);
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.range("car-holds:car1", 0, -1)).thenReturn(Set.of(ownHold, hold("user2", PICK_UP, DROP_OFF)));
+
+        carHoldService.release("car1", "user1");
+
+        verify(zSetOperations).remove("car-holds:car1", ownHold);
+        verify(zSetOperations).remove("account-holds:user1", "car1");
+    }
+
+    private static String hold(String accountId, LocalDateTime pickUp, LocalDateTime dropOff) {
+        return accountId + "|" + pickUp.toEpochSecond(ZoneOffset.UTC) + "|" + dropOff.toEpochSecond(ZoneOffset.UTC);
+    }
+}
@@ -1,24 +1,32 @@
 package com.mp.karental.service;
 
 import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.ECarFile;
 import com.mp.karental.constant.ECarStatus;
+import com.mp.karental.constant.EImageVariant;
 import com.mp.karental.dto.request.car.AddCarRequest;
 import com.mp.karental.dto.request.car.CarDetailRequest;
+import com.mp.karental.dto.request.car.CarFileUploadUrlRequest;
+import com.mp.karental.dto.request.car.CarHoldRequest;
+import com.mp.karental.dto.request.car.ConfirmCarFilesRequest;
 import com.mp.karental.dto.request.car.EditCarRequest;
 import com.mp.karental.dto.request.car.SearchCarRequest;
 import com.mp.karental.dto.response.car.CarDetailResponse;
 import com.mp.karental.dto.response.car.CarDocumentsResponse;
+import com.mp.karental.dto.response.car.CarHoldResponse;
 import com.mp.karental.dto.response.car.CarResponse;
 import com.mp.karental.dto.response.car.CarThumbnailResponse;
+import com.mp.karental.dto.response.file.FileUploadUrlResponse;
 import com.mp.karental.entity.Account;
 import com.mp.karental.entity.Booking;
 import com.mp.karental.entity.Car;
+import com.mp.karental.entity.CarStats;
+import com.mp.karental.event.CarImagesChangedEvent;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.CarMapper;
 import com.mp.karental.repository.*;
 import com.mp.karental.security.SecurityUtil;
-import com.mp.karental.util.RedisUtil;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -26,6 +34,7 @@ import org.mockito.Mock;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -33,7 +42,9 @@ import org.springframework.web.multipart.MultipartFile;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 /**
@@ -74,7 +85,15 @@ class CarServiceTest {
     @Mock
     private EmailService emailService;
     @Mock
-    private RedisUtil redisUtil;
+    private ExpiryQueueService expiryQueueService;
+    @Mock
+    private CarAvailabilityIndex carAvailabilityIndex;
+    @Mock
+    private CarStatsRepository carStatsRepository;
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    @Mock
+    private CarHoldService carHoldService;
 
     private MockedStatic<SecurityUtil> mockedSecurityUtil;
 
@@ -115,7 +134,7 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("certificate-of-inspection"));
+        verify(fileService).uploadFiles(uploadsWithKey("certificate-of-inspection"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -146,7 +165,7 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("insurance"));
+        verify(fileService).uploadFiles(uploadsWithKey("insurance"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -177,7 +196,7 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("registration-paper"));
+        verify(fileService).uploadFiles(uploadsWithKey("registration-paper"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -247,7 +266,7 @@ class CarServiceTest {
         );
 
 
-        verify(redisUtil).removeCachePendingDepositBooking("BOOK123");
+        verify(expiryQueueService).cancelPendingDepositExpiry("BOOK123");
     }
 
 
@@ -877,7 +896,8 @@ class CarServiceTest {
         lenient().when(SecurityUtil.getCurrentAccountId()).thenReturn(accountId);
         lenient().when(carRepository.findById(carId)).thenReturn(Optional.of(car));
         lenient().when(bookingRepository.isCarBookedByAccount(carId, accountId)).thenReturn(true);
-        lenient().when(bookingRepository.countCompletedBookingsByCar(carId)).thenReturn(8L);
+        lenient().when(carStatsRepository.findById(carId))
+                .thenReturn(Optional.of(CarStats.builder().carId(carId).completedRides(8).build()));
         lenient().when(carMapper.toCarResponse(car)).thenReturn(carResponse); // ✅ Fix mock
 
         // Act
@@ -929,7 +949,7 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), anyString());
+        verify(fileService).uploadFiles(argThat(files -> files.size() == 1), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -959,7 +979,7 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService, never()).uploadFile(any(), anyString());
+        verify(fileService, never()).uploadFiles(any(), any());
         verify(carRepository).save(car);
     }
 
@@ -990,10 +1010,10 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("front"));
-        verify(fileService, never()).uploadFile(any(), contains("back"));
-        verify(fileService, never()).uploadFile(any(), contains("left"));
-        verify(fileService, never()).uploadFile(any(), contains("right"));
+        verify(fileService).uploadFiles(uploadsWithKey("front"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("back"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("left"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("right"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -1024,10 +1044,10 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("back"));
-        verify(fileService, never()).uploadFile(any(), contains("front"));
-        verify(fileService, never()).uploadFile(any(), contains("left"));
-        verify(fileService, never()).uploadFile(any(), contains("right"));
+        verify(fileService).uploadFiles(uploadsWithKey("back"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("front"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("left"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("right"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -1058,10 +1078,10 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("left"));
-        verify(fileService, never()).uploadFile(any(), contains("back"));
-        verify(fileService, never()).uploadFile(any(), contains("front"));
-        verify(fileService, never()).uploadFile(any(), contains("right"));
+        verify(fileService).uploadFiles(uploadsWithKey("left"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("back"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("front"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("right"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -1092,10 +1112,10 @@ class CarServiceTest {
 
         // Then
         assertNotNull(response);
-        verify(fileService).uploadFile(any(MultipartFile.class), contains("right"));
-        verify(fileService, never()).uploadFile(any(), contains("back"));
-        verify(fileService, never()).uploadFile(any(), contains("front"));
-        verify(fileService, never()).uploadFile(any(), contains("left"));
+        verify(fileService).uploadFiles(uploadsWithKey("right"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("back"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("front"), anyCollection());
+        verify(fileService).uploadFiles(uploadsWithoutKey("left"), anyCollection());
         verify(carRepository).save(car);
     }
 
@@ -1171,8 +1191,8 @@ class CarServiceTest {
         request.setPickUpTime(LocalDateTime.now().plusDays(1));
         request.setDropOffTime(LocalDateTime.now().plusDays(2));
 
-        when(carRepository.findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi"))
-                .thenReturn(Collections.emptyList()); // Mock trả về danh sách rỗng
+        when(carRepository.findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty()); // Mock trả về danh sách rỗng
 
         // Act
         Page<CarThumbnailResponse> result = carService.searchCars(request, 0, 10, "productionYear,desc");
@@ -1182,7 +1202,7 @@ class CarServiceTest {
         assertTrue(result.getContent().isEmpty());
         assertEquals(0, result.getTotalElements());
 
-        verify(carRepository, times(1)).findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi");
+        verify(carRepository, times(1)).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
 
@@ -1224,7 +1244,7 @@ class CarServiceTest {
 
     @Test
     void searchCars_ShouldReturnEmpty_WhenNoVerifiedCars() {
-        when(carRepository.findVerifiedCarsByAddress(any(), any())).thenReturn(Collections.emptyList());
+        when(carRepository.findAvailableCarsByLocation(any(), any(), any(), any(), any(), any(), anyList(), anyCollection(), any(Pageable.class))).thenReturn(Page.empty());
 
         SearchCarRequest request = new SearchCarRequest();
         request.setAddress("Hanoi");
@@ -1234,7 +1254,7 @@ class CarServiceTest {
         Page<CarThumbnailResponse> result = carService.searchCars(request, 0, 10, "productionYear,desc");
 
         assertEquals(0, result.getTotalElements());
-        verify(carRepository).findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi");
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
     @Test
@@ -1245,8 +1265,8 @@ class CarServiceTest {
         request.setPickUpTime(LocalDateTime.now().plusDays(1));
         request.setDropOffTime(LocalDateTime.now().plusDays(2));
 
-        when(carRepository.findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi"))
-                .thenReturn(Collections.emptyList());
+        when(carRepository.findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty());
 
         // Act
         Page<CarThumbnailResponse> result = carService.searchCars(request, 0, 10, "productionYear,desc");
@@ -1254,7 +1274,7 @@ class CarServiceTest {
         // Assert
         assertNotNull(result);
         assertEquals(0, result.getTotalElements());
-        verify(carRepository).findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi");
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
     @Test
@@ -1265,15 +1285,15 @@ class CarServiceTest {
         request.setPickUpTime(LocalDateTime.now().plusDays(1));
         request.setDropOffTime(LocalDateTime.now().plusDays(2));
 
-        when(carRepository.findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi"))
-                .thenReturn(Collections.emptyList());
+        when(carRepository.findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty());
 
         // Act
         Page<CarThumbnailResponse> result = carService.searchCars(request, 0, -5, "productionYear,desc");
 
         // Assert
         assertEquals(0, result.getTotalElements()); // No cars
-        verify(carRepository).findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi");
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
     @Test
@@ -1284,15 +1304,15 @@ class CarServiceTest {
         request.setPickUpTime(LocalDateTime.now().plusDays(1));
         request.setDropOffTime(LocalDateTime.now().plusDays(2));
 
-        when(carRepository.findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi"))
-                .thenReturn(Collections.emptyList());
+        when(carRepository.findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty());
 
         // Act
         Page<CarThumbnailResponse> result = carService.searchCars(request, -3, 10, "productionYear,desc");
 
         // Assert
         assertEquals(0, result.getTotalElements()); // No cars
-        verify(carRepository).findVerifiedCarsByAddress(ECarStatus.VERIFIED, "Hanoi");
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
 
@@ -1358,7 +1378,8 @@ class CarServiceTest {
         car.setStatus(ECarStatus.VERIFIED);
 
         when(carRepository.findById("1")).thenReturn(Optional.of(car));
-        when(bookingRepository.countCompletedBookingsByCar("1")).thenReturn(5L);
+        when(carStatsRepository.findById("1"))
+                .thenReturn(Optional.of(CarStats.builder().carId("1").completedRides(5).build()));
         when(carMapper.toCarDetailResponse(any(), anyBoolean())).thenReturn(new CarDetailResponse());
         when(carService.isCarBooked("1", accountId)).thenReturn(false);
 
@@ -1395,7 +1416,8 @@ class CarServiceTest {
         when(carRepository.findCars(eq(status), any(Pageable.class))).thenReturn(carPage);
         when(carMapper.toCarThumbnailResponse(any(Car.class))).thenReturn(new CarThumbnailResponse());
         when(fileService.getFileUrl(anyString())).thenReturn("https://example.com/image.jpg");
-        when(bookingRepository.countCompletedBookingsByCar(anyString())).thenReturn(Long.valueOf(10));
+        when(carStatsRepository.findByCarIdIn(anyCollection()))
+                .thenReturn(List.of(CarStats.builder().carId("car1").completedRides(10).build()));
 
         // When
         Page<CarThumbnailResponse> response = carService.getAllCarsForOperator(page, size, sort, status);
@@ -1407,6 +1429,93 @@ class CarServiceTest {
         verify(fileService, times(4)).getFileUrl(anyString()); // Check image retrieval
     }
 
+    @Test
+    void editCar_ShouldDropImageVariants_WhenImageProvided() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        car.setCarImageFront("car/user123/car123/images/front.jpg");
+        car.setImageVariantsReady(true);
+        car.setImagesVersion(3);
+        car.setImageVariantAttempts(5);
+
+        EditCarRequest request = new EditCarRequest();
+        request.setCarImageFront(mock(MultipartFile.class));
+
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(fileService.getFileExtension(any(MultipartFile.class))).thenReturn(".png");
+        when(fileService.uploadFiles(anyMap(), anyCollection())).thenReturn(Set.of("car/user123/car123/images/front.png"));
+        when(carRepository.save(any(Car.class))).thenReturn(car);
+        when(carMapper.toCarResponse(any(Car.class))).thenReturn(new CarResponse());
+
+        carService.editCar(request, "car123");
+
+        assertFalse(car.isImageVariantsReady());
+        assertEquals(4, car.getImagesVersion());
+        assertEquals(0, car.getImageVariantAttempts());
+        verify(eventPublisher).publishEvent(new CarImagesChangedEvent("car123"));
+    }
+
+    @Test
+    void editCar_ShouldKeepImageVariants_WhenImageIsUnchanged() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        car.setCarImageFront("car/user123/car123/images/front.png");
+        car.setImageVariantsReady(true);
+
+        EditCarRequest request = new EditCarRequest();
+        request.setCarImageFront(mock(MultipartFile.class));
+
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(fileService.getFileExtension(any(MultipartFile.class))).thenReturn(".png");
+        // the same content is already stored under the key
+        when(fileService.uploadFiles(anyMap(), anyCollection())).thenReturn(Set.of());
+        when(carRepository.save(any(Car.class))).thenReturn(car);
+        when(carMapper.toCarResponse(any(Car.class))).thenReturn(new CarResponse());
+
+        carService.editCar(request, "car123");
+
+        assertTrue(car.isImageVariantsReady());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void editCar_ShouldKeepImageVariants_WhenOnlyDocumentProvided() {
+        Car car = ownedCar(ECarStatus.NOT_VERIFIED);
+        car.setImageVariantsReady(true);
+
+        EditCarRequest request = new EditCarRequest();
+        request.setInsurance(mock(MultipartFile.class));
+
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(carRepository.save(any(Car.class))).thenReturn(car);
+        when(carMapper.toCarResponse(any(Car.class))).thenReturn(new CarResponse());
+
+        carService.editCar(request, "car123");
+
+        assertTrue(car.isImageVariantsReady());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void getAllCarsForOperator_ShouldReturnThumbnailUrls_WhenImageVariantsReady() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        car.setCarImageFront("car/user123/car123/images/front.png");
+        car.setCarImageBack("car/user123/car123/images/back.png");
+        car.setCarImageLeft("car/user123/car123/images/left.png");
+        car.setCarImageRight("car/user123/car123/images/right.png");
+        car.setImageVariantsReady(true);
+
+        when(carRepository.findCars(eq(ECarStatus.VERIFIED), any(Pageable.class))).thenReturn(new PageImpl<>(List.of(car)));
+        when(carMapper.toCarThumbnailResponse(car)).thenReturn(new CarThumbnailResponse());
+        when(fileService.getFileUrl(anyString())).thenAnswer(invocation -> "https://example.com/" + invocation.getArgument(0));
+
+        Page<CarThumbnailResponse> response = carService.getAllCarsForOperator(0, 5, "updatedAt,desc", ECarStatus.VERIFIED);
+
+        assertEquals("https://example.com/car/user123/car123/images/front_w320.jpg", response.getContent().get(0).getCarImageFront());
+        verify(fileService).getFileUrl(EImageVariant.THUMBNAIL.getKey("car/user123/car123/images/right.png"));
+    }
+
     @Test
     void testGetAllCarsForOperator_NoCarsFound() {
         // Given
@@ -1634,7 +1743,7 @@ class CarServiceTest {
         assertEquals(1, result.getTotalElements());
         assertEquals("District A, City X", result.getContent().get(0).getAddress());
         verify(fileService, times(4)).getFileUrl(anyString());
-        verify(bookingRepository).countCompletedBookingsByCar(car.getId());
+        verify(carStatsRepository).findByCarIdIn(List.of(car.getId()));
     }
 
     @Test
@@ -1754,27 +1863,286 @@ class CarServiceTest {
 
     @Test
     void searchCars_ShouldReturnEmpty_WhenNoAvailableCars() {
+        // Arrange
+        when(carRepository.findAvailableCarsByLocation(any(), any(), any(), any(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty()); // every car has a blocking booking => filtered out by the query
+
+        SearchCarRequest request = new SearchCarRequest();
+        request.setAddress("Hanoi");
+        request.setPickUpTime(LocalDateTime.now().plusDays(1));
+        request.setDropOffTime(LocalDateTime.now().plusDays(2));
+
+        // Act
+        Page<CarThumbnailResponse> result = carService.searchCars(request, 0, 10, "productionYear,desc");
+
+        // Assert
+        assertNotNull(result);
+        assertEquals(0, result.getTotalElements());
+        verify(bookingRepository, never()).findActiveBookingsByCarIdAndTimeRange(any(), any(), any());
+    }
+
+    @Test
+    void searchCars_ShouldPushRangeAndSortToQuery_AndMapOnlyReturnedPage() {
         // Arrange
         Car car = new Car();
         car.setId("car123");
+        car.setCityProvince("Hanoi");
+        car.setDistrict("Ba Dinh");
+        car.setWard("Kim Ma");
+
+        LocalDateTime pickUp = LocalDateTime.now().plusDays(1);
+        LocalDateTime dropOff = LocalDateTime.now().plusDays(2);
+        Pageable expectedPageable = PageRequest.of(1, 5, Sort.by(Sort.Direction.ASC, "basePrice"));
 
-        when(carRepository.findVerifiedCarsByAddress(any(), any())).thenReturn(List.of(car));
-        when(carRepository.findById(any())).thenReturn(Optional.of(car));
-        when(bookingRepository.findActiveBookingsByCarIdAndTimeRange(any(), any(), any()))
-                .thenReturn(List.of(new Booking())); // Có booking => xe không AVAILABLE
+        when(carRepository.findAvailableCarsByLocation(
+                ECarStatus.VERIFIED, "hanoi", null, null, pickUp.minusDays(1), dropOff.plusDays(1),
+                List.of(EBookingStatus.CANCELLED, EBookingStatus.PENDING_DEPOSIT), Set.of(""), expectedPageable))
+                .thenReturn(new PageImpl<>(List.of(car), expectedPageable, 6));
+        when(carStatsRepository.findByCarIdIn(List.of("car123")))
+                .thenReturn(List.of(CarStats.builder().carId("car123").ratingSum(9).ratingCount(2).completedRides(3).build()));
+        when(carMapper.toSearchCar(car, 3L)).thenReturn(new CarThumbnailResponse());
 
         SearchCarRequest request = new SearchCarRequest();
         request.setAddress("Hanoi");
+        request.setPickUpTime(pickUp);
+        request.setDropOffTime(dropOff);
+
+        // Act
+        Page<CarThumbnailResponse> result = carService.searchCars(request, 1, 5, "basePrice,asc");
+
+        // Assert
+        assertEquals(6, result.getTotalElements());
+        assertEquals(1, result.getContent().size());
+        assertEquals(3L, result.getContent().get(0).getNoOfRides());
+        assertEquals(4.5, result.getContent().get(0).getAverageRatingByCar());
+        assertEquals("Hanoi, Ba Dinh, Kim Ma", result.getContent().get(0).getAddress());
+        verify(carRepository, never()).findById(any());
+    }
+
+    @Test
+    void searchCars_ShouldMatchOnNormalizedLocationKeys() {
+        // Arrange
+        when(carRepository.findAvailableCarsByLocation(any(), any(), any(), any(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty());
+
+        SearchCarRequest request = new SearchCarRequest();
+        request.setAddress("Thành phố Hà Nội,  Quận Ba Đình , Phường Kim Mã");
         request.setPickUpTime(LocalDateTime.now().plusDays(1));
         request.setDropOffTime(LocalDateTime.now().plusDays(2));
 
         // Act
-        Page<CarThumbnailResponse> result = carService.searchCars(request, 0, 10, "productionYear,desc");
+        carService.searchCars(request, 0, 10, "productionYear,desc");
 
         // Assert
-        assertNotNull(result);
-        assertEquals(0, result.getTotalElements()); // Không có xe AVAILABLE
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("thanh pho ha noi"),
+                eq("quan ba dinh"), eq("phuong kim ma"), any(), any(), anyList(), anyCollection(), any(Pageable.class));
     }
 
+    @Test
+    void searchCars_ShouldLeaveOutCarsHeldByOtherCustomers() {
+        LocalDateTime pickUp = LocalDateTime.now().plusDays(1);
+        LocalDateTime dropOff = LocalDateTime.now().plusDays(2);
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(carHoldService.getCarsHeldByOthers("user123", pickUp, dropOff)).thenReturn(Set.of("car9"));
+        when(carRepository.findAvailableCarsByLocation(any(), any(), any(), any(), any(), any(), anyList(), anyCollection(), any(Pageable.class)))
+                .thenReturn(Page.empty());
+
+        SearchCarRequest request = new SearchCarRequest();
+        request.setAddress("Hanoi");
+        request.setPickUpTime(pickUp);
+        request.setDropOffTime(dropOff);
+
+        carService.searchCars(request, 0, 10, "productionYear,desc");
 
-}
\ No newline at end of file
+        verify(carRepository).findAvailableCarsByLocation(eq(ECarStatus.VERIFIED), eq("hanoi"), isNull(), isNull(),
+                any(), any(), anyList(), eq(Set.of("car9")), any(Pageable.class));
+    }
+
+    @Test
+    void holdCar_ShouldHoldSlot_WhenCarIsAvailable() {
+        CarHoldRequest request = holdRequest();
+        Car car = new Car();
+        car.setId("car123");
+        car.setStatus(ECarStatus.VERIFIED);
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(carAvailabilityIndex.isAvailable(eq("car123"), any(), any())).thenReturn(true);
+        when(carHoldService.hold("car123", "user123", request.getPickUpTime(), request.getDropOffTime())).thenReturn(true);
+
+        CarHoldResponse response = carService.holdCar(request);
+
+        assertEquals("car123", response.getCarId());
+        assertEquals(request.getPickUpTime(), response.getPickUpTime());
+        assertTrue(response.getExpiresAt().isAfter(LocalDateTime.now()));
+    }
+
+    @Test
+    void holdCar_ShouldThrowCarIsHeld_WhenAnotherCustomerHoldsSlot() {
+        CarHoldRequest request = holdRequest();
+        Car car = new Car();
+        car.setId("car123");
+        car.setStatus(ECarStatus.VERIFIED);
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(carAvailabilityIndex.isAvailable(eq("car123"), any(), any())).thenReturn(true);
+        when(carHoldService.hold("car123", "user123", request.getPickUpTime(), request.getDropOffTime())).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class, () -> carService.holdCar(request));
+
+        assertEquals(ErrorCode.CAR_IS_HELD, exception.getErrorCode());
+    }
+
+    @Test
+    void holdCar_ShouldNotHold_WhenCarIsBooked() {
+        CarHoldRequest request = holdRequest();
+        Car car = new Car();
+        car.setId("car123");
+        car.setStatus(ECarStatus.VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(carAvailabilityIndex.isAvailable(eq("car123"), any(), any())).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class, () -> carService.holdCar(request));
+
+        assertEquals(ErrorCode.CAR_NOT_AVAILABLE, exception.getErrorCode());
+        verifyNoInteractions(carHoldService);
+    }
+
+    @Test
+    void holdCar_ShouldThrowInvalidBookingTime_WhenPickUpIsInThePast() {
+        CarHoldRequest request = CarHoldRequest.builder()
+                .carId("car123")
+                .pickUpTime(LocalDateTime.now().minusHours(1))
+                .dropOffTime(LocalDateTime.now().plusDays(1))
+                .build();
+
+        AppException exception = assertThrows(AppException.class, () -> carService.holdCar(request));
+
+        assertEquals(ErrorCode.INVALID_BOOKING_TIME, exception.getErrorCode());
+        verifyNoInteractions(carHoldService);
+    }
+
+    @Test
+    void holdCar_ShouldThrowInvalidBookingTime_WhenRangeIsTooLong() {
+        CarHoldRequest request = CarHoldRequest.builder()
+                .carId("car123")
+                .pickUpTime(LocalDateTime.now().plusDays(1))
+                .dropOffTime(LocalDateTime.now().plusDays(40))
+                .build();
+
+        AppException exception = assertThrows(AppException.class, () -> carService.holdCar(request));
+
+        assertEquals(ErrorCode.INVALID_BOOKING_TIME, exception.getErrorCode());
+        verifyNoInteractions(carHoldService);
+    }
+
+    private static CarHoldRequest holdRequest() {
+        return CarHoldRequest.builder()
+                .carId("car123")
+                .pickUpTime(LocalDateTime.now().plusDays(1))
+                .dropOffTime(LocalDateTime.now().plusDays(2))
+                .build();
+    }
+
+    @Test
+    void getCarFileUploadUrls_ShouldReturnUrlWithKeyOfEachFile() {
+        Car car = ownedCar(ECarStatus.NOT_VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(fileService.getUploadUrl(anyString())).thenAnswer(invocation -> "http://upload/" + invocation.getArgument(0));
+
+        Map<ECarFile, FileUploadUrlResponse> urls = carService.getCarFileUploadUrls("car123",
+                new CarFileUploadUrlRequest(Map.of(ECarFile.CAR_IMAGE_FRONT, "Front.JPG", ECarFile.INSURANCE, "insurance.pdf")));
+
+        assertEquals("car/user123/car123/images/front.jpg", urls.get(ECarFile.CAR_IMAGE_FRONT).getKey());
+        assertEquals("http://upload/car/user123/car123/images/front.jpg", urls.get(ECarFile.CAR_IMAGE_FRONT).getUploadUrl());
+        assertEquals("car/user123/car123/documents/insurance.pdf", urls.get(ECarFile.INSURANCE).getKey());
+    }
+
+    @Test
+    void getCarFileUploadUrls_ShouldThrow_WhenImageExtensionIsNotAccepted() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+
+        AppException exception = assertThrows(AppException.class, () -> carService.getCarFileUploadUrls("car123",
+                new CarFileUploadUrlRequest(Map.of(ECarFile.CAR_IMAGE_BACK, "back.pdf"))));
+
+        assertEquals(ErrorCode.INVALID_CAR_IMAGE_FILE, exception.getErrorCode());
+        verify(fileService, never()).getUploadUrl(anyString());
+    }
+
+    @Test
+    void confirmCarFiles_ShouldAttachUploadedFiles() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(fileService.confirmUpload("car/user123/car123/images/left.png")).thenReturn(true);
+        when(carRepository.save(car)).thenReturn(car);
+        when(carMapper.toCarResponse(car)).thenReturn(new CarResponse());
+
+        CarResponse response = carService.confirmCarFiles("car123",
+                new ConfirmCarFilesRequest(Map.of(ECarFile.CAR_IMAGE_LEFT, "car/user123/car123/images/left.png")));
+
+        assertNotNull(response);
+        assertEquals("car/user123/car123/images/left.png", car.getCarImageLeft());
+        verify(carRepository).save(car);
+    }
+
+    @Test
+    void confirmCarFiles_ShouldThrow_WhenKeyBelongsToAnotherFile() {
+        Car car = ownedCar(ECarStatus.NOT_VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+
+        AppException exception = assertThrows(AppException.class, () -> carService.confirmCarFiles("car123",
+                new ConfirmCarFilesRequest(Map.of(ECarFile.CAR_IMAGE_LEFT, "car/other/car999/images/left.png"))));
+
+        assertEquals(ErrorCode.INVALID_UPLOADED_FILE_KEY, exception.getErrorCode());
+        verify(fileService, never()).confirmUpload(anyString());
+        verify(carRepository, never()).save(any());
+    }
+
+    @Test
+    void confirmCarFiles_ShouldThrow_WhenFileIsNotUploaded() {
+        Car car = ownedCar(ECarStatus.NOT_VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+        when(fileService.confirmUpload("car/user123/car123/documents/insurance.pdf")).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class, () -> carService.confirmCarFiles("car123",
+                new ConfirmCarFilesRequest(Map.of(ECarFile.INSURANCE, "car/user123/car123/documents/insurance.pdf"))));
+
+        assertEquals(ErrorCode.UPLOADED_FILE_NOT_FOUND, exception.getErrorCode());
+        verify(carRepository, never()).save(any());
+    }
+
+    @Test
+    void confirmCarFiles_ShouldThrow_WhenDocumentsOfVerifiedCarAreChanged() {
+        Car car = ownedCar(ECarStatus.VERIFIED);
+        when(carRepository.findById("car123")).thenReturn(Optional.of(car));
+        when(SecurityUtil.getCurrentAccountId()).thenReturn("user123");
+
+        AppException exception = assertThrows(AppException.class, () -> carService.confirmCarFiles("car123",
+                new ConfirmCarFilesRequest(Map.of(ECarFile.INSURANCE, "car/user123/car123/documents/insurance.pdf"))));
+
+        assertEquals(ErrorCode.CAR_DOCUMENTS_CANNOT_BE_CHANGED, exception.getErrorCode());
+    }
+
+    private static Car ownedCar(ECarStatus status) {
+        Account account = new Account();
+        account.setId("user123");
+        Car car = new Car();
+        car.setId("car123");
+        car.setAccount(account);
+        car.setStatus(status);
+        return car;
+    }
+
+    private static Map<String, MultipartFile> uploadsWithKey(String keyPart) {
+        return argThat(files -> files.keySet().stream().anyMatch(key -> key.contains(keyPart)));
+    }
+
+    private static Map<String, MultipartFile> uploadsWithoutKey(String keyPart) {
+        return argThat(files -> files.keySet().stream().noneMatch(key -> key.contains(keyPart)));
+    }
+}
@@ -0,0 +1,87 @@
+package com.mp.karental.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test ExpiryQueueService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class ExpiryQueueServiceTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    @InjectMocks
+    ExpiryQueueService expiryQueueService;
+
+    @Test
+    void schedulePendingDepositExpiry_ShouldScoreBookingOneHourLater() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        long before = System.currentTimeMillis();
+
+        expiryQueueService.schedulePendingDepositExpiry("20250401-00000001");
+
+        verify(zSetOperations).add(eq("expiry-queue"), eq("booking:20250401-00000001"),
+                doubleThat(score -> score >= before + Duration.ofHours(1).toMillis()
+                        && score <= System.currentTimeMillis() + Duration.ofHours(1).toMillis()));
+    }
+
+    @Test
+    void cancelProcessingTransactionExpiry_ShouldRemoveQueuedAndClaimedItem() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+
+        expiryQueueService.cancelProcessingTransactionExpiry("t1");
+
+        verify(zSetOperations).remove("expiry-queue", "trans:t1");
+        verify(zSetOperations).remove("expiry-queue:claimed", "trans:t1");
+    }
+
+    @Test
+    void scheduleIfAbsent_ShouldNotReplaceScheduledItem() {
+        LocalDateTime expiresAt = LocalDateTime.of(2025, 4, 1, 10, 0);
+        long score = expiresAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.addIfAbsent("expiry-queue", "booking:B1", score)).thenReturn(false);
+
+        assertFalse(expiryQueueService.scheduleIfAbsent("booking:B1", expiresAt));
+    }
+
+    @Test
+    void claimDue_ShouldReturnClaimedItems() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("expiry-queue", "expiry-queue:claimed")), any(Object[].class)))
+                .thenReturn(List.of("booking:B1", "trans:t1"));
+
+        assertEquals(List.of("booking:B1", "trans:t1"), expiryQueueService.claimDue(100, Duration.ofMinutes(5)));
+    }
+
+    @Test
+    void acknowledge_ShouldRemoveClaimedItem() {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+
+        expiryQueueService.acknowledge("booking:B1");
+
+        verify(zSetOperations).remove("expiry-queue:claimed", "booking:B1");
+    }
+}
@@ -6,6 +6,7 @@ import com.mp.karental.dto.response.feedback.FeedbackDetailResponse;
 import com.mp.karental.dto.response.feedback.FeedbackReportResponse;
 import com.mp.karental.dto.response.feedback.FeedbackResponse;
 import com.mp.karental.dto.response.feedback.RatingResponse;
+import com.mp.karental.entity.Car;
 import com.mp.karental.entity.Booking;
 import com.mp.karental.entity.Feedback;
 import com.mp.karental.exception.AppException;
@@ -13,6 +14,7 @@ import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.FeedbackMapper;
 import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.repository.CarRepository;
+import com.mp.karental.repository.CarStatsRepository;
 import com.mp.karental.repository.FeedbackRepository;
 import com.mp.karental.security.SecurityUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -50,6 +52,9 @@ class FeedbackServiceTest {
     @Mock
     private FileService fileService;
 
+    @Mock
+    private CarStatsRepository carStatsRepository;
+
     private final String MOCK_USER_ID = "user123";
     private final String MOCK_CAR_ID = "car123";
 
@@ -75,6 +80,9 @@ class FeedbackServiceTest {
         completedBooking.setBookingNumber("BK123");
         completedBooking.setStatus(EBookingStatus.COMPLETED);
         completedBooking.setDropOffTime(LocalDateTime.now().minusDays(10));
+        Car car = new Car();
+        car.setId(MOCK_CAR_ID);
+        completedBooking.setCar(car);
 
         feedback = new Feedback();
         feedback.setBooking(completedBooking);
@@ -94,6 +102,7 @@ class FeedbackServiceTest {
 
         assertNotNull(response);
         verify(feedbackRepository).save(feedback);
+        verify(carStatsRepository).addRating(MOCK_CAR_ID, 5);
     }
 
     /** NEGATIVE TEST CASES **/
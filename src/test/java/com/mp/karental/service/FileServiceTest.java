@@ -5,11 +5,13 @@ import com.mp.karental.dto.request.feedback.FeedbackRequest;
 import com.mp.karental.dto.response.feedback.FeedbackResponse;
 import com.mp.karental.entity.Booking;
 import com.mp.karental.entity.Feedback;
+import com.mp.karental.entity.FileContentHash;
 import com.mp.karental.exception.AppException;
 import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.FeedbackMapper;
 import com.mp.karental.repository.BookingRepository;
 import com.mp.karental.repository.FeedbackRepository;
+import com.mp.karental.repository.FileContentHashRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -19,21 +21,42 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -55,6 +78,10 @@ class FileServiceTest {
     private MultipartFile file;
     @Mock
     private S3Presigner s3Presigner;
+    @Mock
+    private S3AsyncClient s3AsyncClient;
+    @Mock
+    private FileContentHashRepository fileContentHashRepository;
 
     @InjectMocks
     private FileService fileService;
@@ -72,7 +99,8 @@ class FileServiceTest {
     @Test
     public void testUploadFile_Success() throws IOException {
         byte[] fileBytes = "Test file content".getBytes();
-        when(file.getBytes()).thenReturn(fileBytes);
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream(fileBytes));
+        when(file.getSize()).thenReturn((long) fileBytes.length);
 
         // Use ArgumentCaptor to catch PutObjectRequest, which create internal in the method
         ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
@@ -86,7 +114,11 @@ class FileServiceTest {
 
         // Assert
         // check s3Client.putObject is called?
-        verify(s3Client, times(1)).putObject(captor.capture(), any(RequestBody.class));
+        ArgumentCaptor<RequestBody> bodyCaptor = ArgumentCaptor.forClass(RequestBody.class);
+        verify(s3Client, times(1)).putObject(captor.capture(), bodyCaptor.capture());
+        // the content is streamed with a known length, the file is not read into a byte array
+        assertEquals(Optional.of((long) fileBytes.length), bodyCaptor.getValue().optionalContentLength());
+        verify(file, never()).getBytes();
 
 
         //check value of PutObjectRequest catched
@@ -97,13 +129,137 @@ class FileServiceTest {
     @Test
     public void testUploadFile_Failure() throws IOException {
         // Arrange
-        when(file.getBytes()).thenThrow(new IOException("Test exception"));
+        when(file.getInputStream()).thenThrow(new IOException("Test exception"));
 
         // Act & Assert
         AppException exception = assertThrows(AppException.class, () -> fileService.uploadFile(file, key));
         assertEquals(ErrorCode.UPLOAD_OBJECT_TO_S3_FAIL, exception.getErrorCode());
     }
 
+    @Test
+    void uploadFile_ShouldCloseContentStream() throws IOException {
+        InputStream hashed = spy(new ByteArrayInputStream("content".getBytes()));
+        InputStream uploaded = spy(new ByteArrayInputStream("content".getBytes()));
+        when(file.getInputStream()).thenReturn(hashed, uploaded);
+        when(file.getSize()).thenReturn(7L);
+
+        fileService.uploadFile(file, key);
+
+        verify(uploaded).close();
+    }
+
+    @Test
+    void uploadFiles_ShouldCloseContentStreams_WhenUploadsComplete() throws IOException {
+        InputStream hashed = spy(new ByteArrayInputStream("front".getBytes()));
+        InputStream uploaded = spy(new ByteArrayInputStream("front".getBytes()));
+        when(file.getInputStream()).thenReturn(hashed, uploaded);
+        CompletableFuture<PutObjectResponse> upload = new CompletableFuture<>();
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenReturn(upload);
+        upload.complete(PutObjectResponse.builder().build());
+
+        fileService.uploadFiles(Map.of("front.png", file), List.of());
+
+        verify(uploaded).close();
+    }
+
+    @Test
+    void uploadFiles_ShouldUploadAllFiles() throws IOException {
+        MultipartFile front = mock(MultipartFile.class);
+        MultipartFile back = mock(MultipartFile.class);
+        when(front.getInputStream()).thenReturn(new ByteArrayInputStream("front".getBytes()));
+        when(back.getInputStream()).thenReturn(new ByteArrayInputStream("back".getBytes()));
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+
+        fileService.uploadFiles(Map.of("front.png", front, "back.png", back), List.of());
+
+        verify(s3AsyncClient, times(2)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+        verify(s3AsyncClient, never()).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    void uploadFile_ShouldStoreContentHash_WhenUploaded() throws Exception {
+        byte[] fileBytes = "Test file content".getBytes();
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(fileBytes));
+        when(fileContentHashRepository.findById(key)).thenReturn(Optional.empty());
+
+        fileService.uploadFile(file, key);
+
+        verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(fileContentHashRepository).saveHash(key, sha256(fileBytes));
+    }
+
+    @Test
+    void uploadFile_ShouldSkipUpload_WhenContentIsUnchanged() throws Exception {
+        byte[] fileBytes = "Test file content".getBytes();
+        when(file.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(fileBytes));
+        when(fileContentHashRepository.findById(key))
+                .thenReturn(Optional.of(new FileContentHash(key, sha256(fileBytes))));
+
+        assertTrue(fileService.uploadFile(file, key));
+
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(fileContentHashRepository, never()).saveHash(anyString(), anyString());
+    }
+
+    @Test
+    void uploadFiles_ShouldOnlyUploadChangedFiles() throws Exception {
+        MultipartFile front = mock(MultipartFile.class);
+        MultipartFile back = mock(MultipartFile.class);
+        when(front.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream("front".getBytes()));
+        when(back.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream("new back".getBytes()));
+        when(fileContentHashRepository.findByFileKeyIn(anyCollection())).thenReturn(List.of(
+                new FileContentHash("front.png", sha256("front".getBytes())),
+                new FileContentHash("back.png", sha256("old back".getBytes()))));
+        when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+
+        Map<String, MultipartFile> files = new LinkedHashMap<>();
+        files.put("front.png", front);
+        files.put("back.png", back);
+        Set<String> changedKeys = fileService.uploadFiles(files, List.of("front.png", "back.png"));
+
+        assertEquals(Set.of("back.png"), changedKeys);
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3AsyncClient, times(1)).putObject(captor.capture(), any(AsyncRequestBody.class));
+        assertEquals("back.png", captor.getValue().key());
+        verify(fileContentHashRepository).saveHash("back.png", sha256("new back".getBytes()));
+        verify(fileContentHashRepository, never()).saveHash(eq("front.png"), anyString());
+    }
+
+    @Test
+    void uploadFiles_ShouldDeleteNewlyUploadedFiles_WhenOneUploadFails() throws IOException {
+        MultipartFile front = mock(MultipartFile.class);
+        MultipartFile back = mock(MultipartFile.class);
+        MultipartFile left = mock(MultipartFile.class);
+        when(front.getInputStream()).thenReturn(new ByteArrayInputStream("front".getBytes()));
+        when(back.getInputStream()).thenReturn(new ByteArrayInputStream("back".getBytes()));
+        when(left.getInputStream()).thenReturn(new ByteArrayInputStream("left".getBytes()));
+        when(s3AsyncClient.putObject(argThat((PutObjectRequest request) -> request != null && !request.key().equals("left.png")),
+                any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        when(s3AsyncClient.putObject(argThat((PutObjectRequest request) -> request != null && request.key().equals("left.png")),
+                any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("S3 is down")));
+        when(s3AsyncClient.deleteObject(any(DeleteObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectResponse.builder().build()));
+
+        Map<String, MultipartFile> files = new LinkedHashMap<>();
+        files.put("front.png", front);
+        files.put("back.png", back);
+        files.put("left.png", left);
+
+        // back.png was already used by the car, its file is replaced and must not be deleted
+        AppException exception = assertThrows(AppException.class, () -> fileService.uploadFiles(files, List.of("back.png")));
+        assertEquals(ErrorCode.UPLOAD_OBJECT_TO_S3_FAIL, exception.getErrorCode());
+        // whatever the keys hold now, their previous hash is not valid anymore
+        verify(fileContentHashRepository).deleteHashes(Set.of("front.png", "back.png", "left.png"));
+
+        ArgumentCaptor<DeleteObjectRequest> captor = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(s3AsyncClient, times(1)).deleteObject(captor.capture());
+        assertEquals("front.png", captor.getValue().key());
+    }
+
     @Test
     public void testGetPresignedUrl_Success() throws MalformedURLException {
 
@@ -125,13 +281,132 @@ class FileServiceTest {
         verify(s3Presigner).presignGetObject(captor.capture());
         GetObjectPresignRequest capturedRequest = captor.getValue();
 
-        // duration of the url
-        assertEquals(Duration.ofMinutes(30), capturedRequest.signatureDuration());
+        // duration of the url: 30 minutes after the end of the 10 minutes window it is reused in
+        assertEquals(Duration.ofMinutes(40), capturedRequest.signatureDuration());
 
         GetObjectRequest getObjectRequest = capturedRequest.getObjectRequest();
         assertEquals(key, getObjectRequest.key());
     }
 
+    @Test
+    void getFileUrl_ShouldReuseUrl_WhenCalledAgainForSameKey() throws MalformedURLException {
+        PresignedGetObjectRequest presignedRequest = mock(PresignedGetObjectRequest.class);
+        when(presignedRequest.url()).thenReturn(new URL("http://example.com/signed-url"));
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presignedRequest);
+
+        String first = fileService.getFileUrl(key);
+        String second = fileService.getFileUrl(key);
+
+        assertEquals(first, second);
+        verify(s3Presigner, times(1)).presignGetObject(any(GetObjectPresignRequest.class));
+    }
+
+    @Test
+    void getFileUrl_ShouldSignAgain_WhenFileUploadedToSameKey() throws IOException {
+        PresignedGetObjectRequest presignedRequest = mock(PresignedGetObjectRequest.class);
+        when(presignedRequest.url()).thenReturn(new URL("http://example.com/signed-url"));
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presignedRequest);
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("new content".getBytes()));
+
+        fileService.getFileUrl(key);
+        fileService.uploadFile(file, key);
+        fileService.getFileUrl(key);
+
+        verify(s3Presigner, times(2)).presignGetObject(any(GetObjectPresignRequest.class));
+    }
+
+    @Test
+    void getFileUrls_ShouldReturnUrlByKey_AndSkipNullAndDuplicateKeys() throws MalformedURLException {
+        PresignedGetObjectRequest presignedRequest = mock(PresignedGetObjectRequest.class);
+        when(presignedRequest.url()).thenReturn(new URL("http://example.com/signed-url"));
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presignedRequest);
+
+        Map<String, String> urls = fileService.getFileUrls(Arrays.asList("a.png", null, "b.png", "a.png"));
+
+        assertEquals(List.of("a.png", "b.png"), List.copyOf(urls.keySet()));
+        assertEquals("http://example.com/signed-url", urls.get("a.png"));
+        verify(s3Presigner, times(2)).presignGetObject(any(GetObjectPresignRequest.class));
+    }
+
+    @Test
+    void getUploadUrl_ShouldPresignPutOfTheStagingKey() throws MalformedURLException {
+        PresignedPutObjectRequest presignedRequest = mock(PresignedPutObjectRequest.class);
+        when(presignedRequest.url()).thenReturn(new URL("http://example.com/upload-url"));
+        when(s3Presigner.presignPutObject(any(PutObjectPresignRequest.class))).thenReturn(presignedRequest);
+
+        String url = fileService.getUploadUrl("car/front.jpg");
+
+        assertEquals("http://example.com/upload-url", url);
+        ArgumentCaptor<PutObjectPresignRequest> captor = ArgumentCaptor.forClass(PutObjectPresignRequest.class);
+        verify(s3Presigner).presignPutObject(captor.capture());
+        assertEquals("upload-staging/car/front.jpg", captor.getValue().putObjectRequest().key());
+        assertEquals("image/jpeg", captor.getValue().putObjectRequest().contentType());
+        assertEquals(Duration.ofMinutes(15), captor.getValue().signatureDuration());
+        verify(fileContentHashRepository).deleteHashes(List.of("car/front.jpg"));
+    }
+
+    @Test
+    void confirmUpload_ShouldMoveTheFileAndSignAgain_WhenFileIsValid() throws MalformedURLException {
+        String uploadKey = "car/front.jpg";
+        PresignedGetObjectRequest presignedRequest = mock(PresignedGetObjectRequest.class);
+        when(presignedRequest.url()).thenReturn(new URL("http://example.com/signed-url"));
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presignedRequest);
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder()
+                .contentLength(1024L)
+                .contentType("image/jpeg")
+                .build());
+
+        fileService.getFileUrl(uploadKey);
+        assertTrue(fileService.confirmUpload(uploadKey));
+        fileService.getFileUrl(uploadKey);
+
+        verify(s3Client).copyObject(argThat((CopyObjectRequest request) ->
+                request.sourceKey().equals("upload-staging/car/front.jpg")
+                        && request.destinationKey().equals(uploadKey)));
+        verify(s3Client).deleteObject(argThat((DeleteObjectRequest request) ->
+                request.key().equals("upload-staging/car/front.jpg")));
+        verify(fileContentHashRepository).deleteHashes(List.of(uploadKey));
+
+        verify(s3Presigner, times(2)).presignGetObject(any(GetObjectPresignRequest.class));
+    }
+
+    @Test
+    void confirmUpload_ShouldReturnFalse_WhenFileDoesNotExist() {
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+
+        assertFalse(fileService.confirmUpload("car/front.jpg"));
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    }
+
+    @Test
+    void confirmUpload_ShouldThrowAndDeleteTheFile_WhenFileIsTooLarge() {
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder()
+                .contentLength(6L * 1024 * 1024)
+                .contentType("image/jpeg")
+                .build());
+
+        AppException exception = assertThrows(AppException.class, () -> fileService.confirmUpload("car/front.jpg"));
+
+        assertEquals(ErrorCode.MAXIMUM_FILE_UPLOAD_EXCEED, exception.getErrorCode());
+        verify(s3Client).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    }
+
+    @Test
+    void confirmUpload_ShouldThrowAndDeleteTheFile_WhenContentTypeDoesNotMatchExtension() {
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder()
+                .contentLength(1024L)
+                .contentType("text/html")
+                .build());
+
+        AppException exception = assertThrows(AppException.class, () -> fileService.confirmUpload("car/front.jpg"));
+
+        assertEquals(ErrorCode.INVALID_UPLOADED_FILE_CONTENT_TYPE, exception.getErrorCode());
+        verify(s3Client).deleteObject(any(DeleteObjectRequest.class));
+        verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+        verifyNoInteractions(fileContentHashRepository);
+    }
+
     @Test
     void getFileExtension_ShouldReturnExtension_WhenFileNameHasExtension() {
         MultipartFile file = mock(MultipartFile.class);
@@ -162,6 +437,10 @@ class FileServiceTest {
         assertEquals("", extension);
     }
 
+    private static String sha256(byte[] content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
     @ExtendWith(MockitoExtension.class)
     static
     class FeedbackServiceTest {
@@ -0,0 +1,170 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EImageVariant;
+import com.mp.karental.entity.Car;
+import com.mp.karental.repository.CarRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test ImageVariantService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class ImageVariantServiceTest {
+
+    @Mock
+    private FileService fileService;
+    @Mock
+    private CarRepository carRepository;
+
+    @InjectMocks
+    private ImageVariantService imageVariantService;
+
+    @Test
+    void getKey_ShouldReplaceExtensionWithWidthAndJpg() {
+        assertEquals("car/u1/c1/images/front_w320.jpg", EImageVariant.THUMBNAIL.getKey("car/u1/c1/images/front.png"));
+        assertEquals("car/u1/c1/images/front_w800.jpg", EImageVariant.MEDIUM.getKey("car/u1/c1/images/front"));
+        assertNull(EImageVariant.THUMBNAIL.getKey(null));
+    }
+
+    @Test
+    void toJpeg_ShouldScaleDownKeepingAspectRatio() throws IOException {
+        BufferedImage resized = readImage(ImageVariantService.toJpeg(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_ARGB), 320));
+
+        assertEquals(320, resized.getWidth());
+        assertEquals(160, resized.getHeight());
+    }
+
+    @Test
+    void toJpeg_ShouldNotScaleUp_WhenImageIsNarrower() throws IOException {
+        BufferedImage resized = readImage(ImageVariantService.toJpeg(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), 800));
+
+        assertEquals(200, resized.getWidth());
+        assertEquals(100, resized.getHeight());
+    }
+
+    @Test
+    void generateVariants_ShouldUploadEveryVariantAndMarkCarReady() throws IOException {
+        Car car = carWithImages(5);
+        when(carRepository.findById("car1")).thenReturn(Optional.of(car));
+        when(fileService.getFileContent(anyString())).thenReturn(pngContent());
+        when(carRepository.markImageVariantsReady("car1", 5)).thenReturn(1);
+
+        imageVariantService.generateVariants("car1");
+
+        verify(fileService).uploadFile(any(byte[].class), eq("car/u1/car1/images/front_w320.jpg"), eq("image/jpeg"));
+        verify(fileService).uploadFile(any(byte[].class), eq("car/u1/car1/images/right_w800.jpg"), eq("image/jpeg"));
+        verify(fileService, times(8)).uploadFile(any(byte[].class), anyString(), eq("image/jpeg"));
+        verify(carRepository).markImageVariantsReady("car1", 5);
+    }
+
+    @Test
+    void generateVariants_ShouldNotMarkCarReady_WhenImageCanNotBeRead() {
+        Car car = carWithImages(1);
+        when(carRepository.findById("car1")).thenReturn(Optional.of(car));
+        when(fileService.getFileContent("car/u1/car1/images/front.png")).thenReturn("not an image".getBytes());
+
+        imageVariantService.generateVariants("car1");
+
+        verify(fileService, never()).uploadFile(any(byte[].class), anyString(), anyString());
+        verify(carRepository, never()).markImageVariantsReady(anyString(), anyLong());
+        verify(carRepository).recordImageVariantFailure("car1", 1);
+    }
+
+    @Test
+    void generateVariants_ShouldDoNothing_WhenVariantsAlreadyReady() {
+        Car car = carWithImages(1);
+        car.setImageVariantsReady(true);
+        when(carRepository.findById("car1")).thenReturn(Optional.of(car));
+
+        imageVariantService.generateVariants("car1");
+
+        verifyNoInteractions(fileService);
+        verify(carRepository, never()).markImageVariantsReady(anyString(), anyLong());
+    }
+
+    private static Car carWithImages(long imagesVersion) {
+        Car car = new Car();
+        car.setId("car1");
+        car.setCarImageFront("car/u1/car1/images/front.png");
+        car.setCarImageBack("car/u1/car1/images/back.png");
+        car.setCarImageLeft("car/u1/car1/images/left.png");
+        car.setCarImageRight("car/u1/car1/images/right.png");
+        car.setImagesVersion(imagesVersion);
+        return car;
+    }
+
+    @Test
+    void generateVariants_ShouldRecordFailureWithoutDecoding_WhenImageHasTooManyPixels() {
+        Car car = carWithImages(2);
+        when(carRepository.findById("car1")).thenReturn(Optional.of(car));
+        when(fileService.getFileContent("car/u1/car1/images/front.png")).thenReturn(pngHeader(20_000, 20_000));
+
+        imageVariantService.generateVariants("car1");
+
+        verify(fileService, never()).uploadFile(any(byte[].class), anyString(), anyString());
+        verify(carRepository).recordImageVariantFailure("car1", 2);
+        verify(carRepository, never()).markImageVariantsReady(anyString(), anyLong());
+    }
+
+    @Test
+    void readImage_ShouldSubsampleLargeImage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4000, 2000, BufferedImage.TYPE_INT_RGB), "png", out);
+
+        BufferedImage image = ImageVariantService.readImage("front.png", out.toByteArray());
+
+        assertEquals(2000, image.getWidth());
+        assertEquals(1000, image.getHeight());
+    }
+
+    /**
+     * Builds a PNG with only a header declaring the given size, no pixel data.
+     */
+    private static byte[] pngHeader(int width, int height) {
+        ByteBuffer ihdr = ByteBuffer.allocate(17)
+                .put("IHDR".getBytes(StandardCharsets.US_ASCII))
+                .putInt(width)
+                .putInt(height)
+                .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        CRC32 crc = new CRC32();
+        crc.update(ihdr.array());
+        return ByteBuffer.allocate(8 + 4 + 17 + 4)
+                .put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'})
+                .putInt(13)
+                .put(ihdr.array())
+                .putInt((int) crc.getValue())
+                .array();
+    }
+
+    private static byte[] pngContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1200, 900, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage readImage(byte[] content) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(content));
+    }
+}
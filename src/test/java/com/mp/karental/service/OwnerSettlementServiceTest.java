@@ -0,0 +1,122 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.ETransactionType;
+import com.mp.karental.entity.Account;
+import com.mp.karental.entity.Booking;
+import com.mp.karental.entity.Car;
+import com.mp.karental.entity.OwnerEarning;
+import com.mp.karental.entity.Transaction;
+import com.mp.karental.repository.OwnerEarningRepository;
+import com.mp.karental.repository.TransactionRepository;
+import com.mp.karental.repository.WalletRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test OwnerSettlementService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class OwnerSettlementServiceTest {
+    @Mock
+    OwnerEarningRepository ownerEarningRepository;
+
+    @Mock
+    TransactionRepository transactionRepository;
+
+    @Mock
+    WalletRepository walletRepository;
+
+    @Mock
+    WalletLedgerService walletLedgerService;
+
+    @InjectMocks
+    OwnerSettlementService ownerSettlementService;
+
+    @Test
+    void recordEarning_ShouldSavePendingEarningOfCarOwner() {
+        Booking booking = Booking.builder()
+                .bookingNumber("BK1")
+                .car(Car.builder().model("Toyota Camry").account(Account.builder().id("owner").build()).build())
+                .build();
+
+        ownerSettlementService.recordEarning(booking, 920, ETransactionType.RECEIVE_DEPOSIT);
+
+        verify(ownerEarningRepository).save(argThat((OwnerEarning e) ->
+                e.getOwnerId().equals("owner")
+                        && e.getAmount() == 920
+                        && e.getBookingNumber().equals("BK1")
+                        && e.getCarName().equals("Toyota Camry")));
+        verifyNoInteractions(walletLedgerService);
+    }
+
+    @Test
+    void settleNextBatch_ShouldCreditEachOwnerOnce() {
+        List<OwnerEarning> earnings = List.of(
+                earning(1L, "owner1", 100, "BK1"),
+                earning(2L, "owner1", 200, "BK2"),
+                earning(3L, "owner2", 50, "BK3"));
+        when(ownerEarningRepository.findPendingForSettlement(PageRequest.of(0, 500))).thenReturn(earnings);
+
+        assertEquals(3, ownerSettlementService.settleNextBatch(500));
+
+        verify(walletLedgerService).credit("owner1", 300, ETransactionType.RECEIVE_DEPOSIT, null);
+        verify(walletLedgerService).credit("owner2", 50, ETransactionType.RECEIVE_DEPOSIT, null);
+        verify(walletLedgerService, atLeastOnce()).debitSystemWalletShard(anyInt(), anyLong(), eq(ETransactionType.RECEIVE_DEPOSIT));
+        verify(transactionRepository).saveAll(argThat((List<Transaction> transactions) -> transactions.size() == 3));
+        verify(ownerEarningRepository).deleteAllInBatch(earnings);
+    }
+
+    @Test
+    void settleNextBatch_ShouldDoNothing_WhenNoEarningIsPending() {
+        when(ownerEarningRepository.findPendingForSettlement(PageRequest.of(0, 500))).thenReturn(List.of());
+
+        assertEquals(0, ownerSettlementService.settleNextBatch(500));
+
+        verifyNoInteractions(walletLedgerService, transactionRepository);
+    }
+
+    @Test
+    void settleOwner_ShouldOnlyPayEarningsOfTheOwner() {
+        List<OwnerEarning> earnings = List.of(
+                earning(1L, "owner1", 100, "BK1"),
+                earning(2L, "owner1", 200, "BK2"));
+        when(ownerEarningRepository.findPendingForSettlementByOwnerId("owner1", PageRequest.of(0, 500))).thenReturn(earnings);
+
+        assertEquals(2, ownerSettlementService.settleOwner("owner1", 500));
+
+        verify(walletLedgerService).credit("owner1", 300, ETransactionType.RECEIVE_DEPOSIT, null);
+        verify(ownerEarningRepository).deleteAllInBatch(earnings);
+        verify(ownerEarningRepository, never()).findPendingForSettlement(any());
+    }
+
+    @Test
+    void markFailed_ShouldMarkPendingEarningsOfTheOwner() {
+        when(ownerEarningRepository.markFailed("owner1")).thenReturn(3);
+
+        assertEquals(3, ownerSettlementService.markFailed("owner1"));
+    }
+
+    private OwnerEarning earning(Long id, String ownerId, long amount, String bookingNumber) {
+        return OwnerEarning.builder()
+                .id(id)
+                .ownerId(ownerId)
+                .amount(amount)
+                .type(ETransactionType.RECEIVE_DEPOSIT)
+                .bookingNumber(bookingNumber)
+                .build();
+    }
+}
@@ -0,0 +1,112 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingStatus;
+import com.mp.karental.constant.ETransactionStatus;
+import com.mp.karental.entity.Account;
+import com.mp.karental.entity.Booking;
+import com.mp.karental.entity.Car;
+import com.mp.karental.repository.BookingRepository;
+import com.mp.karental.repository.TransactionRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test PendingExpiryService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class PendingExpiryServiceTest {
+    @Mock
+    private BookingRepository bookingRepository;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private EmailService emailService;
+
+    @Mock
+    private ExpiryQueueService expiryQueueService;
+
+    @InjectMocks
+    private PendingExpiryService pendingExpiryService;
+
+    @Test
+    void expire_ShouldCancelBookingAndSendEmail_WhenBookingIsPendingDeposit() {
+        Booking booking = new Booking();
+        booking.setBookingNumber("12345");
+        Account account = new Account();
+        account.setEmail("test@example.com");
+        booking.setAccount(account);
+        Car car = new Car();
+        car.setBrand("Toyota");
+        car.setModel("Camry");
+        booking.setCar(car);
+        when(bookingRepository.updateStatusIfCurrent("12345", EBookingStatus.PENDING_DEPOSIT, EBookingStatus.CANCELLED))
+                .thenReturn(1);
+        when(bookingRepository.findByBookingNumber("12345")).thenReturn(Optional.of(booking));
+
+        pendingExpiryService.expire("booking:12345");
+
+        verify(emailService).sendCancelledBookingEmail(
+                "test@example.com",
+                "Toyota Camry",
+                "Your booking was automatically canceled because the deposit was not paid within 1 hour.");
+    }
+
+    @Test
+    void expire_ShouldDoNothing_WhenBookingIsNoLongerPendingDeposit() {
+        when(bookingRepository.updateStatusIfCurrent("12345", EBookingStatus.PENDING_DEPOSIT, EBookingStatus.CANCELLED))
+                .thenReturn(0);
+
+        pendingExpiryService.expire("booking:12345");
+
+        verify(bookingRepository, never()).findByBookingNumber(anyString());
+        verifyNoInteractions(emailService);
+    }
+
+    @Test
+    void expire_ShouldFailTransactionWithoutTouchingWallet_WhenTransactionIsProcessing() {
+        when(transactionRepository.updateStatusIfCurrent("t1", ETransactionStatus.PROCESSING, ETransactionStatus.FAILED))
+                .thenReturn(1);
+
+        pendingExpiryService.expire("trans:t1");
+
+        verify(transactionRepository).updateStatusIfCurrent("t1", ETransactionStatus.PROCESSING, ETransactionStatus.FAILED);
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    void expire_ShouldIgnoreUnknownItem() {
+        pendingExpiryService.expire("token:12345");
+
+        verifyNoInteractions(bookingRepository, transactionRepository, emailService);
+    }
+
+    @Test
+    void recoverExpiryQueue_ShouldScheduleEveryPendingItem() {
+        LocalDateTime createdAt = LocalDateTime.of(2025, 4, 1, 10, 0);
+        when(bookingRepository.findBookingNumbersByStatus(EBookingStatus.PENDING_DEPOSIT))
+                .thenReturn(List.<Object[]>of(new Object[]{"B1", createdAt}));
+        when(transactionRepository.findIdsByStatus(ETransactionStatus.PROCESSING))
+                .thenReturn(List.<Object[]>of(new Object[]{"t1", createdAt}));
+
+        pendingExpiryService.recoverExpiryQueue();
+
+        verify(expiryQueueService).scheduleIfAbsent("booking:B1", createdAt.plusHours(1));
+        verify(expiryQueueService).scheduleIfAbsent("trans:t1", createdAt.plusMinutes(15));
+    }
+}
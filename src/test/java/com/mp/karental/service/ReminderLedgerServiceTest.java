@@ -0,0 +1,50 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.EBookingTimer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test ReminderLedgerService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class ReminderLedgerServiceTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @InjectMocks
+    ReminderLedgerService reminderLedgerService;
+
+    @Test
+    void tryRecord_ShouldBeDue_WhenReminderWasNotSentDuringCooldown() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent("reminder-sent:PICK_UP_REMINDER:BK1", "1", ReminderLedgerService.REMINDER_COOLDOWN))
+                .thenReturn(true);
+
+        assertTrue(reminderLedgerService.tryRecord("BK1", EBookingTimer.PICK_UP_REMINDER));
+    }
+
+    @Test
+    void tryRecord_ShouldNotBeDue_WhenReminderWasAlreadySent() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent("reminder-sent:DROP_OFF_REMINDER:BK1", "1", ReminderLedgerService.REMINDER_COOLDOWN))
+                .thenReturn(false);
+
+        assertFalse(reminderLedgerService.tryRecord("BK1", EBookingTimer.DROP_OFF_REMINDER));
+    }
+}
@@ -0,0 +1,64 @@
+package com.mp.karental.service;
+
+import com.mp.karental.entity.Account;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.AccountRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test SystemAccountRegistry
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class SystemAccountRegistryTest {
+    @Mock
+    AccountRepository accountRepository;
+
+    @InjectMocks
+    SystemAccountRegistry systemAccountRegistry;
+
+    @Test
+    void getAdminWalletId_ShouldResolveAdminAccountOnce() {
+        when(accountRepository.findByRoleId(3)).thenReturn(Account.builder().id("admin").build());
+
+        assertEquals("admin", systemAccountRegistry.getAdminWalletId());
+        assertEquals("admin", systemAccountRegistry.getAdminWalletId());
+
+        verify(accountRepository, times(1)).findByRoleId(3);
+    }
+
+    @Test
+    void getAdminWalletId_ShouldThrow_WhenThereIsNoAdminAccount() {
+        when(accountRepository.findByRoleId(3)).thenReturn(null);
+
+        AppException exception = assertThrows(AppException.class, () -> systemAccountRegistry.getAdminWalletId());
+
+        assertEquals(ErrorCode.ACCOUNT_NOT_FOUND_IN_DB, exception.getErrorCode());
+    }
+
+    @Test
+    void isSystemWallet_ShouldOnlyMatchAdminWallet() {
+        when(accountRepository.findByRoleId(3)).thenReturn(Account.builder().id("admin").build());
+
+        assertTrue(systemAccountRegistry.isSystemWallet("admin"));
+        assertFalse(systemAccountRegistry.isSystemWallet("user1"));
+    }
+
+    @Test
+    void isSystemWallet_ShouldBeFalse_WhenThereIsNoAdminAccount() {
+        when(accountRepository.findByRoleId(3)).thenReturn(null);
+
+        assertFalse(systemAccountRegistry.isSystemWallet("user1"));
+    }
+}
@@ -1,14 +1,20 @@
 package com.mp.karental.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.mp.karental.constant.ERole;
+import com.mp.karental.constant.ETransactionExportFormat;
 import com.mp.karental.constant.ETransactionStatus;
 import com.mp.karental.constant.ETransactionType;
 import com.mp.karental.dto.request.transaction.TransactionRequest;
 import com.mp.karental.dto.response.transaction.ListTransactionResponse;
+import com.mp.karental.dto.response.transaction.TransactionPageResponse;
 import com.mp.karental.dto.response.transaction.TransactionPaymentURLResponse;
 import com.mp.karental.dto.response.transaction.TransactionResponse;
 import com.mp.karental.entity.*;
 import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
 import com.mp.karental.mapper.TransactionMapper;
 import com.mp.karental.payment.constant.VNPayIPNResponseConst;
 import com.mp.karental.payment.dto.request.InitPaymentRequest;
@@ -27,14 +33,17 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockedStatic;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.StringWriter;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -64,6 +73,20 @@ public class TransactionServiceTest {
 
     @Mock
     private IpnHandler ipnHandler;
+
+    @Mock
+    private ExpiryQueueService expiryQueueService;
+
+    @Mock
+    private WalletLedgerService walletLedgerService;
+
+    @Mock
+    private OwnerSettlementService ownerSettlementService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     private Wallet customerWallet;
     private Wallet carOwnerWallet;
     private Wallet loggedInUser;
@@ -128,7 +151,7 @@ public class TransactionServiceTest {
         long withdrawAmount = 5000000;
         when(SecurityUtil.getCurrentAccount()).thenReturn(loggedInUser.getAccount());
 
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
+        when(walletLedgerService.debit(loggedInUser.getId(), withdrawAmount, ETransactionType.WITHDRAW, null)).thenReturn(true);
 
         // Mock the transaction and response
         Transaction expectedTransaction = Transaction.builder()
@@ -154,8 +177,7 @@ public class TransactionServiceTest {
         // Assert
         assertNotNull(response);
         assertEquals(ETransactionStatus.SUCCESSFUL, response.getStatus());
-        assertEquals(5000000, loggedInUser.getBalance());
-        verify(walletRepository).save(any(Wallet.class));
+        verify(walletLedgerService).debit(loggedInUser.getId(), withdrawAmount, ETransactionType.WITHDRAW, null);
         verify(transactionRepository).save(argThat(transaction -> 
             transaction.getType() == ETransactionType.WITHDRAW &&
             transaction.getAmount() == withdrawAmount &&
@@ -168,14 +190,13 @@ public class TransactionServiceTest {
     void withdraw_WithInsufficientBalance_ShouldThrowException() {
         // Arrange
         long excessiveAmount = 20000000;
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
+        when(walletLedgerService.debit(loggedInUser.getId(), excessiveAmount, ETransactionType.WITHDRAW, null)).thenReturn(false);
         
         // Act & Assert
         AppException exception = assertThrows(AppException.class, 
             () -> transactionService.withdraw(excessiveAmount));
             
         // Verify no interactions with repositories after exception
-        verify(walletRepository, never()).save(any(Wallet.class));
         verify(transactionRepository, never()).save(any(Transaction.class));
         verify(transactionMapper, never()).toTransactionResponse(any(Transaction.class));
     }
@@ -229,17 +250,15 @@ public class TransactionServiceTest {
                 .bookingNumber("BOOKING-123")
                 .build();
 
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
+        when(walletLedgerService.debit(loggedInUser.getId(), 2000000, ETransactionType.PAY_DEPOSIT, "BOOKING-123"))
+                .thenReturn(true);
 
         // Act
         transactionService.payDeposit(booking);
 
         // Assert
-        assertEquals(8000000, loggedInUser.getBalance());
-        assertEquals(7000000, adminWallet.getBalance());
-        verify(walletRepository, times(2)).save(any(Wallet.class));
+        verify(walletLedgerService).creditSystemWallet(2000000, ETransactionType.PAY_DEPOSIT, "BOOKING-123");
+        verify(walletRepository, never()).save(any(Wallet.class));
         verify(transactionRepository).save(argThat(transaction -> {
             boolean typeMatch = transaction.getType() == ETransactionType.PAY_DEPOSIT;
             boolean amountMatch = transaction.getAmount() == booking.getDeposit();
@@ -267,51 +286,35 @@ public class TransactionServiceTest {
                 .bookingNumber("BOOKING-123")
                 .build();
 
-        // Initial balances
-        loggedInUser.setBalance(10000000);    // 10M initial balance
-        carOwnerWallet.setBalance(50000);     // 50K initial balance
-        adminWallet.setBalance(5000000);      // 5M initial balance
-
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(carOwnerWallet.getId())).thenReturn(Optional.of(carOwnerWallet));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
 
         // Act
         transactionService.refundPartialDeposit(booking);
 
         // Assert
         // Customer gets 70% of deposit back: 100000 * 0.7 = 70000
-        long expectedCustomerBalance = 10000000 + (long)(booking.getDeposit() * 0.7);
+        long customerRefund = (long)(booking.getDeposit() * 0.7);
         // Car owner gets 22% of deposit: 100000 * 0.22 = 22000
-        long expectedCarOwnerBalance = 50000 + (long)(booking.getDeposit() * 0.22);
+        long carOwnerShare = (long)(booking.getDeposit() * 0.22);
         // Admin keeps 8% of deposit: 100000 * 0.08 = 8000
 
-        assertEquals(expectedCustomerBalance, loggedInUser.getBalance(), 
-            "Customer should receive 70% of deposit back");
-        assertEquals(expectedCarOwnerBalance, carOwnerWallet.getBalance(), 
-            "Car owner should receive 22% of deposit");
+        verify(walletLedgerService).credit(loggedInUser.getId(), customerRefund,
+            ETransactionType.REFUND_DEPOSIT, "BOOKING-123");
+        // Car owner is paid by the next settlement
+        verify(ownerSettlementService).recordEarning(booking, carOwnerShare, ETransactionType.REFUND_DEPOSIT);
 
         // Verify transactions
-        verify(transactionRepository, times(2)).save(argThat(transaction -> 
+        verify(transactionRepository).save(argThat(transaction -> 
             (transaction.getType() == ETransactionType.REFUND_DEPOSIT &&
-             (transaction.getAmount() == (long)(booking.getDeposit() * 0.7) || 
-              transaction.getAmount() == (long)(booking.getDeposit() * 0.22)) &&
+             transaction.getAmount() == customerRefund &&
              transaction.getStatus() == ETransactionStatus.SUCCESSFUL &&
              transaction.getCarName().equals(car.getModel()) &&
              transaction.getBookingNo().equals(booking.getBookingNumber()))
         ));
 
-        // Verify wallet saves - 4 times total:
-        // 2 times for admin wallet (deduct for customer and car owner)
-        // 1 time for customer wallet
-        // 1 time for car owner wallet
-        verify(walletRepository, times(4)).save(any(Wallet.class));
-
-        // Verify specific wallet saves if needed
-        verify(walletRepository).save(argThat(wallet -> wallet.getId().equals(loggedInUser.getId())));
-        verify(walletRepository).save(argThat(wallet -> wallet.getId().equals(carOwnerWallet.getId())));
-        verify(walletRepository, times(2)).save(argThat(wallet -> wallet.getId().equals(adminWallet.getId())));
+        // System wallet is debited for the customer only
+        verify(walletLedgerService).debitSystemWallet(customerRefund,
+            ETransactionType.REFUND_DEPOSIT, "BOOKING-123");
+        verify(walletRepository, never()).save(any(Wallet.class));
     }
 
     @Test
@@ -330,27 +333,18 @@ public class TransactionServiceTest {
                 .bookingNumber("BOOKING-123")
                 .build();
 
-        // Initial balances
-        loggedInUser.setBalance(10000000);    // 10M initial balance
-        adminWallet.setBalance(5000000);      // 5M initial balance
-
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
 
         // Act
         transactionService.refundAllDeposit(booking);
 
         // Assert
         // Customer gets full deposit back
-        long expectedCustomerBalance = 10000000 + booking.getDeposit();
-        assertEquals(expectedCustomerBalance, loggedInUser.getBalance(), 
-            "Customer should receive full deposit back");
-        
-        // Admin wallet should decrease by deposit amount
-        long expectedAdminBalance = 5000000 - booking.getDeposit();
-        assertEquals(expectedAdminBalance, adminWallet.getBalance(), 
-            "Admin wallet should decrease by deposit amount");
+        verify(walletLedgerService).credit(loggedInUser.getId(), booking.getDeposit(),
+            ETransactionType.REFUND_DEPOSIT, "BOOKING-123");
+
+        // System wallet should decrease by deposit amount
+        verify(walletLedgerService).debitSystemWallet(booking.getDeposit(),
+            ETransactionType.REFUND_DEPOSIT, "BOOKING-123");
 
         verify(transactionRepository).save(argThat(transaction -> {
             boolean typeMatch = transaction.getType() == ETransactionType.REFUND_DEPOSIT;
@@ -362,12 +356,7 @@ public class TransactionServiceTest {
             return typeMatch && amountMatch && statusMatch && carNameMatch && bookingNoMatch;
         }));
 
-        // Verify wallet saves - 2 times total:
-        // 1 time for admin wallet (deduct)
-        // 1 time for customer wallet (add)
-        verify(walletRepository, times(2)).save(any(Wallet.class));
-        verify(walletRepository).save(argThat(wallet -> wallet.getId().equals(loggedInUser.getId())));
-        verify(walletRepository).save(argThat(wallet -> wallet.getId().equals(adminWallet.getId())));
+        verify(walletRepository, never()).save(any(Wallet.class));
     }
 
     @Test
@@ -385,6 +374,7 @@ public class TransactionServiceTest {
 
         when(transactionRepository.getTransactionsByWalletId(accountId)).thenReturn(transactions);
         when(walletRepository.findById(accountId)).thenReturn(Optional.of(loggedInUser));
+        when(walletLedgerService.getDisplayedBalance(loggedInUser)).thenReturn(loggedInUser.getBalance());
         when(transactionMapper.toTransactionResponse(any(Transaction.class)))
             .thenReturn(transactionResponses.get(0), transactionResponses.get(1));
 
@@ -413,6 +403,7 @@ public class TransactionServiceTest {
 
         when(transactionRepository.getTransactionsByDate(accountId, from, to)).thenReturn(transactions);
         when(walletRepository.findById(accountId)).thenReturn(Optional.of(loggedInUser));
+        when(walletLedgerService.getDisplayedBalance(loggedInUser)).thenReturn(loggedInUser.getBalance());
         when(transactionMapper.toTransactionResponse(any(Transaction.class)))
             .thenReturn(transactionResponses.get(0));
 
@@ -442,7 +433,8 @@ public class TransactionServiceTest {
         when(SecurityUtil.getCurrentAccount()).thenReturn(loggedInUser.getAccount());
         when(ipnHandler.process(params)).thenReturn(VNPayIPNResponseConst.SUCCESS);
         when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
+        when(transactionRepository.updateStatusIfCurrent(transactionId,
+            ETransactionStatus.PROCESSING, ETransactionStatus.SUCCESSFUL)).thenReturn(1);
         when(transactionMapper.toTransactionResponse(any())).thenReturn(
             TransactionResponse.builder().status(ETransactionStatus.SUCCESSFUL).build()
         );
@@ -453,7 +445,7 @@ public class TransactionServiceTest {
         // Assert
         assertNotNull(response);
         assertEquals(ETransactionStatus.SUCCESSFUL, response.getStatus());
-        verify(walletRepository).save(loggedInUser);
+        verify(walletLedgerService).credit(loggedInUser.getId(), 1000, ETransactionType.TOP_UP, null);
         verify(transactionRepository).save(transaction);
     }
 
@@ -476,7 +468,6 @@ public class TransactionServiceTest {
 
         when(ipnHandler.process(params)).thenReturn(VNPayIPNResponseConst.UNKNOWN_ERROR);
         when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
         when(transactionMapper.toTransactionResponse(any())).thenReturn(mockResponse);
 
         // Act & Assert
@@ -502,7 +493,6 @@ public class TransactionServiceTest {
             .build();
 
         when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
         when(transactionMapper.toTransactionResponse(any())).thenReturn(
             TransactionResponse.builder().status(ETransactionStatus.SUCCESSFUL).build()
         );
@@ -514,7 +504,7 @@ public class TransactionServiceTest {
         assertNotNull(response);
         assertEquals(ETransactionStatus.SUCCESSFUL, response.getStatus());
         verify(transactionRepository, never()).save(any());
-        verify(walletRepository, never()).save(any());
+        verifyNoInteractions(walletLedgerService);
     }
 
 //    @Test
@@ -577,17 +567,16 @@ public class TransactionServiceTest {
             .bookingNumber("BOOKING-123")
             .build();
 
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(carOwnerWallet.getId())).thenReturn(Optional.of(carOwnerWallet));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
+        when(walletLedgerService.debit(loggedInUser.getId(), 3000000, ETransactionType.OFFSET_FINAL_PAYMENT, "BOOKING-123"))
+            .thenReturn(true);
 
         // Act
         transactionService.offsetFinalPayment(booking);
 
         // Assert
-        verify(transactionRepository, times(2)).save(any(Transaction.class));
-        verify(walletRepository, times(4)).save(any(Wallet.class));
+        verify(transactionRepository).save(any(Transaction.class));
+        verify(walletLedgerService).creditSystemWallet(3000000, ETransactionType.OFFSET_FINAL_PAYMENT, "BOOKING-123");
+        verify(ownerSettlementService).recordEarning(booking, (long) (4000000 * 0.92), ETransactionType.RECEIVE_DEPOSIT);
     }
 
     @Test
@@ -609,17 +598,14 @@ public class TransactionServiceTest {
             .bookingNumber("BOOKING-123")
             .build();
 
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(carOwnerWallet.getId())).thenReturn(Optional.of(carOwnerWallet));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
 
         // Act
         transactionService.offsetFinalPayment(booking);
 
         // Assert
-        verify(transactionRepository, times(2)).save(any(Transaction.class));
-        verify(walletRepository, times(4)).save(any(Wallet.class));
+        verify(transactionRepository).save(any(Transaction.class));
+        verify(walletLedgerService).credit(loggedInUser.getId(), 3000000, ETransactionType.OFFSET_FINAL_PAYMENT, "BOOKING-123");
+        verify(walletLedgerService, never()).debit(anyString(), anyLong(), any(), any());
     }
 
     @Test
@@ -661,22 +647,94 @@ public class TransactionServiceTest {
             .bookingNumber("BOOKING-123")
             .build();
 
-        when(accountRepository.findByRoleId(3)).thenReturn(adminAccount);
-        when(walletRepository.findById(loggedInUser.getId())).thenReturn(Optional.of(loggedInUser));
-        when(walletRepository.findById(carOwnerWallet.getId())).thenReturn(Optional.of(carOwnerWallet));
-        when(walletRepository.findById(adminAccount.getId())).thenReturn(Optional.of(adminWallet));
 
         // Act
         transactionService.offsetFinalPayment(booking);
 
         // Assert
-        verify(transactionRepository, times(2)).save(any(Transaction.class));
-        verify(walletRepository, times(4)).save(any(Wallet.class)); // Updated to match actual calls
-        
+        verify(transactionRepository).save(any(Transaction.class));
+
         // Verify the final balance
-        verify(walletRepository).save(argThat(wallet -> 
-            wallet.getId().equals(loggedInUser.getId())));
-        verify(walletRepository).save(argThat(wallet -> 
-            wallet.getId().equals(carOwnerWallet.getId())));
+        verify(walletLedgerService).credit(loggedInUser.getId(), 0, ETransactionType.OFFSET_FINAL_PAYMENT, "BOOKING-123");
+        verify(ownerSettlementService).recordEarning(booking, (long) (2000000 * 0.92), ETransactionType.RECEIVE_DEPOSIT);
+    }
+
+    @Test
+    void getTransactionPage_WhenMoreRowsExist_ShouldReturnCursorOfNextPage() {
+        // Arrange
+        String accountId = loggedInUser.getId();
+        LocalDateTime createdAt = LocalDateTime.of(2024, 3, 20, 10, 0);
+        List<Transaction> rows = List.of(
+            Transaction.builder().id("txn3").amount(3000).createdAt(createdAt.plusHours(2)).build(),
+            Transaction.builder().id("txn2").amount(2000).createdAt(createdAt).build(),
+            Transaction.builder().id("txn1").amount(1000).createdAt(createdAt.minusHours(1)).build()
+        );
+        when(transactionRepository.findFirstPageByWalletId(eq(accountId), any(), any(), any())).thenReturn(rows);
+        when(transactionRepository.findPageByWalletIdAfter(eq(accountId), any(), any(), eq(createdAt), eq("txn2"), any()))
+            .thenReturn(List.of(rows.get(2)));
+        when(walletRepository.findById(accountId)).thenReturn(Optional.of(loggedInUser));
+        when(walletLedgerService.getDisplayedBalance(loggedInUser)).thenReturn(loggedInUser.getBalance());
+        when(transactionMapper.toTransactionResponse(any(Transaction.class)))
+            .thenReturn(TransactionResponse.builder().build());
+
+        // Act
+        TransactionPageResponse firstPage = transactionService.getTransactionPage(null, null, null, 2);
+        TransactionPageResponse lastPage = transactionService.getTransactionPage(null, null, firstPage.getNextCursor(), 2);
+
+        // Assert
+        assertEquals(2, firstPage.getTransactions().size());
+        assertNotNull(firstPage.getNextCursor());
+        assertEquals(loggedInUser.getBalance(), firstPage.getBalance());
+        assertEquals(1, lastPage.getTransactions().size());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    void getTransactionPage_WithInvalidCursor_ShouldThrowException() {
+        AppException exception = assertThrows(AppException.class,
+            () -> transactionService.getTransactionPage(null, null, "not-a-cursor", 20));
+
+        assertEquals(ErrorCode.INVALID_TRANSACTION_CURSOR, exception.getErrorCode());
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void exportTransactions_AsCsv_ShouldWriteHeaderAndQuotedRows() {
+        // Arrange
+        TransactionResponse row = TransactionResponse.builder()
+            .createdAt(LocalDateTime.of(2024, 3, 20, 10, 0))
+            .type(ETransactionType.RECEIVE_DEPOSIT)
+            .bookingNo("BK1")
+            .carName("Toyota, Camry")
+            .amount(920)
+            .status(ETransactionStatus.SUCCESSFUL)
+            .build();
+        when(transactionRepository.streamByWalletId(eq(loggedInUser.getId()), any(), any())).thenReturn(Stream.of(row));
+        StringWriter writer = new StringWriter();
+
+        // Act
+        transactionService.exportTransactions(null, null, ETransactionExportFormat.CSV, writer);
+
+        // Assert
+        assertEquals("createdAt,type,bookingNo,carName,amount,message,status\n"
+            + "2024-03-20T10:00,RECEIVE_DEPOSIT,BK1,\"Toyota, Camry\",920,,SUCCESSFUL\n", writer.toString());
+    }
+
+    @Test
+    void exportTransactions_AsNdjson_ShouldWriteOneObjectPerLine() {
+        // Arrange
+        when(transactionRepository.streamByWalletId(eq(loggedInUser.getId()), any(), any())).thenReturn(Stream.of(
+            TransactionResponse.builder().amount(1000).type(ETransactionType.TOP_UP).build(),
+            TransactionResponse.builder().amount(2000).type(ETransactionType.WITHDRAW).build()));
+        StringWriter writer = new StringWriter();
+
+        // Act
+        transactionService.exportTransactions(null, null, ETransactionExportFormat.NDJSON, writer);
+
+        // Assert
+        String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"amount\":1000"));
+        assertTrue(lines[1].contains("\"type\":\"WITHDRAW\""));
     }
 }
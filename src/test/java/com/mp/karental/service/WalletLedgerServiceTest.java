@@ -0,0 +1,156 @@
+package com.mp.karental.service;
+
+import com.mp.karental.constant.ETransactionType;
+import com.mp.karental.entity.SystemWalletShard;
+import com.mp.karental.entity.Wallet;
+import com.mp.karental.entity.WalletLedgerEntry;
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import com.mp.karental.repository.SystemWalletShardRepository;
+import com.mp.karental.repository.WalletLedgerEntryRepository;
+import com.mp.karental.repository.WalletRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test WalletLedgerService
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class WalletLedgerServiceTest {
+    @Mock
+    WalletRepository walletRepository;
+
+    @Mock
+    WalletLedgerEntryRepository walletLedgerEntryRepository;
+
+    @Mock
+    SystemWalletShardRepository systemWalletShardRepository;
+
+    @Mock
+    SystemAccountRegistry systemAccountRegistry;
+
+    @InjectMocks
+    WalletLedgerService walletLedgerService;
+
+    @Test
+    void credit_ShouldUpdateBalanceAndAppendLedgerEntry() {
+        when(walletRepository.addToBalance("w1", 500, true)).thenReturn(1);
+
+        walletLedgerService.credit("w1", 500, ETransactionType.REFUND_DEPOSIT, "BK1");
+
+        verify(walletLedgerEntryRepository).save(argThat((WalletLedgerEntry entry) ->
+                entry.getWalletId().equals("w1")
+                        && entry.getAmount() == 500
+                        && entry.getType() == ETransactionType.REFUND_DEPOSIT
+                        && entry.getBookingNumber().equals("BK1")));
+    }
+
+    @Test
+    void credit_ShouldThrow_WhenWalletDoesNotExist() {
+        when(walletRepository.addToBalance("w1", 500, true)).thenReturn(0);
+
+        AppException exception = assertThrows(AppException.class,
+                () -> walletLedgerService.credit("w1", 500, ETransactionType.TOP_UP, null));
+
+        assertEquals(ErrorCode.WALLET_NOT_FOUND_IN_DB, exception.getErrorCode());
+        verify(walletLedgerEntryRepository, never()).save(any());
+    }
+
+    @Test
+    void debit_ShouldAppendNegativeLedgerEntry_WhenBalanceIsEnough() {
+        when(walletRepository.addToBalance("w1", -500, false)).thenReturn(1);
+
+        assertTrue(walletLedgerService.debit("w1", 500, ETransactionType.PAY_DEPOSIT, "BK1"));
+
+        verify(walletLedgerEntryRepository).save(argThat((WalletLedgerEntry entry) -> entry.getAmount() == -500));
+    }
+
+    @Test
+    void debit_ShouldReturnFalse_WhenBalanceIsNotEnough() {
+        when(walletRepository.addToBalance("w1", -500, false)).thenReturn(0);
+        when(walletRepository.existsById("w1")).thenReturn(true);
+
+        assertFalse(walletLedgerService.debit("w1", 500, ETransactionType.WITHDRAW, null));
+
+        verify(walletLedgerEntryRepository, never()).save(any());
+    }
+
+    @Test
+    void creditSystemWallet_ShouldUseTheShardOfTheBooking() {
+        int shard = WalletLedgerService.systemWalletShard("BK1");
+
+        walletLedgerService.creditSystemWallet(500, ETransactionType.PAY_DEPOSIT, "BK1");
+
+        verify(systemWalletShardRepository).addToBalance(shard, 500);
+        verify(walletLedgerEntryRepository).save(argThat((WalletLedgerEntry entry) ->
+                entry.getWalletId().equals("system-wallet:" + shard) && entry.getAmount() == 500));
+        verifyNoInteractions(walletRepository);
+    }
+
+    @Test
+    void debitSystemWallet_ShouldNotCheckBalance() {
+        int shard = WalletLedgerService.systemWalletShard("BK1");
+
+        walletLedgerService.debitSystemWallet(500, ETransactionType.REFUND_DEPOSIT, "BK1");
+
+        verify(systemWalletShardRepository).addToBalance(shard, -500);
+    }
+
+    @Test
+    void consolidateSystemWalletShard_ShouldMoveTheBalanceToAdminWallet() {
+        when(systemWalletShardRepository.findById(3)).thenReturn(Optional.of(new SystemWalletShard(3, 700)));
+        when(walletRepository.addToBalance("admin", 700, true)).thenReturn(1);
+
+        assertEquals(700, walletLedgerService.consolidateSystemWalletShard(3, "admin"));
+
+        verify(systemWalletShardRepository).addToBalance(3, -700);
+        verify(walletLedgerEntryRepository, times(2)).save(any(WalletLedgerEntry.class));
+    }
+
+    @Test
+    void consolidateSystemWalletShard_ShouldDoNothing_WhenShardIsEmpty() {
+        when(systemWalletShardRepository.findById(3)).thenReturn(Optional.empty());
+
+        assertEquals(0, walletLedgerService.consolidateSystemWalletShard(3, "admin"));
+
+        verify(systemWalletShardRepository, never()).addToBalance(anyInt(), anyLong());
+        verifyNoInteractions(walletRepository);
+    }
+
+    @Test
+    void getSystemWalletBalance_ShouldAddShardsToAdminWallet() {
+        when(walletRepository.findById("admin")).thenReturn(Optional.of(Wallet.builder().id("admin").balance(1000).build()));
+        when(systemWalletShardRepository.sumBalance()).thenReturn(-200L);
+
+        assertEquals(800, walletLedgerService.getSystemWalletBalance("admin"));
+    }
+
+    @Test
+    void getDisplayedBalance_ShouldAddShards_WhenWalletIsSystemWallet() {
+        when(systemAccountRegistry.isSystemWallet("admin")).thenReturn(true);
+        when(systemWalletShardRepository.sumBalance()).thenReturn(300L);
+
+        assertEquals(1300, walletLedgerService.getDisplayedBalance(Wallet.builder().id("admin").balance(1000).build()));
+    }
+
+    @Test
+    void getDisplayedBalance_ShouldReturnWalletBalance_WhenWalletIsNotSystemWallet() {
+        when(systemAccountRegistry.isSystemWallet("w1")).thenReturn(false);
+
+        assertEquals(1000, walletLedgerService.getDisplayedBalance(Wallet.builder().id("w1").balance(1000).build()));
+        verifyNoInteractions(systemWalletShardRepository);
+    }
+}
@@ -0,0 +1,82 @@
+package com.mp.karental.util;
+
+import com.mp.karental.exception.AppException;
+import com.mp.karental.exception.ErrorCode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test CarLockManager
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class CarLockManagerTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @InjectMocks
+    CarLockManager carLockManager;
+
+    @Test
+    void lock_ShouldTakeRedisLockAndDeleteItOnClose() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class))).thenReturn(true);
+
+        carLockManager.lock("car1").close();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("car-lock:car1")), anyString());
+    }
+
+    @Test
+    void lock_ShouldRetry_WhenCarIsLockedByAnotherNode() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class))).thenReturn(false, true);
+
+        carLockManager.lock("car1").close();
+
+        verify(valueOperations, times(2)).setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class));
+    }
+
+    @Test
+    void lock_ShouldThrowCarIsBeingBooked_WhenLockIsNotReleasedInTime() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class))).thenReturn(false);
+
+        AppException exception = assertThrows(AppException.class, () -> carLockManager.lock("car1"));
+
+        assertEquals(ErrorCode.CAR_IS_BEING_BOOKED, exception.getErrorCode());
+        // the local lock is released, the car can be locked again
+        when(valueOperations.setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class))).thenReturn(true);
+        carLockManager.lock("car1").close();
+    }
+
+    @Test
+    void close_ShouldReleaseLocalLock_WhenRedisIsUnavailable() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(eq("car-lock:car1"), anyString(), any(Duration.class))).thenReturn(true);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyString())).thenThrow(new IllegalStateException("down"));
+
+        carLockManager.lock("car1").close();
+
+        assertDoesNotThrow(() -> carLockManager.lock("car1").close());
+    }
+}
@@ -0,0 +1,34 @@
+package com.mp.karental.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationUtilTest {
+
+    @Test
+    void normalize_ShouldFoldAccentsCaseAndSpaces() {
+        assertEquals("thanh pho ho chi minh", LocationUtil.normalize("  Thành phố   Hồ Chí Minh "));
+        assertEquals("quan dong da", LocationUtil.normalize("Quận Đống Đa"));
+    }
+
+    @Test
+    void normalize_WhenBlank_ShouldReturnNull() {
+        assertNull(LocationUtil.normalize(null));
+        assertNull(LocationUtil.normalize("   "));
+    }
+
+    @Test
+    void toLocationKeys_WhenFullAddress_ShouldIgnoreStreet() {
+        String[] keys = LocationUtil.toLocationKeys("Thành phố Hà Nội, Quận Ba Đình, Phường Kim Mã, 12 Kim Mã, Ba Đình");
+
+        assertArrayEquals(new String[]{"thanh pho ha noi", "quan ba dinh", "phuong kim ma"}, keys);
+    }
+
+    @Test
+    void toLocationKeys_WhenOnlyCity_ShouldLeaveOtherKeysNull() {
+        String[] keys = LocationUtil.toLocationKeys("Thành phố Hà Nội");
+
+        assertArrayEquals(new String[]{"thanh pho ha noi", null, null}, keys);
+    }
+}
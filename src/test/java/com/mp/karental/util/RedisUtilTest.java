@@ -1,5 +1,6 @@
 package com.mp.karental.util;
 
+import com.mp.karental.repository.BookingRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,8 +12,9 @@ import org.mockito.quality.Strictness;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -35,11 +37,13 @@ class RedisUtilTest {
     @Mock
     private ValueOperations<String, String> valueOperations;
 
+    @Mock
+    BookingRepository bookingRepository;
+
     @InjectMocks
     RedisUtil redisUtil;
 
     private static final String BOOKING_SEQUENCE_KEY = "booking-sequence";
-    private static final String PENDING_DEPOSIT_BOOKING_KEY = "booking:";
     private static final String VERIFY_EMAIL_TOKEN_PREFIX = "verify-email-tk:";
     private static final String FORGOT_PASSWORD_TOKEN_PREFIX = "forgot-password-tk:";
 
@@ -49,50 +53,84 @@ class RedisUtilTest {
     }
 
     @Test
-    void generateBookingNumber_WhenSequenceIsFirst_ShouldSetExpireAt() {
+    void generateBookingNumber_ShouldLeaseBlockOfTheDayWithExpiry() {
         // Arrange
-        when(valueOperations.increment(BOOKING_SEQUENCE_KEY, 1)).thenReturn(1L);
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        when(valueOperations.increment(BOOKING_SEQUENCE_KEY + ":" + date, 100)).thenReturn(100L);
 
         // Act
         String bookingNumber = redisUtil.generateBookingNumber();
 
         // Assert
-        String expectedDate = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        assertTrue(bookingNumber.matches(expectedDate + "-\\d{8}"));
-
-        // Check  expireAt called when sequence is first sequence
-        verify(redisTemplate, times(1)).expireAt(eq(BOOKING_SEQUENCE_KEY), any(Date.class));
+        assertEquals(date + "-00000001", bookingNumber);
+        verify(redisTemplate, times(1)).expire(eq(BOOKING_SEQUENCE_KEY + ":" + date), any(Duration.class));
     }
 
     @Test
-    void generateBookingNumber_WhenSequenceIsNotFirst_ShouldNotSetExpireAt() {
+    void generateBookingNumber_ShouldSeedCounterOfTheDayFromIssuedNumbers() {
         // Arrange
-        when(valueOperations.increment(BOOKING_SEQUENCE_KEY, 1)).thenReturn(2L);
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        String key = BOOKING_SEQUENCE_KEY + ":" + date;
+        when(redisTemplate.hasKey(key)).thenReturn(false);
+        when(valueOperations.get(BOOKING_SEQUENCE_KEY)).thenReturn("40");
+        when(bookingRepository.findMaxBookingNumberOfDate(date)).thenReturn(date + "-00000057");
+        when(valueOperations.increment(key, 100)).thenReturn(157L);
 
         // Act
         String bookingNumber = redisUtil.generateBookingNumber();
 
         // Assert
-        String expectedDate = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        assertTrue(bookingNumber.matches(expectedDate + "-\\d{8}"));
+        assertEquals(date + "-00000058", bookingNumber);
+        verify(valueOperations).setIfAbsent(eq(key), eq("57"), any(Duration.class));
+    }
 
-        // Check  expireAt should not be called when sequence is first sequence
-        verify(redisTemplate, never()).expireAt(eq(BOOKING_SEQUENCE_KEY), any(Date.class));
+    @Test
+    void generateBookingNumber_ShouldNotSeedCounter_WhenItExists() {
+        // Arrange
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        String key = BOOKING_SEQUENCE_KEY + ":" + date;
+        when(redisTemplate.hasKey(key)).thenReturn(true);
+        when(valueOperations.increment(key, 100)).thenReturn(200L);
+
+        // Act
+        redisUtil.generateBookingNumber();
+
+        // Assert
+        verify(valueOperations, never()).setIfAbsent(anyString(), anyString(), any(Duration.class));
+        verifyNoInteractions(bookingRepository);
     }
 
     @Test
-    void generateBookingNumber_ShouldFormatBookingNumberCorrectly() {
+    void generateBookingNumber_ShouldHandOutBlockLocally() {
         // Arrange
-        long sequence = 123;
-        when(valueOperations.increment(BOOKING_SEQUENCE_KEY, 1)).thenReturn(sequence);
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        when(valueOperations.increment(BOOKING_SEQUENCE_KEY + ":" + date, 100)).thenReturn(300L);
 
         // Act
+        String first = redisUtil.generateBookingNumber();
+        String second = redisUtil.generateBookingNumber();
+
+        // Assert
+        assertEquals(date + "-00000201", first);
+        assertEquals(date + "-00000202", second);
+        verify(valueOperations, times(1)).increment(anyString(), anyLong());
+    }
+
+    @Test
+    void generateBookingNumber_ShouldLeaseNextBlock_WhenBlockIsUsedUp() {
+        // Arrange
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        when(valueOperations.increment(BOOKING_SEQUENCE_KEY + ":" + date, 100)).thenReturn(100L, 500L);
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            redisUtil.generateBookingNumber();
+        }
         String bookingNumber = redisUtil.generateBookingNumber();
 
         // Assert
-        String expectedDate = new SimpleDateFormat("yyyyMMdd").format(new Date());
-        String expectedNumber = String.format("%08d", sequence);
-        assertEquals(expectedDate + "-" + expectedNumber, bookingNumber);
+        assertEquals(date + "-00000401", bookingNumber);
+        verify(valueOperations, times(2)).increment(anyString(), anyLong());
     }
 
     @Test
@@ -216,29 +254,12 @@ class RedisUtilTest {
     }
 
     @Test
-    void cachePendingDepositBooking_ShouldSetKeyWithTTL_WhenBookingNumberIsProvided() {
-        // Arrange
-        String bookingNumber = "12345";
-        String key = PENDING_DEPOSIT_BOOKING_KEY + bookingNumber;
-
-        // Act
-        redisUtil.cachePendingDepositBooking(bookingNumber);
-
-        // Assert
-        verify(redisTemplate.opsForValue()).set(eq(key), eq(key), eq(1L), eq(TimeUnit.HOURS));
-    }
-
-    @Test
-    void removeCachePendingDepositBooking_ShouldDeleteKey_WhenBookingNumberIsProvided() {
-        // Arrange
-        String bookingNumber = "12345";
-        String key = PENDING_DEPOSIT_BOOKING_KEY + bookingNumber;
-
+    void saveSweepCheckpoint_ShouldSetKeyWithTTL() {
         // Act
-        redisUtil.removeCachePendingDepositBooking(bookingNumber);
+        redisUtil.saveSweepCheckpoint("WAITING_CONFIRMED_EXPIRY", "BK1");
 
         // Assert
-        verify(redisTemplate).delete(key);
+        verify(valueOperations).set("sweep-checkpoint:WAITING_CONFIRMED_EXPIRY", "BK1", 1, TimeUnit.DAYS);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package com.mp.karental.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * This is a class used to test SchedulerLockManager
+ *
+ * @author QuangPM20
+ *
+ * @version 1.0
+ */
+@ExtendWith(MockitoExtension.class)
+class SchedulerLockManagerTest {
+    @Mock
+    RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @InjectMocks
+    SchedulerLockManager schedulerLockManager;
+
+    private static final List<String> ACQUIRE_KEYS = List.of("scheduler-lock:job", "scheduler-lock:job:generation");
+
+    @AfterEach
+    void tearDown() {
+        schedulerLockManager.shutdown();
+    }
+
+    @Test
+    void tryAcquire_ShouldReturnLeaseWithGenerationAndReleaseItOnClose() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), anyString(), anyString())).thenReturn(7L);
+
+        SchedulerLockManager.Lease lease = schedulerLockManager.tryAcquire("job", Duration.ofMinutes(1), Duration.ZERO, 2, 4);
+
+        assertNotNull(lease);
+        assertEquals(7L, lease.getGeneration());
+        assertEquals(2, lease.getPartition());
+        assertEquals(4, lease.getPartitions());
+        assertSame(lease, SchedulerLockManager.currentLease());
+
+        lease.close();
+
+        assertNull(SchedulerLockManager.currentLease());
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("scheduler-lock:job")), startsWith("7:"), eq("0"));
+    }
+
+    @Test
+    void close_ShouldKeepLockForRestOfMinimumHoldTime() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), anyString(), anyString())).thenReturn(7L);
+
+        schedulerLockManager.tryAcquire("job", Duration.ofMinutes(1), Duration.ofSeconds(30), 0, 1).close();
+
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("scheduler-lock:job")), startsWith("7:"),
+                argThat((String remaining) -> Long.parseLong(remaining) > 25_000 && Long.parseLong(remaining) <= 30_000));
+    }
+
+    @Test
+    void tryAcquire_ShouldReturnNull_WhenAnotherNodeHoldsLock() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), anyString(), anyString())).thenReturn(0L);
+
+        assertNull(schedulerLockManager.tryAcquire("job", Duration.ofMinutes(1), Duration.ZERO, 0, 1));
+        assertNull(SchedulerLockManager.currentLease());
+    }
+
+    @Test
+    void isHeld_ShouldBeFalse_WhenNewerGenerationHoldsLock() {
+        AtomicReference<String> owner = new AtomicReference<>();
+        when(redisTemplate.execute(any(RedisScript.class), eq(ACQUIRE_KEYS), anyString(), anyString())).thenAnswer(invocation -> {
+            owner.set(invocation.getArgument(3));
+            return 7L;
+        });
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+
+        try (SchedulerLockManager.Lease lease = schedulerLockManager.tryAcquire("job", Duration.ofMinutes(1), Duration.ZERO, 0, 1)) {
+            when(valueOperations.get("scheduler-lock:job")).thenReturn("7:" + owner.get());
+            assertTrue(lease.isHeld());
+
+            when(valueOperations.get("scheduler-lock:job")).thenReturn("8:another-node");
+            assertFalse(lease.isHeld());
+        }
+    }
+}